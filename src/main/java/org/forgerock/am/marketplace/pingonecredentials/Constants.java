@@ -7,21 +7,31 @@ public class Constants {
 	public static final String PINGONE_PAIRING_TIMEOUT_KEY = "pingOnePairingTimeout";
 	public static final String PINGONE_APPOPEN_URL_KEY = "pingOneAppOpenURL";
 	public static final String PINGONE_PAIRING_WALLET_ID_KEY = "pingOnePairingWalletId";
+	public static final String PINGONE_SPECULATIVE_PAIRING_KEY = "pingOneSpeculativePairing";
+	public static final String PINGONE_PREFETCH_KEY = "pingOnePrefetch";
 
 	public static final String PINGONE_WALLET_ID_KEY = "pingOneWalletId";
 	public static final String PINGONE_WALLET_DATA_KEY = "pingOneWalletData";
 	public static final String PINGONE_ACTIVE_WALLETS_DATA_KEY = "pingOneActiveWallets";
+	public static final String PINGONE_REMOVED_WALLETS_COUNT_KEY = "pingOneRemovedWalletsCount";
 
 	public static final String PINGONE_APPLICATION_INSTANCE_ID_KEY = "pingOneApplicationInstanceId";
 
 	public static final String PINGONE_VERIFICATION_DELIVERY_METHOD_KEY = "pingOneVerificationDeliveryMethod";
 	public static final String PINGONE_VERIFICATION_SESSION_KEY = "pingOneVerificationSessionId";
+	public static final String PINGONE_VERIFICATION_PUSH_SESSION_KEY = "pingOneVerificationPushSessionId";
+	public static final String PINGONE_VERIFICATION_PUSH_HANDLE_KEY = "pingOneVerificationPushHandle";
 	public static final String PINGONE_VERIFICATION_TIMEOUT_KEY = "pingOneVerificationTimeout";
+	public static final String PINGONE_VERIFICATION_SESSION_HASH_KEY = "pingOneVerificationSessionHash";
+	public static final String PINGONE_VERIFICATION_TRUST_KEY = "pingOneVerificationTrust";
 	public static final String PINGONE_CREDENTIAL_VERIFICATION_KEY = "pingOneCredentialVerification";
 
 	public static final String PINGONE_CREDENTIAL_UPDATE_KEY = "pingOneCredentialUpdate";
 	public static final String PINGONE_CREDENTIAL_ID_KEY = "pingOneCredentialId";
+	public static final String PINGONE_CREDENTIAL_IDS_KEY = "pingOneCredentialIds";
+	public static final String PINGONE_REVOKED_CREDENTIALS_KEY = "pingOneRevokedCredentials";
 	public static final String PINGONE_CREDENTIAL_TYPE_KEY = "pingOneCredentialType";
+	public static final String PINGONE_CREDENTIAL_ENSURE_KEY = "pingOneCredentialEnsure";
 
 	public static final String ENVIRONMENTS_PATH = "/environments/";
 	public static final String USERS_PATH = "/users/";
@@ -40,6 +50,14 @@ public class Constants {
 	public static final String RESPONSE_EMBEDDED = "_embedded";
 	public static final String RESPONSE_DIGITALWALLETS = "digitalWallets";
 	public static final String RESPONSE_APPLICATION_INSTANCE = "applicationInstance";
+	public static final String RESPONSE_USERS = "users";
+	public static final String RESPONSE_DIGITAL_WALLET_APPLICATION = "digitalWalletApplication";
+	public static final String RESPONSE_NEXT = "next";
+	public static final String RESPONSE_CREATED_AT = "createdAt";
+	public static final String RESPONSE_UPDATED_AT = "updatedAt";
+	public static final String RESPONSE_CREDENTIALS = "credentials";
+	public static final String RESPONSE_CREDENTIAL_TYPE = "credentialType";
+	public static final String RESPONSE_DATA = "data";
 
 	public static final String ACTIVE = "ACTIVE";
 	public static final String PAIRING_REQUIRED = "PAIRING_REQUIRED";
@@ -58,6 +76,9 @@ public class Constants {
 	public static final String ERROR_OUTCOME_ID = "error";
 	public static final String TIMEOUT_OUTCOME_ID = "timeout";
 	public static final String NOT_FOUND_OUTCOME_ID = "notFound";
+	public static final String ISSUED_OUTCOME_ID = "issued";
+	public static final String UPDATED_OUTCOME_ID = "updated";
+	public static final String UNCHANGED_OUTCOME_ID = "unchanged";
 
 	protected final static String REVOKE_CONTENT_TYPE = "application/vnd.pingidentity.validations.revokeCredential+json";
 
@@ -95,7 +116,11 @@ public class Constants {
 		/**
 		 * Push.
 		 */
-		PUSH;
+		PUSH,
+		/**
+		 * Push and QR code at the same time, completed by whichever is presented first.
+		 */
+		PUSH_AND_QRCODE;
 		/**
 		 * Get the DeliveryMethod from the index.
 		 *
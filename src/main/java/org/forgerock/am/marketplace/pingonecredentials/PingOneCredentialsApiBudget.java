@@ -0,0 +1,160 @@
+/*
+ * This code is to be used exclusively in connection with Ping Identity Corporation software or services.
+ * Ping Identity Corporation only offers such software or services to legal entities who have entered into
+ * a binding license agreement with Ping Identity Corporation.
+ *
+ * Copyright 2024 Ping Identity Corporation. All Rights Reserved
+ */
+
+package org.forgerock.am.marketplace.pingonecredentials;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A rate limit on PingOne API calls shared by background work, which hands out calls by priority.
+ * <p>
+ * Calls are paid for from a token bucket refilled at the configured rate, holding at most one second of calls. A
+ * caller only takes a token when no caller of a higher priority is waiting, so urgent work such as revocations
+ * gets the whole budget while bulk work backs off.
+ * </p>
+ * <p>
+ * The calls made by journeys do not go through the budget, so that a login never waits behind background work. The
+ * budget only orders the background work between itself, and its rate must leave room below the tenant rate limit for
+ * the journeys. The rate of the budget of the server is set with the {@value #RATE_PROPERTY} system property, read
+ * when the budget is first used.
+ * </p>
+ */
+final class PingOneCredentialsApiBudget {
+
+    /**
+     * The priority of a call, from highest to lowest.
+     */
+    enum Priority {
+        /** Urgent work, such as incident response revocations. */
+        HIGH,
+        /** Regular background work. */
+        NORMAL,
+        /** Bulk work which may be delayed, such as mass issuance. */
+        LOW
+    }
+
+    /** The system property of the maximum rate of calls made by all the background work of the server. */
+    static final String RATE_PROPERTY = "pingone.credentials.budget.rate";
+
+    /** The default maximum rate of calls made by all the background work of the server. */
+    static final double DEFAULT_BACKGROUND_PERMITS_PER_SECOND = 50;
+
+    private static final Logger logger = LoggerFactory.getLogger(PingOneCredentialsApiBudget.class);
+    private static final String LOGGER_PREFIX = "[PingOne Credentials API Budget]"
+                                                + PingOneCredentialsPlugin.LOG_APPENDER;
+
+    /** The budget shared by all the background work of the server. */
+    static final PingOneCredentialsApiBudget BACKGROUND =
+        new PingOneCredentialsApiBudget(backgroundRate(System.getProperties()));
+
+    private final double permitsPerSecond;
+    private final double maxPermits;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition released = lock.newCondition();
+    private final int[] waiting = new int[Priority.values().length];
+
+    private double permits = 1;
+    private long refilledAt = System.nanoTime();
+
+    /**
+     * Create a budget.
+     *
+     * @param permitsPerSecond The maximum rate of calls, which should stay below the tenant rate limit.
+     */
+    PingOneCredentialsApiBudget(double permitsPerSecond) {
+        if (permitsPerSecond <= 0) {
+            throw new IllegalArgumentException("Permits per second must be positive");
+        }
+        this.permitsPerSecond = permitsPerSecond;
+        this.maxPermits = Math.max(1, permitsPerSecond);
+    }
+
+    /**
+     * The rate of the budget shared by all the background work of the server.
+     *
+     * @param properties The system properties.
+     * @return The rate set by the {@value #RATE_PROPERTY} property, or the default rate if it is not set or invalid.
+     */
+    static double backgroundRate(Properties properties) {
+        String rate = properties.getProperty(RATE_PROPERTY);
+        if (StringUtils.isBlank(rate)) {
+            return DEFAULT_BACKGROUND_PERMITS_PER_SECOND;
+        }
+        try {
+            double permitsPerSecond = Double.parseDouble(rate.trim());
+            if (permitsPerSecond > 0 && Double.isFinite(permitsPerSecond)) {
+                return permitsPerSecond;
+            }
+        } catch (NumberFormatException e) {
+            // Reported below
+        }
+        logger.error("{} Invalid rate {} in {}, using {} calls per second", LOGGER_PREFIX, rate, RATE_PROPERTY,
+                     DEFAULT_BACKGROUND_PERMITS_PER_SECOND);
+        return DEFAULT_BACKGROUND_PERMITS_PER_SECOND;
+    }
+
+    /**
+     * The maximum rate of calls.
+     *
+     * @return The number of calls per second.
+     */
+    double permitsPerSecond() {
+        return permitsPerSecond;
+    }
+
+    /**
+     * Wait until a call of the priority is allowed.
+     *
+     * @param priority The priority of the call.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    void acquire(Priority priority) throws InterruptedException {
+        lock.lock();
+        waiting[priority.ordinal()]++;
+        try {
+            while (true) {
+                refill();
+                boolean preempted = isHigherPriorityWaiting(priority);
+                if (permits >= 1 && !preempted) {
+                    permits--;
+                    return;
+                }
+                long waitNanos = permits >= 1 || preempted
+                                 ? TimeUnit.MILLISECONDS.toNanos(100)
+                                 : (long) ((1 - permits) / permitsPerSecond * TimeUnit.SECONDS.toNanos(1));
+                released.awaitNanos(Math.max(1, waitNanos));
+            }
+        } finally {
+            waiting[priority.ordinal()]--;
+            released.signalAll();
+            lock.unlock();
+        }
+    }
+
+    private boolean isHigherPriorityWaiting(Priority priority) {
+        for (int i = 0; i < priority.ordinal(); i++) {
+            if (waiting[i] > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        permits = Math.min(maxPermits, permits + (now - refilledAt) * permitsPerSecond / TimeUnit.SECONDS.toNanos(1));
+        refilledAt = now;
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * This code is to be used exclusively in connection with Ping Identity Corporation software or services.
+ * Ping Identity Corporation only offers such software or services to legal entities who have entered into
+ * a binding license agreement with Ping Identity Corporation.
+ *
+ * Copyright 2024 Ping Identity Corporation. All Rights Reserved
+ */
+
+package org.forgerock.am.marketplace.pingonecredentials;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.forgerock.json.JsonValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Runs PingOne calls in the background while the user is busy with a callback, so that their result is ready when the
+ * journey continues. Each call is identified by a handle, which nodes keep in the journey state and claim on a later
+ * request.
+ * <p>
+ * Handles are only known to the server which started the call. A node which cannot claim a handle, for example
+ * because the journey continued on another server, makes the call itself. Unclaimed handles expire after a few
+ * minutes, and the result of a call submitted with an expiry cleanup is then undone by the server which made it.
+ * </p>
+ */
+@Singleton
+public class PingOneCredentialsAsyncService {
+
+    /** The number of threads running background calls. */
+    static final int THREADS = 8;
+
+    /** The maximum number of calls waiting for a thread. Further calls are rejected. */
+    static final int QUEUE_SIZE = 256;
+
+    /** The maximum number of calls waiting to be claimed. */
+    static final int MAX_PENDING = 10000;
+
+    /** The time after which an unclaimed call is forgotten. */
+    static final Duration PENDING_TTL = Duration.ofMinutes(5);
+
+    private static final Logger logger = LoggerFactory.getLogger(PingOneCredentialsAsyncService.class);
+    private static final String LOGGER_PREFIX = "[PingOne Credentials Async Service]"
+                                                + PingOneCredentialsPlugin.LOG_APPENDER;
+
+    private final ExecutorService executor;
+    private final PingOneCredentialsCache<String, CompletableFuture<JsonValue>> pending;
+    private final Duration pendingTtl;
+
+    /**
+     * The PingOne Credentials Async Service constructor.
+     */
+    @Inject
+    public PingOneCredentialsAsyncService() {
+        this(PENDING_TTL);
+    }
+
+    PingOneCredentialsAsyncService(Duration pendingTtl) {
+        this.executor = new ThreadPoolExecutor(THREADS, THREADS, 60, TimeUnit.SECONDS,
+                                               new ArrayBlockingQueue<>(QUEUE_SIZE),
+                                               new ThreadFactoryBuilder().setDaemon(true)
+                                                                         .setNameFormat("pingone-credentials-async-%d")
+                                                                         .build());
+        this.pending = new PingOneCredentialsCache<>(MAX_PENDING, pendingTtl);
+        this.pendingTtl = pendingTtl;
+    }
+
+    /**
+     * Start a call in the background.
+     *
+     * @param call The call to make.
+     * @return The handle of the call, or empty if too many calls are already waiting.
+     */
+    Optional<String> submit(Callable<JsonValue> call) {
+        return submit(call, null);
+    }
+
+    /**
+     * Start a call in the background whose result must be undone if it is never claimed, for example because the
+     * journey was abandoned or continued on another server.
+     *
+     * @param call The call to make.
+     * @param expiryCleanup Receives the result of the call if its handle expires before it is claimed or discarded,
+     *                      or null if the result can be forgotten.
+     * @return The handle of the call, or empty if too many calls are already waiting.
+     */
+    Optional<String> submit(Callable<JsonValue> call, Consumer<JsonValue> expiryCleanup) {
+        CompletableFuture<JsonValue> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(call.call());
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.warn("{} Background call rejected, too many calls are waiting", LOGGER_PREFIX);
+            return Optional.empty();
+        }
+        String handle = UUID.randomUUID().toString();
+        pending.put(handle, future);
+        if (expiryCleanup != null) {
+            CompletableFuture.delayedExecutor(pendingTtl.toMillis(), TimeUnit.MILLISECONDS)
+                             .execute(() -> pending.removeExpired(handle).ifPresent(expired -> {
+                                 logger.debug("{} Background call {} expired unclaimed", LOGGER_PREFIX, handle);
+                                 discard(expired, expiryCleanup);
+                             }));
+        }
+        return Optional.of(handle);
+    }
+
+    /**
+     * Claim the result of a call, waiting for it to complete if needed. A handle can only be claimed once.
+     *
+     * @param handle The handle of the call.
+     * @param timeout The maximum time to wait for the call to complete.
+     * @param cleanup Receives the result if the call completes after the timeout, so that it can be undone.
+     * @return The result of the call, or empty if the handle is unknown, the call failed or it did not complete in
+     * time.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    Optional<JsonValue> claim(String handle, Duration timeout, Consumer<JsonValue> cleanup)
+        throws InterruptedException {
+        Optional<CompletableFuture<JsonValue>> future = pending.remove(handle);
+        if (future.isEmpty()) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.ofNullable(future.get().get(timeout.toMillis(), TimeUnit.MILLISECONDS));
+        } catch (TimeoutException e) {
+            logger.debug("{} Background call {} did not complete in time", LOGGER_PREFIX, handle);
+            discard(future.get(), cleanup);
+        } catch (ExecutionException e) {
+            logger.warn("{} Background call {} failed: {}", LOGGER_PREFIX, handle, e.getCause().getMessage());
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Whether claiming a call returns without waiting, because the call has completed or its handle is unknown.
+     *
+     * @param handle The handle of the call.
+     * @return false if the call is still running, true otherwise.
+     */
+    boolean isDone(String handle) {
+        return pending.get(handle).map(CompletableFuture::isDone).orElse(true);
+    }
+
+    /**
+     * Discard a call whose result is not needed. The cleanup runs once the call completes successfully.
+     *
+     * @param handle The handle of the call.
+     * @param cleanup Receives the result of the call, so that it can be undone.
+     */
+    void discard(String handle, Consumer<JsonValue> cleanup) {
+        pending.remove(handle).ifPresent(future -> discard(future, cleanup));
+    }
+
+    private void discard(CompletableFuture<JsonValue> future, Consumer<JsonValue> cleanup) {
+        future.thenAcceptAsync(result -> {
+            try {
+                cleanup.accept(result);
+            } catch (RuntimeException e) {
+                logger.warn("{} Unable to clean up a discarded background call: {}", LOGGER_PREFIX, e.getMessage());
+            }
+        }, executor);
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * This code is to be used exclusively in connection with Ping Identity Corporation software or services.
+ * Ping Identity Corporation only offers such software or services to legal entities who have entered into
+ * a binding license agreement with Ping Identity Corporation.
+ *
+ * Copyright 2024 Ping Identity Corporation. All Rights Reserved
+ */
+
+package org.forgerock.am.marketplace.pingonecredentials;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+import org.forgerock.json.JsonValue;
+import org.forgerock.openam.auth.node.api.NodeState;
+
+/**
+ * Maps source fields to credential attributes, as configured in the attribute mapping of the Issue and Update nodes.
+ * The key of the mapping is the credential attribute name and the value is the name of the source field, for example
+ * a shared state attribute or an import column. Credential attributes whose source field is not defined are omitted.
+ */
+final class PingOneCredentialsAttributeMapping {
+
+    private PingOneCredentialsAttributeMapping() {
+    }
+
+    /**
+     * Map the source fields to credential attributes.
+     *
+     * @param mapping The attribute mapping, from credential attribute name to source field name.
+     * @param source Looks up the value of a source field, returning null if the field is not defined.
+     * @return The credential attributes.
+     */
+    static JsonValue map(Map<String, String> mapping, Function<String, JsonValue> source) {
+        JsonValue attributes = new JsonValue(new LinkedHashMap<String, Object>(mapping.size()));
+
+        mapping.forEach(
+            (k, v) -> {
+                JsonValue value = source.apply(v);
+                if (value != null) {
+                    attributes.put(k, value);
+                }
+            });
+
+        return attributes;
+    }
+
+    /**
+     * Map the node state attributes to credential attributes.
+     *
+     * @param mapping The attribute mapping, from credential attribute name to node state attribute name.
+     * @param nodeState The node state.
+     * @return The credential attributes.
+     */
+    static JsonValue map(Map<String, String> mapping, NodeState nodeState) {
+        return map(mapping, key -> nodeState.isDefined(key) ? nodeState.get(key) : null);
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * This code is to be used exclusively in connection with Ping Identity Corporation software or services.
+ * Ping Identity Corporation only offers such software or services to legal entities who have entered into
+ * a binding license agreement with Ping Identity Corporation.
+ *
+ * Copyright 2024 Ping Identity Corporation. All Rights Reserved
+ */
+
+package org.forgerock.am.marketplace.pingonecredentials;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.READ;
+import static org.forgerock.json.JsonValue.json;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Function;
+
+import org.forgerock.json.JsonValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Streams the records of a CSV or NDJSON file for bulk issuance, one record at a time so that memory stays constant
+ * whatever the size of the file.
+ * <p>
+ * A CSV file starts with a header row naming its columns, and an NDJSON file contains one JSON object per line whose
+ * fields are the columns. Columns are mapped to credential attributes with the same semantics as the attribute
+ * mapping of the Issue node, where the value of each mapping entry names a column instead of a shared state
+ * attribute. Empty CSV cells are treated as undefined.
+ * </p>
+ * <p>
+ * The offset of each record is tracked in the {@link PingOneCredentialsCheckpoint}, so a file opened again with the
+ * checkpoint of a crashed run is read from the first incomplete record instead of from its start.
+ * </p>
+ */
+final class PingOneCredentialsBulkImporter implements Iterator<PingOneCredentialsBulkIssuer.Record>, Closeable {
+
+    /**
+     * The format of an import file.
+     */
+    enum Format {
+        /** Comma separated values with a header row. */
+        CSV,
+        /** Newline delimited JSON objects. */
+        NDJSON
+    }
+
+    private static final Logger logger = LoggerFactory.getLogger(PingOneCredentialsBulkImporter.class);
+    private static final String LOGGER_PREFIX = "[PingOne Credentials Bulk Importer]"
+                                                + PingOneCredentialsPlugin.LOG_APPENDER;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final char BYTE_ORDER_MARK = '\uFEFF';
+
+    private final FileChannel channel;
+    private final Format format;
+    private final String userIdColumn;
+    private final Map<String, String> attributes;
+    private final PingOneCredentialsCheckpoint checkpoint;
+    private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+    private final Map<String, Integer> columns = new HashMap<>();
+
+    private InputStream in;
+    private long offset;
+    private long position;
+    private PingOneCredentialsBulkIssuer.Record next;
+
+    private PingOneCredentialsBulkImporter(FileChannel channel, Format format, String userIdColumn,
+                                           Map<String, String> attributes, PingOneCredentialsCheckpoint checkpoint) {
+        this.channel = channel;
+        this.format = format;
+        this.userIdColumn = userIdColumn;
+        this.attributes = attributes;
+        this.checkpoint = checkpoint;
+        this.in = new BufferedInputStream(Channels.newInputStream(channel));
+    }
+
+    /**
+     * Open an import file, positioned at the first incomplete record of the checkpoint.
+     *
+     * @param file The import file.
+     * @param format The format of the file.
+     * @param userIdColumn The column containing the PingOne user ID.
+     * @param attributes The attribute mapping, from credential attribute name to column name.
+     * @param checkpoint The checkpoint of the run.
+     * @return The importer, which must be closed once the run completes.
+     * @throws IOException If the file cannot be opened or its header cannot be read.
+     */
+    static PingOneCredentialsBulkImporter open(Path file, Format format, String userIdColumn,
+                                               Map<String, String> attributes,
+                                               PingOneCredentialsCheckpoint checkpoint) throws IOException {
+        FileChannel channel = FileChannel.open(file, READ);
+        try {
+            PingOneCredentialsBulkImporter importer = new PingOneCredentialsBulkImporter(channel, format,
+                                                                                         userIdColumn, attributes,
+                                                                                         checkpoint);
+            if (format == Format.CSV) {
+                importer.readHeader();
+            }
+            importer.seek(checkpoint.resumePosition(), checkpoint.resumeOffset());
+            return importer;
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null) {
+            try {
+                next = readRecord();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return next != null;
+    }
+
+    @Override
+    public PingOneCredentialsBulkIssuer.Record next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        PingOneCredentialsBulkIssuer.Record record = next;
+        next = null;
+        return record;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private void readHeader() throws IOException {
+        List<String> header = readCsvRow();
+        if (header == null) {
+            throw new IOException("Missing CSV header");
+        }
+        for (int i = 0; i < header.size(); i++) {
+            String column = header.get(i).trim();
+            if (i == 0 && !column.isEmpty() && column.charAt(0) == BYTE_ORDER_MARK) {
+                column = column.substring(1);
+            }
+            columns.put(column, i);
+        }
+    }
+
+    private void seek(long resumePosition, long resumeOffset) throws IOException {
+        if (resumeOffset > offset) {
+            channel.position(resumeOffset);
+            in = new BufferedInputStream(Channels.newInputStream(channel));
+            offset = resumeOffset;
+            position = resumePosition;
+        }
+    }
+
+    private PingOneCredentialsBulkIssuer.Record readRecord() throws IOException {
+        while (true) {
+            long start = offset;
+            Function<String, JsonValue> row;
+            if (format == Format.CSV) {
+                List<String> fields = readCsvRow();
+                if (fields == null) {
+                    return null;
+                }
+                if (fields.size() == 1 && fields.get(0).isEmpty()) {
+                    continue;
+                }
+                row = column -> {
+                    Integer index = columns.get(column);
+                    return index == null || index >= fields.size() || fields.get(index).isEmpty()
+                           ? null
+                           : json(fields.get(index));
+                };
+            } else {
+                String text = readLine();
+                if (text == null) {
+                    return null;
+                }
+                if (text.isBlank()) {
+                    continue;
+                }
+                row = parseJsonRow(text);
+            }
+
+            long recordPosition = position++;
+            checkpoint.track(recordPosition, start);
+            JsonValue userId = row.apply(userIdColumn);
+            return new PingOneCredentialsBulkIssuer.Record(recordPosition,
+                                                           userId == null || !userId.isString()
+                                                           ? null
+                                                           : userId.asString(),
+                                                           PingOneCredentialsAttributeMapping.map(attributes, row));
+        }
+    }
+
+    private Function<String, JsonValue> parseJsonRow(String text) {
+        try {
+            JsonValue value = json(MAPPER.readValue(text, Object.class));
+            if (value.isMap()) {
+                return column -> value.isDefined(column) ? value.get(column) : null;
+            }
+        } catch (JsonProcessingException e) {
+            logger.warn("{} Invalid JSON record at position {}: {}", LOGGER_PREFIX, position, e.getMessage());
+            return column -> null;
+        }
+        logger.warn("{} Record at position {} is not a JSON object", LOGGER_PREFIX, position);
+        return column -> null;
+    }
+
+    private List<String> readCsvRow() throws IOException {
+        String text = readLine();
+        if (text == null) {
+            return null;
+        }
+        // A quoted field may span several lines
+        StringBuilder row = new StringBuilder(text);
+        while (hasOpenQuote(row)) {
+            String continuation = readLine();
+            if (continuation == null) {
+                throw new IOException("Unterminated quoted field at offset " + offset);
+            }
+            row.append('\n').append(continuation);
+        }
+        return parseCsvRow(row);
+    }
+
+    private static boolean hasOpenQuote(CharSequence row) {
+        boolean open = false;
+        for (int i = 0; i < row.length(); i++) {
+            if (row.charAt(i) == '"') {
+                open = !open;
+            }
+        }
+        return open;
+    }
+
+    private static List<String> parseCsvRow(CharSequence row) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < row.length(); i++) {
+            char c = row.charAt(i);
+            if (quoted) {
+                if (c == '"' && i + 1 < row.length() && row.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else if (c == '"') {
+                    quoted = false;
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    private String readLine() throws IOException {
+        line.reset();
+        int b;
+        while ((b = in.read()) != -1) {
+            offset++;
+            if (b == '\n') {
+                break;
+            }
+            line.write(b);
+        }
+        if (b == -1 && line.size() == 0) {
+            return null;
+        }
+        String text = line.toString(UTF_8);
+        return text.endsWith("\r") ? text.substring(0, text.length() - 1) : text;
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * This code is to be used exclusively in connection with Ping Identity Corporation software or services.
+ * Ping Identity Corporation only offers such software or services to legal entities who have entered into
+ * a binding license agreement with Ping Identity Corporation.
+ *
+ * Copyright 2024 Ping Identity Corporation. All Rights Reserved
+ */
+
+package org.forgerock.am.marketplace.pingonecredentials;
+
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.RESPONSE_CREDENTIAL_TYPE;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.RESPONSE_ID;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.RESPONSE_STATUS;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.REVOKED;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.apache.commons.lang.StringUtils;
+import org.forgerock.json.JsonValue;
+import org.forgerock.openam.integration.pingone.api.PingOneWorkerService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Issues a credential type to a large population of PingOne users.
+ * <p>
+ * Records are issued by a {@link PingOneCredentialsBulkRunner} with bounded parallelism, at low priority on the
+ * shared {@link PingOneCredentialsApiBudget} so that urgent work such as revocations goes first. A record is only
+ * retried when PingOne did not act on its call, for example because it was throttled, so that no user is issued the
+ * credential twice. For the same reason, a record which a previous run may have issued without saving it in the
+ * checkpoint is only issued once the credentials of its user show that it was not.
+ * </p>
+ */
+final class PingOneCredentialsBulkIssuer {
+
+    private static final Logger logger = LoggerFactory.getLogger(PingOneCredentialsBulkIssuer.class);
+    private static final String LOGGER_PREFIX = "[PingOne Credentials Bulk Issuer]"
+                                                + PingOneCredentialsPlugin.LOG_APPENDER;
+
+    private final PingOneCredentialsService client;
+    private final PingOneCredentialsApiBudget budget;
+    private final PingOneCredentialsCheckpoint checkpoint;
+    private final PingOneCredentialsBulkRunner runner;
+
+    /**
+     * Create a bulk issuer.
+     *
+     * @param client The {@link PingOneCredentialsService} instance.
+     * @param parallelism The maximum number of concurrent issue calls.
+     * @param budget The API budget shared with other background work.
+     * @param checkpoint The checkpoint recording the progress of the run.
+     */
+    PingOneCredentialsBulkIssuer(PingOneCredentialsService client, int parallelism,
+                                 PingOneCredentialsApiBudget budget, PingOneCredentialsCheckpoint checkpoint) {
+        this.client = client;
+        this.budget = budget;
+        this.checkpoint = checkpoint;
+        this.runner = new PingOneCredentialsBulkRunner(parallelism, checkpoint);
+    }
+
+    /**
+     * Issue the credential type to the users of the records, skipping the records issued by a previous run. Returns
+     * once every record has been processed.
+     *
+     * @param accessToken Supplies the access token of the PingOne worker, which may be renewed during the run.
+     * @param worker The worker {@link PingOneWorkerService}.
+     * @param credentialTypeId The credential type ID.
+     * @param records The records to issue, in a stable order across runs.
+     * @param results Receives the result of each processed record. It is called by one thread at a time.
+     * @param progress Receives the progress of the run at regular intervals, and once the run completes.
+     * @return The progress of the completed run.
+     * @throws InterruptedException If the run is interrupted, in which case the checkpoint is still saved.
+     * @throws IOException If the checkpoint cannot be saved.
+     */
+    PingOneCredentialsBulkRunner.Progress issue(Supplier<String> accessToken, PingOneWorkerService.Worker worker,
+                                                String credentialTypeId, Iterator<Record> records,
+                                                Consumer<Result> results,
+                                                Consumer<PingOneCredentialsBulkRunner.Progress> progress)
+        throws InterruptedException, IOException {
+        return runner.run(records, record -> record.position,
+                          record -> issue(accessToken, worker, credentialTypeId, record),
+                          Result::isSuccess, results, progress);
+    }
+
+    private Result issue(Supplier<String> accessToken, PingOneWorkerService.Worker worker, String credentialTypeId,
+                         Record record) {
+        if (StringUtils.isBlank(record.userId)) {
+            return new Result(record, null, new IllegalArgumentException("Missing PingOne user ID"));
+        }
+        try {
+            if (checkpoint.mayHaveCompleted(record.position)) {
+                String credentialId = PingOneCredentialsBulkRunner.withRetries(() -> {
+                    budget.acquire(PingOneCredentialsApiBudget.Priority.LOW);
+                    return findIssuedCredential(accessToken.get(), worker, credentialTypeId, record.userId);
+                });
+                if (credentialId != null) {
+                    return new Result(record, credentialId, null);
+                }
+            }
+            JsonValue response = PingOneCredentialsBulkRunner.withRetries(() -> {
+                budget.acquire(PingOneCredentialsApiBudget.Priority.LOW);
+                return client.credentialIssueRequest(accessToken.get(), worker, record.userId, credentialTypeId,
+                                                     record.attributes);
+            });
+            return new Result(record, response.get(RESPONSE_ID).asString(), null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Result(record, null, e);
+        } catch (Exception e) {
+            logger.warn("{} Unable to issue credential to user {}: {}", LOGGER_PREFIX, record.userId,
+                        e.getMessage());
+            return new Result(record, null, e);
+        }
+    }
+
+    /**
+     * Find the credential of the type which is not revoked among the credentials of the user, as issued by a
+     * previous run. A page which cannot be read fails with its own exception, so it is retried like any other call.
+     */
+    private String findIssuedCredential(String accessToken, PingOneWorkerService.Worker worker,
+                                        String credentialTypeId, String userId)
+        throws PingOneCredentialsServiceException {
+        try (PingOneCredentialsPageIterator credentials = client.listCredentials(accessToken, worker, userId)) {
+            while (credentials.hasNext()) {
+                JsonValue credential = credentials.next();
+                if (credentialTypeId.equals(credential.get(RESPONSE_CREDENTIAL_TYPE).get(RESPONSE_ID).asString())
+                    && !REVOKED.equals(credential.get(RESPONSE_STATUS).asString())) {
+                    return credential.get(RESPONSE_ID).asString();
+                }
+            }
+        } catch (IllegalStateException e) {
+            if (e.getCause() instanceof PingOneCredentialsServiceException) {
+                throw (PingOneCredentialsServiceException) e.getCause();
+            }
+            throw e;
+        }
+        return null;
+    }
+
+    /**
+     * A user to issue the credential to.
+     */
+    static final class Record {
+        final long position;
+        final String userId;
+        final JsonValue attributes;
+
+        /**
+         * Create a record.
+         *
+         * @param position The position of the record in the input.
+         * @param userId The PingOne user ID.
+         * @param attributes The credential attributes.
+         */
+        Record(long position, String userId, JsonValue attributes) {
+            this.position = position;
+            this.userId = userId;
+            this.attributes = attributes;
+        }
+    }
+
+    /**
+     * The result of issuing the credential of a record.
+     */
+    static final class Result {
+        final Record record;
+        final String credentialId;
+        final Exception error;
+
+        private Result(Record record, String credentialId, Exception error) {
+            this.record = record;
+            this.credentialId = credentialId;
+            this.error = error;
+        }
+
+        /**
+         * Whether the credential was issued.
+         *
+         * @return true if the credential was issued, false otherwise.
+         */
+        boolean isSuccess() {
+            return error == null;
+        }
+    }
+}
@@ -0,0 +1,375 @@
+/*
+ * This code is to be used exclusively in connection with Ping Identity Corporation software or services.
+ * Ping Identity Corporation only offers such software or services to legal entities who have entered into
+ * a binding license agreement with Ping Identity Corporation.
+ *
+ * Copyright 2024 Ping Identity Corporation. All Rights Reserved
+ */
+
+package org.forgerock.am.marketplace.pingonecredentials;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static org.forgerock.json.JsonValue.json;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.apache.commons.lang.StringUtils;
+import org.forgerock.json.JsonValue;
+import org.forgerock.json.JsonValueException;
+import org.forgerock.openam.core.realms.Realm;
+import org.forgerock.openam.core.realms.RealmLookup;
+import org.forgerock.openam.core.realms.RealmLookupException;
+import org.forgerock.openam.integration.pingone.api.PingOneWorkerService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Runs the bulk jobs dropped in the jobs directory of the server, so that a credential type can be issued to a
+ * large population of users, or a large number of credentials revoked, without a journey.
+ * <p>
+ * The jobs directory is set with the {@value #DIRECTORY_PROPERTY} system property, and bulk jobs are disabled when
+ * it is not set. A job is a JSON file named {@code <name>.job.json} which names the operation, the realm and the
+ * PingOne worker to use, and the CSV or NDJSON file holding the records, as read by
+ * {@link PingOneCredentialsBulkImporter}. Issue jobs run one at a time in the order of their names, and so do
+ * revocation jobs, alongside the issue jobs. Calls are made on the API budget shared by the background work, where
+ * revocations go first, then the issues of the outbox, and bulk issues last.
+ * </p>
+ * <p>
+ * While a job runs, its progress is written to {@code <name>.progress.json}, the result of each record is appended
+ * to {@code <name>.results.ndjson}, and the records which succeeded are kept in {@code <name>.checkpoint}, so a job
+ * interrupted by a restart resumes where it stopped. Once the job completes, its file is renamed to
+ * {@code <name>.job.json.done}, and a job which cannot be run is renamed to {@code <name>.job.json.failed}. Renaming
+ * a completed job back to {@code <name>.job.json} retries the records which failed.
+ * </p>
+ */
+@Singleton
+public class PingOneCredentialsBulkJobs {
+
+    /** The system property naming the jobs directory. */
+    static final String DIRECTORY_PROPERTY = "pingone.credentials.bulk.directory";
+
+    /** The interval at which the jobs directory is checked for new jobs. */
+    static final Duration POLL_INTERVAL = Duration.ofSeconds(10);
+
+    /** The number of records processed concurrently by a job which does not set it. */
+    static final int DEFAULT_PARALLELISM = 4;
+
+    /** The maximum number of records processed concurrently by a job. */
+    static final int MAX_PARALLELISM = 16;
+
+    static final String JOB_SUFFIX = ".job.json";
+    static final String DONE_SUFFIX = ".done";
+    static final String FAILED_SUFFIX = ".failed";
+    static final String PROGRESS_SUFFIX = ".progress.json";
+    static final String RESULTS_SUFFIX = ".results.ndjson";
+    static final String CHECKPOINT_SUFFIX = ".checkpoint";
+
+    static final String OPERATION = "operation";
+    static final String ISSUE = "issue";
+    static final String REVOKE = "revoke";
+    static final String REALM = "realm";
+    static final String WORKER = "worker";
+    static final String CREDENTIAL_TYPE_ID = "credentialTypeId";
+    static final String FILE = "file";
+    static final String FORMAT = "format";
+    static final String USER_ID_COLUMN = "userIdColumn";
+    static final String ATTRIBUTES = "attributes";
+    static final String CREDENTIAL_ID_COLUMN = "credentialIdColumn";
+    static final String PARALLELISM = "parallelism";
+
+    private static final Logger logger = LoggerFactory.getLogger(PingOneCredentialsBulkJobs.class);
+    private static final String LOGGER_PREFIX = "[PingOne Credentials Bulk Jobs]"
+                                                + PingOneCredentialsPlugin.LOG_APPENDER;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String CREDENTIAL_ID = "credentialId";
+    private static final String OUTCOME = "outcome";
+
+    private final PingOneCredentialsService client;
+    private final PingOneWorkerService pingOneWorkerService;
+    private final RealmLookup realmLookup;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * The PingOne Credentials Bulk Jobs constructor.
+     *
+     * @param client the {@link PingOneCredentialsService} instance.
+     * @param pingOneWorkerService the {@link PingOneWorkerService} instance.
+     * @param realmLookup the {@link RealmLookup} instance.
+     */
+    @Inject
+    public PingOneCredentialsBulkJobs(PingOneCredentialsService client, PingOneWorkerService pingOneWorkerService,
+                                      RealmLookup realmLookup) {
+        this.client = client;
+        this.pingOneWorkerService = pingOneWorkerService;
+        this.realmLookup = realmLookup;
+    }
+
+    /**
+     * Start running the jobs of the jobs directory, if one is configured.
+     */
+    void start() {
+        String directory = System.getProperty(DIRECTORY_PROPERTY);
+        if (StringUtils.isBlank(directory)) {
+            logger.debug("{} No jobs directory configured, bulk jobs are disabled", LOGGER_PREFIX);
+            return;
+        }
+        start(Paths.get(directory), POLL_INTERVAL);
+    }
+
+    /**
+     * Start running the jobs of a directory, checking it for new jobs at each interval.
+     *
+     * @param directory The jobs directory.
+     * @param interval The delay between two checks of the directory.
+     */
+    synchronized void start(Path directory, Duration interval) {
+        if (scheduler != null) {
+            return;
+        }
+        // Revocations run alongside issues, so that an urgent revocation does not wait for a long issue job
+        scheduler = Executors.newScheduledThreadPool(
+            2, new ThreadFactoryBuilder().setDaemon(true).setNameFormat("pingone-credentials-bulk-jobs-%d").build());
+        for (boolean revocations : new boolean[] {true, false}) {
+            scheduler.scheduleWithFixedDelay(() -> {
+                try {
+                    runPending(directory, revocations);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (Exception e) {
+                    logger.warn("{} Unable to run the jobs of {}, it will be retried: {}", LOGGER_PREFIX, directory,
+                                e.getMessage());
+                }
+            }, 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+        }
+        logger.info("{} Running the bulk jobs of {}", LOGGER_PREFIX, directory);
+    }
+
+    /**
+     * Stop running jobs. A job being run is interrupted, and resumes once the jobs are started again.
+     */
+    synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Run the jobs of the directory which were not run yet, or did not complete, revocations first.
+     *
+     * @param directory The jobs directory.
+     * @return The number of jobs completed.
+     * @throws IOException If the directory cannot be read.
+     * @throws InterruptedException If interrupted while running a job.
+     */
+    int runPending(Path directory) throws IOException, InterruptedException {
+        return runPending(directory, true) + runPending(directory, false);
+    }
+
+    private int runPending(Path directory, boolean revocations) throws IOException, InterruptedException {
+        List<Path> jobs;
+        try (Stream<Path> files = Files.list(directory)) {
+            jobs = files.filter(file -> file.getFileName().toString().endsWith(JOB_SUFFIX))
+                        .sorted()
+                        .collect(Collectors.toList());
+        }
+        int completed = 0;
+        for (Path job : jobs) {
+            if (run(job, revocations)) {
+                completed++;
+            }
+        }
+        return completed;
+    }
+
+    private boolean run(Path job, boolean revocations) throws InterruptedException {
+        String fileName = job.getFileName().toString();
+        String name = fileName.substring(0, fileName.length() - JOB_SUFFIX.length());
+        try {
+            JsonValue spec;
+            try {
+                spec = json(MAPPER.readValue(job.toFile(), Object.class));
+            } catch (JsonProcessingException e) {
+                // Jobs which cannot be read are failed by the issue jobs
+                if (revocations) {
+                    return false;
+                }
+                throw e;
+            }
+            if (REVOKE.equals(spec.get(OPERATION).asString()) != revocations) {
+                return false;
+            }
+            logger.info("{} Running job {}", LOGGER_PREFIX, name);
+            PingOneCredentialsBulkRunner.Progress completed = run(job.getParent(), name, spec);
+            writeProgress(job.resolveSibling(name + PROGRESS_SUFFIX), "COMPLETED", completed);
+            Files.move(job, job.resolveSibling(fileName + DONE_SUFFIX), REPLACE_EXISTING);
+            return true;
+        } catch (JsonProcessingException | JsonValueException | IllegalArgumentException | RealmLookupException e) {
+            logger.error("{} Job {} cannot be run: {}", LOGGER_PREFIX, name, e.getMessage());
+            moveSilently(job, job.resolveSibling(fileName + FAILED_SUFFIX));
+        } catch (NoSuchFileException e) {
+            logger.debug("{} Job {} was removed", LOGGER_PREFIX, name);
+        } catch (IOException e) {
+            logger.warn("{} Job {} failed, it will be resumed: {}", LOGGER_PREFIX, name, e.getMessage());
+        }
+        return false;
+    }
+
+    private PingOneCredentialsBulkRunner.Progress run(Path directory, String name, JsonValue spec)
+        throws IOException, InterruptedException, RealmLookupException {
+        String operation = spec.get(OPERATION).asString();
+        if (!ISSUE.equals(operation) && !REVOKE.equals(operation)) {
+            throw new IllegalArgumentException("Unknown operation " + operation);
+        }
+        Realm realm = realmLookup.lookup(required(spec, REALM));
+        String workerId = required(spec, WORKER);
+        PingOneWorkerService.Worker worker = pingOneWorkerService.getWorker(realm, workerId)
+            .orElseThrow(() -> new IllegalArgumentException("Unknown PingOne worker " + workerId));
+        Supplier<String> accessToken = () -> {
+            try {
+                return pingOneWorkerService.getAccessTokenId(realm, worker);
+            } catch (Exception e) {
+                throw new IllegalStateException("Unable to get access token for PingOne Worker", e);
+            }
+        };
+        Path file = directory.resolve(required(spec, FILE));
+        if (!Files.isRegularFile(file)) {
+            throw new IllegalArgumentException("Missing file " + file);
+        }
+        PingOneCredentialsBulkImporter.Format format = PingOneCredentialsBulkImporter.Format.valueOf(
+            spec.get(FORMAT).defaultTo(PingOneCredentialsBulkImporter.Format.CSV.name()).asString()
+                .toUpperCase(Locale.ROOT));
+        int parallelism = Math.max(1, Math.min(MAX_PARALLELISM,
+                                               spec.get(PARALLELISM).defaultTo(DEFAULT_PARALLELISM).asInteger()));
+        String userIdColumn = required(spec, USER_ID_COLUMN);
+        // The credential ID of a revocation is read as the attribute of the record mapped to its column
+        Map<String, String> attributes = ISSUE.equals(operation)
+                                         ? spec.get(ATTRIBUTES).isNull()
+                                           ? Collections.emptyMap()
+                                           : spec.get(ATTRIBUTES).asMap(String.class)
+                                         : Map.of(CREDENTIAL_ID, required(spec, CREDENTIAL_ID_COLUMN));
+        String credentialTypeId = ISSUE.equals(operation) ? required(spec, CREDENTIAL_TYPE_ID) : null;
+
+        Path progressFile = directory.resolve(name + PROGRESS_SUFFIX);
+        Consumer<PingOneCredentialsBulkRunner.Progress> progress =
+            current -> writeProgress(progressFile, "RUNNING", current);
+        PingOneCredentialsCheckpoint checkpoint = PingOneCredentialsCheckpoint.load(
+            directory.resolve(name + CHECKPOINT_SUFFIX));
+        try (PingOneCredentialsBulkImporter records = PingOneCredentialsBulkImporter.open(
+                 file, format, userIdColumn, attributes, checkpoint);
+             BufferedWriter results = Files.newBufferedWriter(directory.resolve(name + RESULTS_SUFFIX), UTF_8,
+                                                              CREATE, APPEND)) {
+            if (ISSUE.equals(operation)) {
+                return new PingOneCredentialsBulkIssuer(client, parallelism, PingOneCredentialsApiBudget.BACKGROUND,
+                                                        checkpoint)
+                    .issue(accessToken, worker, credentialTypeId, records,
+                           result -> writeResult(results, result.record.position, result.record.userId,
+                                                 Map.of(CREDENTIAL_ID, String.valueOf(result.credentialId)),
+                                                 result.error),
+                           progress);
+            }
+            Iterator<PingOneCredentialsBulkRevoker.Record> revocations = new Iterator<>() {
+                @Override
+                public boolean hasNext() {
+                    return records.hasNext();
+                }
+
+                @Override
+                public PingOneCredentialsBulkRevoker.Record next() {
+                    PingOneCredentialsBulkIssuer.Record record = records.next();
+                    return new PingOneCredentialsBulkRevoker.Record(record.position, record.userId,
+                                                                    record.attributes.get(CREDENTIAL_ID).asString());
+                }
+            };
+            return new PingOneCredentialsBulkRevoker(client, parallelism, PingOneCredentialsApiBudget.BACKGROUND,
+                                                     checkpoint)
+                .revoke(accessToken, worker, revocations,
+                        result -> writeResult(results, result.record.position, result.record.userId,
+                                              Map.of(CREDENTIAL_ID, String.valueOf(result.record.credentialId),
+                                                     OUTCOME, String.valueOf(result.outcome)),
+                                              result.error),
+                        progress);
+        }
+    }
+
+    private static String required(JsonValue spec, String field) {
+        String value = spec.get(field).asString();
+        if (StringUtils.isBlank(value)) {
+            throw new IllegalArgumentException("Missing " + field);
+        }
+        return value;
+    }
+
+    private static void writeResult(BufferedWriter results, long position, String userId,
+                                    Map<String, String> details, Exception error) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("position", position);
+        result.put("userId", userId);
+        if (error == null) {
+            result.putAll(details);
+        } else {
+            result.put("error", error.getMessage());
+        }
+        try {
+            results.write(MAPPER.writeValueAsString(result));
+            results.newLine();
+            results.flush();
+        } catch (IOException e) {
+            logger.warn("{} Unable to write the result of record {}: {}", LOGGER_PREFIX, position, e.getMessage());
+        }
+    }
+
+    private static synchronized void writeProgress(Path progressFile, String state,
+                                                   PingOneCredentialsBulkRunner.Progress progress) {
+        Map<String, Object> current = new LinkedHashMap<>();
+        current.put("state", state);
+        current.put("succeeded", progress.succeeded);
+        current.put("failed", progress.failed);
+        current.put("skipped", progress.skipped);
+        current.put("elapsed", progress.elapsed.toString());
+        current.put("perSecond", progress.throughput());
+        try {
+            PingOneCredentialsCheckpoint.writeAtomically(progressFile, MAPPER.writeValueAsBytes(current));
+        } catch (IOException e) {
+            logger.warn("{} Unable to write progress to {}: {}", LOGGER_PREFIX, progressFile, e.getMessage());
+        }
+    }
+
+    private static void moveSilently(Path source, Path target) {
+        try {
+            Files.move(source, target, REPLACE_EXISTING);
+        } catch (IOException e) {
+            logger.warn("{} Unable to move {}: {}", LOGGER_PREFIX, source, e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * This code is to be used exclusively in connection with Ping Identity Corporation software or services.
+ * Ping Identity Corporation only offers such software or services to legal entities who have entered into
+ * a binding license agreement with Ping Identity Corporation.
+ *
+ * Copyright 2024 Ping Identity Corporation. All Rights Reserved
+ */
+
+package org.forgerock.am.marketplace.pingonecredentials;
+
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.RevokeResult;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import org.apache.commons.lang.StringUtils;
+import org.forgerock.openam.integration.pingone.api.PingOneWorkerService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Revokes a large number of PingOne credentials, for example when a credential type is compromised or a population
+ * of users is offboarded.
+ * <p>
+ * Records are revoked by a {@link PingOneCredentialsBulkRunner} with bounded parallelism, at high priority on the
+ * shared {@link PingOneCredentialsApiBudget} so that revocations take precedence over bulk issuance. A credential
+ * which does not exist any more is treated as revoked. Each record is retried a few times before it is reported as
+ * failed.
+ * </p>
+ */
+final class PingOneCredentialsBulkRevoker {
+
+    private static final Logger logger = LoggerFactory.getLogger(PingOneCredentialsBulkRevoker.class);
+    private static final String LOGGER_PREFIX = "[PingOne Credentials Bulk Revoker]"
+                                                + PingOneCredentialsPlugin.LOG_APPENDER;
+
+    private final PingOneCredentialsService client;
+    private final PingOneCredentialsApiBudget budget;
+    private final PingOneCredentialsBulkRunner runner;
+
+    /**
+     * Create a bulk revoker.
+     *
+     * @param client The {@link PingOneCredentialsService} instance.
+     * @param parallelism The maximum number of concurrent revoke calls.
+     * @param budget The API budget shared with other background work.
+     * @param checkpoint The checkpoint recording the progress of the run.
+     */
+    PingOneCredentialsBulkRevoker(PingOneCredentialsService client, int parallelism,
+                                  PingOneCredentialsApiBudget budget, PingOneCredentialsCheckpoint checkpoint) {
+        this.client = client;
+        this.budget = budget;
+        this.runner = new PingOneCredentialsBulkRunner(parallelism, checkpoint);
+    }
+
+    /**
+     * Revoke the credentials of the records, skipping the records revoked by a previous run. Returns once every
+     * record has been processed.
+     *
+     * @param accessToken Supplies the access token of the PingOne worker, which may be renewed during the run.
+     * @param worker The worker {@link PingOneWorkerService}.
+     * @param records The credentials to revoke, in a stable order across runs.
+     * @param results Receives the result of each processed record. It is called by one thread at a time.
+     * @param progress Receives the progress and throughput of the run at regular intervals, and once it completes.
+     * @return The progress of the completed run.
+     * @throws InterruptedException If the run is interrupted, in which case the checkpoint is still saved.
+     * @throws IOException If the checkpoint cannot be saved.
+     */
+    PingOneCredentialsBulkRunner.Progress revoke(Supplier<String> accessToken, PingOneWorkerService.Worker worker,
+                                                 Iterator<Record> records, Consumer<Result> results,
+                                                 Consumer<PingOneCredentialsBulkRunner.Progress> progress)
+        throws InterruptedException, IOException {
+        return runner.run(records, record -> record.position, record -> revoke(accessToken, worker, record),
+                          Result::isSuccess, results, progress);
+    }
+
+    private Result revoke(Supplier<String> accessToken, PingOneWorkerService.Worker worker, Record record) {
+        if (StringUtils.isBlank(record.userId) || StringUtils.isBlank(record.credentialId)) {
+            return new Result(record, null, new IllegalArgumentException("Missing PingOne user or credential ID"));
+        }
+        try {
+            RevokeResult outcome = PingOneCredentialsBulkRunner.withRetries(() -> {
+                budget.acquire(PingOneCredentialsApiBudget.Priority.HIGH);
+                return client.revokeCredentialRequest(accessToken.get(), worker, record.userId,
+                                                      record.credentialId);
+            });
+            return new Result(record, outcome, null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Result(record, null, e);
+        } catch (Exception e) {
+            logger.warn("{} Unable to revoke credential {} of user {}: {}", LOGGER_PREFIX, record.credentialId,
+                        record.userId, e.getMessage());
+            return new Result(record, null, e);
+        }
+    }
+
+    /**
+     * A credential to revoke.
+     */
+    static final class Record {
+        final long position;
+        final String userId;
+        final String credentialId;
+
+        /**
+         * Create a record.
+         *
+         * @param position The position of the record in the input.
+         * @param userId The PingOne user ID.
+         * @param credentialId The credential ID.
+         */
+        Record(long position, String userId, String credentialId) {
+            this.position = position;
+            this.userId = userId;
+            this.credentialId = credentialId;
+        }
+    }
+
+    /**
+     * The result of revoking the credential of a record.
+     */
+    static final class Result {
+        final Record record;
+        final RevokeResult outcome;
+        final Exception error;
+
+        private Result(Record record, RevokeResult outcome, Exception error) {
+            this.record = record;
+            this.outcome = outcome;
+            this.error = error;
+        }
+
+        /**
+         * Whether the credential is revoked, including when it did not exist.
+         *
+         * @return true if the credential is revoked, false otherwise.
+         */
+        boolean isSuccess() {
+            return error == null;
+        }
+    }
+}
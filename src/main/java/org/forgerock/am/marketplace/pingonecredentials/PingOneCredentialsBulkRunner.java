@@ -0,0 +1,226 @@
+/*
+ * This code is to be used exclusively in connection with Ping Identity Corporation software or services.
+ * Ping Identity Corporation only offers such software or services to legal entities who have entered into
+ * a binding license agreement with Ping Identity Corporation.
+ *
+ * Copyright 2024 Ping Identity Corporation. All Rights Reserved
+ */
+
+package org.forgerock.am.marketplace.pingonecredentials;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs a bulk operation over a stream of records with bounded parallelism.
+ * <p>
+ * Records are read lazily, with at most twice the parallelism read ahead of the calls, so memory stays constant
+ * however large the input is. Progress is reported live while the run is in progress, and recorded in a
+ * {@link PingOneCredentialsCheckpoint} which is saved every {@link #CHECKPOINT_INTERVAL} and once the run stops,
+ * rather than after each record, so that the workers do not wait on each other to write it. A run started again with
+ * the same input and checkpoint skips the records that succeeded, so after a crash the records which succeeded since
+ * the checkpoint was last saved are processed again. Tasks which must not process a record twice can ask the
+ * checkpoint whether a previous run may have completed the record. Failed records are not recorded, so they are
+ * retried by the next run.
+ * </p>
+ */
+final class PingOneCredentialsBulkRunner {
+
+    /** The number of attempts made for a record before it is reported as failed. */
+    static final int MAX_ATTEMPTS = 3;
+
+    /** The delay before the first retry, doubled for each following retry. */
+    static final Duration RETRY_DELAY = Duration.ofMillis(500);
+
+    /** The interval at which progress is reported. */
+    static final Duration PROGRESS_INTERVAL = Duration.ofSeconds(1);
+
+    /** The interval at which the checkpoint is saved. */
+    static final Duration CHECKPOINT_INTERVAL = Duration.ofSeconds(1);
+
+    private static final Logger logger = LoggerFactory.getLogger(PingOneCredentialsBulkRunner.class);
+    private static final String LOGGER_PREFIX = "[PingOne Credentials Bulk Runner]"
+                                                + PingOneCredentialsPlugin.LOG_APPENDER;
+
+    private final int parallelism;
+    private final PingOneCredentialsCheckpoint checkpoint;
+
+    /**
+     * Create a bulk runner.
+     *
+     * @param parallelism The maximum number of records processed concurrently.
+     * @param checkpoint The checkpoint recording the progress of the run.
+     */
+    PingOneCredentialsBulkRunner(int parallelism, PingOneCredentialsCheckpoint checkpoint) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be at least 1");
+        }
+        this.parallelism = parallelism;
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * Process the records, skipping the records which succeeded in a previous run. Returns once every record has
+     * been processed.
+     *
+     * @param records The records, in a stable order across runs.
+     * @param position The position of a record in the input.
+     * @param task Processes a record and returns its result. It must not throw.
+     * @param success Whether a result is a success.
+     * @param results Receives the result of each processed record. It is called by one thread at a time.
+     * @param progress Receives the progress of the run at regular intervals, and once the run completes.
+     * @param <T> The type of the records.
+     * @param <R> The type of the results.
+     * @return The progress of the completed run.
+     * @throws InterruptedException If the run is interrupted, in which case the checkpoint is still saved.
+     * @throws IOException If the checkpoint cannot be saved.
+     */
+    <T, R> Progress run(Iterator<T> records, ToLongFunction<T> position, Function<T, R> task, Predicate<R> success,
+                        Consumer<R> results, Consumer<Progress> progress) throws InterruptedException, IOException {
+        long start = System.nanoTime();
+        AtomicLong succeeded = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        AtomicLong skipped = new AtomicLong();
+        Supplier<Progress> snapshot = () -> new Progress(succeeded.get(), failed.get(), skipped.get(),
+                                                         Duration.ofNanos(System.nanoTime() - start));
+
+        int maxPending = parallelism * 2;
+        Semaphore pending = new Semaphore(maxPending);
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        ScheduledExecutorService reporter = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("pingone-credentials-bulk-reporter").build());
+        reporter.scheduleAtFixedRate(() -> report(snapshot, progress), PROGRESS_INTERVAL.toMillis(),
+                                     PROGRESS_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+        reporter.scheduleAtFixedRate(this::saveCheckpoint, CHECKPOINT_INTERVAL.toMillis(),
+                                     CHECKPOINT_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+        try {
+            while (records.hasNext()) {
+                T record = records.next();
+                long recordPosition = position.applyAsLong(record);
+                if (checkpoint.isCompleted(recordPosition)) {
+                    skipped.incrementAndGet();
+                    continue;
+                }
+                if (checkpoint.dispatch(recordPosition)) {
+                    checkpoint.save();
+                }
+                pending.acquire();
+                executor.execute(() -> {
+                    try {
+                        R result = task.apply(record);
+                        if (success.test(result)) {
+                            checkpoint.complete(recordPosition);
+                            succeeded.incrementAndGet();
+                        } else {
+                            failed.incrementAndGet();
+                        }
+                        synchronized (results) {
+                            results.accept(result);
+                        }
+                    } finally {
+                        pending.release();
+                    }
+                });
+            }
+            pending.acquire(maxPending);
+        } finally {
+            executor.shutdownNow();
+            reporter.shutdownNow();
+            checkpoint.save();
+        }
+
+        Progress completed = report(snapshot, progress);
+        logger.info("{} Completed with {} succeeded, {} failed, {} skipped in {} ({} per second)", LOGGER_PREFIX,
+                    completed.succeeded, completed.failed, completed.skipped, completed.elapsed,
+                    completed.throughput());
+        return completed;
+    }
+
+    /**
+     * Perform the call, retrying it with an exponential backoff when it fails in a way which shows that PingOne did
+     * not act on it: the connection could not be made, or PingOne throttled the call or failed with a server error.
+     * Any other failure, such as a rejected call or a response which did not arrive in time, is not retried, so
+     * that a call which is not idempotent is never made twice.
+     *
+     * @param call The call.
+     * @param <V> The type of the call result.
+     * @return The call result.
+     * @throws InterruptedException If the thread is interrupted.
+     * @throws Exception The exception thrown by the last attempt.
+     * @see PingOneCredentialsServiceException#isRetryable()
+     */
+    static <V> V withRetries(Callable<V> call) throws Exception {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                return call.call();
+            } catch (PingOneCredentialsServiceException e) {
+                if (!e.isRetryable() || attempt == MAX_ATTEMPTS) {
+                    throw e;
+                }
+            }
+            Thread.sleep(RETRY_DELAY.toMillis() << (attempt - 1));
+        }
+    }
+
+    private Progress report(Supplier<Progress> snapshot, Consumer<Progress> progress) {
+        Progress current = snapshot.get();
+        try {
+            progress.accept(current);
+        } catch (RuntimeException e) {
+            logger.warn("{} Unable to report progress: {}", LOGGER_PREFIX, e.getMessage());
+        }
+        return current;
+    }
+
+    private void saveCheckpoint() {
+        try {
+            checkpoint.save();
+        } catch (IOException e) {
+            logger.warn("{} Unable to save checkpoint: {}", LOGGER_PREFIX, e.getMessage());
+        }
+    }
+
+    /**
+     * The progress of a bulk run.
+     */
+    static final class Progress {
+        final long succeeded;
+        final long failed;
+        final long skipped;
+        final Duration elapsed;
+
+        private Progress(long succeeded, long failed, long skipped, Duration elapsed) {
+            this.succeeded = succeeded;
+            this.failed = failed;
+            this.skipped = skipped;
+            this.elapsed = elapsed;
+        }
+
+        /**
+         * The number of records processed per second by the run.
+         *
+         * @return The throughput.
+         */
+        double throughput() {
+            double seconds = elapsed.toNanos() / 1e9;
+            return seconds == 0 ? 0 : (succeeded + failed) / seconds;
+        }
+    }
+}
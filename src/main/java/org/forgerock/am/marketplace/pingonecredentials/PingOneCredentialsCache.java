@@ -0,0 +1,128 @@
+/*
+ * This code is to be used exclusively in connection with Ping Identity Corporation software or services.
+ * Ping Identity Corporation only offers such software or services to legal entities who have entered into
+ * a binding license agreement with Ping Identity Corporation.
+ *
+ * Copyright 2024 Ping Identity Corporation. All Rights Reserved
+ */
+
+package org.forgerock.am.marketplace.pingonecredentials;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * A bounded, thread safe, least recently used cache with an optional time to live for its entries.
+ *
+ * @param <K> The type of the cache keys.
+ * @param <V> The type of the cached values.
+ */
+public class PingOneCredentialsCache<K, V> {
+
+    private final long ttlMillis;
+    private final LinkedHashMap<K, Entry<V>> entries;
+
+    /**
+     * Create a cache whose entries never expire.
+     *
+     * @param maxEntries The maximum number of entries kept before the least recently used entry is evicted.
+     */
+    PingOneCredentialsCache(int maxEntries) {
+        this(maxEntries, Duration.ZERO);
+    }
+
+    /**
+     * Create a cache whose entries expire after the given time to live.
+     *
+     * @param maxEntries The maximum number of entries kept before the least recently used entry is evicted.
+     * @param ttl The time to live of an entry, or {@link Duration#ZERO} if entries never expire.
+     */
+    PingOneCredentialsCache(int maxEntries, Duration ttl) {
+        this.ttlMillis = ttl == null ? 0 : ttl.toMillis();
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Get the value cached for the key.
+     *
+     * @param key The cache key.
+     * @return The cached value, or empty if the key is absent or its entry has expired.
+     */
+    synchronized Optional<V> get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            return Optional.empty();
+        }
+        if (entry.isExpired()) {
+            entries.remove(key);
+            return Optional.empty();
+        }
+        return Optional.of(entry.value);
+    }
+
+    /**
+     * Cache the value for the key, replacing any existing entry.
+     *
+     * @param key The cache key.
+     * @param value The value to cache.
+     */
+    synchronized void put(K key, V value) {
+        entries.put(key, new Entry<>(value, ttlMillis == 0 ? Long.MAX_VALUE : System.currentTimeMillis() + ttlMillis));
+    }
+
+    /**
+     * Remove the entry for the key.
+     *
+     * @param key The cache key.
+     * @return The removed value, or empty if the key was absent or its entry had expired.
+     */
+    synchronized Optional<V> remove(K key) {
+        Entry<V> entry = entries.remove(key);
+        return entry == null || entry.isExpired() ? Optional.empty() : Optional.of(entry.value);
+    }
+
+    /**
+     * Remove the entry for the key if it has expired.
+     *
+     * @param key The cache key.
+     * @return The value of the removed entry, or empty if the key was absent or its entry has not expired.
+     */
+    synchronized Optional<V> removeExpired(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null || !entry.isExpired()) {
+            return Optional.empty();
+        }
+        entries.remove(key);
+        return Optional.of(entry.value);
+    }
+
+    /**
+     * The number of entries currently held, including entries that have expired but were not yet evicted.
+     *
+     * @return The number of entries.
+     */
+    synchronized int size() {
+        return entries.size();
+    }
+
+    private static final class Entry<V> {
+        private final V value;
+        private final long expiresAt;
+
+        private Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        private boolean isExpired() {
+            return System.currentTimeMillis() >= expiresAt;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * This code is to be used exclusively in connection with Ping Identity Corporation software or services.
+ * Ping Identity Corporation only offers such software or services to legal entities who have entered into
+ * a binding license agreement with Ping Identity Corporation.
+ *
+ * Copyright 2024 Ping Identity Corporation. All Rights Reserved
+ */
+
+package org.forgerock.am.marketplace.pingonecredentials;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Durable progress of a bulk run over a sequence of records, so that an interrupted run can resume where it stopped.
+ * <p>
+ * Records are identified by their position in the input and may complete out of order. The checkpoint keeps a
+ * watermark below which all records are complete, and the ranges of positions of the records completed above it,
+ * which stay few even when many records above the watermark are complete, for example behind a failed record. Readers
+ * which can seek in their input may also track the offset of each record, so that a resumed run restarts reading
+ * close to the watermark instead of from the start of the input. The checkpoint is written to a temporary file
+ * which atomically replaces the previous checkpoint, so a crash never leaves a partial checkpoint behind.
+ * </p>
+ */
+final class PingOneCredentialsCheckpoint {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String WATERMARK = "watermark";
+    private static final String COMPLETED = "completed";
+    private static final String RESUME_POSITION = "resumePosition";
+    private static final String RESUME_OFFSET = "resumeOffset";
+    private static final String DISPATCHED = "dispatched";
+
+    /** The number of records reserved at once by {@link #dispatch(long)}, so the checkpoint is not saved each time. */
+    static final long DISPATCH_AHEAD = 256;
+
+    private final Path path;
+    private final NavigableMap<Long, Long> completed = new TreeMap<>();
+    private final NavigableMap<Long, Long> offsets = new TreeMap<>();
+    private long watermark;
+    private long dispatched;
+    private long previouslyDispatched;
+
+    private PingOneCredentialsCheckpoint(Path path) {
+        this.path = path;
+    }
+
+    /**
+     * Load the checkpoint stored at the path, or start a new one if there is none.
+     *
+     * @param path The checkpoint file.
+     * @return The checkpoint.
+     * @throws IOException If the checkpoint cannot be read.
+     */
+    static PingOneCredentialsCheckpoint load(Path path) throws IOException {
+        PingOneCredentialsCheckpoint checkpoint = new PingOneCredentialsCheckpoint(path);
+        if (Files.exists(path)) {
+            JsonNode stored = MAPPER.readTree(path.toFile());
+            checkpoint.watermark = stored.path(WATERMARK).asLong();
+            for (JsonNode completed : stored.path(COMPLETED)) {
+                if (completed.isArray()) {
+                    checkpoint.completed.put(completed.get(0).asLong(), completed.get(1).asLong());
+                } else {
+                    checkpoint.complete(completed.asLong());
+                }
+            }
+            if (stored.has(RESUME_POSITION)) {
+                checkpoint.offsets.put(stored.get(RESUME_POSITION).asLong(), stored.get(RESUME_OFFSET).asLong());
+            }
+            checkpoint.dispatched = stored.path(DISPATCHED).asLong();
+            checkpoint.previouslyDispatched = checkpoint.dispatched;
+        }
+        return checkpoint;
+    }
+
+    /**
+     * Whether the record at the position was completed by this or a previous run.
+     *
+     * @param position The position of the record in the input.
+     * @return true if the record is complete, false otherwise.
+     */
+    synchronized boolean isCompleted(long position) {
+        if (position < watermark) {
+            return true;
+        }
+        Map.Entry<Long, Long> range = completed.floorEntry(position);
+        return range != null && range.getValue() >= position;
+    }
+
+    /**
+     * Mark the record at the position as complete.
+     *
+     * @param position The position of the record in the input.
+     */
+    synchronized void complete(long position) {
+        if (isCompleted(position)) {
+            return;
+        }
+        // Merge the position with the adjacent ranges, and into the watermark when the range starts at it
+        long start = position;
+        Map.Entry<Long, Long> before = completed.floorEntry(position);
+        if (before != null && before.getValue() == position - 1) {
+            start = before.getKey();
+            completed.remove(start);
+        }
+        Long after = completed.remove(position + 1);
+        long end = after == null ? position : after;
+        if (start == watermark) {
+            watermark = end + 1;
+        } else {
+            completed.put(start, end);
+        }
+        Long resumePosition = offsets.floorKey(watermark);
+        if (resumePosition != null) {
+            offsets.headMap(resumePosition, false).clear();
+        }
+        // A resumed run never restarts reading at a complete record above the watermark
+        if (position > watermark) {
+            offsets.remove(position);
+        }
+    }
+
+    /**
+     * Record that the record at the position is about to be processed. Positions are reserved ahead of the records,
+     * {@link #DISPATCH_AHEAD} at a time, and the checkpoint must be saved before the record is processed whenever a
+     * new reservation is made, so that a resumed run knows every record which a previous run may have processed.
+     *
+     * @param position The position of the record in the input.
+     * @return true if the checkpoint must be saved before the record is processed, false otherwise.
+     */
+    synchronized boolean dispatch(long position) {
+        if (position < dispatched) {
+            return false;
+        }
+        dispatched = position + DISPATCH_AHEAD;
+        return true;
+    }
+
+    /**
+     * Whether the record at the position may have succeeded in a previous run without being recorded, because that
+     * run stopped before the checkpoint was saved again.
+     *
+     * @param position The position of the record in the input.
+     * @return true if the record was processed by a previous run and is not complete, false otherwise.
+     */
+    synchronized boolean mayHaveCompleted(long position) {
+        return position < previouslyDispatched && !isCompleted(position);
+    }
+
+    /**
+     * Track the offset in the input at which the record at the position starts. Records must be tracked before
+     * they can complete.
+     *
+     * @param position The position of the record in the input.
+     * @param offset The offset of the record in the input.
+     */
+    synchronized void track(long position, long offset) {
+        if (position >= watermark) {
+            offsets.put(position, offset);
+        }
+    }
+
+    /**
+     * The position of the record from which a resumed run should restart reading. All records before it are
+     * complete.
+     *
+     * @return The resume position, or 0 if no offset was tracked.
+     */
+    synchronized long resumePosition() {
+        Long resumePosition = offsets.floorKey(watermark);
+        return resumePosition == null ? 0 : resumePosition;
+    }
+
+    /**
+     * The offset in the input of the record at the {@link #resumePosition()}.
+     *
+     * @return The resume offset, or 0 if no offset was tracked.
+     */
+    synchronized long resumeOffset() {
+        Map.Entry<Long, Long> resume = offsets.floorEntry(watermark);
+        return resume == null ? 0 : resume.getValue();
+    }
+
+    /**
+     * The position below which all records are complete.
+     *
+     * @return The watermark.
+     */
+    synchronized long watermark() {
+        return watermark;
+    }
+
+    /**
+     * Durably write the checkpoint.
+     *
+     * @throws IOException If the checkpoint cannot be written.
+     */
+    synchronized void save() throws IOException {
+        Map<String, Object> stored = new LinkedHashMap<>();
+        stored.put(WATERMARK, watermark);
+        List<long[]> ranges = new ArrayList<>(completed.size());
+        completed.forEach((start, end) -> ranges.add(new long[] {start, end}));
+        stored.put(COMPLETED, ranges);
+        Map.Entry<Long, Long> resume = offsets.floorEntry(watermark);
+        if (resume != null) {
+            stored.put(RESUME_POSITION, resume.getKey());
+            stored.put(RESUME_OFFSET, resume.getValue());
+        }
+        stored.put(DISPATCHED, dispatched);
+        writeAtomically(path, MAPPER.writeValueAsBytes(stored));
+    }
+
+    /**
+     * Durably write the file, replacing its previous content atomically.
+     *
+     * @param path The file.
+     * @param bytes The content of the file.
+     * @throws IOException If the file cannot be written.
+     */
+    static void writeAtomically(Path path, byte[] bytes) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, CREATE, WRITE, TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, path, ATOMIC_MOVE, REPLACE_EXISTING);
+    }
+}
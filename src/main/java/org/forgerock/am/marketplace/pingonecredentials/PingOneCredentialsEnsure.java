@@ -0,0 +1,330 @@
+/*
+ * This code is to be used exclusively in connection with Ping Identity Corporation software or services.
+ * Ping Identity Corporation only offers such software or services to legal entities who have entered into
+ * a binding license agreement with Ping Identity Corporation.
+ *
+ * Copyright 2024 Ping Identity Corporation. All Rights Reserved
+ */
+
+package org.forgerock.am.marketplace.pingonecredentials;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.ERROR_OUTCOME_ID;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.EXPIRED;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.ISSUED_OUTCOME_ID;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.OBJECT_ATTRIBUTES;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_CREDENTIAL_ID_KEY;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_USER_ID_KEY;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.RESPONSE_CREDENTIAL_TYPE;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.RESPONSE_DATA;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.RESPONSE_ID;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.RESPONSE_STATUS;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.REVOKED;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.UNCHANGED_OUTCOME_ID;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.UPDATED_OUTCOME_ID;
+
+import com.google.inject.assistedinject.Assisted;
+import org.apache.commons.lang.StringUtils;
+import org.forgerock.json.JsonValue;
+import org.forgerock.openam.annotations.sm.Attribute;
+import org.forgerock.openam.auth.node.api.Action;
+import org.forgerock.openam.auth.node.api.InputState;
+import org.forgerock.openam.auth.node.api.Node;
+import org.forgerock.openam.auth.node.api.NodeState;
+import org.forgerock.openam.auth.node.api.OutcomeProvider;
+import org.forgerock.openam.auth.node.api.OutputState;
+import org.forgerock.openam.auth.node.api.StaticOutcomeProvider;
+import org.forgerock.openam.auth.node.api.TreeContext;
+import org.forgerock.openam.integration.pingone.api.PingOneWorker;
+import org.forgerock.openam.integration.pingone.api.PingOneWorkerService;
+import org.forgerock.openam.core.realms.Realm;
+import org.forgerock.openam.sm.annotations.adapters.TimeUnit;
+import org.forgerock.util.i18n.PreferredLocales;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.ResourceBundle;
+
+/**
+ * The PingOne Credentials Ensure node makes sure a user holds a credential of a type with the mapped attributes. It
+ * issues the credential if the user has none, updates it if its attributes differ and otherwise does nothing.
+ * <p>
+ * Attributes are compared by the hash of their content. The credential ID and attribute hash last seen for a user are
+ * cached for the configured duration, so that a login whose attributes did not change makes no call to PingOne.
+ * </p>
+ */
+@Node.Metadata(
+    outcomeProvider = PingOneCredentialsEnsure.EnsureOutcomeProvider.class,
+    configClass = PingOneCredentialsEnsure.Config.class,
+    tags = {"marketplace", "trustnetwork", "pingone"})
+public class PingOneCredentialsEnsure implements Node {
+
+    /** The maximum number of users whose credential is cached. */
+    static final int MAX_KNOWN_CREDENTIALS = 10000;
+
+    private static final PingOneCredentialsCache<String, KnownCredential> KNOWN_CREDENTIALS =
+        new PingOneCredentialsCache<>(MAX_KNOWN_CREDENTIALS);
+
+    private final Config config;
+    private final Realm realm;
+    private final PingOneWorkerService pingOneWorkerService;
+
+    private final Logger logger = LoggerFactory.getLogger(PingOneCredentialsEnsure.class);
+    private static final String LOGGER_PREFIX = "[PingOne Credentials Ensure Node]" + PingOneCredentialsPlugin.LOG_APPENDER;
+
+    public static final String BUNDLE = PingOneCredentialsEnsure.class.getName();
+    private final PingOneCredentialsService client;
+
+    /**
+     * Configuration for the node.
+     */
+    public interface Config {
+
+        /**
+         * Reference to the PingOne Worker App.
+         *
+         * @return The PingOne Worker App.
+         */
+        @Attribute(order = 100, requiredValue = true)
+        @PingOneWorker
+        PingOneWorkerService.Worker pingOneWorker();
+
+        /**
+         * The shared state attribute containing the PingOne User ID
+         *
+         * @return The PingOne User ID shared state attribute.
+         */
+        @Attribute(order = 200, requiredValue = true)
+        default String pingOneUserIdAttribute() {
+            return PINGONE_USER_ID_KEY;
+        }
+
+        /**
+         * The Credential Type ID of the Credential
+         *
+         * @return The Credential Type ID as a String
+         */
+        @Attribute(order = 300, requiredValue = true)
+        String credentialTypeId();
+
+        /**
+         * The Credential attribute mapping. The Key is the Credential attribute field name and the Value is the shared
+         * state attribute.
+         * @return the attribute mapping for the Credential.
+         */
+        @Attribute(order = 400)
+        Map<String, String> attributes();
+
+        /**
+         * How long the credential of a user is remembered after it was read or written, during which the node
+         * trusts it is unchanged in PingOne.
+         *
+         * @return The cache duration, or zero to read the credentials of the user every time.
+         */
+        @Attribute(order = 500)
+        @TimeUnit(SECONDS)
+        default Duration cacheDuration() {
+            return Duration.ofMinutes(5);
+        }
+    }
+
+    /**
+     * The PingOne Credentials Ensure node constructor.
+     *
+     *
+     * @param config               the node configuration.
+     * @param realm                the realm.
+     * @param pingOneWorkerService the {@link PingOneWorkerService} instance.
+     * @param client               the {@link PingOneCredentialsService} instance.
+     */
+    @Inject
+    PingOneCredentialsEnsure(@Assisted Config config, @Assisted Realm realm,
+                             PingOneWorkerService pingOneWorkerService, PingOneCredentialsService client) {
+        this.config = config;
+        this.realm = realm;
+        this.pingOneWorkerService = pingOneWorkerService;
+        this.client = client;
+    }
+
+    @Override
+    public Action process(TreeContext context) {
+        try {
+            logger.debug("{} Started", LOGGER_PREFIX);
+
+            NodeState nodeState = context.getStateFor(this);
+
+            // Check if PingOne User ID attribute is set in sharedState directly or objectAttributes
+            String pingOneUserId;
+            try {
+                pingOneUserId = new PingOneUserIdHelper().getPingOneUserId(nodeState, config.pingOneUserIdAttribute());
+            } catch (PingOneCredentialsException e) {
+                logger.warn("Expected PingOne User ID to be set in sharedState.");
+                return Action.goTo(ERROR_OUTCOME_ID).build();
+            }
+
+            PingOneWorkerService.Worker worker = config.pingOneWorker();
+            JsonValue attributes = getAttributes(nodeState);
+            String attributesHash = PingOneCredentialsHash.of(attributes);
+            String key = worker.environmentId() + "/" + pingOneUserId + "/" + config.credentialTypeId();
+
+            // The credential was recently read or written with the same attributes
+            Optional<KnownCredential> known = findKnownCredential(key);
+            if (known.isPresent() && known.get().attributesHash.equals(attributesHash)) {
+                logger.debug("{} Credential {} is unchanged", LOGGER_PREFIX, known.get().credentialId);
+                nodeState.putShared(PINGONE_CREDENTIAL_ID_KEY, known.get().credentialId);
+                return Action.goTo(UNCHANGED_OUTCOME_ID).build();
+            }
+
+            // Get PingOne Access Token
+            String accessToken = PingOneCredentialsJourneyMemo.accessToken(
+                context, worker, () -> pingOneWorkerService.getAccessTokenId(realm, worker));
+
+            if (StringUtils.isBlank(accessToken)) {
+                logger.error("Unable to get access token for PingOne Worker.");
+                return Action.goTo(ERROR_OUTCOME_ID).build();
+            }
+
+            JsonValue credential;
+            try (PingOneCredentialsPageIterator credentials = client.listCredentials(accessToken, worker,
+                                                                                     pingOneUserId)) {
+                credential = findCredential(credentials);
+            }
+
+            String credentialId;
+            String outcome;
+            if (credential == null) {
+                JsonValue response = client.credentialIssueRequest(accessToken,
+                                                                   worker,
+                                                                   pingOneUserId,
+                                                                   config.credentialTypeId(),
+                                                                   attributes);
+                credentialId = response.get(RESPONSE_ID).asString();
+                outcome = ISSUED_OUTCOME_ID;
+            } else {
+                credentialId = credential.get(RESPONSE_ID).asString();
+                String currentHash = PingOneCredentialsHash.of(credential.get(RESPONSE_DATA), attributes.keys());
+                if (currentHash.equals(attributesHash)) {
+                    outcome = UNCHANGED_OUTCOME_ID;
+                } else {
+                    client.credentialUpdateRequest(accessToken,
+                                                   worker,
+                                                   pingOneUserId,
+                                                   config.credentialTypeId(),
+                                                   credentialId,
+                                                   attributes);
+                    outcome = UPDATED_OUTCOME_ID;
+                }
+            }
+
+            if (isCacheEnabled()) {
+                KNOWN_CREDENTIALS.put(key, new KnownCredential(credentialId, attributesHash, System.currentTimeMillis()));
+            }
+            logger.debug("{} Credential {} is {}", LOGGER_PREFIX, credentialId, outcome);
+            nodeState.putShared(PINGONE_CREDENTIAL_ID_KEY, credentialId);
+
+            return Action.goTo(outcome).build();
+        } catch (Exception ex) {
+            String stackTrace = org.apache.commons.lang.exception.ExceptionUtils.getStackTrace(ex);
+            logger.error(LOGGER_PREFIX + "Exception occurred: ", ex);
+            NodeState nodeState = context.getStateFor(this);
+
+            nodeState.putTransient(LOGGER_PREFIX + "Exception", ex.getMessage());
+            nodeState.putTransient(LOGGER_PREFIX + "StackTrace", stackTrace);
+
+            return Action.goTo(ERROR_OUTCOME_ID).build();
+        }
+    }
+
+    private boolean isCacheEnabled() {
+        Duration cacheDuration = config.cacheDuration();
+        return cacheDuration != null && !cacheDuration.isZero() && !cacheDuration.isNegative();
+    }
+
+    private Optional<KnownCredential> findKnownCredential(String key) {
+        if (!isCacheEnabled()) {
+            return Optional.empty();
+        }
+        long knownSince = System.currentTimeMillis() - config.cacheDuration().toMillis();
+        return KNOWN_CREDENTIALS.get(key).filter(known -> known.knownAt >= knownSince);
+    }
+
+    /**
+     * Find the credential of the configured type which is neither revoked nor expired, without reading the pages
+     * after it.
+     */
+    private JsonValue findCredential(Iterator<JsonValue> credentials) {
+        while (credentials.hasNext()) {
+            JsonValue credential = credentials.next();
+            String status = credential.get(RESPONSE_STATUS).asString();
+            if (config.credentialTypeId().equals(credential.get(RESPONSE_CREDENTIAL_TYPE).get(RESPONSE_ID).asString())
+                && !REVOKED.equals(status) && !EXPIRED.equals(status)) {
+                return credential;
+            }
+        }
+        return null;
+    }
+
+    private JsonValue getAttributes(NodeState sharedState) {
+        return PingOneCredentialsAttributeMapping.map(config.attributes(), sharedState);
+    }
+
+    @Override
+    public InputState[] getInputs() {
+
+        List<InputState> inputs = new ArrayList<>();
+
+        inputs.add(new InputState(config.pingOneUserIdAttribute(), false));
+        inputs.add(new InputState(OBJECT_ATTRIBUTES, false));
+
+        config.attributes().forEach(
+            (k, v) -> {
+                inputs.add(new InputState(v, false));
+            });
+
+        return inputs.toArray(new InputState[]{});
+    }
+
+    @Override
+    public OutputState[] getOutputs() {
+        return new OutputState[]{
+            new OutputState(PINGONE_CREDENTIAL_ID_KEY)
+        };
+    }
+
+    public static class EnsureOutcomeProvider implements StaticOutcomeProvider {
+        @Override
+        public List<Outcome> getOutcomes(PreferredLocales locales) {
+            ResourceBundle bundle = locales.getBundleInPreferredLocale(PingOneCredentialsEnsure.BUNDLE,
+                                                                       OutcomeProvider.class.getClassLoader());
+            List<Outcome> results = new ArrayList<>();
+            results.add(new Outcome(ISSUED_OUTCOME_ID, bundle.getString("issuedOutcome")));
+            results.add(new Outcome(UPDATED_OUTCOME_ID, bundle.getString("updatedOutcome")));
+            results.add(new Outcome(UNCHANGED_OUTCOME_ID, bundle.getString("unchangedOutcome")));
+            results.add(new Outcome(ERROR_OUTCOME_ID, bundle.getString("errorOutcome")));
+            return Collections.unmodifiableList(results);
+        }
+    }
+
+    /**
+     * The credential of a user as last read or written by the node.
+     */
+    private static final class KnownCredential {
+        private final String credentialId;
+        private final String attributesHash;
+        private final long knownAt;
+
+        private KnownCredential(String credentialId, String attributesHash, long knownAt) {
+            this.credentialId = credentialId;
+            this.attributesHash = attributesHash;
+            this.knownAt = knownAt;
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * This code is to be used exclusively in connection with Ping Identity Corporation software or services.
+ * Ping Identity Corporation only offers such software or services to legal entities who have entered into
+ * a binding license agreement with Ping Identity Corporation.
+ *
+ * Copyright 2024 Ping Identity Corporation. All Rights Reserved
+ */
+
+package org.forgerock.am.marketplace.pingonecredentials;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.function.Consumer;
+
+import org.forgerock.json.JsonValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Makes a batch of PingOne calls concurrently on the {@link PingOneCredentialsAsyncService} and waits for all of
+ * them, so that a node makes several calls in about the time of one.
+ * <p>
+ * At most the given number of calls are in flight at a time, later calls starting as earlier ones complete. A call
+ * which the async service rejects, because too many calls are waiting, is made on the calling thread. The result of
+ * a call which completes after the timeout can be undone by a cleanup.
+ * </p>
+ */
+final class PingOneCredentialsFanOut {
+
+    private static final Logger logger = LoggerFactory.getLogger(PingOneCredentialsFanOut.class);
+    private static final String LOGGER_PREFIX = "[PingOne Credentials Fan Out]" + PingOneCredentialsPlugin.LOG_APPENDER;
+
+    private PingOneCredentialsFanOut() {
+    }
+
+    /**
+     * Make the calls, and wait for them to complete.
+     *
+     * @param asyncService The {@link PingOneCredentialsAsyncService} instance.
+     * @param calls The calls to make.
+     * @param parallelism The maximum number of calls in flight at a time.
+     * @param timeout The maximum time to wait for all the calls.
+     * @return The result of each call, in the order of the calls. A result is empty if its call failed or did not
+     * complete in time.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    static List<Optional<JsonValue>> run(PingOneCredentialsAsyncService asyncService, List<Callable<JsonValue>> calls,
+                                         int parallelism, Duration timeout) throws InterruptedException {
+        return run(asyncService, calls, parallelism, timeout, late -> { });
+    }
+
+    /**
+     * Make the calls, and wait for them to complete, undoing the result of the calls which complete too late.
+     *
+     * @param asyncService The {@link PingOneCredentialsAsyncService} instance.
+     * @param calls The calls to make.
+     * @param parallelism The maximum number of calls in flight at a time.
+     * @param timeout The maximum time to wait for all the calls.
+     * @param lateCleanup Receives the result of a call which completes after the timeout, so that it can be undone.
+     * @return The result of each call, in the order of the calls. A result is empty if its call failed or did not
+     * complete in time.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    static List<Optional<JsonValue>> run(PingOneCredentialsAsyncService asyncService, List<Callable<JsonValue>> calls,
+                                         int parallelism, Duration timeout, Consumer<JsonValue> lateCleanup)
+        throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout.toMillis();
+        List<Optional<JsonValue>> results = new ArrayList<>(calls.size());
+        Deque<Optional<String>> inFlight = new ArrayDeque<>();
+        int next = 0;
+        while (results.size() < calls.size()) {
+            while (next < calls.size() && inFlight.size() < Math.max(1, parallelism)) {
+                inFlight.add(asyncService.submit(calls.get(next++)));
+            }
+            Optional<String> handle = inFlight.remove();
+            if (handle.isPresent()) {
+                Duration remaining = Duration.ofMillis(Math.max(0, deadline - System.currentTimeMillis()));
+                results.add(asyncService.claim(handle.get(), remaining, lateCleanup));
+            } else {
+                results.add(call(calls.get(results.size())));
+            }
+        }
+        return results;
+    }
+
+    private static Optional<JsonValue> call(Callable<JsonValue> call) {
+        try {
+            return Optional.ofNullable(call.call());
+        } catch (Exception e) {
+            logger.warn("{} Call failed: {}", LOGGER_PREFIX, e.getMessage());
+            return Optional.empty();
+        }
+    }
+}
@@ -68,9 +68,13 @@ public class PingOneCredentialsFindWallets implements Node {
     private final Logger logger = LoggerFactory.getLogger(PingOneCredentialsFindWallets.class);
     private static final String LOGGER_PREFIX = "[PingOne Credentials Find Wallets Node]" + PingOneCredentialsPlugin.LOG_APPENDER;
 
+    /** The wallet fields kept in pingOneActiveWallets when the wallets are stored compressed. */
+    private static final List<String> WALLET_SUMMARY_FIELDS = List.of("/id", "/status", "/applicationInstance/id");
+
     public static final String BUNDLE = PingOneCredentialsFindWallets.class.getName();
 
     private final PingOneCredentialsService client;
+    private final PingOneCredentialsAsyncService asyncService;
 
 
     /**
@@ -96,6 +100,46 @@ public class PingOneCredentialsFindWallets implements Node {
         default String pingOneUserIdAttribute() {
             return PINGONE_USER_ID_KEY;
         }
+
+        /**
+         * The JSON pointers of the wallet fields to store in the shared state. All fields are stored when empty.
+         *
+         * @return The JSON pointers of the wallet fields to store.
+         */
+        @Attribute(order = 300)
+        default List<String> walletFields() {
+            return Collections.emptyList();
+        }
+
+        /**
+         * The maximum size in bytes of the active wallets stored in the shared state.
+         *
+         * @return The maximum size in bytes, or 0 for no limit.
+         */
+        @Attribute(order = 400)
+        default int maxStoredWalletsSize() {
+            return 0;
+        }
+
+        /**
+         * Toggle if large lists of active wallets should be stored compressed in the shared state.
+         *
+         * @return true if large lists of active wallets should be compressed, false otherwise.
+         */
+        @Attribute(order = 500)
+        default boolean compressStoredWallets() {
+            return false;
+        }
+
+        /**
+         * Send a second copy of the wallets read when PingOne is slower than usual to respond.
+         *
+         * @return true if slow wallet reads should be hedged, false otherwise.
+         */
+        @Attribute(order = 600)
+        default boolean hedgeReads() {
+            return false;
+        }
     }
 
     /**
@@ -105,14 +149,17 @@ public class PingOneCredentialsFindWallets implements Node {
      * @param realm                the realm.
      * @param pingOneWorkerService the {@link PingOneWorkerService} instance.
      * @param client               the {@link PingOneCredentialsService} instance.
+     * @param asyncService         the {@link PingOneCredentialsAsyncService} instance.
      */
     @Inject
     PingOneCredentialsFindWallets(@Assisted Config config, @Assisted Realm realm,
-                                  PingOneWorkerService pingOneWorkerService, PingOneCredentialsService client) {
+                                  PingOneWorkerService pingOneWorkerService, PingOneCredentialsService client,
+                                  PingOneCredentialsAsyncService asyncService) {
         this.config = config;
         this.realm = realm;
         this.pingOneWorkerService = pingOneWorkerService;
         this.client = client;
+        this.asyncService = asyncService;
     }
 
     @Override
@@ -133,14 +180,20 @@ public class PingOneCredentialsFindWallets implements Node {
 
             // Get PingOne Access Token
             PingOneWorkerService.Worker worker = config.pingOneWorker();
-            String accessToken = pingOneWorkerService.getAccessTokenId(realm, worker);
+            PingOneCredentialsJourneyMemo.usePrefetched(context, nodeState, asyncService);
+            String accessToken = PingOneCredentialsJourneyMemo.accessToken(
+                context, worker, () -> pingOneWorkerService.getAccessTokenId(realm, worker));
 
             if (StringUtils.isBlank(accessToken)) {
                 logger.error("Unable to get access token for PingOne Worker.");
                 return Action.goTo(ERROR_OUTCOME_ID).build();
             }
 
-            JsonValue response = client.findWalletRequest(accessToken, worker, pingOneUserId);
+            // Every page is read, as all the active wallets are stored, and the whole listing is memoized for the
+            // following nodes of the journey and may have been prefetched
+            JsonValue response = PingOneCredentialsJourneyMemo.wallets(
+                nodeState, pingOneUserId,
+                () -> client.findWalletRequest(accessToken, worker, pingOneUserId, config.hedgeReads()));
 
             JsonValue wallets = response.get(RESPONSE_EMBEDDED).get(RESPONSE_DIGITALWALLETS);
             JsonValue activeWallets = json(array());
@@ -166,11 +219,11 @@ public class PingOneCredentialsFindWallets implements Node {
                 nodeState.putShared(PINGONE_WALLET_ID_KEY, walletId);
                 nodeState.putShared(PINGONE_APPLICATION_INSTANCE_ID_KEY, applicationInstanceId);
 
-                nodeState.putShared(PINGONE_ACTIVE_WALLETS_DATA_KEY, activeWallets);
+                storeActiveWallets(nodeState, activeWallets);
                 return Action.goTo(SUCCESS_OUTCOME_ID).build();
             } else {
 
-                nodeState.putShared(PINGONE_ACTIVE_WALLETS_DATA_KEY, activeWallets);
+                storeActiveWallets(nodeState, activeWallets);
                 return Action.goTo(SUCCESS_MULTI_OUTCOME_ID).build();
             }
         } catch (Exception ex) {
@@ -185,6 +238,21 @@ public class PingOneCredentialsFindWallets implements Node {
         }
     }
 
+    private void storeActiveWallets(NodeState nodeState, JsonValue activeWallets) {
+        JsonValue projection = PingOneCredentialsJsonProjection.projectEach(activeWallets, config.walletFields());
+        JsonValue stored = config.compressStoredWallets() ? PingOneCredentialsStateCodec.encode(projection)
+                                                          : projection;
+
+        if (PingOneCredentialsJsonProjection.exceedsSize(stored, config.maxStoredWalletsSize())) {
+            logger.warn("{} Active wallets exceed {} bytes and were not stored in sharedState.", LOGGER_PREFIX,
+                        config.maxStoredWalletsSize());
+            return;
+        }
+        PingOneCredentialsStateCodec.store(nodeState, PINGONE_ACTIVE_WALLETS_DATA_KEY, stored,
+                                           PingOneCredentialsJsonProjection.projectEach(projection,
+                                                                                        WALLET_SUMMARY_FIELDS));
+    }
+
     @Override
     public InputState[] getInputs() {
         return new InputState[] {
@@ -197,7 +265,9 @@ public class PingOneCredentialsFindWallets implements Node {
     public OutputState[] getOutputs() {
         return new OutputState[]{
             new OutputState(PINGONE_WALLET_ID_KEY),
-            new OutputState(PINGONE_APPLICATION_INSTANCE_ID_KEY)
+            new OutputState(PINGONE_APPLICATION_INSTANCE_ID_KEY),
+            new OutputState(PINGONE_ACTIVE_WALLETS_DATA_KEY),
+            new OutputState(PingOneCredentialsStateCodec.compressedKey(PINGONE_ACTIVE_WALLETS_DATA_KEY))
         };
     }
 
@@ -0,0 +1,78 @@
+/*
+ * This code is to be used exclusively in connection with Ping Identity Corporation software or services.
+ * Ping Identity Corporation only offers such software or services to legal entities who have entered into
+ * a binding license agreement with Ping Identity Corporation.
+ *
+ * Copyright 2024 Ping Identity Corporation. All Rights Reserved
+ */
+
+package org.forgerock.am.marketplace.pingonecredentials;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.forgerock.json.JsonValue;
+
+import com.google.common.hash.Hashing;
+
+/**
+ * Hashes the content of credential attributes, so that the attributes a node would write can be compared with the
+ * attributes PingOne already holds without keeping either.
+ * <p>
+ * The hash is computed over a canonical form of the JSON, in which the fields of objects are sorted by name, so that
+ * the same attributes always have the same hash whatever the order of the attribute mapping or of the PingOne
+ * response.
+ * </p>
+ */
+final class PingOneCredentialsHash {
+
+    private PingOneCredentialsHash() {
+    }
+
+    /**
+     * Hash the content of a JSON value.
+     *
+     * @param value The JSON value.
+     * @return The SHA-256 hash of the canonical form of the value, as a hexadecimal string.
+     */
+    static String of(JsonValue value) {
+        Object canonical = value == null ? null : canonical(value.getObject());
+        return Hashing.sha256().hashString(new JsonValue(canonical).toString(), UTF_8).toString();
+    }
+
+    /**
+     * Hash the content of the given fields of a JSON object, ignoring its other fields.
+     *
+     * @param value The JSON object.
+     * @param fields The names of the fields to hash.
+     * @return The SHA-256 hash of the canonical form of the fields, as a hexadecimal string.
+     */
+    static String of(JsonValue value, Iterable<String> fields) {
+        Map<String, Object> selected = new TreeMap<>();
+        for (String field : fields) {
+            if (value.isDefined(field)) {
+                selected.put(field, value.get(field).getObject());
+            }
+        }
+        return of(new JsonValue(selected));
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object canonical(Object value) {
+        if (value instanceof Map) {
+            Map<String, Object> sorted = new TreeMap<>();
+            ((Map<String, Object>) value).forEach((k, v) -> sorted.put(k, canonical(v)));
+            return sorted;
+        }
+        if (value instanceof List) {
+            List<Object> list = new ArrayList<>();
+            ((List<Object>) value).forEach(v -> list.add(canonical(v)));
+            return list;
+        }
+        return value;
+    }
+}
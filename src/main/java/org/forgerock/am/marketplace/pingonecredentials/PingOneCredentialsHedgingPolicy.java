@@ -0,0 +1,101 @@
+/*
+ * This code is to be used exclusively in connection with Ping Identity Corporation software or services.
+ * Ping Identity Corporation only offers such software or services to legal entities who have entered into
+ * a binding license agreement with Ping Identity Corporation.
+ *
+ * Copyright 2024 Ping Identity Corporation. All Rights Reserved
+ */
+
+package org.forgerock.am.marketplace.pingonecredentials;
+
+import java.util.Arrays;
+import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Policy deciding when an idempotent read to PingOne should be hedged with a second copy of the request.
+ * <p>
+ * The latency of each operation is tracked over its most recent calls, and a read is hedged once it has been
+ * outstanding for longer than the observed p95 latency of its operation. Hedges are paid for from a budget which
+ * every read tops up by {@link #HEDGE_RATIO}, so hedging adds at most that share of extra calls over time.
+ * </p>
+ */
+final class PingOneCredentialsHedgingPolicy {
+
+    /** The number of most recent latencies tracked per operation. */
+    static final int SAMPLE_SIZE = 128;
+
+    /** The number of latencies required before an operation is hedged. */
+    static final int MIN_SAMPLES = 20;
+
+    /** The latency percentile after which a read is hedged. */
+    static final double PERCENTILE = 0.95;
+
+    /** The share of reads which may be hedged. */
+    static final double HEDGE_RATIO = 0.05;
+
+    /** The maximum number of hedges which may be sent in a burst. */
+    static final double MAX_BUDGET = 10;
+
+    private final ConcurrentMap<String, LatencyTracker> trackers = new ConcurrentHashMap<>();
+    private double budget;
+
+    /**
+     * Record the latency of a read and top up the hedge budget.
+     *
+     * @param operation The operation name.
+     * @param latencyMillis The latency in milliseconds.
+     */
+    void record(String operation, long latencyMillis) {
+        trackers.computeIfAbsent(operation, key -> new LatencyTracker()).record(latencyMillis);
+        synchronized (this) {
+            budget = Math.min(MAX_BUDGET, budget + HEDGE_RATIO);
+        }
+    }
+
+    /**
+     * The delay after which a read of the operation should be hedged.
+     *
+     * @param operation The operation name.
+     * @return The delay in milliseconds, or empty if too few latencies were recorded for the operation.
+     */
+    OptionalLong hedgeDelay(String operation) {
+        LatencyTracker tracker = trackers.get(operation);
+        return tracker == null ? OptionalLong.empty() : tracker.percentile(PERCENTILE);
+    }
+
+    /**
+     * Take a hedge from the budget.
+     *
+     * @return true if the budget allows a hedge, false otherwise.
+     */
+    synchronized boolean tryAcquireHedge() {
+        if (budget < 1) {
+            return false;
+        }
+        budget--;
+        return true;
+    }
+
+    private static final class LatencyTracker {
+        private final long[] samples = new long[SAMPLE_SIZE];
+        private long count;
+
+        private synchronized void record(long latencyMillis) {
+            samples[(int) (count++ % SAMPLE_SIZE)] = latencyMillis;
+        }
+
+        private OptionalLong percentile(double percentile) {
+            long[] sorted;
+            synchronized (this) {
+                if (count < MIN_SAMPLES) {
+                    return OptionalLong.empty();
+                }
+                sorted = Arrays.copyOf(samples, (int) Math.min(count, SAMPLE_SIZE));
+            }
+            Arrays.sort(sorted);
+            return OptionalLong.of(sorted[(int) Math.ceil(percentile * sorted.length) - 1]);
+        }
+    }
+}
@@ -14,6 +14,8 @@ import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_USER_ID_KEY;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.RESPONSE_ID;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.SUCCESS_OUTCOME_ID;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
 
 import com.google.inject.assistedinject.Assisted;
 
@@ -36,12 +38,16 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.ResourceBundle;
+import java.util.concurrent.Callable;
 
 /**
  * The PingOne Credentials Issue node lets you create a PingOne credential in a
@@ -62,6 +68,7 @@ public class PingOneCredentialsIssue implements Node {
 
     public static final String BUNDLE = PingOneCredentialsIssue.class.getName();
     private final PingOneCredentialsService client;
+    private final PingOneCredentialsIssueOutbox issueOutbox;
 
 
     /**
@@ -103,6 +110,38 @@ public class PingOneCredentialsIssue implements Node {
          */
         @Attribute(order = 400)
         Map<String, String> attributes();
+
+        /**
+         * Write the issue request to a durable outbox and continue the journey, the credential being issued in the
+         * background.
+         *
+         * @return true if the credential should be issued in the background, false otherwise.
+         */
+        @Attribute(order = 500)
+        default boolean asyncIssue() {
+            return false;
+        }
+
+        /**
+         * The directory of the outbox holding the issue requests waiting to be sent.
+         *
+         * @return The outbox directory.
+         */
+        @Attribute(order = 600)
+        default String outboxDirectory() {
+            return "";
+        }
+
+        /**
+         * The identity attribute to which the ID of a credential issued in the background is written back, on a later
+         * journey of the user through the node.
+         *
+         * @return The identity attribute name, or empty to not write back the credential ID.
+         */
+        @Attribute(order = 700)
+        default String credentialIdAttribute() {
+            return "";
+        }
     }
 
     /**
@@ -113,14 +152,17 @@ public class PingOneCredentialsIssue implements Node {
      * @param realm                the realm.
      * @param pingOneWorkerService the {@link PingOneWorkerService} instance.
      * @param client               the {@link PingOneCredentialsService} instance.
+     * @param issueOutbox          the {@link PingOneCredentialsIssueOutbox} instance.
      */
     @Inject
     PingOneCredentialsIssue(@Assisted Config config, @Assisted Realm realm,
-                            PingOneWorkerService pingOneWorkerService, PingOneCredentialsService client) {
+                            PingOneWorkerService pingOneWorkerService, PingOneCredentialsService client,
+                            PingOneCredentialsIssueOutbox issueOutbox) {
         this.config = config;
         this.realm = realm;
         this.pingOneWorkerService = pingOneWorkerService;
         this.client = client;
+        this.issueOutbox = issueOutbox;
     }
 
     @Override
@@ -139,9 +181,16 @@ public class PingOneCredentialsIssue implements Node {
                 return Action.goTo(ERROR_OUTCOME_ID).build();
             }
 
-            // Get PingOne Access Token
             PingOneWorkerService.Worker worker = config.pingOneWorker();
-            String accessToken = pingOneWorkerService.getAccessTokenId(realm, worker);
+
+            // Issue the credential in the background, unless the outbox cannot be used
+            if (config.asyncIssue() && issueInBackground(nodeState, worker, pingOneUserId)) {
+                return Action.goTo(SUCCESS_OUTCOME_ID).build();
+            }
+
+            // Get PingOne Access Token
+            String accessToken = PingOneCredentialsJourneyMemo.accessToken(
+                context, worker, () -> pingOneWorkerService.getAccessTokenId(realm, worker));
 
             if (StringUtils.isBlank(accessToken)) {
                 logger.error("Unable to get access token for PingOne Worker.");
@@ -169,17 +218,48 @@ public class PingOneCredentialsIssue implements Node {
         }
     }
 
-    private JsonValue getAttributes(NodeState sharedState) {
-        JsonValue attributes = new JsonValue(new LinkedHashMap<String, Object>(1));
+    private boolean issueInBackground(NodeState nodeState, PingOneWorkerService.Worker worker, String pingOneUserId) {
+        if (StringUtils.isBlank(config.outboxDirectory())) {
+            logger.warn("{} No outbox directory configured, issuing the credential immediately", LOGGER_PREFIX);
+            return false;
+        }
+        Path directory = Paths.get(config.outboxDirectory());
+        Callable<String> accessToken = () -> pingOneWorkerService.getAccessTokenId(realm, worker);
+        try {
+            // Write back the credential issued in the background on a previous journey, instead of issuing another
+            Optional<String> delivered = issueOutbox.takeDelivered(directory, worker, accessToken, pingOneUserId,
+                                                                   config.credentialTypeId());
+            if (delivered.isPresent()) {
+                writeBackCredentialId(nodeState, delivered.get());
+                return true;
+            }
 
-        config.attributes().forEach(
-            (k, v) -> {
-                if (sharedState.isDefined(v)) {
-                    attributes.put(k, sharedState.get(v));
-                }
-            });
+            if (!issueOutbox.enqueue(directory, realm, worker, accessToken, pingOneUserId,
+                                     config.credentialTypeId(), getAttributes(nodeState))) {
+                logger.debug("{} Credential of user {} is already being issued", LOGGER_PREFIX, pingOneUserId);
+            }
+            return true;
+        } catch (IOException e) {
+            logger.warn(LOGGER_PREFIX + "Unable to use the outbox, issuing the credential immediately: ", e);
+            return false;
+        }
+    }
 
-        return attributes;
+    private void writeBackCredentialId(NodeState nodeState, String credentialId) {
+        nodeState.putShared(PINGONE_CREDENTIAL_ID_KEY, credentialId);
+        String attribute = config.credentialIdAttribute();
+        if (StringUtils.isBlank(attribute)) {
+            return;
+        }
+        JsonValue objectAttributes = nodeState.isDefined(OBJECT_ATTRIBUTES)
+                                     ? nodeState.get(OBJECT_ATTRIBUTES).copy()
+                                     : json(object());
+        objectAttributes.put(attribute, credentialId);
+        nodeState.putShared(OBJECT_ATTRIBUTES, objectAttributes);
+    }
+
+    private JsonValue getAttributes(NodeState sharedState) {
+        return PingOneCredentialsAttributeMapping.map(config.attributes(), sharedState);
     }
 
     @Override
@@ -200,9 +280,14 @@ public class PingOneCredentialsIssue implements Node {
 
     @Override
     public OutputState[] getOutputs() {
-        return new OutputState[]{
-            new OutputState(PINGONE_CREDENTIAL_ID_KEY)
-        };
+        List<OutputState> outputs = new ArrayList<>();
+
+        outputs.add(new OutputState(PINGONE_CREDENTIAL_ID_KEY));
+        if (config.asyncIssue() && StringUtils.isNotBlank(config.credentialIdAttribute())) {
+            outputs.add(new OutputState(OBJECT_ATTRIBUTES));
+        }
+
+        return outputs.toArray(new OutputState[]{});
     }
 
     public static class IssueOutcomeProvider implements StaticOutcomeProvider {
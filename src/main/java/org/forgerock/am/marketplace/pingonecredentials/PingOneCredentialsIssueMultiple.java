@@ -0,0 +1,279 @@
+/*
+ * This code is to be used exclusively in connection with Ping Identity Corporation software or services.
+ * Ping Identity Corporation only offers such software or services to legal entities who have entered into
+ * a binding license agreement with Ping Identity Corporation.
+ *
+ * Copyright 2024 Ping Identity Corporation. All Rights Reserved
+ */
+
+package org.forgerock.am.marketplace.pingonecredentials;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.ERROR_OUTCOME_ID;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.OBJECT_ATTRIBUTES;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_CREDENTIAL_IDS_KEY;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_USER_ID_KEY;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.RESPONSE_ID;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.SUCCESS_OUTCOME_ID;
+
+import com.google.inject.assistedinject.Assisted;
+
+import org.apache.commons.lang.StringUtils;
+import org.forgerock.json.JsonValue;
+import org.forgerock.openam.annotations.sm.Attribute;
+import org.forgerock.openam.auth.node.api.Action;
+import org.forgerock.openam.auth.node.api.InputState;
+import org.forgerock.openam.auth.node.api.Node;
+import org.forgerock.openam.auth.node.api.NodeState;
+import org.forgerock.openam.auth.node.api.OutcomeProvider;
+import org.forgerock.openam.auth.node.api.OutputState;
+import org.forgerock.openam.auth.node.api.StaticOutcomeProvider;
+import org.forgerock.openam.auth.node.api.TreeContext;
+import org.forgerock.openam.integration.pingone.api.PingOneWorker;
+import org.forgerock.openam.integration.pingone.api.PingOneWorkerService;
+import org.forgerock.openam.core.realms.Realm;
+import org.forgerock.openam.sm.annotations.adapters.TimeUnit;
+import org.forgerock.util.i18n.PreferredLocales;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.ResourceBundle;
+import java.util.concurrent.Callable;
+
+/**
+ * The PingOne Credentials Issue Multiple node lets you create several PingOne credentials of different types in a
+ * journey, the credentials being issued concurrently.
+ */
+@Node.Metadata(
+    outcomeProvider = PingOneCredentialsIssueMultiple.IssueMultipleOutcomeProvider.class,
+    configClass = PingOneCredentialsIssueMultiple.Config.class,
+    tags = {"marketplace", "trustnetwork", "pingone"})
+public class PingOneCredentialsIssueMultiple implements Node {
+
+    /** The separator between the credential type ID and the credential attribute name in the attribute mapping. */
+    static final String TYPE_SEPARATOR = ":";
+
+    /** The default maximum time to wait for all the credentials to be issued. */
+    static final Duration DEFAULT_ISSUE_TIMEOUT = Duration.ofSeconds(30);
+
+    private final Config config;
+    private final Realm realm;
+    private final PingOneWorkerService pingOneWorkerService;
+    private final PingOneCredentialsService client;
+    private final PingOneCredentialsAsyncService asyncService;
+
+    private final Logger logger = LoggerFactory.getLogger(PingOneCredentialsIssueMultiple.class);
+    private static final String LOGGER_PREFIX = "[PingOne Credentials Issue Multiple Node]" + PingOneCredentialsPlugin.LOG_APPENDER;
+
+    public static final String BUNDLE = PingOneCredentialsIssueMultiple.class.getName();
+
+    /**
+     * Configuration for the node.
+     */
+    public interface Config {
+
+        /**
+         * Reference to the PingOne Worker App.
+         *
+         * @return The PingOne Worker App.
+         */
+        @Attribute(order = 100, requiredValue = true)
+        @PingOneWorker
+        PingOneWorkerService.Worker pingOneWorker();
+
+        /**
+         * The shared state attribute containing the PingOne User ID
+         *
+         * @return The PingOne User ID shared state attribute.
+         */
+        @Attribute(order = 200, requiredValue = true)
+        default String pingOneUserIdAttribute() {
+            return PINGONE_USER_ID_KEY;
+        }
+
+        /**
+         * The Credential Type IDs of the Credentials to issue.
+         *
+         * @return The Credential Type IDs.
+         */
+        @Attribute(order = 300, requiredValue = true)
+        List<String> credentialTypeIds();
+
+        /**
+         * The Credential attribute mapping. The Key is the Credential Type ID and the Credential attribute field name
+         * separated by a colon, and the Value is the shared state attribute.
+         *
+         * @return the attribute mapping for the Credentials.
+         */
+        @Attribute(order = 400)
+        Map<String, String> attributes();
+
+        /**
+         * The maximum time to wait for all the credentials to be issued.
+         *
+         * @return The maximum time to wait.
+         */
+        @Attribute(order = 500)
+        @TimeUnit(SECONDS)
+        default Duration issueTimeout() {
+            return DEFAULT_ISSUE_TIMEOUT;
+        }
+    }
+
+    /**
+     * The PingOne Credentials Issue Multiple node constructor.
+     *
+     * @param config               the node configuration.
+     * @param realm                the realm.
+     * @param pingOneWorkerService the {@link PingOneWorkerService} instance.
+     * @param client               the {@link PingOneCredentialsService} instance.
+     * @param asyncService         the {@link PingOneCredentialsAsyncService} instance.
+     */
+    @Inject
+    PingOneCredentialsIssueMultiple(@Assisted Config config, @Assisted Realm realm,
+                                    PingOneWorkerService pingOneWorkerService, PingOneCredentialsService client,
+                                    PingOneCredentialsAsyncService asyncService) {
+        this.config = config;
+        this.realm = realm;
+        this.pingOneWorkerService = pingOneWorkerService;
+        this.client = client;
+        this.asyncService = asyncService;
+    }
+
+    @Override
+    public Action process(TreeContext context) {
+        try {
+            logger.debug("{} Started", LOGGER_PREFIX);
+
+            NodeState nodeState = context.getStateFor(this);
+
+            // Check if PingOne User ID attribute is set in sharedState directly or objectAttributes
+            String pingOneUserId;
+            try {
+                pingOneUserId = new PingOneUserIdHelper().getPingOneUserId(nodeState, config.pingOneUserIdAttribute());
+            } catch (PingOneCredentialsException e) {
+                logger.warn("Expected PingOne User ID to be set in sharedState.");
+                return Action.goTo(ERROR_OUTCOME_ID).build();
+            }
+
+            // Get PingOne Access Token
+            PingOneWorkerService.Worker worker = config.pingOneWorker();
+            String accessToken = PingOneCredentialsJourneyMemo.accessToken(
+                context, worker, () -> pingOneWorkerService.getAccessTokenId(realm, worker));
+
+            if (StringUtils.isBlank(accessToken)) {
+                logger.error("Unable to get access token for PingOne Worker.");
+                return Action.goTo(ERROR_OUTCOME_ID).build();
+            }
+
+            // Issue the credentials concurrently, each credential type once even if it is listed twice
+            List<String> credentialTypeIds = new ArrayList<>(new LinkedHashSet<>(config.credentialTypeIds()));
+            List<Callable<JsonValue>> issues = new ArrayList<>();
+            for (String credentialTypeId : credentialTypeIds) {
+                JsonValue attributes = getAttributes(nodeState, credentialTypeId);
+                issues.add(() -> client.credentialIssueRequest(accessToken, worker, pingOneUserId, credentialTypeId,
+                                                               attributes));
+            }
+            Duration timeout = config.issueTimeout() != null ? config.issueTimeout() : DEFAULT_ISSUE_TIMEOUT;
+            List<Optional<JsonValue>> results = PingOneCredentialsFanOut.run(
+                asyncService, issues, issues.size(), timeout,
+                late -> revokeLate(accessToken, worker, pingOneUserId, late.get(RESPONSE_ID).asString()));
+
+            boolean issued = true;
+            Map<String, String> credentialIds = new LinkedHashMap<>();
+            for (int i = 0; i < results.size(); i++) {
+                if (results.get(i).isPresent()) {
+                    credentialIds.put(credentialTypeIds.get(i), results.get(i).get().get(RESPONSE_ID).asString());
+                } else {
+                    logger.error("{} Unable to issue a credential of type {}", LOGGER_PREFIX, credentialTypeIds.get(i));
+                    issued = false;
+                }
+            }
+
+            // Keep the credentials issued even on error, so that the journey can revoke or retry them
+            nodeState.putShared(PINGONE_CREDENTIAL_IDS_KEY, credentialIds);
+
+            return Action.goTo(issued ? SUCCESS_OUTCOME_ID : ERROR_OUTCOME_ID).build();
+        } catch (Exception ex) {
+            String stackTrace = org.apache.commons.lang.exception.ExceptionUtils.getStackTrace(ex);
+            logger.error(LOGGER_PREFIX + "Exception occurred: ", ex);
+            NodeState nodeState = context.getStateFor(this);
+
+            nodeState.putTransient(LOGGER_PREFIX + "Exception", ex.getMessage());
+            nodeState.putTransient(LOGGER_PREFIX + "StackTrace", stackTrace);
+
+            return Action.goTo(ERROR_OUTCOME_ID).build();
+        }
+    }
+
+    /**
+     * Revoke a credential issued after the timeout, as the journey does not know about it. A credential which cannot
+     * be revoked is logged, so that it can be revoked by hand.
+     */
+    private void revokeLate(String accessToken, PingOneWorkerService.Worker worker, String pingOneUserId,
+                            String credentialId) {
+        try {
+            client.revokeCredentialRequest(accessToken, worker, pingOneUserId, credentialId);
+            logger.warn("{} Credential {} was issued after the timeout and was revoked", LOGGER_PREFIX, credentialId);
+        } catch (Exception e) {
+            logger.error("{} Credential {} of user {} was issued after the timeout and could not be revoked: {}",
+                         LOGGER_PREFIX, credentialId, pingOneUserId, e.getMessage());
+        }
+    }
+
+    private JsonValue getAttributes(NodeState nodeState, String credentialTypeId) {
+        String prefix = credentialTypeId + TYPE_SEPARATOR;
+        Map<String, String> mapping = new LinkedHashMap<>();
+        config.attributes().forEach(
+            (k, v) -> {
+                if (k.startsWith(prefix)) {
+                    mapping.put(k.substring(prefix.length()), v);
+                }
+            });
+        return PingOneCredentialsAttributeMapping.map(mapping, nodeState);
+    }
+
+    @Override
+    public InputState[] getInputs() {
+
+        List<InputState> inputs = new ArrayList<>();
+
+        inputs.add(new InputState(config.pingOneUserIdAttribute(), false));
+        inputs.add(new InputState(OBJECT_ATTRIBUTES, false));
+
+        config.attributes().forEach(
+            (k, v) -> {
+                inputs.add(new InputState(v, false));
+            });
+
+        return inputs.toArray(new InputState[]{});
+    }
+
+    @Override
+    public OutputState[] getOutputs() {
+        return new OutputState[]{
+            new OutputState(PINGONE_CREDENTIAL_IDS_KEY)
+        };
+    }
+
+    public static class IssueMultipleOutcomeProvider implements StaticOutcomeProvider {
+        @Override
+        public List<Outcome> getOutcomes(PreferredLocales locales) {
+            ResourceBundle bundle = locales.getBundleInPreferredLocale(PingOneCredentialsIssueMultiple.BUNDLE,
+                                                                       OutcomeProvider.class.getClassLoader());
+            List<Outcome> results = new ArrayList<>();
+            results.add(new Outcome(SUCCESS_OUTCOME_ID, bundle.getString("successOutcome")));
+            results.add(new Outcome(ERROR_OUTCOME_ID, bundle.getString("errorOutcome")));
+            return Collections.unmodifiableList(results);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+/*
+ * This code is to be used exclusively in connection with Ping Identity Corporation software or services.
+ * Ping Identity Corporation only offers such software or services to legal entities who have entered into
+ * a binding license agreement with Ping Identity Corporation.
+ *
+ * Copyright 2024 Ping Identity Corporation. All Rights Reserved
+ */
+
+package org.forgerock.am.marketplace.pingonecredentials;
+
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.RESPONSE_CREDENTIAL_TYPE;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.RESPONSE_ID;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.RESPONSE_STATUS;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.REVOKED;
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.forgerock.json.JsonValue;
+import org.forgerock.openam.core.realms.Realm;
+import org.forgerock.openam.integration.pingone.api.PingOneWorkerService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Issues credentials in the background from a durable {@link PingOneCredentialsOutbox}, so that a journey does not
+ * wait for PingOne or fail when it is unavailable.
+ * <p>
+ * Issue requests are written to an outbox file in the configured directory and sent by a
+ * {@link PingOneCredentialsOutboxSender background sender}. Once a credential is issued, its ID is kept in the outbox
+ * until a later journey of the user takes it to write it back to the user's profile. Unclaimed credential IDs are
+ * dropped after {@link #DELIVERED_TTL}. Issuing a credential which is already being issued, or whose ID was not taken
+ * yet, is a no-op. A request which PingOne may have applied before it failed, for example because the response
+ * timed out, is only sent again once the credentials of the user show that no credential of the type was issued.
+ * </p>
+ * <p>
+ * The outbox is local to the server, so a credential ID is only written back by a journey which runs the node again
+ * on the server which issued it.
+ * </p>
+ */
+@Singleton
+public class PingOneCredentialsIssueOutbox extends PingOneCredentialsOutboxSender {
+
+    /** The name of the outbox file in the outbox directory. */
+    static final String OUTBOX_FILE = "pingone-credentials-issue.outbox";
+
+    /** The number of threads issuing credentials. */
+    static final int SEND_THREADS = 2;
+
+    /** The time after which the ID of an issued credential which was not taken is dropped. */
+    static final Duration DELIVERED_TTL = Duration.ofDays(30);
+
+    private static final Logger logger = LoggerFactory.getLogger(PingOneCredentialsIssueOutbox.class);
+    private static final String LOGGER_PREFIX = "[PingOne Credentials Issue Outbox]"
+                                                + PingOneCredentialsPlugin.LOG_APPENDER;
+
+    private static final String TYPE = "type";
+    private static final String ISSUE = "issue";
+    private static final String DELIVERED = "delivered";
+    private static final String USER_ID = "userId";
+    private static final String CREDENTIAL_TYPE_ID = "credentialTypeId";
+    private static final String ATTRIBUTES = "attributes";
+    private static final String CREDENTIAL_ID = "credentialId";
+    private static final String DELIVERED_AT = "deliveredAt";
+
+    private final PingOneCredentialsService client;
+
+    /**
+     * The PingOne Credentials Issue Outbox constructor.
+     *
+     * @param client the {@link PingOneCredentialsService} instance.
+     */
+    @Inject
+    public PingOneCredentialsIssueOutbox(PingOneCredentialsService client) {
+        super(OUTBOX_FILE, "pingone-credentials-issue-outbox", LOGGER_PREFIX,
+              PingOneCredentialsApiBudget.Priority.NORMAL, SEND_THREADS);
+        this.client = client;
+    }
+
+    /**
+     * Queue the issue of a credential, unless a credential of the type is already being issued for the user or was
+     * issued and its ID not taken yet.
+     *
+     * @param directory The directory of the outbox.
+     * @param realm The realm of the worker.
+     * @param worker The worker {@link PingOneWorkerService}.
+     * @param accessToken Reads an access token of the worker when the request is sent.
+     * @param pingOneUserId The PingOne user ID.
+     * @param credentialTypeId The credential type ID.
+     * @param attributes The attributes of the credential.
+     * @return true if the issue was queued, false if it was already waiting or delivered.
+     * @throws IOException If the request cannot be written to the outbox.
+     */
+    boolean enqueue(Path directory, Realm realm, PingOneWorkerService.Worker worker, Callable<String> accessToken,
+                    String pingOneUserId, String credentialTypeId, JsonValue attributes) throws IOException {
+        register(worker, accessToken);
+        String environmentId = String.valueOf(worker.environmentId());
+        PingOneCredentialsOutbox outbox = outbox(directory);
+        synchronized (outbox) {
+            boolean waiting = outbox.pending().values().stream().anyMatch(
+                entry -> environmentId.equals(entry.get(ENVIRONMENT_ID).asString())
+                         && pingOneUserId.equals(entry.get(USER_ID).asString())
+                         && credentialTypeId.equals(entry.get(CREDENTIAL_TYPE_ID).asString()));
+            if (waiting) {
+                return false;
+            }
+            outbox.append(json(object(
+                field(TYPE, ISSUE),
+                field(ENVIRONMENT_ID, environmentId),
+                field(REALM, realm.asPath()),
+                field(WORKER, worker.id()),
+                field(USER_ID, pingOneUserId),
+                field(CREDENTIAL_TYPE_ID, credentialTypeId),
+                field(ATTRIBUTES, attributes.getObject()))));
+        }
+        drainSoon();
+        return true;
+    }
+
+    /**
+     * Take the ID of a credential issued in the background for the user, so that it can be written back to the
+     * user's profile. A credential ID can only be taken once.
+     *
+     * @param directory The directory of the outbox.
+     * @param worker The worker {@link PingOneWorkerService}.
+     * @param accessToken Reads an access token of the worker when requests of its environment are sent.
+     * @param pingOneUserId The PingOne user ID.
+     * @param credentialTypeId The credential type ID.
+     * @return The ID of the issued credential, or empty if no credential of the type was issued for the user.
+     * @throws IOException If the outbox cannot be read or written.
+     */
+    Optional<String> takeDelivered(Path directory, PingOneWorkerService.Worker worker, Callable<String> accessToken,
+                                   String pingOneUserId, String credentialTypeId) throws IOException {
+        register(worker, accessToken);
+        String environmentId = String.valueOf(worker.environmentId());
+        PingOneCredentialsOutbox outbox = outbox(directory);
+        for (Map.Entry<String, JsonValue> entry : outbox.pending().entrySet()) {
+            JsonValue request = entry.getValue();
+            if (DELIVERED.equals(request.get(TYPE).asString())
+                && environmentId.equals(request.get(ENVIRONMENT_ID).asString())
+                && pingOneUserId.equals(request.get(USER_ID).asString())
+                && credentialTypeId.equals(request.get(CREDENTIAL_TYPE_ID).asString())) {
+                outbox.acknowledge(entry.getKey());
+                return Optional.of(request.get(CREDENTIAL_ID).asString());
+            }
+        }
+        return Optional.empty();
+    }
+
+    @Override
+    boolean isRequest(JsonValue entry) {
+        return ISSUE.equals(entry.get(TYPE).asString());
+    }
+
+    @Override
+    void send(PingOneCredentialsOutbox outbox, String id, JsonValue request, PingOneWorkerService.Worker worker,
+              String accessToken, boolean maybeApplied) throws Exception {
+        String pingOneUserId = request.get(USER_ID).asString();
+        String credentialTypeId = request.get(CREDENTIAL_TYPE_ID).asString();
+        Optional<String> issued = maybeApplied
+                                  ? findIssuedCredential(accessToken, worker, pingOneUserId, credentialTypeId)
+                                  : Optional.empty();
+        if (issued.isPresent()) {
+            logger.info("{} Credential {} was already issued for user {}", LOGGER_PREFIX, issued.get(),
+                        pingOneUserId);
+        }
+        String credentialId = issued.isPresent()
+                              ? issued.get()
+                              : client.credentialIssueRequest(accessToken, worker, pingOneUserId, credentialTypeId,
+                                                              request.get(ATTRIBUTES)).get(RESPONSE_ID).asString();
+
+        // Keep the credential ID for write back before removing the request. The request is removed even if the ID
+        // cannot be kept, as sending it again would issue a second credential
+        try {
+            outbox.append(json(object(
+                field(TYPE, DELIVERED),
+                field(ENVIRONMENT_ID, request.get(ENVIRONMENT_ID).asString()),
+                field(USER_ID, pingOneUserId),
+                field(CREDENTIAL_TYPE_ID, credentialTypeId),
+                field(CREDENTIAL_ID, credentialId),
+                field(DELIVERED_AT, System.currentTimeMillis()))));
+        } catch (IOException e) {
+            logger.error("{} Credential {} issued for user {}, but its ID cannot be kept for write back: {}",
+                         LOGGER_PREFIX, credentialId, pingOneUserId, e.getMessage());
+        }
+        outbox.acknowledge(id);
+    }
+
+    /**
+     * Find the credential of the type which is not revoked among the credentials of the user. A page which cannot be
+     * read fails with its own exception, so that the request is retried like any other failed request.
+     */
+    private Optional<String> findIssuedCredential(String accessToken, PingOneWorkerService.Worker worker,
+                                                  String pingOneUserId, String credentialTypeId)
+        throws PingOneCredentialsServiceException {
+        try (PingOneCredentialsPageIterator credentials = client.listCredentials(accessToken, worker, pingOneUserId)) {
+            while (credentials.hasNext()) {
+                JsonValue credential = credentials.next();
+                if (credentialTypeId.equals(credential.get(RESPONSE_CREDENTIAL_TYPE).get(RESPONSE_ID).asString())
+                    && !REVOKED.equals(credential.get(RESPONSE_STATUS).asString())) {
+                    return Optional.of(credential.get(RESPONSE_ID).asString());
+                }
+            }
+        } catch (IllegalStateException e) {
+            if (e.getCause() instanceof PingOneCredentialsServiceException) {
+                throw (PingOneCredentialsServiceException) e.getCause();
+            }
+            throw e;
+        }
+        return Optional.empty();
+    }
+
+    @Override
+    void visit(PingOneCredentialsOutbox outbox, String id, JsonValue delivered) throws IOException {
+        Long deliveredAt = delivered.get(DELIVERED_AT).asLong();
+        if (deliveredAt != null && deliveredAt < System.currentTimeMillis() - DELIVERED_TTL.toMillis()) {
+            outbox.acknowledge(id);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * This code is to be used exclusively in connection with Ping Identity Corporation software or services.
+ * Ping Identity Corporation only offers such software or services to legal entities who have entered into
+ * a binding license agreement with Ping Identity Corporation.
+ *
+ * Copyright 2024 Ping Identity Corporation. All Rights Reserved
+ */
+
+package org.forgerock.am.marketplace.pingonecredentials;
+
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_PREFETCH_KEY;
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang.StringUtils;
+import org.forgerock.json.JsonValue;
+import org.forgerock.openam.auth.node.api.ExternalRequestContext;
+import org.forgerock.openam.auth.node.api.NodeState;
+import org.forgerock.openam.auth.node.api.TreeContext;
+import org.forgerock.openam.integration.pingone.api.PingOneWorkerService;
+
+/**
+ * Remembers PingOne reads during a request, so that the nodes of a journey reuse the access tokens and wallet lists
+ * already read by earlier nodes instead of reading them again.
+ * <p>
+ * Wallet lists are kept in the transient state, which only lives until callbacks are sent to the client and bounds
+ * how long a remembered read is used. Nodes which change the wallets of a user must invalidate them. Access tokens are
+ * kept with the request itself, by worker, so that they are never visible to scripts or to other workers of the same
+ * environment.
+ * </p>
+ * <p>
+ * Reads started earlier in the journey by the {@link PingOneCredentialsPrefetch} node are added to the memo by
+ * {@link #usePrefetched(TreeContext, NodeState, PingOneCredentialsAsyncService)}.
+ * </p>
+ */
+final class PingOneCredentialsJourneyMemo {
+
+    /** The transient state key holding the remembered reads. */
+    static final String MEMO_KEY = "pingOneCredentialsMemo";
+
+    /** The maximum time to wait for reads started by the prefetch node. */
+    static final Duration PREFETCH_WAIT = Duration.ofSeconds(5);
+
+    /** The access tokens read during each request, by worker. */
+    private static final Map<ExternalRequestContext, Map<String, String>> ACCESS_TOKENS =
+        Collections.synchronizedMap(new WeakHashMap<>());
+
+    private static final String WALLETS = "wallets";
+    private static final String WORKER = "worker";
+    private static final String ACCESS_TOKEN = "accessToken";
+    private static final String USER_ID = "userId";
+
+    private PingOneCredentialsJourneyMemo() {
+    }
+
+    /**
+     * Get the access token of the worker, reading it only if no earlier node of the request did.
+     *
+     * @param context The context of the node.
+     * @param worker The worker {@link PingOneWorkerService}.
+     * @param read Reads the access token.
+     * @return The access token, which may be blank if it cannot be read.
+     * @throws Exception If the access token cannot be read.
+     */
+    static String accessToken(TreeContext context, PingOneWorkerService.Worker worker, Callable<String> read)
+        throws Exception {
+        Map<String, String> accessTokens = accessTokens(context);
+        String accessToken = accessTokens.get(workerKey(worker));
+        if (StringUtils.isNotBlank(accessToken)) {
+            return accessToken;
+        }
+
+        accessToken = read.call();
+        if (StringUtils.isNotBlank(accessToken)) {
+            accessTokens.put(workerKey(worker), accessToken);
+        }
+        return accessToken;
+    }
+
+    /**
+     * Get the wallets of the user, reading them only if no earlier node of the journey did.
+     *
+     * @param nodeState The state of the node.
+     * @param pingOneUserId The PingOne user ID.
+     * @param read Reads the wallets of the user.
+     * @return A copy of the wallets of the user.
+     * @throws Exception If the wallets cannot be read.
+     */
+    static JsonValue wallets(NodeState nodeState, String pingOneUserId, Callable<JsonValue> read) throws Exception {
+        JsonValue memo = memo(nodeState);
+        JsonValue wallets = memo.get(WALLETS).get(pingOneUserId);
+        if (wallets.isNotNull()) {
+            return wallets.copy();
+        }
+
+        wallets = read.call();
+        section(memo, WALLETS).put(pingOneUserId, wallets.copy().getObject());
+        nodeState.putTransient(MEMO_KEY, memo);
+        return wallets;
+    }
+
+    /**
+     * Get the wallets of the user if an earlier node of the journey read them, without reading them otherwise.
+     *
+     * @param nodeState The state of the node.
+     * @param pingOneUserId The PingOne user ID.
+     * @return A copy of the wallets of the user, or empty if they were not read.
+     */
+    static Optional<JsonValue> knownWallets(NodeState nodeState, String pingOneUserId) {
+        JsonValue wallets = memo(nodeState).get(WALLETS).get(pingOneUserId);
+        return wallets.isNotNull() ? Optional.of(wallets.copy()) : Optional.empty();
+    }
+
+    /**
+     * Forget the wallets of the user, after they were changed.
+     *
+     * @param nodeState The state of the node.
+     * @param pingOneUserId The PingOne user ID.
+     */
+    static void invalidateWallets(NodeState nodeState, String pingOneUserId) {
+        JsonValue memo = memo(nodeState);
+        if (memo.get(WALLETS).isDefined(pingOneUserId)) {
+            memo.get(WALLETS).remove(pingOneUserId);
+            nodeState.putTransient(MEMO_KEY, memo);
+        }
+    }
+
+    /**
+     * Describe the reads made by the prefetch node, in the form expected by
+     * {@link #usePrefetched(TreeContext, NodeState, PingOneCredentialsAsyncService)}.
+     *
+     * @param worker The worker {@link PingOneWorkerService}.
+     * @param accessToken The access token of the worker.
+     * @param pingOneUserId The PingOne user ID, or null if the wallets were not read.
+     * @param wallets The wallets of the user, or null if they were not read.
+     * @return The prefetched reads.
+     */
+    static JsonValue prefetched(PingOneWorkerService.Worker worker, String accessToken, String pingOneUserId,
+                                JsonValue wallets) {
+        return json(object(
+            field(WORKER, workerKey(worker)),
+            field(ACCESS_TOKEN, accessToken),
+            field(USER_ID, pingOneUserId),
+            field(WALLETS, wallets == null ? null : wallets.getObject())));
+    }
+
+    /**
+     * Add the reads started by the prefetch node to the memo, waiting briefly for them to complete. Nothing is added
+     * if they were started on another server, failed or are still running.
+     *
+     * @param context The context of the node.
+     * @param nodeState The state of the node.
+     * @param asyncService The {@link PingOneCredentialsAsyncService} running the reads.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    static void usePrefetched(TreeContext context, NodeState nodeState, PingOneCredentialsAsyncService asyncService)
+        throws InterruptedException {
+        if (!nodeState.isDefined(PINGONE_PREFETCH_KEY)) {
+            return;
+        }
+        String handle = nodeState.get(PINGONE_PREFETCH_KEY).asString();
+        nodeState.remove(PINGONE_PREFETCH_KEY);
+
+        Optional<JsonValue> prefetched = asyncService.claim(handle, PREFETCH_WAIT, reads -> { });
+        if (prefetched.isEmpty()) {
+            return;
+        }
+
+        JsonValue memo = memo(nodeState);
+        String accessToken = prefetched.get().get(ACCESS_TOKEN).asString();
+        if (StringUtils.isNotBlank(accessToken)) {
+            accessTokens(context).put(prefetched.get().get(WORKER).asString(), accessToken);
+        }
+        String pingOneUserId = prefetched.get().get(USER_ID).asString();
+        if (pingOneUserId != null && prefetched.get().get(WALLETS).isNotNull()) {
+            section(memo, WALLETS).put(pingOneUserId, prefetched.get().get(WALLETS).getObject());
+        }
+        nodeState.putTransient(MEMO_KEY, memo);
+    }
+
+    private static Map<String, String> accessTokens(TreeContext context) {
+        return ACCESS_TOKENS.computeIfAbsent(context.request, request -> new ConcurrentHashMap<>());
+    }
+
+    private static String workerKey(PingOneWorkerService.Worker worker) {
+        return worker.environmentId() + "/" + worker.id();
+    }
+
+    private static JsonValue memo(NodeState nodeState) {
+        JsonValue memo = nodeState.get(MEMO_KEY);
+        return memo == null || !memo.isMap() ? json(object()) : memo.copy();
+    }
+
+    private static JsonValue section(JsonValue memo, String name) {
+        if (!memo.get(name).isMap()) {
+            memo.put(name, object());
+        }
+        return memo.get(name);
+    }
+}
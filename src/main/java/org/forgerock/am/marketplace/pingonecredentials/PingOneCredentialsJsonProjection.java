@@ -0,0 +1,98 @@
+/*
+ * This code is to be used exclusively in connection with Ping Identity Corporation software or services.
+ * Ping Identity Corporation only offers such software or services to legal entities who have entered into
+ * a binding license agreement with Ping Identity Corporation.
+ *
+ * Copyright 2024 Ping Identity Corporation. All Rights Reserved
+ */
+
+package org.forgerock.am.marketplace.pingonecredentials;
+
+import static org.forgerock.json.JsonValue.array;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+
+import java.util.List;
+
+import org.forgerock.json.JsonPointer;
+import org.forgerock.json.JsonValue;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Helper to reduce PingOne responses to the fields that a journey needs before they are kept in the node state.
+ */
+final class PingOneCredentialsJsonProjection {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private PingOneCredentialsJsonProjection() {
+    }
+
+    /**
+     * Project the value onto the fields identified by the JSON pointers, keeping each field at its original location.
+     * Pointers that do not resolve to a value are ignored.
+     *
+     * @param value The value to project.
+     * @param pointers The JSON pointers of the fields to keep, for example {@code /status}.
+     * @return The projected value, or the value itself if no pointers are given.
+     */
+    static JsonValue project(JsonValue value, List<String> pointers) {
+        if (pointers == null || pointers.isEmpty() || value == null || !value.isMap()) {
+            return value;
+        }
+        JsonValue projection = json(object());
+        for (String pointer : pointers) {
+            JsonPointer jsonPointer = new JsonPointer(pointer);
+            JsonValue field = value.get(jsonPointer);
+            if (field != null && field.isNotNull()) {
+                projection.putPermissive(jsonPointer, field.getObject());
+            }
+        }
+        return projection;
+    }
+
+    /**
+     * Project each element of the list onto the fields identified by the JSON pointers.
+     *
+     * @param values The list of values to project.
+     * @param pointers The JSON pointers of the fields to keep in each element.
+     * @return The list of projected values, or the list itself if no pointers are given.
+     */
+    static JsonValue projectEach(JsonValue values, List<String> pointers) {
+        if (pointers == null || pointers.isEmpty() || values == null || !values.isList()) {
+            return values;
+        }
+        JsonValue projections = json(array());
+        for (JsonValue value : values) {
+            projections.add(project(value, pointers).getObject());
+        }
+        return projections;
+    }
+
+    /**
+     * The size of the value once serialized as JSON.
+     *
+     * @param value The value.
+     * @return The serialized size in bytes.
+     */
+    static int sizeOf(JsonValue value) {
+        try {
+            return MAPPER.writeValueAsBytes(value.getObject()).length;
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("Unable to serialize value: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Whether the value is larger than the maximum size allowed in the node state.
+     *
+     * @param value The value.
+     * @param maxSize The maximum serialized size in bytes, or zero or less for no limit.
+     * @return true if the value exceeds the maximum size, false otherwise.
+     */
+    static boolean exceedsSize(JsonValue value, int maxSize) {
+        return maxSize > 0 && sizeOf(value) > maxSize;
+    }
+}
@@ -0,0 +1,210 @@
+/*
+ * This code is to be used exclusively in connection with Ping Identity Corporation software or services.
+ * Ping Identity Corporation only offers such software or services to legal entities who have entered into
+ * a binding license agreement with Ping Identity Corporation.
+ *
+ * Copyright 2024 Ping Identity Corporation. All Rights Reserved
+ */
+
+package org.forgerock.am.marketplace.pingonecredentials;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.forgerock.json.JsonValue;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Durable append-only outbox of requests waiting to be sent to PingOne.
+ * <p>
+ * The outbox is a memory-mapped file of fixed capacity holding a sequence of records. An entry record adds a request
+ * to the outbox, and an acknowledgement record removes it once it was delivered. Each record is forced to disk before
+ * {@link #append(JsonValue)} or {@link #acknowledge(String)} returns, so an acknowledged request survives a crash.
+ * Opening the outbox replays its records to find the requests still pending. When the file is full, the pending
+ * entries are compacted into a new file which atomically replaces it.
+ * </p>
+ * <p>
+ * Each record is made of its length as an int, its type as a byte and its UTF-8 JSON payload. A zero length marks the
+ * end of the records. A record torn by a crash is ignored, along with any record after it.
+ * </p>
+ */
+final class PingOneCredentialsOutbox implements Closeable {
+
+    /** The default capacity of the outbox file. */
+    static final int DEFAULT_CAPACITY = 8 * 1024 * 1024;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final byte ENTRY = 1;
+    private static final byte ACKNOWLEDGEMENT = 2;
+    private static final int HEADER_SIZE = Integer.BYTES + 1;
+    private static final String ID = "id";
+    private static final String REQUEST = "request";
+
+    private final Path path;
+    private final int capacity;
+    private final Map<String, JsonValue> pending = new LinkedHashMap<>();
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+
+    private PingOneCredentialsOutbox(Path path, int capacity) {
+        this.path = path;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Open the outbox stored at the path, or create it if there is none.
+     *
+     * @param path The outbox file.
+     * @param capacity The size of the outbox file, which bounds the size of the pending requests.
+     * @return The outbox.
+     * @throws IOException If the outbox cannot be read.
+     */
+    static PingOneCredentialsOutbox open(Path path, int capacity) throws IOException {
+        PingOneCredentialsOutbox outbox = new PingOneCredentialsOutbox(path, capacity);
+        outbox.map();
+        outbox.replay();
+        return outbox;
+    }
+
+    /**
+     * Add a request to the outbox.
+     *
+     * @param request The request.
+     * @return The ID of the request in the outbox.
+     * @throws IOException If the request cannot be written, for example because the outbox is full.
+     */
+    synchronized String append(JsonValue request) throws IOException {
+        String id = UUID.randomUUID().toString();
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put(ID, id);
+        entry.put(REQUEST, request.getObject());
+        write(ENTRY, MAPPER.writeValueAsBytes(entry));
+        pending.put(id, request.copy());
+        return id;
+    }
+
+    /**
+     * Remove a delivered request from the outbox.
+     *
+     * @param id The ID of the request in the outbox.
+     * @throws IOException If the acknowledgement cannot be written.
+     */
+    synchronized void acknowledge(String id) throws IOException {
+        if (!pending.containsKey(id)) {
+            return;
+        }
+        write(ACKNOWLEDGEMENT, MAPPER.writeValueAsBytes(Map.of(ID, id)));
+        pending.remove(id);
+    }
+
+    /**
+     * The requests waiting to be delivered, in the order they were added.
+     *
+     * @return A copy of the pending requests, by ID.
+     */
+    synchronized Map<String, JsonValue> pending() {
+        Map<String, JsonValue> copy = new LinkedHashMap<>();
+        pending.forEach((id, request) -> copy.put(id, request.copy()));
+        return copy;
+    }
+
+    /**
+     * The number of requests waiting to be delivered.
+     *
+     * @return The number of pending requests.
+     */
+    synchronized int size() {
+        return pending.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (channel != null) {
+            channel.close();
+            channel = null;
+            buffer = null;
+        }
+    }
+
+    private void write(byte type, byte[] payload) throws IOException {
+        if (buffer.remaining() < HEADER_SIZE + payload.length + Integer.BYTES) {
+            compact();
+            if (buffer.remaining() < HEADER_SIZE + payload.length + Integer.BYTES) {
+                throw new IOException("Outbox " + path + " is full");
+            }
+        }
+        int start = buffer.position();
+        buffer.putInt(payload.length);
+        buffer.put(type);
+        buffer.put(payload);
+        // Mark the end of the records, in case a record torn by a crash follows
+        buffer.putInt(buffer.position(), 0);
+        buffer.force(start, buffer.position() - start + Integer.BYTES);
+    }
+
+    /**
+     * Rewrite the outbox with only the pending entries.
+     */
+    private void compact() throws IOException {
+        ByteArrayOutputStream compacted = new ByteArrayOutputStream();
+        for (Map.Entry<String, JsonValue> request : pending.entrySet()) {
+            Map<String, Object> entry = new LinkedHashMap<>();
+            entry.put(ID, request.getKey());
+            entry.put(REQUEST, request.getValue().getObject());
+            byte[] payload = MAPPER.writeValueAsBytes(entry);
+            compacted.write(ByteBuffer.allocate(HEADER_SIZE).putInt(payload.length).put(ENTRY).array());
+            compacted.write(payload);
+        }
+        close();
+        PingOneCredentialsCheckpoint.writeAtomically(path, compacted.toByteArray());
+        map();
+        buffer.position(compacted.size());
+    }
+
+    private void map() throws IOException {
+        channel = FileChannel.open(path, CREATE, READ, WRITE);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void replay() throws IOException {
+        while (buffer.remaining() >= HEADER_SIZE) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining() - 1) {
+                // End of the records, or a record whose write was interrupted
+                buffer.position(start);
+                break;
+            }
+            byte type = buffer.get();
+            byte[] payload = new byte[length];
+            buffer.get(payload);
+            Map<String, Object> record;
+            try {
+                record = MAPPER.readValue(payload, Map.class);
+            } catch (IOException e) {
+                buffer.position(start);
+                break;
+            }
+            String id = (String) record.get(ID);
+            if (type == ENTRY) {
+                pending.put(id, new JsonValue(record.get(REQUEST)));
+            } else if (type == ACKNOWLEDGEMENT) {
+                pending.remove(id);
+            }
+        }
+    }
+}
@@ -0,0 +1,472 @@
+/*
+ * This code is to be used exclusively in connection with Ping Identity Corporation software or services.
+ * Ping Identity Corporation only offers such software or services to legal entities who have entered into
+ * a binding license agreement with Ping Identity Corporation.
+ *
+ * Copyright 2024 Ping Identity Corporation. All Rights Reserved
+ */
+
+package org.forgerock.am.marketplace.pingonecredentials;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.forgerock.json.JsonValue;
+import org.forgerock.openam.core.realms.Realm;
+import org.forgerock.openam.core.realms.RealmLookup;
+import org.forgerock.openam.core.realms.RealmLookupException;
+import org.forgerock.openam.integration.pingone.api.PingOneWorkerService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Sends the requests of durable {@link PingOneCredentialsOutbox outboxes} to PingOne in the background.
+ * <p>
+ * Each outbox lives in a directory configured on the nodes, and is opened the first time a node uses it. The
+ * outboxes are drained at a regular interval, or as soon as a node asks for it. A request rejected by PingOne is
+ * dropped, as sending it again would fail the same way. Any other failed request is retried with an
+ * exponential backoff, and all the requests of an environment waiting for a retry are made due again once a request
+ * of the environment succeeds, so that the backlog built up during an outage drains as soon as PingOne is back. A
+ * request whose failure does not show that PingOne did not act on it, such as a read timeout, or which was pending
+ * when the outbox was opened after a restart, may already have been applied, and is sent again as such so that a
+ * request which is not idempotent can first check whether it was.
+ * Requests are sent by a bounded number of threads, and paid for from the API budget shared by all the background
+ * work, so that the requests of a sender of higher priority go first.
+ * </p>
+ * <p>
+ * Sending needs the PingOne worker and an access token of the request environment. A node using the sender registers
+ * them, and each request keeps the realm and the ID of its worker. The directories of the outboxes are recorded in a
+ * registry file, so that once the sender is {@link #start started} with the plugin after a restart, the outboxes are
+ * opened again and the workers of their requests are looked up, without waiting for a node to use the sender.
+ * </p>
+ */
+abstract class PingOneCredentialsOutboxSender {
+
+    /** The interval at which the outboxes are drained. */
+    static final Duration DRAIN_INTERVAL = Duration.ofSeconds(1);
+
+    /** The delay before the first retry of a failed request, doubled for each following retry. */
+    static final Duration RETRY_DELAY = Duration.ofSeconds(1);
+
+    /** The maximum delay between two retries of a failed request. */
+    static final Duration MAX_RETRY_DELAY = Duration.ofMinutes(5);
+
+    /** The interval between two lookups of the worker of requests whose worker is not known. */
+    static final Duration LOOKUP_INTERVAL = Duration.ofMinutes(1);
+
+    /** The system property of the directory of the registry files, defaulting to the home directory. */
+    static final String REGISTRY_DIRECTORY_PROPERTY = "pingone.credentials.outbox.registry.directory";
+
+    /** The suffix of the registry file of a sender, listing the directories of its outboxes. */
+    static final String REGISTRY_SUFFIX = ".directories";
+
+    /** The request field holding the environment ID. */
+    static final String ENVIRONMENT_ID = "environmentId";
+
+    /** The request field holding the realm of the worker. */
+    static final String REALM = "realm";
+
+    /** The request field holding the ID of the worker. */
+    static final String WORKER = "worker";
+
+    private static final Logger logger = LoggerFactory.getLogger(PingOneCredentialsOutboxSender.class);
+
+    private final String outboxFile;
+    private final String threadName;
+    private final String loggerPrefix;
+    private final PingOneCredentialsApiBudget.Priority priority;
+    private final int parallelism;
+    private final Map<Path, PingOneCredentialsOutbox> outboxes = new HashMap<>();
+    private final Map<String, Environment> environments = new ConcurrentHashMap<>();
+    private final Map<String, Retry> retries = new ConcurrentHashMap<>();
+    private final Map<String, Long> lookups = new ConcurrentHashMap<>();
+    private final Set<String> maybeApplied = ConcurrentHashMap.newKeySet();
+    private volatile PingOneWorkerService pingOneWorkerService;
+    private volatile RealmLookup realmLookup;
+    private Path registry;
+    private ScheduledExecutorService scheduler;
+    private ExecutorService senders;
+
+    /**
+     * Create a sender.
+     *
+     * @param outboxFile The name of the outbox file in the outbox directories.
+     * @param threadName The name of the sender threads.
+     * @param loggerPrefix The prefix of the sender logs.
+     * @param priority The priority of the requests on the shared API budget.
+     * @param parallelism The maximum number of requests sent concurrently.
+     */
+    PingOneCredentialsOutboxSender(String outboxFile, String threadName, String loggerPrefix,
+                                   PingOneCredentialsApiBudget.Priority priority, int parallelism) {
+        this.outboxFile = outboxFile;
+        this.threadName = threadName;
+        this.loggerPrefix = loggerPrefix;
+        this.priority = priority;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Whether an entry of the outbox is a request to send.
+     *
+     * @param entry The entry.
+     * @return true if the entry should be sent, false if it is kept for another purpose.
+     */
+    abstract boolean isRequest(JsonValue entry);
+
+    /**
+     * Send a request and acknowledge it in the outbox.
+     *
+     * @param outbox The outbox holding the request.
+     * @param id The ID of the request in the outbox.
+     * @param request The request.
+     * @param worker The worker of the request environment.
+     * @param accessToken An access token of the worker.
+     * @param maybeApplied Whether an earlier attempt of the request may have been applied by PingOne.
+     * @throws Exception If the request failed. It is dropped if PingOne rejected it, and retried otherwise.
+     */
+    abstract void send(PingOneCredentialsOutbox outbox, String id, JsonValue request,
+                       PingOneWorkerService.Worker worker, String accessToken, boolean maybeApplied)
+        throws Exception;
+
+    /**
+     * Called for each entry of the outbox which is not a request, for example to drop it once it expired.
+     *
+     * @param outbox The outbox holding the entry.
+     * @param id The ID of the entry in the outbox.
+     * @param entry The entry.
+     * @throws IOException If the outbox cannot be written.
+     */
+    void visit(PingOneCredentialsOutbox outbox, String id, JsonValue entry) throws IOException {
+    }
+
+    /**
+     * Remember the worker of an environment and how to read its access token, so that the requests of the environment
+     * can be sent.
+     *
+     * @param worker The worker {@link PingOneWorkerService}.
+     * @param accessToken Reads an access token of the worker.
+     */
+    final void register(PingOneWorkerService.Worker worker, Callable<String> accessToken) {
+        environments.put(String.valueOf(worker.environmentId()), new Environment(worker, accessToken));
+    }
+
+    /**
+     * Start the sender with the plugin: open again the outboxes listed in the registry which still hold an outbox
+     * file, and look up the workers of their requests from now on.
+     *
+     * @param properties The system properties.
+     * @param pingOneWorkerService The {@link PingOneWorkerService} instance.
+     * @param realmLookup The {@link RealmLookup} instance.
+     */
+    final void start(Properties properties, PingOneWorkerService pingOneWorkerService, RealmLookup realmLookup) {
+        this.pingOneWorkerService = pingOneWorkerService;
+        this.realmLookup = realmLookup;
+        Path file = Paths.get(properties.getProperty(REGISTRY_DIRECTORY_PROPERTY, System.getProperty("user.home")),
+                              outboxFile + REGISTRY_SUFFIX);
+        synchronized (outboxes) {
+            registry = file;
+            for (Path directory : outboxes.keySet()) {
+                record(file, directory);
+            }
+        }
+        try {
+            if (!Files.exists(file)) {
+                return;
+            }
+            for (String line : Files.readAllLines(file, UTF_8)) {
+                if (!line.isBlank() && Files.exists(Paths.get(line.trim()).resolve(outboxFile))) {
+                    outbox(Paths.get(line.trim()));
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            logger.error("{} Unable to open the outboxes of registry {}: {}", loggerPrefix, file, e.getMessage());
+        }
+    }
+
+    /**
+     * Stop sending requests and close the outboxes. They are opened again once the sender is started, or a node used
+     * it.
+     */
+    final void stop() {
+        synchronized (outboxes) {
+            if (scheduler != null) {
+                scheduler.shutdownNow();
+                senders.shutdownNow();
+                scheduler = null;
+                senders = null;
+            }
+            for (Map.Entry<Path, PingOneCredentialsOutbox> outbox : outboxes.entrySet()) {
+                try {
+                    outbox.getValue().close();
+                } catch (IOException e) {
+                    logger.warn("{} Unable to close outbox {}: {}", loggerPrefix, outbox.getKey(), e.getMessage());
+                }
+            }
+            outboxes.clear();
+        }
+    }
+
+    /**
+     * Get the outbox of a directory, opening it and starting the sender if needed.
+     *
+     * @param directory The outbox directory.
+     * @return The outbox.
+     * @throws IOException If the outbox cannot be opened.
+     */
+    final PingOneCredentialsOutbox outbox(Path directory) throws IOException {
+        Path path = directory.toAbsolutePath().normalize();
+        synchronized (outboxes) {
+            PingOneCredentialsOutbox outbox = outboxes.get(path);
+            if (outbox == null) {
+                Files.createDirectories(path);
+                outbox = PingOneCredentialsOutbox.open(path.resolve(outboxFile),
+                                                       PingOneCredentialsOutbox.DEFAULT_CAPACITY);
+                outboxes.put(path, outbox);
+                // The requests left by a previous run may have been sent just before it stopped
+                outbox.pending().forEach((id, entry) -> {
+                    if (isRequest(entry)) {
+                        maybeApplied.add(id);
+                    }
+                });
+                logger.info("{} Opened outbox {} with {} pending entries", loggerPrefix, path, outbox.size());
+                if (registry != null) {
+                    record(registry, path);
+                }
+            }
+            if (scheduler == null) {
+                scheduler = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setDaemon(true).setNameFormat(threadName + "-drain").build());
+                senders = Executors.newFixedThreadPool(
+                    parallelism, new ThreadFactoryBuilder().setDaemon(true).setNameFormat(threadName + "-%d").build());
+                scheduler.scheduleWithFixedDelay(this::drainSafely, DRAIN_INTERVAL.toMillis(),
+                                                 DRAIN_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+            }
+            return outbox;
+        }
+    }
+
+    /**
+     * Drain the outboxes as soon as possible, instead of at the next interval.
+     */
+    final void drainSoon() {
+        synchronized (outboxes) {
+            if (scheduler != null) {
+                scheduler.execute(this::drainSafely);
+            }
+        }
+    }
+
+    /**
+     * Send the requests of all the outboxes which are due, and wait for them to complete.
+     *
+     * @return The number of requests sent.
+     * @throws InterruptedException If interrupted while waiting for the requests.
+     */
+    synchronized int drain() throws InterruptedException {
+        Map<Path, PingOneCredentialsOutbox> current;
+        ExecutorService pool;
+        synchronized (outboxes) {
+            current = new HashMap<>(outboxes);
+            pool = senders;
+        }
+        if (pool == null) {
+            return 0;
+        }
+        AtomicInteger sent = new AtomicInteger();
+        List<Future<?>> sending = new ArrayList<>();
+        for (PingOneCredentialsOutbox outbox : current.values()) {
+            for (Map.Entry<String, JsonValue> entry : outbox.pending().entrySet()) {
+                if (!isRequest(entry.getValue())) {
+                    try {
+                        visit(outbox, entry.getKey(), entry.getValue());
+                    } catch (IOException e) {
+                        logger.warn("{} Unable to update the outbox: {}", loggerPrefix, e.getMessage());
+                    }
+                    continue;
+                }
+                Environment environment = environment(entry.getValue());
+                Retry retry = retries.get(entry.getKey());
+                if (environment == null || (retry != null && retry.notBefore > System.currentTimeMillis())) {
+                    continue;
+                }
+                sending.add(pool.submit(() -> {
+                    if (attempt(outbox, entry.getKey(), entry.getValue(), environment)) {
+                        sent.incrementAndGet();
+                    }
+                    return null;
+                }));
+            }
+        }
+        for (Future<?> future : sending) {
+            try {
+                future.get();
+            } catch (ExecutionException e) {
+                logger.warn("{} Request failed: {}", loggerPrefix, e.getCause().getMessage());
+            }
+        }
+        return sent.get();
+    }
+
+    private Environment environment(JsonValue request) {
+        Environment environment = environments.get(request.get(ENVIRONMENT_ID).asString());
+        PingOneWorkerService workers = pingOneWorkerService;
+        RealmLookup realms = realmLookup;
+        if (environment != null || workers == null || realms == null || request.get(REALM).isNull()
+            || request.get(WORKER).isNull()) {
+            return environment;
+        }
+
+        // Look up the worker of a request queued before a restart, at most once per interval
+        String realmPath = request.get(REALM).asString();
+        String workerId = request.get(WORKER).asString();
+        long now = System.currentTimeMillis();
+        Long last = lookups.get(realmPath + "/" + workerId);
+        if (last != null && last + LOOKUP_INTERVAL.toMillis() > now) {
+            return null;
+        }
+        lookups.put(realmPath + "/" + workerId, now);
+        try {
+            Realm realm = realms.lookup(realmPath);
+            Optional<PingOneWorkerService.Worker> worker = workers.getWorker(realm, workerId);
+            if (worker.isEmpty()) {
+                logger.warn("{} Unknown PingOne worker {} in realm {}, its requests are waiting", loggerPrefix,
+                            workerId, realmPath);
+                return null;
+            }
+            register(worker.get(), () -> workers.getAccessTokenId(realm, worker.get()));
+            logger.info("{} Sending the requests of PingOne worker {} in realm {}", loggerPrefix, workerId, realmPath);
+            return environments.get(request.get(ENVIRONMENT_ID).asString());
+        } catch (RealmLookupException | RuntimeException e) {
+            logger.warn("{} Unable to look up PingOne worker {} in realm {}: {}", loggerPrefix, workerId, realmPath,
+                        e.getMessage());
+            return null;
+        }
+    }
+
+    private boolean attempt(PingOneCredentialsOutbox outbox, String id, JsonValue request, Environment environment)
+        throws InterruptedException {
+        PingOneCredentialsApiBudget.BACKGROUND.acquire(priority);
+        try {
+            send(outbox, id, request, environment.worker, environment.accessToken.call(), maybeApplied.contains(id));
+        } catch (InterruptedException e) {
+            throw e;
+        } catch (PingOneCredentialsServiceException e) {
+            // An access token which expired meanwhile is read again on the retry
+            if (e.isRetryable() || e.status() == 401) {
+                retry(id, request, e);
+                return false;
+            }
+            if (!e.isRejected()) {
+                // PingOne may have acted on the request before the failure, for example a read timeout
+                maybeApplied.add(id);
+                retry(id, request, e);
+                return false;
+            }
+            logger.error("{} Request {} rejected by PingOne, dropping it: {}", loggerPrefix, id, e.getMessage());
+            retries.remove(id);
+            maybeApplied.remove(id);
+            try {
+                outbox.acknowledge(id);
+            } catch (IOException ioe) {
+                logger.warn("{} Unable to update the outbox: {}", loggerPrefix, ioe.getMessage());
+            }
+            return false;
+        } catch (Exception e) {
+            maybeApplied.add(id);
+            retry(id, request, e);
+            return false;
+        }
+
+        // PingOne is reachable again, retry the other requests of the environment straight away
+        retries.remove(id);
+        maybeApplied.remove(id);
+        String environmentId = request.get(ENVIRONMENT_ID).asString();
+        retries.entrySet().removeIf(waiting -> environmentId.equals(waiting.getValue().environmentId));
+        return true;
+    }
+
+    private void retry(String id, JsonValue request, Exception e) {
+        String environmentId = request.get(ENVIRONMENT_ID).asString();
+        Retry retry = retries.compute(id, (key, previous) ->
+            new Retry(previous == null ? 0 : previous.attempts, environmentId));
+        logger.warn("{} Request {} failed, retrying in {} ms: {}", loggerPrefix, id,
+                    retry.notBefore - System.currentTimeMillis(), e.getMessage());
+    }
+
+    private void record(Path file, Path directory) {
+        String path = directory.toString();
+        try {
+            if (Files.exists(file) && Files.readAllLines(file, UTF_8).contains(path)) {
+                return;
+            }
+            Files.writeString(file, path + System.lineSeparator(), UTF_8, StandardOpenOption.CREATE,
+                              StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            logger.warn("{} Unable to record outbox {} in registry {}, it is not opened again after a restart: {}",
+                        loggerPrefix, directory, file, e.getMessage());
+        }
+    }
+
+    private void drainSafely() {
+        try {
+            drain();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            logger.warn("{} Drain failed, it will be retried: {}", loggerPrefix, e.getMessage());
+        }
+    }
+
+    /**
+     * The worker of an environment, and how to read its access token.
+     */
+    private static final class Environment {
+        private final PingOneWorkerService.Worker worker;
+        private final Callable<String> accessToken;
+
+        private Environment(PingOneWorkerService.Worker worker, Callable<String> accessToken) {
+            this.worker = worker;
+            this.accessToken = accessToken;
+        }
+    }
+
+    /**
+     * When a failed request is retried.
+     */
+    private static final class Retry {
+        private final int attempts;
+        private final long notBefore;
+        private final String environmentId;
+
+        private Retry(int previousAttempts, String environmentId) {
+            this.attempts = previousAttempts + 1;
+            long delay = Math.min(RETRY_DELAY.toMillis() << Math.min(previousAttempts, 20), MAX_RETRY_DELAY.toMillis());
+            this.notBefore = System.currentTimeMillis() + delay;
+            this.environmentId = environmentId;
+        }
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * This code is to be used exclusively in connection with Ping Identity Corporation software or services.
+ * Ping Identity Corporation only offers such software or services to legal entities who have entered into
+ * a binding license agreement with Ping Identity Corporation.
+ *
+ * Copyright 2024 Ping Identity Corporation. All Rights Reserved
+ */
+
+package org.forgerock.am.marketplace.pingonecredentials;
+
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.RESPONSE_EMBEDDED;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.RESPONSE_HREF;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.RESPONSE_LINKS;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.RESPONSE_NEXT;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+
+import org.forgerock.json.JsonValue;
+
+/**
+ * Lazily iterates over the items of a paged PingOne listing, such as the wallets or the credentials of a user.
+ * <p>
+ * Pages are read as the items are consumed, following the {@code _links.next} link of each page. The next page is read
+ * in the background on the {@link PingOneCredentialsAsyncService} while the items of the current page are consumed,
+ * so at most two pages are held in memory. A consumer which stops early, for example at the first matching item,
+ * should {@link #close()} the iterator to drop the next page.
+ * </p>
+ * <p>
+ * A next page which could not be read in the background, because the async service rejected the read, the read
+ * failed or it did not complete in time, is read again by the consumer. A page which cannot be read ends the
+ * iteration with an {@link IllegalStateException} wrapping the cause.
+ * </p>
+ */
+final class PingOneCredentialsPageIterator implements Iterator<JsonValue>, Closeable {
+
+    /** The maximum time to wait for the background read of the next page before reading it again. */
+    static final Duration NEXT_PAGE_TIMEOUT = Duration.ofSeconds(30);
+
+    private final PageReader reader;
+    private final String itemsField;
+    private final PingOneCredentialsAsyncService asyncService;
+    private Iterator<JsonValue> items = Collections.emptyIterator();
+    private String nextPageUrl;
+    private Optional<String> nextPage = Optional.empty();
+    private boolean started;
+
+    /**
+     * Create an iterator over a paged listing. No page is read until the first item is requested.
+     *
+     * @param reader Reads a page of the listing.
+     * @param itemsField The field of {@code _embedded} holding the items of a page.
+     * @param asyncService The {@link PingOneCredentialsAsyncService} reading the next pages.
+     */
+    PingOneCredentialsPageIterator(PageReader reader, String itemsField,
+                                   PingOneCredentialsAsyncService asyncService) {
+        this.reader = reader;
+        this.itemsField = itemsField;
+        this.asyncService = asyncService;
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!items.hasNext()) {
+            JsonValue page;
+            if (!started) {
+                started = true;
+                page = read(null);
+            } else if (nextPageUrl != null) {
+                page = await(nextPageUrl, nextPage);
+            } else {
+                return false;
+            }
+            String next = page.get(RESPONSE_LINKS).get(RESPONSE_NEXT).get(RESPONSE_HREF).asString();
+            nextPageUrl = next;
+            nextPage = next != null ? asyncService.submit(() -> read(next)) : Optional.empty();
+            items = page.get(RESPONSE_EMBEDDED).get(itemsField).iterator();
+        }
+        return true;
+    }
+
+    @Override
+    public JsonValue next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return items.next();
+    }
+
+    /**
+     * Stop the iteration, dropping the next page.
+     */
+    @Override
+    public void close() {
+        nextPage.ifPresent(handle -> asyncService.discard(handle, page -> { }));
+        nextPage = Optional.empty();
+        nextPageUrl = null;
+        items = Collections.emptyIterator();
+        started = true;
+    }
+
+    private JsonValue read(String pageUrl) {
+        try {
+            return reader.read(pageUrl);
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to read the page of the listing: " + e.getMessage(), e);
+        }
+    }
+
+    private JsonValue await(String pageUrl, Optional<String> handle) {
+        if (handle.isPresent()) {
+            try {
+                Optional<JsonValue> page = asyncService.claim(handle.get(), NEXT_PAGE_TIMEOUT, late -> { });
+                if (page.isPresent()) {
+                    return page.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while reading the page of the listing", e);
+            }
+        }
+        return read(pageUrl);
+    }
+
+    /**
+     * Reads a page of a listing.
+     */
+    @FunctionalInterface
+    interface PageReader {
+
+        /**
+         * Read a page.
+         *
+         * @param pageUrl The URL of the page from the next link of the previous page, or null for the first page.
+         * @return The page.
+         * @throws Exception If the page cannot be read.
+         */
+        JsonValue read(String pageUrl) throws Exception;
+    }
+}
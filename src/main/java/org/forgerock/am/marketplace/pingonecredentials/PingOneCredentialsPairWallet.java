@@ -19,8 +19,12 @@ import static org.forgerock.am.marketplace.pingonecredentials.Constants.RESPONSE
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.RESPONSE_LINKS;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_PAIRING_TIMEOUT_KEY;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_PAIRING_WALLET_ID_KEY;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_SPECULATIVE_PAIRING_KEY;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_WALLET_DATA_KEY;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.RESPONSE_STATUS;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.RESPONSE_DIGITALWALLETS;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.RESPONSE_DIGITAL_WALLET_APPLICATION;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.RESPONSE_EMBEDDED;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.TIMEOUT_OUTCOME_ID;
 import static org.forgerock.openam.auth.node.api.Action.send;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.PAIRING_REQUIRED;
@@ -43,6 +47,7 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.ResourceBundle;
+import java.util.function.Consumer;
 
 import javax.inject.Inject;
 import javax.security.auth.callback.Callback;
@@ -91,6 +96,9 @@ public class PingOneCredentialsPairWallet implements Node {
     /** The id of the HiddenCallback containing the URI. */
     public static final String HIDDEN_CALLBACK_ID = "pingOneCredentialPairingUri";
 
+    /** The id of the HiddenCallback containing the server rendered QR code image. */
+    public static final String QR_CODE_IMAGE_CALLBACK_ID = "pingOneCredentialPairingQrCode";
+
     private final Logger logger = LoggerFactory.getLogger(PingOneCredentialsPairWallet.class);
     private static final String LOGGER_PREFIX = "[PingOne Credentials Pair Wallet Node]" + PingOneCredentialsPlugin.LOG_APPENDER;
 
@@ -103,11 +111,23 @@ public class PingOneCredentialsPairWallet implements Node {
     static final String QR_CALLBACK_STRING = "callback_0";
     static final int DEFAULT_TIMEOUT = 120;
 
+    /** The maximum number of pending pairings remembered for reuse. */
+    static final int MAX_PENDING_PAIRINGS = 10000;
+
+    /** Pending pairings by environment, user, application and notifications, shared by all node instances. */
+    private static final PingOneCredentialsCache<String, PendingPairing> PENDING_PAIRINGS =
+        new PingOneCredentialsCache<>(MAX_PENDING_PAIRINGS, Duration.ofMinutes(15));
+
+    /** The maximum time to wait for a wallet created while the delivery methods were displayed. */
+    static final Duration SPECULATIVE_PAIRING_WAIT = Duration.ofSeconds(10);
+
     private final Config config;
     private final Realm realm;
     private final PingOneWorkerService pingOneWorkerService;
     private final LocalizationHelper localizationHelper;
     private final PingOneCredentialsService client;
+    private final PingOneCredentialsQrCodeRenderer qrCodeRenderer;
+    private final PingOneCredentialsAsyncService asyncService;
 
     /**
      * Configuration for the node.
@@ -219,6 +239,35 @@ public class PingOneCredentialsPairWallet implements Node {
         default boolean storeWalletResponse() {
             return false;
         }
+
+        /**
+         * Render the QR code on the server and deliver it as an image data URI instead of a generation script.
+         * @return true if the QR code should be rendered on the server, false otherwise.
+         */
+        @Attribute(order = 1300, requiredValue = true)
+        default boolean renderQrCodeImage() {
+            return false;
+        }
+
+        /**
+         * Reuse a wallet of the user still waiting to be paired with the same digital wallet application, instead of
+         * creating a new wallet.
+         * @return true if a pending pairing should be reused, false otherwise.
+         */
+        @Attribute(order = 1400)
+        default boolean reusePendingPairing() {
+            return false;
+        }
+
+        /**
+         * Create the wallet in the background while the delivery methods are displayed, so that it is ready if the
+         * QR code is chosen.
+         * @return true if the wallet should be created while the delivery methods are displayed, false otherwise.
+         */
+        @Attribute(order = 1500)
+        default boolean speculativePairing() {
+            return false;
+        }
     }
 
     /**
@@ -229,16 +278,22 @@ public class PingOneCredentialsPairWallet implements Node {
      * @param pingOneWorkerService the {@link PingOneWorkerService} instance.
      * @param client               the {@link PingOneCredentialsService} instance.
      * @param localizationHelper   the {@link LocalizationHelper} instance.
+     * @param qrCodeRenderer       the {@link PingOneCredentialsQrCodeRenderer} instance.
+     * @param asyncService         the {@link PingOneCredentialsAsyncService} instance.
      */
     @Inject
     PingOneCredentialsPairWallet(@Assisted Config config, @Assisted Realm realm,
                                  PingOneWorkerService pingOneWorkerService, PingOneCredentialsService client,
-                                 LocalizationHelper localizationHelper) {
+                                 LocalizationHelper localizationHelper,
+                                 PingOneCredentialsQrCodeRenderer qrCodeRenderer,
+                                 PingOneCredentialsAsyncService asyncService) {
         this.config = config;
         this.realm = realm;
         this.pingOneWorkerService = pingOneWorkerService;
         this.client = client;
         this.localizationHelper = localizationHelper;
+        this.qrCodeRenderer = qrCodeRenderer;
+        this.asyncService = asyncService;
     }
 
     @Override
@@ -259,7 +314,9 @@ public class PingOneCredentialsPairWallet implements Node {
 
             // Get PingOne Access Token
             PingOneWorkerService.Worker worker = config.pingOneWorker();
-            String accessToken = pingOneWorkerService.getAccessTokenId(realm, worker);
+            PingOneCredentialsJourneyMemo.usePrefetched(context, nodeState, asyncService);
+            String accessToken = PingOneCredentialsJourneyMemo.accessToken(
+                context, worker, () -> pingOneWorkerService.getAccessTokenId(realm, worker));
 
             if (StringUtils.isBlank(accessToken)) {
                 logger.error("Unable to get access token for PingOne Worker.");
@@ -285,8 +342,11 @@ public class PingOneCredentialsPairWallet implements Node {
                     case SMS -> smsDelivery = true;
                 }
 
+                Optional<JsonValue> speculativeWallet = claimSpeculativePairing(nodeState, accessToken, worker,
+                                                                                pingOneUserId, qrCodeDelivery);
+
                 return startPairingTransaction(context, accessToken, worker, qrCodeDelivery, emailDelivery, smsDelivery,
-                                               pingOneUserId, config.digitalWalletApplicationId());
+                                               pingOneUserId, config.digitalWalletApplicationId(), speculativeWallet);
             }
 
             // Check if transaction was started
@@ -301,12 +361,16 @@ public class PingOneCredentialsPairWallet implements Node {
 
                 // Start new pairing transaction
                 if (config.allowDeliveryMethodSelection()) {
+                    if (config.speculativePairing() && config.qrCodeDelivery()
+                        && !hasPendingPairing(nodeState, worker, pingOneUserId)) {
+                        startSpeculativePairing(nodeState, accessToken, worker, pingOneUserId);
+                    }
                     List<Callback> callbacks = createChoiceCallbacks(context);
                     return send(callbacks).build();
                 } else {
                     return startPairingTransaction(context, accessToken, worker, config.qrCodeDelivery(),
                                                    config.emailDelivery(), config.smsDelivery(), pingOneUserId,
-                                                   config.digitalWalletApplicationId());
+                                                   config.digitalWalletApplicationId(), Optional.empty());
                 }
             }
         } catch (Exception ex) {
@@ -332,18 +396,27 @@ public class PingOneCredentialsPairWallet implements Node {
 
         // Default to qr code delivery is disabled
         boolean qrCodeDelivery = false;
+        boolean emailDelivery = false;
+        boolean smsDelivery = false;
 
         if (config.allowDeliveryMethodSelection()) {
             int index = Objects.requireNonNull(nodeState.get(PINGONE_PAIRING_DELIVERY_METHOD_KEY)).asInteger();
-            if(PairingDeliveryMethod.QRCODE.equals(PairingDeliveryMethod.fromIndex(index))) {
+            PairingDeliveryMethod deliveryMethod = PairingDeliveryMethod.fromIndex(index);
+            if(PairingDeliveryMethod.QRCODE.equals(deliveryMethod)) {
                 qrCodeDelivery = true;
             }
+            emailDelivery = PairingDeliveryMethod.EMAIL.equals(deliveryMethod);
+            smsDelivery = PairingDeliveryMethod.SMS.equals(deliveryMethod);
         } else {
 
             if(config.qrCodeDelivery()) {
                 qrCodeDelivery = true;
             }
+            emailDelivery = config.emailDelivery();
+            smsDelivery = config.smsDelivery();
         }
+        String pendingPairingKey = pendingPairingKey(worker, pingOneUserId, config.digitalWalletApplicationId(),
+                                                     notificationList(emailDelivery, smsDelivery));
 
         // Check transaction status and take appropriate action
         JsonValue response = client.readDigitalWallet(accessToken,
@@ -364,6 +437,8 @@ public class PingOneCredentialsPairWallet implements Node {
                     throw new IllegalStateException("Missing AppOpen URL in nodeState.");
                 }
             case ACTIVE:
+                PENDING_PAIRINGS.remove(pendingPairingKey);
+                PingOneCredentialsJourneyMemo.invalidateWallets(nodeState, pingOneUserId);
                 nodeState.putShared(PINGONE_WALLET_ID_KEY, response.get(RESPONSE_ID));
 
                 if (config.storeWalletResponse()) {
@@ -371,6 +446,7 @@ public class PingOneCredentialsPairWallet implements Node {
                 }
                 return buildAction(SUCCESS_OUTCOME_ID, context);
             case EXPIRED:
+                PENDING_PAIRINGS.remove(pendingPairingKey);
                 return buildAction(ERROR_OUTCOME_ID, context);
             default:
                 throw new IllegalStateException("Unexpected status returned from PingOne Pairing Transaction: "
@@ -378,33 +454,112 @@ public class PingOneCredentialsPairWallet implements Node {
         }
     }
 
-    private Action startPairingTransaction(TreeContext context, String accessToken,
-                                           PingOneWorkerService.Worker worker, boolean qrCodeDelivery,
-                                           boolean emailDelivery, boolean smsDelivery, String pingOneUserId,
-                                           String digitalWalletApplicationId)
-        throws Exception {
+    /**
+     * Whether a pairing by QR code would reuse a pending wallet which is already known, in which case a speculative
+     * wallet would only be created to be deleted. Nothing is read from PingOne.
+     */
+    private boolean hasPendingPairing(NodeState nodeState, PingOneWorkerService.Worker worker, String pingOneUserId) {
+        if (!config.reusePendingPairing()) {
+            return false;
+        }
+        String digitalWalletApplicationId = config.digitalWalletApplicationId();
+        return PENDING_PAIRINGS.get(pendingPairingKey(worker, pingOneUserId, digitalWalletApplicationId,
+                                                      Collections.emptyList())).isPresent()
+               || PingOneCredentialsJourneyMemo.knownWallets(nodeState, pingOneUserId)
+                                               .flatMap(wallets -> findPendingWallet(wallets,
+                                                                                     digitalWalletApplicationId))
+                                               .isPresent();
+    }
 
-        List<String> notificationList = new ArrayList<String>();
+    private void startSpeculativePairing(NodeState nodeState, String accessToken, PingOneWorkerService.Worker worker,
+                                         String pingOneUserId) {
+        // Delivered by QR code only, so no notification is requested. The wallet is deleted if the journey never
+        // claims it
+        String digitalWalletApplicationId = config.digitalWalletApplicationId();
+        asyncService.submit(() -> client.createDigitalWalletRequest(accessToken, worker, pingOneUserId,
+                                                                    digitalWalletApplicationId,
+                                                                    Collections.emptyList()),
+                            deleteSpeculativeWallet(accessToken, worker, pingOneUserId))
+                    .ifPresent(handle -> nodeState.putShared(PINGONE_SPECULATIVE_PAIRING_KEY, handle));
+    }
 
-        if(emailDelivery) {
-            notificationList.add(PairingDeliveryMethod.EMAIL.name());
+    private Optional<JsonValue> claimSpeculativePairing(NodeState nodeState, String accessToken,
+                                                        PingOneWorkerService.Worker worker, String pingOneUserId,
+                                                        boolean qrCodeDelivery) throws InterruptedException {
+        if (!nodeState.isDefined(PINGONE_SPECULATIVE_PAIRING_KEY)) {
+            return Optional.empty();
         }
-
-        if(smsDelivery) {
-            notificationList.add(PairingDeliveryMethod.SMS.name());
+        String handle = nodeState.get(PINGONE_SPECULATIVE_PAIRING_KEY).asString();
+        nodeState.remove(PINGONE_SPECULATIVE_PAIRING_KEY);
+
+        // The wallet created in the background is not needed, or came too late, when it is not paired by QR code
+        Consumer<JsonValue> deleteWallet = deleteSpeculativeWallet(accessToken, worker, pingOneUserId);
+        if (!qrCodeDelivery) {
+            asyncService.discard(handle, deleteWallet);
+            return Optional.empty();
         }
+        return asyncService.claim(handle, SPECULATIVE_PAIRING_WAIT, deleteWallet);
+    }
 
-        JsonValue response = client.createDigitalWalletRequest(accessToken,
-                                                               worker,
-                                                               pingOneUserId,
-                                                               digitalWalletApplicationId,
-                                                               notificationList);
+    private Consumer<JsonValue> deleteSpeculativeWallet(String accessToken, PingOneWorkerService.Worker worker,
+                                                        String pingOneUserId) {
+        return wallet -> {
+            String digitalWalletId = wallet.get(RESPONSE_ID).asString();
+            try {
+                client.deleteWalletRequest(accessToken, worker, pingOneUserId, digitalWalletId);
+            } catch (PingOneCredentialsServiceException e) {
+                logger.warn("{} Unable to delete unused wallet {}: {}", LOGGER_PREFIX, digitalWalletId,
+                            e.getMessage());
+            }
+        };
+    }
 
-        // Retrieve response values
-        String digitalWalletId = response.get(RESPONSE_ID).asString();
+    private Action startPairingTransaction(TreeContext context, String accessToken,
+                                           PingOneWorkerService.Worker worker, boolean qrCodeDelivery,
+                                           boolean emailDelivery, boolean smsDelivery, String pingOneUserId,
+                                           String digitalWalletApplicationId, Optional<JsonValue> speculativeWallet)
+        throws Exception {
 
-        // Use the App Open URL for the QR Code URL
-        String appOpenUrl = response.get(RESPONSE_LINKS).get(RESPONSE_APPOPEN).get(RESPONSE_HREF).asString();
+        List<String> notificationList = notificationList(emailDelivery, smsDelivery);
+
+        // Only a pairing delivered by QR code alone can reuse a pending wallet, other deliveries need the notification
+        // sent when the wallet is created
+        boolean reusable = config.reusePendingPairing() && qrCodeDelivery && notificationList.isEmpty();
+        String pendingPairingKey = pendingPairingKey(worker, pingOneUserId, digitalWalletApplicationId,
+                                                     notificationList);
+        Optional<PendingPairing> pendingPairing = reusable && speculativeWallet.isEmpty()
+                                                  ? findPendingPairing(context.getStateFor(this), accessToken,
+                                                                       worker, pingOneUserId,
+                                                                       digitalWalletApplicationId, pendingPairingKey)
+                                                  : Optional.empty();
+
+        String digitalWalletId;
+        String appOpenUrl;
+
+        if (pendingPairing.isPresent()) {
+            logger.debug("{} Reusing pending pairing of wallet {}", LOGGER_PREFIX, pendingPairing.get().walletId);
+            digitalWalletId = pendingPairing.get().walletId;
+            appOpenUrl = pendingPairing.get().appOpenUrl;
+        } else {
+            JsonValue response = speculativeWallet.isPresent()
+                                 ? speculativeWallet.get()
+                                 : client.createDigitalWalletRequest(accessToken,
+                                                                     worker,
+                                                                     pingOneUserId,
+                                                                     digitalWalletApplicationId,
+                                                                     notificationList);
+
+            // Retrieve response values
+            digitalWalletId = response.get(RESPONSE_ID).asString();
+
+            // Use the App Open URL for the QR Code URL
+            appOpenUrl = response.get(RESPONSE_LINKS).get(RESPONSE_APPOPEN).get(RESPONSE_HREF).asString();
+
+            if (reusable) {
+                PENDING_PAIRINGS.put(pendingPairingKey, new PendingPairing(digitalWalletId, appOpenUrl));
+            }
+            PingOneCredentialsJourneyMemo.invalidateWallets(context.getStateFor(this), pingOneUserId);
+        }
 
         // Store transaction ID in shared state
         NodeState nodeState = context.getStateFor(this);
@@ -419,6 +574,59 @@ public class PingOneCredentialsPairWallet implements Node {
         return send(callbacks).build();
     }
 
+    private Optional<PendingPairing> findPendingPairing(NodeState nodeState, String accessToken,
+                                                        PingOneWorkerService.Worker worker, String pingOneUserId,
+                                                        String digitalWalletApplicationId, String pendingPairingKey)
+        throws Exception {
+        // A remembered pairing only needs to be checked, which is cheaper than listing the wallets of the user
+        Optional<PendingPairing> cached = PENDING_PAIRINGS.get(pendingPairingKey);
+        if (cached.isPresent()) {
+            JsonValue wallet = client.readDigitalWallet(accessToken, worker, pingOneUserId, cached.get().walletId);
+            if (PAIRING_REQUIRED.equals(wallet.get(RESPONSE_STATUS).asString())) {
+                return cached;
+            }
+            PENDING_PAIRINGS.remove(pendingPairingKey);
+        }
+
+        JsonValue wallets = PingOneCredentialsJourneyMemo.wallets(
+                nodeState, pingOneUserId, () -> client.findWalletRequest(accessToken, worker, pingOneUserId));
+        Optional<PendingPairing> pendingPairing = findPendingWallet(wallets, digitalWalletApplicationId);
+        pendingPairing.ifPresent(pairing -> PENDING_PAIRINGS.put(pendingPairingKey, pairing));
+        return pendingPairing;
+    }
+
+    private static Optional<PendingPairing> findPendingWallet(JsonValue wallets, String digitalWalletApplicationId) {
+        for (JsonValue wallet : wallets.get(RESPONSE_EMBEDDED).get(RESPONSE_DIGITALWALLETS)) {
+            String appOpenUrl = wallet.get(RESPONSE_LINKS).get(RESPONSE_APPOPEN).get(RESPONSE_HREF).asString();
+            if (PAIRING_REQUIRED.equals(wallet.get(RESPONSE_STATUS).asString())
+                && digitalWalletApplicationId.equals(
+                    wallet.get(RESPONSE_DIGITAL_WALLET_APPLICATION).get(RESPONSE_ID).asString())
+                && appOpenUrl != null) {
+                return Optional.of(new PendingPairing(wallet.get(RESPONSE_ID).asString(), appOpenUrl));
+            }
+        }
+        return Optional.empty();
+    }
+
+    private static String pendingPairingKey(PingOneWorkerService.Worker worker, String pingOneUserId,
+                                            String digitalWalletApplicationId, List<String> notificationList) {
+        return worker.environmentId() + "/" + pingOneUserId + "/" + digitalWalletApplicationId + "/"
+               + String.join(",", notificationList);
+    }
+
+    private static List<String> notificationList(boolean emailDelivery, boolean smsDelivery) {
+        List<String> notificationList = new ArrayList<String>();
+
+        if(emailDelivery) {
+            notificationList.add(PairingDeliveryMethod.EMAIL.name());
+        }
+
+        if(smsDelivery) {
+            notificationList.add(PairingDeliveryMethod.SMS.name());
+        }
+        return notificationList;
+    }
+
     private List<Callback> getCallbacksForDeliveryMethod(TreeContext context, boolean qrCodeDelivery,
                                                          String url) {
         String waitingMessage = getWaitingMessage(context);
@@ -432,7 +640,9 @@ public class PingOneCredentialsPairWallet implements Node {
             Callback scanTextOutputCallback = createLocalizedTextCallback(context, this.getClass(),
                                                                           config.scanQRCodeMessage(), SCAN_QR_CODE_MSG_KEY);
 
-            Callback qrCodeCallback = new ScriptTextOutputCallback(GenerationUtils
+            Callback qrCodeCallback = config.renderQrCodeImage()
+                                      ? new HiddenValueCallback(QR_CODE_IMAGE_CALLBACK_ID, qrCodeRenderer.render(url))
+                                      : new ScriptTextOutputCallback(GenerationUtils
                                                                        .getQRCodeGenerationJavascriptForAuthenticatorAppRegistration(QR_CALLBACK_STRING, url));
 
             Callback hiddenCallback = new HiddenValueCallback(HIDDEN_CALLBACK_ID, url);
@@ -503,6 +713,7 @@ public class PingOneCredentialsPairWallet implements Node {
         nodeState.remove(PINGONE_PAIRING_WALLET_ID_KEY);
         nodeState.remove(PINGONE_PAIRING_DELIVERY_METHOD_KEY);
         nodeState.remove(PINGONE_PAIRING_TIMEOUT_KEY);
+        nodeState.remove(PINGONE_SPECULATIVE_PAIRING_KEY);
         return builder;
     }
 
@@ -514,7 +725,8 @@ public class PingOneCredentialsPairWallet implements Node {
             new InputState(PINGONE_PAIRING_DELIVERY_METHOD_KEY, false),
             new InputState(PINGONE_PAIRING_TIMEOUT_KEY, false),
             new InputState(PINGONE_APPOPEN_URL_KEY, false),
-            new InputState(OBJECT_ATTRIBUTES, false)
+            new InputState(OBJECT_ATTRIBUTES, false),
+            new InputState(PINGONE_SPECULATIVE_PAIRING_KEY, false)
             };
     }
 
@@ -525,9 +737,20 @@ public class PingOneCredentialsPairWallet implements Node {
             new OutputState(PINGONE_PAIRING_DELIVERY_METHOD_KEY),
             new OutputState(PINGONE_PAIRING_TIMEOUT_KEY),
             new OutputState(PINGONE_APPOPEN_URL_KEY),
+            new OutputState(PINGONE_SPECULATIVE_PAIRING_KEY),
         };
     }
 
+    private static final class PendingPairing {
+        private final String walletId;
+        private final String appOpenUrl;
+
+        private PendingPairing(String walletId, String appOpenUrl) {
+            this.walletId = walletId;
+            this.appOpenUrl = appOpenUrl;
+        }
+    }
+
     public static class PairingOutcomeProvider implements StaticOutcomeProvider {
         @Override
         public List<Outcome> getOutcomes(PreferredLocales locales) {
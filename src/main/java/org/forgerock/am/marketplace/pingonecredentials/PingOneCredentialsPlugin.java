@@ -12,8 +12,12 @@ import static java.util.Arrays.asList;
 
 import java.util.Map;
 
+import javax.inject.Inject;
+
 import org.forgerock.openam.auth.node.api.AbstractNodeAmPlugin;
 import org.forgerock.openam.auth.node.api.Node;
+import org.forgerock.openam.core.realms.RealmLookup;
+import org.forgerock.openam.integration.pingone.api.PingOneWorkerService;
 import org.forgerock.openam.plugins.PluginException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -51,11 +55,41 @@ import com.google.common.collect.ImmutableMap;
  * @since AM 5.5.0
  */
 public class PingOneCredentialsPlugin extends AbstractNodeAmPlugin {
-	protected static final String CURRENT_VERSION = "1.0.5";
+	protected static final String CURRENT_VERSION = "1.0.6";
 	protected static final String LOG_APPENDER = "[Version: " + CURRENT_VERSION + "][Marketplace]";
 	private static final Logger logger = LoggerFactory.getLogger(PingOneCredentialsPlugin.class);
 	private final String LOGGER_PREFIX = "[PingOneCredentialsPlugin]" + PingOneCredentialsPlugin.LOG_APPENDER;
 
+	private PingOneCredentialsBulkJobs bulkJobs;
+	private PingOneCredentialsIssueOutbox issueOutbox;
+	private PingOneCredentialsRevokeOutbox revokeOutbox;
+	private PingOneCredentialsService client;
+	private PingOneWorkerService pingOneWorkerService;
+	private RealmLookup realmLookup;
+	private PingOneCredentialsWalletSweeper sweeper;
+
+	/**
+	 * Set the background work started with the plugin.
+	 *
+	 * @param bulkJobs The {@link PingOneCredentialsBulkJobs} instance.
+	 * @param issueOutbox The {@link PingOneCredentialsIssueOutbox} instance.
+	 * @param revokeOutbox The {@link PingOneCredentialsRevokeOutbox} instance.
+	 * @param client The {@link PingOneCredentialsService} instance.
+	 * @param pingOneWorkerService The {@link PingOneWorkerService} instance.
+	 * @param realmLookup The {@link RealmLookup} instance.
+	 */
+	@Inject
+	public void setBackgroundWork(PingOneCredentialsBulkJobs bulkJobs, PingOneCredentialsIssueOutbox issueOutbox,
+	                              PingOneCredentialsRevokeOutbox revokeOutbox, PingOneCredentialsService client,
+	                              PingOneWorkerService pingOneWorkerService, RealmLookup realmLookup) {
+		this.bulkJobs = bulkJobs;
+		this.issueOutbox = issueOutbox;
+		this.revokeOutbox = revokeOutbox;
+		this.client = client;
+		this.pingOneWorkerService = pingOneWorkerService;
+		this.realmLookup = realmLookup;
+	}
+
     /** 
      * Specify the Map of list of node classes that the plugin is providing. These will then be installed and
      *  registered at the appropriate times in plugin lifecycle.
@@ -72,6 +106,9 @@ public class PingOneCredentialsPlugin extends AbstractNodeAmPlugin {
                                     PingOneCredentialsRemoveWallet.class,
                                     PingOneCredentialsUpdate.class,
                                     PingOneCredentialsRevoke.class))
+                .put("1.0.6", asList(PingOneCredentialsPrefetch.class,
+                                    PingOneCredentialsEnsure.class,
+                                    PingOneCredentialsIssueMultiple.class))
                 .build();
 	}
 
@@ -113,5 +150,48 @@ public class PingOneCredentialsPlugin extends AbstractNodeAmPlugin {
 		super.upgrade(fromVersion);
 	}
 
+	/**
+	 * Register the nodes, then start the background work configured on the server, including sending the requests
+	 * left in the outboxes of the nodes before a restart.
+	 */
+	@Override
+	public void onStartup() throws PluginException {
+		super.onStartup();
+		if (bulkJobs != null) {
+			bulkJobs.start();
+		}
+		if (revokeOutbox != null) {
+			revokeOutbox.start(System.getProperties(), pingOneWorkerService, realmLookup);
+		}
+		if (issueOutbox != null) {
+			issueOutbox.start(System.getProperties(), pingOneWorkerService, realmLookup);
+		}
+		if (client != null) {
+			sweeper = PingOneCredentialsWalletSweeper.startConfigured(System.getProperties(), client,
+			                                                          pingOneWorkerService, realmLookup)
+			                                         .orElse(null);
+		}
+	}
+
+	/**
+	 * Stop the background work, which resumes where it stopped at the next startup.
+	 */
+	@Override
+	public void onShutdown() {
+		if (bulkJobs != null) {
+			bulkJobs.stop();
+		}
+		if (revokeOutbox != null) {
+			revokeOutbox.stop();
+		}
+		if (issueOutbox != null) {
+			issueOutbox.stop();
+		}
+		if (sweeper != null) {
+			sweeper.stop();
+			sweeper = null;
+		}
+	}
+
 
 }
@@ -0,0 +1,159 @@
+/*
+ * This code is to be used exclusively in connection with Ping Identity Corporation software or services.
+ * Ping Identity Corporation only offers such software or services to legal entities who have entered into
+ * a binding license agreement with Ping Identity Corporation.
+ *
+ * Copyright 2024 Ping Identity Corporation. All Rights Reserved
+ */
+
+package org.forgerock.am.marketplace.pingonecredentials;
+
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.OBJECT_ATTRIBUTES;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_PREFETCH_KEY;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_USER_ID_KEY;
+
+import com.google.inject.assistedinject.Assisted;
+import org.apache.commons.lang.StringUtils;
+import org.forgerock.json.JsonValue;
+import org.forgerock.openam.annotations.sm.Attribute;
+import org.forgerock.openam.auth.node.api.Action;
+import org.forgerock.openam.auth.node.api.InputState;
+import org.forgerock.openam.auth.node.api.Node;
+import org.forgerock.openam.auth.node.api.NodeState;
+import org.forgerock.openam.auth.node.api.OutputState;
+import org.forgerock.openam.auth.node.api.SingleOutcomeNode;
+import org.forgerock.openam.auth.node.api.TreeContext;
+import org.forgerock.openam.integration.pingone.api.PingOneWorker;
+import org.forgerock.openam.integration.pingone.api.PingOneWorkerService;
+import org.forgerock.openam.core.realms.Realm;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.inject.Inject;
+
+/**
+ * The PingOne Credentials Prefetch node lets you read the PingOne access token, and the wallets of the user, in the
+ * background early in a journey, so that the PingOne Credentials nodes later in the journey do not wait for them.
+ */
+@Node.Metadata(
+    outcomeProvider = SingleOutcomeNode.OutcomeProvider.class,
+    configClass = PingOneCredentialsPrefetch.Config.class,
+    tags = {"marketplace", "trustnetwork", "pingone"})
+public class PingOneCredentialsPrefetch extends SingleOutcomeNode {
+
+    private final Config config;
+    private final Realm realm;
+    private final PingOneWorkerService pingOneWorkerService;
+    private final PingOneCredentialsService client;
+    private final PingOneCredentialsAsyncService asyncService;
+
+    private final Logger logger = LoggerFactory.getLogger(PingOneCredentialsPrefetch.class);
+    private static final String LOGGER_PREFIX = "[PingOne Credentials Prefetch Node]" + PingOneCredentialsPlugin.LOG_APPENDER;
+
+    /**
+     * Configuration for the node.
+     */
+    public interface Config {
+
+        /**
+         * Reference to the PingOne Worker App.
+         *
+         * @return The PingOne Worker App.
+         */
+        @Attribute(order = 100, requiredValue = true)
+        @PingOneWorker
+        PingOneWorkerService.Worker pingOneWorker();
+
+        /**
+         * The shared state attribute containing the PingOne User ID
+         *
+         * @return The PingOne User ID shared state attribute.
+         */
+        @Attribute(order = 200, requiredValue = true)
+        default String pingOneUserIdAttribute() {
+            return PINGONE_USER_ID_KEY;
+        }
+
+        /**
+         * Read the wallets of the user in addition to the access token of the worker.
+         *
+         * @return true if the wallets of the user should be read, false otherwise.
+         */
+        @Attribute(order = 300, requiredValue = true)
+        default boolean prefetchWallets() {
+            return true;
+        }
+    }
+
+    /**
+     * The PingOne Credentials Prefetch node constructor.
+     *
+     * @param config               the node configuration.
+     * @param realm                the realm.
+     * @param pingOneWorkerService the {@link PingOneWorkerService} instance.
+     * @param client               the {@link PingOneCredentialsService} instance.
+     * @param asyncService         the {@link PingOneCredentialsAsyncService} instance.
+     */
+    @Inject
+    PingOneCredentialsPrefetch(@Assisted Config config, @Assisted Realm realm,
+                               PingOneWorkerService pingOneWorkerService, PingOneCredentialsService client,
+                               PingOneCredentialsAsyncService asyncService) {
+        this.config = config;
+        this.realm = realm;
+        this.pingOneWorkerService = pingOneWorkerService;
+        this.client = client;
+        this.asyncService = asyncService;
+    }
+
+    @Override
+    public Action process(TreeContext context) {
+        try {
+            logger.debug("{} Started", LOGGER_PREFIX);
+
+            NodeState nodeState = context.getStateFor(this);
+
+            // The wallets can only be read once the user is known
+            String pingOneUserId = null;
+            if (config.prefetchWallets()) {
+                try {
+                    pingOneUserId = new PingOneUserIdHelper().getPingOneUserId(nodeState,
+                                                                               config.pingOneUserIdAttribute());
+                } catch (PingOneCredentialsException e) {
+                    logger.debug("{} No PingOne User ID in sharedState, only the access token is read", LOGGER_PREFIX);
+                }
+            }
+
+            PingOneWorkerService.Worker worker = config.pingOneWorker();
+            String userId = pingOneUserId;
+            asyncService.submit(() -> prefetch(worker, userId))
+                        .ifPresent(handle -> nodeState.putShared(PINGONE_PREFETCH_KEY, handle));
+        } catch (Exception ex) {
+            // Prefetching is an optimisation, the journey continues without it
+            logger.warn(LOGGER_PREFIX + "Unable to start prefetching: ", ex);
+        }
+        return goToNext().build();
+    }
+
+    private JsonValue prefetch(PingOneWorkerService.Worker worker, String pingOneUserId) throws Exception {
+        String accessToken = pingOneWorkerService.getAccessTokenId(realm, worker);
+        JsonValue wallets = StringUtils.isNotBlank(accessToken) && pingOneUserId != null
+                            ? client.findWalletRequest(accessToken, worker, pingOneUserId)
+                            : null;
+        return PingOneCredentialsJourneyMemo.prefetched(worker, accessToken, pingOneUserId, wallets);
+    }
+
+    @Override
+    public InputState[] getInputs() {
+        return new InputState[] {
+            new InputState(config.pingOneUserIdAttribute(), false),
+            new InputState(OBJECT_ATTRIBUTES, false)
+        };
+    }
+
+    @Override
+    public OutputState[] getOutputs() {
+        return new OutputState[] {
+            new OutputState(PINGONE_PREFETCH_KEY)
+        };
+    }
+}
@@ -0,0 +1,508 @@
+/*
+ * This code is to be used exclusively in connection with Ping Identity Corporation software or services.
+ * Ping Identity Corporation only offers such software or services to legal entities who have entered into
+ * a binding license agreement with Ping Identity Corporation.
+ *
+ * Copyright 2024 Ping Identity Corporation. All Rights Reserved
+ *
+ * Portions of this file are adapted from the QR Code generator library, which carries the following notice:
+ *
+ * Copyright (c) Project Nayuki. (MIT License)
+ * https://www.nayuki.io/page/qr-code-generator-library
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy of
+ * this software and associated documentation files (the "Software"), to deal in
+ * the Software without restriction, including without limitation the rights to
+ * use, copy, modify, merge, publish, distribute, sublicense, and/or sell copies of
+ * the Software, and to permit persons to whom the Software is furnished to do so,
+ * subject to the following conditions:
+ * - The above copyright notice and this permission notice shall be included in
+ *   all copies or substantial portions of the Software.
+ * - The Software is provided "as is", without warranty of any kind, express or
+ *   implied, including but not limited to the warranties of merchantability,
+ *   fitness for a particular purpose and noninfringement. In no event shall the
+ *   authors or copyright holders be liable for any claim, damages or other
+ *   liability, whether in an action of contract, tort or otherwise, arising from,
+ *   out of or in connection with the Software or the use or other dealings in the
+ *   Software.
+ */
+
+package org.forgerock.am.marketplace.pingonecredentials;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Minimal QR Code (ISO/IEC 18004) encoder for the pairing and verification URLs. Text is always encoded in byte mode
+ * with the medium error correction level, using the smallest version that fits.
+ * <p>
+ * The version capacity, Reed-Solomon, interleaving and module placement logic is adapted from Project Nayuki's
+ * MIT-licensed QR Code generator library, see the notice at the top of this file.
+ * </p>
+ */
+final class PingOneCredentialsQrCode {
+
+    private static final int MAX_VERSION = 40;
+
+    /** Format bits of the medium error correction level. */
+    private static final int ECC_FORMAT_BITS = 0;
+
+    /** Error correction codewords per block for the medium level, indexed by version. */
+    private static final int[] ECC_CODEWORDS_PER_BLOCK = {
+        -1, 10, 16, 26, 18, 24, 16, 18, 22, 22, 26, 30, 22, 22, 24, 24, 28, 28, 26, 26, 26,
+        26, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28, 28};
+
+    /** Error correction blocks for the medium level, indexed by version. */
+    private static final int[] NUM_ERROR_CORRECTION_BLOCKS = {
+        -1, 1, 1, 1, 2, 2, 4, 4, 4, 5, 5, 5, 8, 9, 9, 10, 10, 11, 13, 14, 16,
+        17, 17, 18, 20, 21, 23, 25, 26, 28, 29, 31, 33, 35, 37, 38, 40, 43, 45, 47, 49};
+
+    private final int version;
+    private final int size;
+    private final boolean[][] modules;
+    private final boolean[][] isFunction;
+
+    private PingOneCredentialsQrCode(int version, byte[] dataCodewords) {
+        this.version = version;
+        this.size = version * 4 + 17;
+        this.modules = new boolean[size][size];
+        this.isFunction = new boolean[size][size];
+
+        drawFunctionPatterns();
+        drawCodewords(addEccAndInterleave(dataCodewords));
+
+        int bestMask = 0;
+        int minPenalty = Integer.MAX_VALUE;
+        for (int mask = 0; mask < 8; mask++) {
+            applyMask(mask);
+            drawFormatBits(mask);
+            int penalty = getPenaltyScore();
+            if (penalty < minPenalty) {
+                bestMask = mask;
+                minPenalty = penalty;
+            }
+            applyMask(mask); // XOR again to undo
+        }
+        applyMask(bestMask);
+        drawFormatBits(bestMask);
+    }
+
+    /**
+     * Encode the text as a QR code.
+     *
+     * @param text The text to encode.
+     * @return The QR code.
+     * @throws IllegalArgumentException If the text is too long to fit in a QR code.
+     */
+    static PingOneCredentialsQrCode encode(String text) {
+        byte[] data = text.getBytes(StandardCharsets.UTF_8);
+
+        int version = 1;
+        int dataUsedBits;
+        while (true) {
+            int capacityBits = getNumDataCodewords(version) * 8;
+            dataUsedBits = 4 + (version <= 9 ? 8 : 16) + data.length * 8;
+            if (dataUsedBits <= capacityBits) {
+                break;
+            }
+            if (version >= MAX_VERSION) {
+                throw new IllegalArgumentException("Text too long to encode as a QR code: " + data.length + " bytes");
+            }
+            version++;
+        }
+
+        BitBuffer bits = new BitBuffer(getNumDataCodewords(version) * 8);
+        bits.append(0x4, 4); // Byte mode
+        bits.append(data.length, version <= 9 ? 8 : 16);
+        for (byte b : data) {
+            bits.append(b & 0xFF, 8);
+        }
+
+        // Terminator, byte alignment and alternating pad bytes
+        int capacityBits = getNumDataCodewords(version) * 8;
+        bits.append(0, Math.min(4, capacityBits - bits.length));
+        bits.append(0, (8 - bits.length % 8) % 8);
+        for (int padByte = 0xEC; bits.length < capacityBits; padByte ^= 0xEC ^ 0x11) {
+            bits.append(padByte, 8);
+        }
+
+        return new PingOneCredentialsQrCode(version, bits.toBytes());
+    }
+
+    /**
+     * The version of the QR code, from 1 to 40.
+     *
+     * @return The version.
+     */
+    int version() {
+        return version;
+    }
+
+    /**
+     * The width and height of the QR code in modules, excluding the quiet zone.
+     *
+     * @return The size of the QR code.
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * Whether the module at the given coordinates is dark.
+     *
+     * @param x The column, from 0 on the left.
+     * @param y The row, from 0 at the top.
+     * @return true if the module is dark, false otherwise.
+     */
+    boolean isDark(int x, int y) {
+        return 0 <= x && x < size && 0 <= y && y < size && modules[y][x];
+    }
+
+    /**
+     * Render the QR code as an SVG document, drawing each dark module as a unit square.
+     *
+     * @param border The width of the quiet zone in modules.
+     * @return The SVG document.
+     */
+    String toSvg(int border) {
+        int dimension = size + border * 2;
+        StringBuilder svg = new StringBuilder()
+            .append("<svg xmlns=\"http://www.w3.org/2000/svg\" version=\"1.1\" viewBox=\"0 0 ")
+            .append(dimension).append(' ').append(dimension).append("\" stroke=\"none\">")
+            .append("<rect width=\"100%\" height=\"100%\" fill=\"#FFFFFF\"/><path d=\"");
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                if (modules[y][x]) {
+                    svg.append('M').append(x + border).append(',').append(y + border).append("h1v1h-1z");
+                }
+            }
+        }
+        return svg.append("\" fill=\"#000000\"/></svg>").toString();
+    }
+
+    private void drawFunctionPatterns() {
+        // Timing patterns
+        for (int i = 0; i < size; i++) {
+            setFunctionModule(6, i, i % 2 == 0);
+            setFunctionModule(i, 6, i % 2 == 0);
+        }
+
+        // Finder patterns, overwriting some timing modules
+        drawFinderPattern(3, 3);
+        drawFinderPattern(size - 4, 3);
+        drawFinderPattern(3, size - 4);
+
+        // Alignment patterns, skipping the three finder corners
+        int[] positions = getAlignmentPatternPositions();
+        int numAlign = positions.length;
+        for (int i = 0; i < numAlign; i++) {
+            for (int j = 0; j < numAlign; j++) {
+                if (!(i == 0 && j == 0 || i == 0 && j == numAlign - 1 || i == numAlign - 1 && j == 0)) {
+                    drawAlignmentPattern(positions[i], positions[j]);
+                }
+            }
+        }
+
+        // Reserve the format areas with a dummy mask, then draw the version information
+        drawFormatBits(0);
+        drawVersion();
+    }
+
+    private void drawFormatBits(int mask) {
+        int data = ECC_FORMAT_BITS << 3 | mask;
+        int rem = data;
+        for (int i = 0; i < 10; i++) {
+            rem = (rem << 1) ^ ((rem >>> 9) * 0x537);
+        }
+        int bits = (data << 10 | rem) ^ 0x5412;
+
+        // First copy, around the top left finder
+        for (int i = 0; i <= 5; i++) {
+            setFunctionModule(8, i, getBit(bits, i));
+        }
+        setFunctionModule(8, 7, getBit(bits, 6));
+        setFunctionModule(8, 8, getBit(bits, 7));
+        setFunctionModule(7, 8, getBit(bits, 8));
+        for (int i = 9; i < 15; i++) {
+            setFunctionModule(14 - i, 8, getBit(bits, i));
+        }
+
+        // Second copy, split between the top right and bottom left finders
+        for (int i = 0; i < 8; i++) {
+            setFunctionModule(size - 1 - i, 8, getBit(bits, i));
+        }
+        for (int i = 8; i < 15; i++) {
+            setFunctionModule(8, size - 15 + i, getBit(bits, i));
+        }
+        setFunctionModule(8, size - 8, true); // Always dark
+    }
+
+    private void drawVersion() {
+        if (version < 7) {
+            return;
+        }
+        int rem = version;
+        for (int i = 0; i < 12; i++) {
+            rem = (rem << 1) ^ ((rem >>> 11) * 0x1F25);
+        }
+        int bits = version << 12 | rem;
+
+        for (int i = 0; i < 18; i++) {
+            boolean bit = getBit(bits, i);
+            int a = size - 11 + i % 3;
+            int b = i / 3;
+            setFunctionModule(a, b, bit);
+            setFunctionModule(b, a, bit);
+        }
+    }
+
+    private void drawFinderPattern(int x, int y) {
+        for (int dy = -4; dy <= 4; dy++) {
+            for (int dx = -4; dx <= 4; dx++) {
+                int dist = Math.max(Math.abs(dx), Math.abs(dy));
+                int xx = x + dx;
+                int yy = y + dy;
+                if (0 <= xx && xx < size && 0 <= yy && yy < size) {
+                    setFunctionModule(xx, yy, dist != 2 && dist != 4);
+                }
+            }
+        }
+    }
+
+    private void drawAlignmentPattern(int x, int y) {
+        for (int dy = -2; dy <= 2; dy++) {
+            for (int dx = -2; dx <= 2; dx++) {
+                setFunctionModule(x + dx, y + dy, Math.max(Math.abs(dx), Math.abs(dy)) != 1);
+            }
+        }
+    }
+
+    private void setFunctionModule(int x, int y, boolean isDark) {
+        modules[y][x] = isDark;
+        isFunction[y][x] = true;
+    }
+
+    private int[] getAlignmentPatternPositions() {
+        if (version == 1) {
+            return new int[0];
+        }
+        int numAlign = version / 7 + 2;
+        int step = (version * 8 + numAlign * 3 + 5) / (numAlign * 4 - 4) * 2;
+        int[] result = new int[numAlign];
+        result[0] = 6;
+        for (int i = result.length - 1, pos = size - 7; i >= 1; i--, pos -= step) {
+            result[i] = pos;
+        }
+        return result;
+    }
+
+    private byte[] addEccAndInterleave(byte[] data) {
+        int numBlocks = NUM_ERROR_CORRECTION_BLOCKS[version];
+        int blockEccLen = ECC_CODEWORDS_PER_BLOCK[version];
+        int rawCodewords = getNumRawDataModules(version) / 8;
+        int numShortBlocks = numBlocks - rawCodewords % numBlocks;
+        int shortBlockLen = rawCodewords / numBlocks;
+
+        // Split the data into blocks and append the error correction codewords to each
+        byte[][] blocks = new byte[numBlocks][];
+        byte[] divisor = reedSolomonComputeDivisor(blockEccLen);
+        for (int i = 0, k = 0; i < numBlocks; i++) {
+            byte[] dat = Arrays.copyOfRange(data, k, k + shortBlockLen - blockEccLen + (i < numShortBlocks ? 0 : 1));
+            k += dat.length;
+            byte[] block = Arrays.copyOf(dat, shortBlockLen + 1);
+            byte[] ecc = reedSolomonComputeRemainder(dat, divisor);
+            System.arraycopy(ecc, 0, block, block.length - blockEccLen, ecc.length);
+            blocks[i] = block;
+        }
+
+        // Interleave the bytes of every block, skipping the padding byte of the short blocks
+        byte[] result = new byte[rawCodewords];
+        for (int i = 0, k = 0; i < blocks[0].length; i++) {
+            for (int j = 0; j < blocks.length; j++) {
+                if (i != shortBlockLen - blockEccLen || j >= numShortBlocks) {
+                    result[k] = blocks[j][i];
+                    k++;
+                }
+            }
+        }
+        return result;
+    }
+
+    private void drawCodewords(byte[] data) {
+        int i = 0;
+        // Zigzag over pairs of columns from the right, skipping the vertical timing column
+        for (int right = size - 1; right >= 1; right -= 2) {
+            if (right == 6) {
+                right = 5;
+            }
+            for (int vert = 0; vert < size; vert++) {
+                for (int j = 0; j < 2; j++) {
+                    int x = right - j;
+                    boolean upward = ((right + 1) & 2) == 0;
+                    int y = upward ? size - 1 - vert : vert;
+                    if (!isFunction[y][x] && i < data.length * 8) {
+                        modules[y][x] = getBit(data[i >>> 3], 7 - (i & 7));
+                        i++;
+                    }
+                }
+            }
+        }
+    }
+
+    private void applyMask(int mask) {
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                boolean invert;
+                switch (mask) {
+                    case 0 -> invert = (x + y) % 2 == 0;
+                    case 1 -> invert = y % 2 == 0;
+                    case 2 -> invert = x % 3 == 0;
+                    case 3 -> invert = (x + y) % 3 == 0;
+                    case 4 -> invert = (x / 3 + y / 2) % 2 == 0;
+                    case 5 -> invert = x * y % 2 + x * y % 3 == 0;
+                    case 6 -> invert = (x * y % 2 + x * y % 3) % 2 == 0;
+                    case 7 -> invert = ((x + y) % 2 + x * y % 3) % 2 == 0;
+                    default -> throw new IllegalArgumentException("Invalid mask: " + mask);
+                }
+                modules[y][x] ^= invert & !isFunction[y][x];
+            }
+        }
+    }
+
+    /**
+     * Approximates the standard mask penalty using the run, block and balance rules. The finder-like pattern rule
+     * is omitted; it only affects which mask is chosen, never whether the code can be decoded.
+     */
+    private int getPenaltyScore() {
+        int result = 0;
+
+        // Runs of five or more same coloured modules in rows and columns
+        for (int a = 0; a < size; a++) {
+            int rowRun = 1;
+            int colRun = 1;
+            for (int b = 1; b < size; b++) {
+                if (modules[a][b] == modules[a][b - 1]) {
+                    rowRun++;
+                } else {
+                    result += runPenalty(rowRun);
+                    rowRun = 1;
+                }
+                if (modules[b][a] == modules[b - 1][a]) {
+                    colRun++;
+                } else {
+                    result += runPenalty(colRun);
+                    colRun = 1;
+                }
+            }
+            result += runPenalty(rowRun) + runPenalty(colRun);
+        }
+
+        // 2x2 blocks of the same colour
+        for (int y = 0; y < size - 1; y++) {
+            for (int x = 0; x < size - 1; x++) {
+                boolean color = modules[y][x];
+                if (color == modules[y][x + 1] && color == modules[y + 1][x] && color == modules[y + 1][x + 1]) {
+                    result += 3;
+                }
+            }
+        }
+
+        // Balance of dark and light modules
+        int dark = 0;
+        for (boolean[] row : modules) {
+            for (boolean module : row) {
+                if (module) {
+                    dark++;
+                }
+            }
+        }
+        int total = size * size;
+        int k = (Math.abs(dark * 20 - total * 10) + total - 1) / total - 1;
+        return result + k * 10;
+    }
+
+    private static int runPenalty(int run) {
+        return run >= 5 ? run - 2 : 0;
+    }
+
+    private static int getNumRawDataModules(int version) {
+        int result = (16 * version + 128) * version + 64;
+        if (version >= 2) {
+            int numAlign = version / 7 + 2;
+            result -= (25 * numAlign - 10) * numAlign - 55;
+            if (version >= 7) {
+                result -= 36;
+            }
+        }
+        return result;
+    }
+
+    private static int getNumDataCodewords(int version) {
+        return getNumRawDataModules(version) / 8
+               - ECC_CODEWORDS_PER_BLOCK[version] * NUM_ERROR_CORRECTION_BLOCKS[version];
+    }
+
+    static byte[] reedSolomonComputeDivisor(int degree) {
+        byte[] result = new byte[degree];
+        result[degree - 1] = 1;
+        int root = 1;
+        for (int i = 0; i < degree; i++) {
+            for (int j = 0; j < result.length; j++) {
+                result[j] = (byte) reedSolomonMultiply(result[j] & 0xFF, root);
+                if (j + 1 < result.length) {
+                    result[j] ^= result[j + 1];
+                }
+            }
+            root = reedSolomonMultiply(root, 0x02);
+        }
+        return result;
+    }
+
+    static byte[] reedSolomonComputeRemainder(byte[] data, byte[] divisor) {
+        byte[] result = new byte[divisor.length];
+        for (byte b : data) {
+            int factor = (b ^ result[0]) & 0xFF;
+            System.arraycopy(result, 1, result, 0, result.length - 1);
+            result[result.length - 1] = 0;
+            for (int i = 0; i < result.length; i++) {
+                result[i] ^= (byte) reedSolomonMultiply(divisor[i] & 0xFF, factor);
+            }
+        }
+        return result;
+    }
+
+    private static int reedSolomonMultiply(int x, int y) {
+        // Russian peasant multiplication in GF(2^8) modulo x^8 + x^4 + x^3 + x^2 + 1
+        int z = 0;
+        for (int i = 7; i >= 0; i--) {
+            z = (z << 1) ^ ((z >>> 7) * 0x11D);
+            z ^= ((y >>> i) & 1) * x;
+        }
+        return z;
+    }
+
+    private static boolean getBit(int x, int i) {
+        return ((x >>> i) & 1) != 0;
+    }
+
+    private static final class BitBuffer {
+        private final byte[] data;
+        private int length;
+
+        private BitBuffer(int capacityBits) {
+            this.data = new byte[(capacityBits + 7) / 8];
+        }
+
+        private void append(int value, int numBits) {
+            for (int i = numBits - 1; i >= 0; i--, length++) {
+                if (getBit(value, i)) {
+                    data[length >>> 3] |= (byte) (0x80 >>> (length & 7));
+                }
+            }
+        }
+
+        private byte[] toBytes() {
+            return Arrays.copyOf(data, length / 8);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+/*
+ * This code is to be used exclusively in connection with Ping Identity Corporation software or services.
+ * Ping Identity Corporation only offers such software or services to legal entities who have entered into
+ * a binding license agreement with Ping Identity Corporation.
+ *
+ * Copyright 2024 Ping Identity Corporation. All Rights Reserved
+ */
+
+package org.forgerock.am.marketplace.pingonecredentials;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+/**
+ * Renders pairing and verification URLs as QR code images on the server, so that clients only have to display an
+ * image instead of executing the QR code generation script. Rendered images are shared across all node instances in
+ * a bounded LRU cache keyed by URL, so a URL is rendered once however many times the client polls.
+ */
+@Singleton
+public class PingOneCredentialsQrCodeRenderer {
+
+    /** The maximum number of rendered images kept in the cache. */
+    static final int MAX_CACHED_IMAGES = 512;
+
+    /** The width of the quiet zone around the QR code, in modules. */
+    static final int QUIET_ZONE = 4;
+
+    static final String DATA_URI_PREFIX = "data:image/svg+xml;base64,";
+
+    private final PingOneCredentialsCache<String, String> images;
+
+    /**
+     * The PingOne Credentials QR Code Renderer constructor.
+     */
+    @Inject
+    public PingOneCredentialsQrCodeRenderer() {
+        this.images = new PingOneCredentialsCache<>(MAX_CACHED_IMAGES);
+    }
+
+    /**
+     * Render the URL as a QR code image.
+     *
+     * @param url The URL to encode.
+     * @return The QR code as an SVG data URI.
+     */
+    String render(String url) {
+        return images.get(url).orElseGet(() -> {
+            String svg = PingOneCredentialsQrCode.encode(url).toSvg(QUIET_ZONE);
+            String image = DATA_URI_PREFIX
+                           + Base64.getEncoder().encodeToString(svg.getBytes(StandardCharsets.UTF_8));
+            images.put(url, image);
+            return image;
+        });
+    }
+}
@@ -9,20 +9,29 @@
 package org.forgerock.am.marketplace.pingonecredentials;
 
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.OBJECT_ATTRIBUTES;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_REMOVED_WALLETS_COUNT_KEY;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.RESPONSE_DIGITALWALLETS;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.RESPONSE_DIGITAL_WALLET_APPLICATION;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.RESPONSE_EMBEDDED;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.RESPONSE_ID;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.RESPONSE_STATUS;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_WALLET_ID_KEY;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_USER_ID_KEY;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.SUCCESS_OUTCOME_ID;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.NOT_FOUND_OUTCOME_ID;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.ERROR_OUTCOME_ID;
+import static org.forgerock.json.JsonValue.json;
 
 import com.google.inject.assistedinject.Assisted;
 import org.apache.commons.lang.StringUtils;
+import org.forgerock.json.JsonValue;
 import org.forgerock.openam.annotations.sm.Attribute;
 import org.forgerock.openam.auth.node.api.Action;
 import org.forgerock.openam.auth.node.api.InputState;
 import org.forgerock.openam.auth.node.api.Node;
 import org.forgerock.openam.auth.node.api.NodeState;
 import org.forgerock.openam.auth.node.api.OutcomeProvider;
+import org.forgerock.openam.auth.node.api.OutputState;
 import org.forgerock.openam.auth.node.api.StaticOutcomeProvider;
 import org.forgerock.openam.auth.node.api.TreeContext;
 import org.forgerock.openam.integration.pingone.api.PingOneWorker;
@@ -33,12 +42,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collections;
 
 import java.util.List;
 
+import java.util.Optional;
 import java.util.ResourceBundle;
+import java.util.concurrent.Callable;
 
 @Node.Metadata(
     outcomeProvider = PingOneCredentialsRemoveWallet.RemoveWalletOutcomeProvider.class,
@@ -46,6 +58,9 @@ import java.util.ResourceBundle;
     tags = {"marketplace", "trustnetwork", "pingone"})
 public class PingOneCredentialsRemoveWallet implements Node {
 
+    /** The maximum time to wait for all the wallets to be removed when removing all the wallets of the user. */
+    static final Duration REMOVE_ALL_TIMEOUT = Duration.ofSeconds(30);
+
     private final Config config;
     private final Realm realm;
     private final PingOneWorkerService pingOneWorkerService;
@@ -55,7 +70,7 @@ public class PingOneCredentialsRemoveWallet implements Node {
 
     public static final String BUNDLE = PingOneCredentialsRemoveWallet.class.getName();
     private final PingOneCredentialsService client;
-
+    private final PingOneCredentialsAsyncService asyncService;
 
     /**
      * Configuration for the node.
@@ -90,6 +105,45 @@ public class PingOneCredentialsRemoveWallet implements Node {
         default String digitalWalletIdAttribute() {
             return PINGONE_WALLET_ID_KEY;
         }
+
+        /**
+         * Remove all the wallets of the user matching the filters, instead of the wallet in the Digital Wallet ID
+         * attribute.
+         *
+         * @return true if all the matching wallets should be removed, false otherwise.
+         */
+        @Attribute(order = 400)
+        default boolean removeAllWallets() {
+            return false;
+        }
+
+        /**
+         * The statuses of the wallets to remove when removing all the wallets of the user.
+         *
+         * @return The wallet statuses, or empty for all statuses.
+         */
+        @Attribute(order = 500)
+        List<String> walletStatuses();
+
+        /**
+         * The Digital Wallet Application ID of the wallets to remove when removing all the wallets of the user.
+         *
+         * @return The Digital Wallet Application ID, or empty for all applications.
+         */
+        @Attribute(order = 600)
+        default String digitalWalletApplicationId() {
+            return "";
+        }
+
+        /**
+         * The maximum number of wallets removed concurrently when removing all the wallets of the user.
+         *
+         * @return The maximum number of concurrent removals.
+         */
+        @Attribute(order = 700)
+        default int parallelism() {
+            return 4;
+        }
     }
 
     /**
@@ -100,14 +154,17 @@ public class PingOneCredentialsRemoveWallet implements Node {
      * @param realm                the realm.
      * @param pingOneWorkerService the {@link PingOneWorkerService} instance.
      * @param client               the {@link PingOneCredentialsService} instance.
+     * @param asyncService         the {@link PingOneCredentialsAsyncService} instance.
      */
     @Inject
     PingOneCredentialsRemoveWallet(@Assisted Config config, @Assisted Realm realm,
-                                   PingOneWorkerService pingOneWorkerService, PingOneCredentialsService client) {
+                                   PingOneWorkerService pingOneWorkerService, PingOneCredentialsService client,
+                                   PingOneCredentialsAsyncService asyncService) {
         this.config = config;
         this.realm = realm;
         this.pingOneWorkerService = pingOneWorkerService;
         this.client = client;
+        this.asyncService = asyncService;
     }
 
     @Override
@@ -126,6 +183,10 @@ public class PingOneCredentialsRemoveWallet implements Node {
                 return Action.goTo(ERROR_OUTCOME_ID).build();
             }
 
+            if (config.removeAllWallets()) {
+                return removeAllWallets(context, nodeState, pingOneUserId);
+            }
+
             // Check if Digital Wallet ID attribute is set in sharedState
             String digitalWalletId = nodeState.isDefined(config.digitalWalletIdAttribute())
                                   ? nodeState.get(config.digitalWalletIdAttribute()).asString()
@@ -138,7 +199,8 @@ public class PingOneCredentialsRemoveWallet implements Node {
 
             // Get PingOne Access Token
             PingOneWorkerService.Worker worker = config.pingOneWorker();
-            String accessToken = pingOneWorkerService.getAccessTokenId(realm, worker);
+            String accessToken = PingOneCredentialsJourneyMemo.accessToken(
+                context, worker, () -> pingOneWorkerService.getAccessTokenId(realm, worker));
 
             if (StringUtils.isBlank(accessToken)) {
                 logger.error("Unable to get access token for PingOne Worker.");
@@ -149,6 +211,7 @@ public class PingOneCredentialsRemoveWallet implements Node {
                                                         worker,
                                                         pingOneUserId,
                                                         digitalWalletId);
+            PingOneCredentialsJourneyMemo.invalidateWallets(nodeState, pingOneUserId);
             if (result) {
                 return Action.goTo(SUCCESS_OUTCOME_ID).build();
             } else {
@@ -166,6 +229,61 @@ public class PingOneCredentialsRemoveWallet implements Node {
         }
     }
 
+    private Action removeAllWallets(TreeContext context, NodeState nodeState, String pingOneUserId)
+        throws Exception {
+        // Get PingOne Access Token
+        PingOneWorkerService.Worker worker = config.pingOneWorker();
+        String accessToken = PingOneCredentialsJourneyMemo.accessToken(
+            context, worker, () -> pingOneWorkerService.getAccessTokenId(realm, worker));
+
+        if (StringUtils.isBlank(accessToken)) {
+            logger.error("Unable to get access token for PingOne Worker.");
+            return Action.goTo(ERROR_OUTCOME_ID).build();
+        }
+
+        JsonValue response = PingOneCredentialsJourneyMemo.wallets(
+            nodeState, pingOneUserId, () -> client.findWalletRequest(accessToken, worker, pingOneUserId));
+
+        List<Callable<JsonValue>> removals = new ArrayList<>();
+        for (JsonValue wallet : response.get(RESPONSE_EMBEDDED).get(RESPONSE_DIGITALWALLETS)) {
+            if (matches(wallet)) {
+                String digitalWalletId = wallet.get(RESPONSE_ID).asString();
+                removals.add(() -> json(client.deleteWalletRequest(accessToken, worker, pingOneUserId,
+                                                                   digitalWalletId)));
+            }
+        }
+
+        if (removals.isEmpty()) {
+            nodeState.putShared(PINGONE_REMOVED_WALLETS_COUNT_KEY, 0);
+            return Action.goTo(NOT_FOUND_OUTCOME_ID).build();
+        }
+
+        List<Optional<JsonValue>> results = PingOneCredentialsFanOut.run(asyncService, removals,
+                                                                         config.parallelism(), REMOVE_ALL_TIMEOUT);
+        PingOneCredentialsJourneyMemo.invalidateWallets(nodeState, pingOneUserId);
+
+        // A wallet which does not exist any more counts as removed by someone else, not as a failure
+        int removed = (int) results.stream().filter(result -> result.isPresent() && result.get().asBoolean()).count();
+        int failed = (int) results.stream().filter(Optional::isEmpty).count();
+        nodeState.putShared(PINGONE_REMOVED_WALLETS_COUNT_KEY, removed);
+
+        if (failed > 0) {
+            logger.error("{} Unable to remove {} of {} wallets", LOGGER_PREFIX, failed, results.size());
+            return Action.goTo(ERROR_OUTCOME_ID).build();
+        }
+        return Action.goTo(SUCCESS_OUTCOME_ID).build();
+    }
+
+    private boolean matches(JsonValue wallet) {
+        List<String> statuses = config.walletStatuses();
+        if (statuses != null && !statuses.isEmpty() && !statuses.contains(wallet.get(RESPONSE_STATUS).asString())) {
+            return false;
+        }
+        String applicationId = config.digitalWalletApplicationId();
+        return StringUtils.isBlank(applicationId)
+               || applicationId.equals(wallet.get(RESPONSE_DIGITAL_WALLET_APPLICATION).get(RESPONSE_ID).asString());
+    }
+
     @Override
     public InputState[] getInputs() {
         return new InputState[] {
@@ -176,6 +294,16 @@ public class PingOneCredentialsRemoveWallet implements Node {
         };
     }
 
+    @Override
+    public OutputState[] getOutputs() {
+        if (!config.removeAllWallets()) {
+            return new OutputState[0];
+        }
+        return new OutputState[] {
+            new OutputState(PINGONE_REMOVED_WALLETS_COUNT_KEY)
+        };
+    }
+
     public static class RemoveWalletOutcomeProvider implements StaticOutcomeProvider {
         @Override
         public List<Outcome> getOutcomes(PreferredLocales locales) {
@@ -0,0 +1,81 @@
+/*
+ * This code is to be used exclusively in connection with Ping Identity Corporation software or services.
+ * Ping Identity Corporation only offers such software or services to legal entities who have entered into
+ * a binding license agreement with Ping Identity Corporation.
+ *
+ * Copyright 2024 Ping Identity Corporation. All Rights Reserved
+ */
+
+package org.forgerock.am.marketplace.pingonecredentials;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.UnaryOperator;
+
+/**
+ * Coalesces identical concurrent calls so that they share a single in-flight call and its result.
+ * <p>
+ * The first caller for a key performs the call; callers arriving with the same key while it is in flight wait for
+ * it and receive a copy of its result, or its exception. Nothing is cached once the call has completed.
+ * </p>
+ *
+ * @param <V> The type of the call result.
+ */
+final class PingOneCredentialsRequestCoalescer<V> {
+
+    private final ConcurrentMap<String, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final UnaryOperator<V> copy;
+
+    /**
+     * Create a coalescer.
+     *
+     * @param copy The function used to copy a shared result, so that callers cannot observe each other's changes.
+     */
+    PingOneCredentialsRequestCoalescer(UnaryOperator<V> copy) {
+        this.copy = copy;
+    }
+
+    /**
+     * Perform the call, or join the identical call already in flight.
+     *
+     * @param key The key identifying identical calls.
+     * @param call The call to perform.
+     * @return The call result.
+     * @throws Exception The exception thrown by the call.
+     */
+    V execute(String key, Callable<V> call) throws Exception {
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            return join(existing);
+        }
+        try {
+            V result = call.call();
+            future.complete(copy.apply(result));
+            return result;
+        } catch (Throwable e) {
+            // Complete the waiting callers whatever went wrong, errors included, so that none of them blocks forever
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    private V join(CompletableFuture<V> future) throws Exception {
+        try {
+            return copy.apply(future.join());
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw e;
+        }
+    }
+}
@@ -9,21 +9,32 @@
 package org.forgerock.am.marketplace.pingonecredentials;
 
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.ERROR_OUTCOME_ID;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.REVOKED;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.RESPONSE_CREDENTIAL_TYPE;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.RESPONSE_ID;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.RESPONSE_STATUS;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.NOT_FOUND_OUTCOME_ID;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.OBJECT_ATTRIBUTES;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_CREDENTIAL_ID_KEY;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_REVOKED_CREDENTIALS_KEY;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_USER_ID_KEY;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.SUCCESS_OUTCOME_ID;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.RevokeResult;
+import static org.forgerock.json.JsonValue.array;
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
 
 import com.google.inject.assistedinject.Assisted;
 import org.apache.commons.lang.StringUtils;
+import org.forgerock.json.JsonValue;
 import org.forgerock.openam.annotations.sm.Attribute;
 import org.forgerock.openam.auth.node.api.Action;
 import org.forgerock.openam.auth.node.api.InputState;
 import org.forgerock.openam.auth.node.api.Node;
 import org.forgerock.openam.auth.node.api.NodeState;
 import org.forgerock.openam.auth.node.api.OutcomeProvider;
+import org.forgerock.openam.auth.node.api.OutputState;
 import org.forgerock.openam.auth.node.api.StaticOutcomeProvider;
 import org.forgerock.openam.auth.node.api.TreeContext;
 import org.forgerock.openam.integration.pingone.api.PingOneWorker;
@@ -34,10 +45,15 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.Optional;
 import java.util.ResourceBundle;
+import java.util.concurrent.Callable;
 
 @Node.Metadata(
     outcomeProvider = PingOneCredentialsRevoke.RevokeOutcomeProvider.class,
@@ -45,6 +61,18 @@ import java.util.ResourceBundle;
     tags = {"marketplace", "trustnetwork", "pingone"})
 public class PingOneCredentialsRevoke implements Node {
 
+    /** The maximum time to wait for all the credentials to be revoked when revoking all the credentials of the user. */
+    static final Duration REVOKE_ALL_TIMEOUT = Duration.ofSeconds(30);
+
+    /** The summary field listing the revoked credentials. */
+    static final String SUMMARY_REVOKED = "revoked";
+
+    /** The summary field listing the credentials which did not exist. */
+    static final String SUMMARY_NOT_FOUND = "notFound";
+
+    /** The summary field listing the credentials which could not be revoked. */
+    static final String SUMMARY_FAILED = "failed";
+
     private final Config config;
     private final Realm realm;
     private final PingOneWorkerService pingOneWorkerService;
@@ -54,7 +82,8 @@ public class PingOneCredentialsRevoke implements Node {
 
     public static final String BUNDLE = PingOneCredentialsRevoke.class.getName();
     private final PingOneCredentialsService client;
-
+    private final PingOneCredentialsRevokeOutbox revokeOutbox;
+    private final PingOneCredentialsAsyncService asyncService;
 
     /**
      * Configuration for the node.
@@ -89,6 +118,64 @@ public class PingOneCredentialsRevoke implements Node {
         default String credentialId() {
             return PINGONE_CREDENTIAL_ID_KEY;
         }
+
+        /**
+         * Write the revocation to a durable outbox and continue the journey, the credential being revoked in the
+         * background and the revocation retried until PingOne makes it.
+         *
+         * @return true if the credential should be revoked in the background, false otherwise.
+         */
+        @Attribute(order = 400)
+        default boolean durableRevocation() {
+            return false;
+        }
+
+        /**
+         * The directory of the outbox holding the revocations waiting to be sent.
+         *
+         * @return The outbox directory.
+         */
+        @Attribute(order = 500)
+        default String outboxDirectory() {
+            return "";
+        }
+
+        /**
+         * Revoke all the credentials of the user matching the filters, instead of the credential in the Credential ID
+         * attribute.
+         *
+         * @return true if all the matching credentials should be revoked, false otherwise.
+         */
+        @Attribute(order = 600)
+        default boolean revokeAll() {
+            return false;
+        }
+
+        /**
+         * The Credential Type IDs of the credentials to revoke when revoking all the credentials of the user.
+         *
+         * @return The Credential Type IDs, or empty for all types.
+         */
+        @Attribute(order = 700)
+        List<String> credentialTypeIds();
+
+        /**
+         * The statuses of the credentials to revoke when revoking all the credentials of the user.
+         *
+         * @return The credential statuses, or empty for all statuses.
+         */
+        @Attribute(order = 800)
+        List<String> credentialStatuses();
+
+        /**
+         * The maximum number of credentials revoked concurrently when revoking all the credentials of the user.
+         *
+         * @return The maximum number of concurrent revocations.
+         */
+        @Attribute(order = 900)
+        default int parallelism() {
+            return 4;
+        }
     }
 
     /**
@@ -99,14 +186,19 @@ public class PingOneCredentialsRevoke implements Node {
      * @param realm                the realm.
      * @param pingOneWorkerService the {@link PingOneWorkerService} instance.
      * @param client               the {@link PingOneCredentialsService} instance.
+     * @param revokeOutbox         the {@link PingOneCredentialsRevokeOutbox} instance.
+     * @param asyncService         the {@link PingOneCredentialsAsyncService} instance.
      */
     @Inject
     PingOneCredentialsRevoke(@Assisted Config config, @Assisted Realm realm,
-                             PingOneWorkerService pingOneWorkerService,  PingOneCredentialsService client) {
+                             PingOneWorkerService pingOneWorkerService,  PingOneCredentialsService client,
+                             PingOneCredentialsRevokeOutbox revokeOutbox, PingOneCredentialsAsyncService asyncService) {
         this.config = config;
         this.realm = realm;
         this.pingOneWorkerService = pingOneWorkerService;
         this.client = client;
+        this.revokeOutbox = revokeOutbox;
+        this.asyncService = asyncService;
     }
 
     @Override
@@ -125,6 +217,10 @@ public class PingOneCredentialsRevoke implements Node {
                 return Action.goTo(ERROR_OUTCOME_ID).build();
             }
 
+            if (config.revokeAll()) {
+                return revokeAll(context, nodeState, pingOneUserId);
+            }
+
             // Check if Credential ID attribute is set in sharedState
             String credentialId = nodeState.isDefined(config.credentialId())
                                    ? nodeState.get(config.credentialId()).asString()
@@ -134,9 +230,16 @@ public class PingOneCredentialsRevoke implements Node {
                 return Action.goTo(ERROR_OUTCOME_ID).build();
             }
 
-            // Get PingOne Access Token
             PingOneWorkerService.Worker worker = config.pingOneWorker();
-            String accessToken = pingOneWorkerService.getAccessTokenId(realm, worker);
+
+            // Revoke the credential in the background, unless the outbox cannot be used
+            if (config.durableRevocation() && revokeInBackground(worker, pingOneUserId, credentialId)) {
+                return Action.goTo(SUCCESS_OUTCOME_ID).build();
+            }
+
+            // Get PingOne Access Token
+            String accessToken = PingOneCredentialsJourneyMemo.accessToken(
+                context, worker, () -> pingOneWorkerService.getAccessTokenId(realm, worker));
 
             if (StringUtils.isBlank(accessToken)) {
                 logger.error("Unable to get access token for PingOne Worker.");
@@ -165,6 +268,98 @@ public class PingOneCredentialsRevoke implements Node {
         }
     }
 
+    private Action revokeAll(TreeContext context, NodeState nodeState, String pingOneUserId)
+        throws Exception {
+        // Get PingOne Access Token
+        PingOneWorkerService.Worker worker = config.pingOneWorker();
+        String accessToken = PingOneCredentialsJourneyMemo.accessToken(
+            context, worker, () -> pingOneWorkerService.getAccessTokenId(realm, worker));
+
+        if (StringUtils.isBlank(accessToken)) {
+            logger.error("Unable to get access token for PingOne Worker.");
+            return Action.goTo(ERROR_OUTCOME_ID).build();
+        }
+
+        // Only the matching credentials are kept while the pages of the listing are read
+        List<String> credentialIds = new ArrayList<>();
+        List<Callable<JsonValue>> revocations = new ArrayList<>();
+        try (PingOneCredentialsPageIterator credentials = client.listCredentials(accessToken, worker, pingOneUserId)) {
+            while (credentials.hasNext()) {
+                JsonValue credential = credentials.next();
+                if (matches(credential)) {
+                    String credentialId = credential.get(RESPONSE_ID).asString();
+                    credentialIds.add(credentialId);
+                    revocations.add(() -> json(client.revokeCredentialRequest(accessToken, worker, pingOneUserId,
+                                                                              credentialId).name()));
+                }
+            }
+        }
+
+        List<Optional<JsonValue>> results = PingOneCredentialsFanOut.run(asyncService, revocations,
+                                                                         config.parallelism(), REVOKE_ALL_TIMEOUT);
+
+        // A credential which does not exist any more cannot be used either, so it does not fail the revocation
+        JsonValue summary = json(object(
+            field(SUMMARY_REVOKED, array()),
+            field(SUMMARY_NOT_FOUND, array()),
+            field(SUMMARY_FAILED, array())));
+        for (int i = 0; i < results.size(); i++) {
+            Optional<JsonValue> result = results.get(i);
+            String outcome;
+            if (result.isEmpty()) {
+                outcome = SUMMARY_FAILED;
+            } else if (RevokeResult.REVOKED.name().equals(result.get().asString())) {
+                outcome = SUMMARY_REVOKED;
+            } else {
+                outcome = SUMMARY_NOT_FOUND;
+            }
+            summary.get(outcome).add(credentialIds.get(i));
+        }
+        nodeState.putShared(PINGONE_REVOKED_CREDENTIALS_KEY, summary);
+
+        if (summary.get(SUMMARY_FAILED).size() > 0) {
+            logger.error("{} Unable to revoke {} of {} credentials", LOGGER_PREFIX, summary.get(SUMMARY_FAILED).size(),
+                         results.size());
+            return Action.goTo(ERROR_OUTCOME_ID).build();
+        }
+        if (summary.get(SUMMARY_REVOKED).size() == 0) {
+            return Action.goTo(NOT_FOUND_OUTCOME_ID).build();
+        }
+        return Action.goTo(SUCCESS_OUTCOME_ID).build();
+    }
+
+    private boolean matches(JsonValue credential) {
+        String status = credential.get(RESPONSE_STATUS).asString();
+        if (REVOKED.equals(status)) {
+            return false;
+        }
+        List<String> statuses = config.credentialStatuses();
+        if (statuses != null && !statuses.isEmpty() && !statuses.contains(status)) {
+            return false;
+        }
+        List<String> typeIds = config.credentialTypeIds();
+        return typeIds == null || typeIds.isEmpty()
+               || typeIds.contains(credential.get(RESPONSE_CREDENTIAL_TYPE).get(RESPONSE_ID).asString());
+    }
+
+    private boolean revokeInBackground(PingOneWorkerService.Worker worker, String pingOneUserId, String credentialId) {
+        if (StringUtils.isBlank(config.outboxDirectory())) {
+            logger.warn("{} No outbox directory configured, revoking the credential immediately", LOGGER_PREFIX);
+            return false;
+        }
+        try {
+            if (!revokeOutbox.enqueue(Paths.get(config.outboxDirectory()), realm, worker,
+                                      () -> pingOneWorkerService.getAccessTokenId(realm, worker), pingOneUserId,
+                                      credentialId)) {
+                logger.debug("{} Revocation of credential {} is already waiting", LOGGER_PREFIX, credentialId);
+            }
+            return true;
+        } catch (IOException e) {
+            logger.warn(LOGGER_PREFIX + "Unable to use the outbox, revoking the credential immediately: ", e);
+            return false;
+        }
+    }
+
     @Override
     public InputState[] getInputs() {
         return new InputState[] {
@@ -174,6 +369,16 @@ public class PingOneCredentialsRevoke implements Node {
         };
     }
 
+    @Override
+    public OutputState[] getOutputs() {
+        if (!config.revokeAll()) {
+            return new OutputState[0];
+        }
+        return new OutputState[] {
+            new OutputState(PINGONE_REVOKED_CREDENTIALS_KEY)
+        };
+    }
+
     public static class RevokeOutcomeProvider implements StaticOutcomeProvider {
         @Override
         public List<Outcome> getOutcomes(PreferredLocales locales) {
@@ -0,0 +1,121 @@
+/*
+ * This code is to be used exclusively in connection with Ping Identity Corporation software or services.
+ * Ping Identity Corporation only offers such software or services to legal entities who have entered into
+ * a binding license agreement with Ping Identity Corporation.
+ *
+ * Copyright 2024 Ping Identity Corporation. All Rights Reserved
+ */
+
+package org.forgerock.am.marketplace.pingonecredentials;
+
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.RevokeResult;
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.forgerock.json.JsonValue;
+import org.forgerock.openam.core.realms.Realm;
+import org.forgerock.openam.integration.pingone.api.PingOneWorkerService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Revokes credentials in the background from a durable {@link PingOneCredentialsOutbox}, so that a revocation
+ * requested by a journey is eventually made even if PingOne is unavailable at the time.
+ * <p>
+ * Revoke requests are written to an outbox file in the configured directory and sent by a
+ * {@link PingOneCredentialsOutboxSender background sender}, at a higher priority than the other background requests.
+ * A request stays in the outbox until PingOne revoked the credential or reported it does not exist, and is retried
+ * until then. Revoking a credential which already has a revocation waiting is a no-op.
+ * </p>
+ */
+@Singleton
+public class PingOneCredentialsRevokeOutbox extends PingOneCredentialsOutboxSender {
+
+    /** The name of the outbox file in the outbox directory. */
+    static final String OUTBOX_FILE = "pingone-credentials-revoke.outbox";
+
+    /** The number of threads revoking credentials. */
+    static final int SEND_THREADS = 4;
+
+    private static final Logger logger = LoggerFactory.getLogger(PingOneCredentialsRevokeOutbox.class);
+    private static final String LOGGER_PREFIX = "[PingOne Credentials Revoke Outbox]"
+                                                + PingOneCredentialsPlugin.LOG_APPENDER;
+
+    private static final String USER_ID = "userId";
+    private static final String CREDENTIAL_ID = "credentialId";
+
+    private final PingOneCredentialsService client;
+
+    /**
+     * The PingOne Credentials Revoke Outbox constructor.
+     *
+     * @param client the {@link PingOneCredentialsService} instance.
+     */
+    @Inject
+    public PingOneCredentialsRevokeOutbox(PingOneCredentialsService client) {
+        super(OUTBOX_FILE, "pingone-credentials-revoke-outbox", LOGGER_PREFIX,
+              PingOneCredentialsApiBudget.Priority.HIGH, SEND_THREADS);
+        this.client = client;
+    }
+
+    /**
+     * Queue the revocation of a credential, unless its revocation is already waiting.
+     *
+     * @param directory The directory of the outbox.
+     * @param realm The realm of the worker.
+     * @param worker The worker {@link PingOneWorkerService}.
+     * @param accessToken Reads an access token of the worker when the request is sent.
+     * @param pingOneUserId The PingOne user ID.
+     * @param credentialId The credential ID.
+     * @return true if the revocation was queued, false if it was already waiting.
+     * @throws IOException If the request cannot be written to the outbox.
+     */
+    boolean enqueue(Path directory, Realm realm, PingOneWorkerService.Worker worker, Callable<String> accessToken,
+                    String pingOneUserId, String credentialId) throws IOException {
+        register(worker, accessToken);
+        String environmentId = String.valueOf(worker.environmentId());
+        PingOneCredentialsOutbox outbox = outbox(directory);
+        synchronized (outbox) {
+            boolean waiting = outbox.pending().values().stream().anyMatch(
+                request -> environmentId.equals(request.get(ENVIRONMENT_ID).asString())
+                           && credentialId.equals(request.get(CREDENTIAL_ID).asString()));
+            if (waiting) {
+                return false;
+            }
+            outbox.append(json(object(
+                field(ENVIRONMENT_ID, environmentId),
+                field(REALM, realm.asPath()),
+                field(WORKER, worker.id()),
+                field(USER_ID, pingOneUserId),
+                field(CREDENTIAL_ID, credentialId))));
+        }
+        drainSoon();
+        return true;
+    }
+
+    @Override
+    boolean isRequest(JsonValue entry) {
+        return true;
+    }
+
+    @Override
+    void send(PingOneCredentialsOutbox outbox, String id, JsonValue request, PingOneWorkerService.Worker worker,
+              String accessToken, boolean maybeApplied) throws Exception {
+        // Revoking a credential again is harmless, so a revocation which may have been applied is simply sent again
+        String credentialId = request.get(CREDENTIAL_ID).asString();
+        RevokeResult result = client.revokeCredentialRequest(accessToken, worker, request.get(USER_ID).asString(),
+                                                             credentialId);
+        if (result != RevokeResult.REVOKED) {
+            logger.info("{} Credential {} was not found, dropping its revocation", LOGGER_PREFIX, credentialId);
+        }
+        outbox.acknowledge(id);
+    }
+}
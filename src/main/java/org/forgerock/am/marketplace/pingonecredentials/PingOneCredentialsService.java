@@ -12,6 +12,12 @@ import static org.forgerock.am.marketplace.pingonecredentials.Constants.CREDENTI
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.DIGITAL_WALLETS_PATH;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.ENVIRONMENTS_PATH;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.PRESENTATION_SESSIONS_PATH;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.RESPONSE_CREDENTIALS;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.RESPONSE_DIGITALWALLETS;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.RESPONSE_EMBEDDED;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.RESPONSE_HREF;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.RESPONSE_LINKS;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.RESPONSE_NEXT;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.RESPONSE_STATUS;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.REVOKED;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.REVOKE_CONTENT_TYPE;
@@ -22,15 +28,23 @@ import static org.forgerock.json.JsonValue.array;
 import static org.forgerock.json.JsonValue.json;
 import static org.forgerock.json.JsonValue.field;
 import static org.forgerock.json.JsonValue.object;
+import static org.forgerock.util.Utils.closeSilently;
 
 import java.net.URI;
 import java.util.List;
 import java.util.Optional;
+import java.util.OptionalLong;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.inject.Inject;
 import javax.inject.Named;
 import javax.inject.Singleton;
 
+import org.apache.commons.lang.StringUtils;
 import org.forgerock.http.Handler;
 import org.forgerock.http.header.AuthorizationHeader;
 import org.forgerock.http.header.ContentTypeHeader;
@@ -45,6 +59,8 @@ import org.forgerock.oauth2.core.AccessToken;
 import org.forgerock.openam.http.HttpConstants;
 import org.forgerock.openam.integration.pingone.api.PingOneWorkerService;
 import org.forgerock.services.context.RootContext;
+import org.forgerock.util.promise.NeverThrowsException;
+import org.forgerock.util.promise.Promise;
 
 /**
  * Service to integrate with PingOne Credentials APIs.
@@ -52,10 +68,16 @@ import org.forgerock.services.context.RootContext;
 @Singleton
 public class PingOneCredentialsService {
 	private final Handler handler;
+	private final PingOneCredentialsAsyncService asyncService;
+	private final PingOneCredentialsRequestCoalescer<JsonValue> coalescer =
+		new PingOneCredentialsRequestCoalescer<>(JsonValue::copy);
+	private final PingOneCredentialsHedgingPolicy hedgingPolicy = new PingOneCredentialsHedgingPolicy();
 
 	@Inject
-	public PingOneCredentialsService(@Named("CloseableHttpClientHandler") org.forgerock.http.Handler handler) {
+	public PingOneCredentialsService(@Named("CloseableHttpClientHandler") org.forgerock.http.Handler handler,
+	                                 PingOneCredentialsAsyncService asyncService) {
 	    this.handler = handler;
+	    this.asyncService = asyncService;
 	}
 
 	/**
@@ -70,26 +92,68 @@ public class PingOneCredentialsService {
 	 */
 	JsonValue findWalletRequest(String accessToken, PingOneWorkerService.Worker worker, String pingOneUID)
 		throws PingOneCredentialsServiceException {
+		return findWalletRequest(accessToken, worker, pingOneUID, false);
+	}
 
-		Request request;
-
+	/**
+	 * the GET /environments/{{envID}}/users/{{userID}}/digitalWallets operation to find all the
+	 * digital wallets for the user. When the wallets span several pages, the pages are read one after the other and
+	 * their wallets returned in a single response.
+	 *
+	 * @param accessToken The {@link AccessToken}
+	 * @param worker The worker {@link PingOneWorkerService}
+	 * @param pingOneUID The PingOne user ID
+	 * @param hedge If a second copy of the request for the first page should be sent when the response is slower than
+	 *              usual
+	 * @return Json containing the response from the operation
+	 * @throws PingOneCredentialsServiceException When API response != 201
+	 */
+	JsonValue findWalletRequest(String accessToken, PingOneWorkerService.Worker worker, String pingOneUID,
+	                            boolean hedge) throws PingOneCredentialsServiceException {
 		try {
-			String theURI = worker.apiUrl() +
-			                ENVIRONMENTS_PATH + worker.environmentId() +
-			                USERS_PATH + pingOneUID +
-			                DIGITAL_WALLETS_PATH;
-
-			URI uri = URI.create(theURI);
-
-			request = new Request();
-			request.setUri(uri).setMethod(HttpConstants.Methods.GET);
+			return readAllPages(walletsUri(worker, pingOneUID), RESPONSE_DIGITALWALLETS, accessToken,
+			                    "PingOne Credentials Find Wallet", hedge);
+		} catch (Exception e) {
+			throw new PingOneCredentialsServiceException("Failed PingOne Credentials" + e.getMessage(), e);
+		}
+	}
 
-			return getResponse(request, accessToken, "PingOne Credentials Find Wallet");
+	/**
+	 * the GET /environments/{{envID}}/users/{{userID}}/digitalWallets operation to read a page of the
+	 * digital wallets for the user
+	 *
+	 * @param accessToken The {@link AccessToken}
+	 * @param worker The worker {@link PingOneWorkerService}
+	 * @param pingOneUID The PingOne user ID
+	 * @param pageUrl The URL of the page from the next link of the previous page, or null for the first page
+	 * @return Json containing the response from the operation
+	 * @throws PingOneCredentialsServiceException When API response != 201
+	 */
+	JsonValue findWalletsPageRequest(String accessToken, PingOneWorkerService.Worker worker, String pingOneUID,
+	                                 String pageUrl) throws PingOneCredentialsServiceException {
+		try {
+			return readPage(walletsUri(worker, pingOneUID), pageUrl, accessToken, "PingOne Credentials Find Wallet",
+			                false);
 		} catch (Exception e) {
-			throw new PingOneCredentialsServiceException("Failed PingOne Credentials" + e.getMessage());
+			throw new PingOneCredentialsServiceException("Failed PingOne Credentials" + e.getMessage(), e);
 		}
 	}
 
+	/**
+	 * Lazily iterate over the digital wallets for the user, reading the pages as the wallets are consumed.
+	 *
+	 * @param accessToken The {@link AccessToken}
+	 * @param worker The worker {@link PingOneWorkerService}
+	 * @param pingOneUID The PingOne user ID
+	 * @return An iterator over the wallets, which should be closed if not consumed entirely
+	 */
+	PingOneCredentialsPageIterator listWallets(String accessToken, PingOneWorkerService.Worker worker,
+	                                           String pingOneUID) {
+		return new PingOneCredentialsPageIterator(
+			pageUrl -> findWalletsPageRequest(accessToken, worker, pingOneUID, pageUrl), RESPONSE_DIGITALWALLETS,
+			asyncService);
+	}
+
 	/**
 	 * the POST /environments/{{envID}}/users/{{userID}}/credentials to issue a new credential to a PingOne user
 	 *
@@ -128,7 +192,7 @@ public class PingOneCredentialsService {
 
 			return getResponse(request, accessToken, "PingOne Credentials Issue a User Credential");
 		} catch (Exception e) {
-			throw new PingOneCredentialsServiceException("Failed PingOne Credentials" + e.getMessage());
+			throw new PingOneCredentialsServiceException("Failed PingOne Credentials" + e.getMessage(), e);
 		}
 	}
 
@@ -171,10 +235,67 @@ public class PingOneCredentialsService {
 
 			return getResponse(request, accessToken, "PingOne Credentials Update a User Credential");
 		} catch (Exception e) {
-			throw new PingOneCredentialsServiceException("Failed PingOne Credentials" + e.getMessage());
+			throw new PingOneCredentialsServiceException("Failed PingOne Credentials" + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * the GET /environments/{{envID}}/users/{{userID}}/credentials operation to find all the credentials of a
+	 * PingOne user. When the credentials span several pages, the pages are read one after the other and their
+	 * credentials returned in a single response.
+	 *
+	 * @param accessToken The {@link AccessToken}
+	 * @param worker The worker {@link PingOneWorkerService}
+	 * @param pingOneUID The PingOne user ID
+	 * @return Json containing the response from the operation
+	 * @throws PingOneCredentialsServiceException When API response != 201
+	 */
+	JsonValue findCredentialsRequest(String accessToken, PingOneWorkerService.Worker worker, String pingOneUID)
+		throws PingOneCredentialsServiceException {
+		try {
+			return readAllPages(credentialsUri(worker, pingOneUID), RESPONSE_CREDENTIALS, accessToken,
+			                    "PingOne Credentials Find User Credentials", false);
+		} catch (Exception e) {
+			throw new PingOneCredentialsServiceException("Failed PingOne Credentials" + e.getMessage(), e);
 		}
 	}
 
+	/**
+	 * the GET /environments/{{envID}}/users/{{userID}}/credentials operation to read a page of the credentials of a
+	 * PingOne user
+	 *
+	 * @param accessToken The {@link AccessToken}
+	 * @param worker The worker {@link PingOneWorkerService}
+	 * @param pingOneUID The PingOne user ID
+	 * @param pageUrl The URL of the page from the next link of the previous page, or null for the first page
+	 * @return Json containing the response from the operation
+	 * @throws PingOneCredentialsServiceException When API response != 201
+	 */
+	JsonValue findCredentialsPageRequest(String accessToken, PingOneWorkerService.Worker worker, String pingOneUID,
+	                                     String pageUrl) throws PingOneCredentialsServiceException {
+		try {
+			return readPage(credentialsUri(worker, pingOneUID), pageUrl, accessToken,
+			                "PingOne Credentials Find User Credentials", false);
+		} catch (Exception e) {
+			throw new PingOneCredentialsServiceException("Failed PingOne Credentials" + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Lazily iterate over the credentials of a PingOne user, reading the pages as the credentials are consumed.
+	 *
+	 * @param accessToken The {@link AccessToken}
+	 * @param worker The worker {@link PingOneWorkerService}
+	 * @param pingOneUID The PingOne user ID
+	 * @return An iterator over the credentials, which should be closed if not consumed entirely
+	 */
+	PingOneCredentialsPageIterator listCredentials(String accessToken, PingOneWorkerService.Worker worker,
+	                                               String pingOneUID) {
+		return new PingOneCredentialsPageIterator(
+			pageUrl -> findCredentialsPageRequest(accessToken, worker, pingOneUID, pageUrl), RESPONSE_CREDENTIALS,
+			asyncService);
+	}
+
 	/**
 	 * the POST /environments/{{envID}}/users/{{userID}}/digitalWallets to create a digital wallet pairing request
 	 * for a PingOne user
@@ -222,7 +343,7 @@ public class PingOneCredentialsService {
 
 			return getResponse(request, accessToken, "PingOne Credentials Create a Digital Wallet");
 		} catch (Exception e) {
-			throw new PingOneCredentialsServiceException("Failed PingOne Credentials" + e.getMessage());
+			throw new PingOneCredentialsServiceException("Failed PingOne Credentials" + e.getMessage(), e);
 		}
 	}
 
@@ -256,7 +377,7 @@ public class PingOneCredentialsService {
 
 			return getResponse(request, accessToken, "PingOne Credentials Read a Digital Wallet");
 		} catch (Exception e) {
-			throw new PingOneCredentialsServiceException("Failed PingOne Credentials" + e.getMessage());
+			throw new PingOneCredentialsServiceException("Failed PingOne Credentials" + e.getMessage(), e);
 		}
 	}
 
@@ -321,7 +442,7 @@ public class PingOneCredentialsService {
 
 			return getResponse(request, accessToken, "PingOne Credentials Create Verification session");
 		} catch (Exception e) {
-			throw new PingOneCredentialsServiceException("Failed PingOne Credentials" + e.getMessage());
+			throw new PingOneCredentialsServiceException("Failed PingOne Credentials" + e.getMessage(), e);
 		}
 	}
 
@@ -392,7 +513,7 @@ public class PingOneCredentialsService {
 
 			return getResponse(request, accessToken, "PingOne Credentials Create Push Verification session");
 		} catch (Exception e) {
-			throw new PingOneCredentialsServiceException("Failed PingOne Credentials" + e.getMessage());
+			throw new PingOneCredentialsServiceException("Failed PingOne Credentials" + e.getMessage(), e);
 		}
 	}
 
@@ -408,6 +529,22 @@ public class PingOneCredentialsService {
 	 */
 	JsonValue readVerificationSession(String accessToken, PingOneWorkerService.Worker worker,
 	                                  String sessionId) throws PingOneCredentialsServiceException {
+		return readVerificationSession(accessToken, worker, sessionId, false);
+	}
+
+	/**
+	 * the GET /environments/{{envID}}/presentationSessions/{{sessionID}}/sessionData operation retrieves the
+	 * verification session data from the session ID.
+	 *
+	 * @param accessToken The {@link AccessToken}
+	 * @param worker The worker {@link PingOneWorkerService}
+	 * @param sessionId The verification session ID
+	 * @param hedge If a second copy of the request should be sent when the response is slower than usual
+	 * @return Json containing the response from the operation
+	 * @throws PingOneCredentialsServiceException When API response != 201
+	 */
+	JsonValue readVerificationSession(String accessToken, PingOneWorkerService.Worker worker,
+	                                  String sessionId, boolean hedge) throws PingOneCredentialsServiceException {
 		Request request;
 
 		try {
@@ -421,9 +558,46 @@ public class PingOneCredentialsService {
 			request = new Request();
 			request.setUri(uri).setMethod(HttpConstants.Methods.GET);
 
-			return getResponse(request, accessToken, "PingOne Credentials Read a Verification Session");
+			return getResponse(request, accessToken, "PingOne Credentials Read a Verification Session", hedge);
+		} catch (Exception e) {
+			throw new PingOneCredentialsServiceException("Failed PingOne Credentials" + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * the GET /environments/{{envID}}/users operation to list a page of the users of the environment
+	 *
+	 * @param accessToken The {@link AccessToken}
+	 * @param worker The worker {@link PingOneWorkerService}
+	 * @param pageUrl The URL of the page from the next link of the previous page, or null for the first page
+	 * @param limit The maximum number of users in the page
+	 * @return Json containing the response from the operation
+	 * @throws PingOneCredentialsServiceException When API response != 201
+	 */
+	JsonValue listUsersRequest(String accessToken, PingOneWorkerService.Worker worker, String pageUrl, int limit)
+		throws PingOneCredentialsServiceException {
+
+		Request request;
+
+		try {
+			String usersUri = worker.apiUrl() +
+			                  ENVIRONMENTS_PATH + worker.environmentId() +
+			                  StringUtils.removeEnd(USERS_PATH, "/");
+
+			// Only follow page links of the environment users, so the access token is never sent elsewhere
+			if (pageUrl != null && !pageUrl.startsWith(usersUri + "?")) {
+				throw new PingOneCredentialsServiceException("Invalid page URL " + pageUrl);
+			}
+			String theURI = pageUrl != null ? pageUrl : usersUri + "?limit=" + limit;
+
+			URI uri = URI.create(theURI);
+
+			request = new Request();
+			request.setUri(uri).setMethod(HttpConstants.Methods.GET);
+
+			return getResponse(request, accessToken, "PingOne Credentials List Users");
 		} catch (Exception e) {
-			throw new PingOneCredentialsServiceException("Failed PingOne Credentials" + e.getMessage());
+			throw new PingOneCredentialsServiceException("Failed PingOne Credentials" + e.getMessage(), e);
 		}
 	}
 
@@ -462,10 +636,11 @@ public class PingOneCredentialsService {
 				return false; // Wallet didn't exist
 			} else {
 				throw new PingOneCredentialsServiceException("PingOne Credentials Delete a Digital Wallet" +
-				                                             response.getStatus() + "-" + response.getEntity().getString());
+				                                             response.getStatus() + "-" + response.getEntity().getString(),
+				                                             response);
 			}
 		} catch (Exception e) {
-			throw new PingOneCredentialsServiceException("Failed PingOne Credentials" + e.getMessage());
+			throw new PingOneCredentialsServiceException("Failed PingOne Credentials" + e.getMessage(), e);
 		}
 	}
 
@@ -516,21 +691,138 @@ public class PingOneCredentialsService {
 				return RevokeResult.NOT_FOUND;
 			} else {
 				throw new PingOneCredentialsServiceException("PingOne Credentials Revoke a User's Credential" +
-				                                             response.getStatus() + "-" + response.getEntity().getString());
+				                                             response.getStatus() + "-" + response.getEntity().getString(),
+				                                             response);
 			}
 		} catch (Exception e) {
-			throw new PingOneCredentialsServiceException("Failed PingOne Credentials" + e.getMessage());
+			throw new PingOneCredentialsServiceException("Failed PingOne Credentials" + e.getMessage(), e);
 		}
 	}
 
+	private static String walletsUri(PingOneWorkerService.Worker worker, String pingOneUID) {
+		return worker.apiUrl() +
+		       ENVIRONMENTS_PATH + worker.environmentId() +
+		       USERS_PATH + pingOneUID +
+		       DIGITAL_WALLETS_PATH;
+	}
+
+	private static String credentialsUri(PingOneWorkerService.Worker worker, String pingOneUID) {
+		return worker.apiUrl() +
+		       ENVIRONMENTS_PATH + worker.environmentId() +
+		       USERS_PATH + pingOneUID +
+		       CREDENTIALS_PATH;
+	}
+
+	private JsonValue readAllPages(String listUri, String itemsField, String accessToken, String x, boolean hedge)
+		throws Exception {
+		JsonValue first = readPage(listUri, null, accessToken, x, hedge);
+		String next = first.get(RESPONSE_LINKS).get(RESPONSE_NEXT).get(RESPONSE_HREF).asString();
+		if (next == null) {
+			return first;
+		}
+
+		// Concurrent identical reads share the first page, merge the next pages into a copy of it
+		first = first.copy();
+		if (!first.isDefined(RESPONSE_EMBEDDED)) {
+			first.put(RESPONSE_EMBEDDED, object());
+		}
+		if (!first.get(RESPONSE_EMBEDDED).isDefined(itemsField)) {
+			first.get(RESPONSE_EMBEDDED).put(itemsField, array());
+		}
+		JsonValue items = first.get(RESPONSE_EMBEDDED).get(itemsField);
+		while (next != null) {
+			JsonValue page = readPage(listUri, next, accessToken, x, false);
+			for (JsonValue item : page.get(RESPONSE_EMBEDDED).get(itemsField)) {
+				items.add(item.getObject());
+			}
+			next = page.get(RESPONSE_LINKS).get(RESPONSE_NEXT).get(RESPONSE_HREF).asString();
+		}
+		first.get(RESPONSE_LINKS).remove(RESPONSE_NEXT);
+		return first;
+	}
+
+	private JsonValue readPage(String listUri, String pageUrl, String accessToken, String x, boolean hedge)
+		throws Exception {
+		// Only follow page links of the listing, so the access token is never sent elsewhere
+		if (pageUrl != null && !pageUrl.startsWith(listUri + "?")) {
+			throw new PingOneCredentialsServiceException("Invalid page URL " + pageUrl);
+		}
+		Request request = new Request();
+		request.setUri(URI.create(pageUrl != null ? pageUrl : listUri)).setMethod(HttpConstants.Methods.GET);
+		return getResponse(request, accessToken, x, hedge);
+	}
+
 	private JsonValue getResponse(Request request, String accessToken, String x) throws Exception {
+		return getResponse(request, accessToken, x, false);
+	}
+
+	private JsonValue getResponse(Request request, String accessToken, String x, boolean hedge) throws Exception {
+		if (HttpConstants.Methods.GET.equals(request.getMethod())) {
+			// Identical concurrent reads, e.g. from double submits or several tabs polling the same session,
+			// share a single call to PingOne. Reads made with different access tokens, for example by different
+			// workers of the environment, are never shared as their permissions may differ.
+			return coalescer.execute(request.getMethod() + " " + request.getUri() + " " + accessToken,
+			                         () -> sendRequest(request, accessToken, x, hedge));
+		}
+		return sendRequest(request, accessToken, x, false);
+	}
+
+	private JsonValue sendRequest(Request request, String accessToken, String x, boolean hedge) throws Exception {
 		addAuthorizationHeader(request, accessToken);
-		Response response = handler.handle(new RootContext(), request).getOrThrow();
+		Response response;
+		if (HttpConstants.Methods.GET.equals(request.getMethod())) {
+			long start = System.nanoTime();
+			response = hedge ? handleHedged(request, x) : handler.handle(new RootContext(), request).getOrThrow();
+			hedgingPolicy.record(x, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		} else {
+			response = handler.handle(new RootContext(), request).getOrThrow();
+		}
 
 		if (response.getStatus().isSuccessful()) {
 			return json(response.getEntity().getJson());
 		} else {
-			throw new Exception(x + response.getStatus() + "-" + response.getEntity().getString());
+			throw new PingOneCredentialsServiceException(x + response.getStatus() + "-" +
+			                                             response.getEntity().getString(), response);
+		}
+	}
+
+	private Response handleHedged(Request request, String x) throws Exception {
+		Promise<Response, NeverThrowsException> primary = handler.handle(new RootContext(), request);
+		OptionalLong delay = hedgingPolicy.hedgeDelay(x);
+		if (delay.isEmpty()) {
+			return primary.getOrThrow();
+		}
+		try {
+			return primary.getOrThrow(delay.getAsLong(), TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			if (!hedgingPolicy.tryAcquireHedge()) {
+				return primary.getOrThrow();
+			}
+		}
+
+		// The read is slower than usual, send a second copy and take whichever response arrives first
+		Promise<Response, NeverThrowsException> hedged = handler.handle(new RootContext(), new Request(request));
+		CompletableFuture<Response> first = new CompletableFuture<>();
+		AtomicInteger failures = new AtomicInteger();
+		for (Promise<Response, NeverThrowsException> leg : List.of(primary, hedged)) {
+			leg.thenOnResult(response -> {
+				// Release the connection of the response which lost the race
+				if (!first.complete(response)) {
+					closeSilently(response);
+				}
+			}).thenOnRuntimeException(e -> {
+				// Only fail the read once both copies failed
+				if (failures.incrementAndGet() == 2) {
+					first.completeExceptionally(e);
+				}
+			});
+		}
+		// The losing copy is left to complete rather than cancelled, so that its response reaches the handler above
+		// and is closed
+		try {
+			return first.get();
+		} catch (ExecutionException e) {
+			throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
 		}
 	}
 
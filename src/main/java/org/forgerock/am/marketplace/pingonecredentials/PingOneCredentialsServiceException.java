@@ -1,10 +1,22 @@
 package org.forgerock.am.marketplace.pingonecredentials;
 
+import java.net.ConnectException;
+import java.net.UnknownHostException;
+
+import org.forgerock.http.protocol.Response;
+
 /**
  * PingOne Credentials Service Exception.
+ * <p>
+ * The exception keeps the HTTP status of the PingOne response which caused it, so that callers can tell a request
+ * rejected by PingOne from a request which may succeed if sent again.
+ * </p>
  */
 public class PingOneCredentialsServiceException extends Exception {
 
+    private final int status;
+    private final boolean connectFailure;
+
     /**
      * Exception constructor with error message.
      *
@@ -12,5 +24,75 @@ public class PingOneCredentialsServiceException extends Exception {
      */
     public PingOneCredentialsServiceException(String message) {
         super(message);
+        this.status = 0;
+        this.connectFailure = false;
+    }
+
+    /**
+     * Exception constructor with error message and cause. The HTTP status of a cause which is itself a
+     * {@link PingOneCredentialsServiceException} is kept.
+     *
+     * @param message The error message.
+     * @param cause The cause.
+     */
+    public PingOneCredentialsServiceException(String message, Exception cause) {
+        super(message, cause);
+        if (cause instanceof PingOneCredentialsServiceException) {
+            this.status = ((PingOneCredentialsServiceException) cause).status;
+            this.connectFailure = ((PingOneCredentialsServiceException) cause).connectFailure;
+        } else {
+            this.status = 0;
+            this.connectFailure = isConnectFailure(cause);
+        }
+    }
+
+    /**
+     * Exception constructor for an unsuccessful response.
+     *
+     * @param message The error message.
+     * @param response The response.
+     */
+    PingOneCredentialsServiceException(String message, Response response) {
+        super(message, response.getCause());
+        // The HTTP client makes up a response with a cause when PingOne could not be reached or did not answer
+        this.status = response.getCause() == null ? response.getStatus().getCode() : 0;
+        this.connectFailure = isConnectFailure(response.getCause());
+    }
+
+    /**
+     * The HTTP status of the PingOne response.
+     *
+     * @return The status code, or 0 if PingOne did not respond.
+     */
+    int status() {
+        return status;
+    }
+
+    /**
+     * Whether PingOne rejected the request, in which case sending it again fails the same way.
+     *
+     * @return true if PingOne responded with a client error other than 429 Too Many Requests, false otherwise.
+     */
+    boolean isRejected() {
+        return status >= 400 && status < 500 && status != 429;
+    }
+
+    /**
+     * Whether the request can safely be sent again, including requests which are not idempotent: the connection
+     * to PingOne could not be made, PingOne throttled the request, or PingOne failed with a server error.
+     *
+     * @return true if the request can be retried, false otherwise.
+     */
+    boolean isRetryable() {
+        return connectFailure || status == 429 || status >= 500;
+    }
+
+    private static boolean isConnectFailure(Throwable cause) {
+        for (Throwable t = cause; t != null; t = t.getCause()) {
+            if (t instanceof ConnectException || t instanceof UnknownHostException) {
+                return true;
+            }
+        }
+        return false;
     }
-}
\ No newline at end of file
+}
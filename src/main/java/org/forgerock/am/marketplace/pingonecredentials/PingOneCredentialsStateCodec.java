@@ -0,0 +1,161 @@
+/*
+ * This code is to be used exclusively in connection with Ping Identity Corporation software or services.
+ * Ping Identity Corporation only offers such software or services to legal entities who have entered into
+ * a binding license agreement with Ping Identity Corporation.
+ *
+ * Copyright 2024 Ping Identity Corporation. All Rights Reserved
+ */
+
+package org.forgerock.am.marketplace.pingonecredentials;
+
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Base64;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.forgerock.json.JsonValue;
+import org.forgerock.openam.auth.node.api.NodeState;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Codec that keeps large PingOne responses compressed in the node state.
+ * <p>
+ * An encoded value is an envelope of the form {@code {"_codec": "deflate", "_data": "<base64 of the deflated JSON>"}}.
+ * Values below {@link #MIN_COMPRESSED_SIZE} are stored as is, as compression would not pay for the envelope.
+ * </p>
+ * <p>
+ * An envelope is never stored under the usual key of the value, where nodes and scripts expect a plain value, but
+ * under the usual key suffixed with {@link #COMPRESSED_KEY_SUFFIX}. The usual key then holds a small plain summary of
+ * the value, such as the IDs and statuses, so that nodes and scripts reading it keep working. Consumers needing the
+ * whole value read it with {@link #read(NodeState, String)}, and scripts decode the envelope by base64 decoding
+ * {@code _data} and inflating it with {@code java.util.zip.InflaterInputStream}.
+ * </p>
+ */
+final class PingOneCredentialsStateCodec {
+
+    /** The serialized size in bytes from which values are compressed. */
+    static final int MIN_COMPRESSED_SIZE = 1024;
+
+    static final String CODEC = "_codec";
+    static final String DATA = "_data";
+    static final String DEFLATE = "deflate";
+
+    /** The suffix of the state key holding the compressed value of a key. */
+    static final String COMPRESSED_KEY_SUFFIX = "Compressed";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private PingOneCredentialsStateCodec() {
+    }
+
+    /**
+     * Compress the value if it is large enough to benefit from it.
+     *
+     * @param value The value to encode.
+     * @return The encoded envelope, or the value itself if it is smaller than {@link #MIN_COMPRESSED_SIZE}.
+     */
+    static JsonValue encode(JsonValue value) {
+        try {
+            byte[] serialized = MAPPER.writeValueAsBytes(value.getObject());
+            if (serialized.length < MIN_COMPRESSED_SIZE) {
+                return value;
+            }
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream(serialized.length / 4);
+            try (OutputStream out = new DeflaterOutputStream(compressed, new Deflater(Deflater.BEST_COMPRESSION))) {
+                out.write(serialized);
+            }
+            return json(object(
+                field(CODEC, DEFLATE),
+                field(DATA, Base64.getEncoder().encodeToString(compressed.toByteArray()))));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to compress value: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Whether the value is an envelope produced by {@link #encode(JsonValue)}.
+     *
+     * @param value The value.
+     * @return true if the value is encoded, false otherwise.
+     */
+    static boolean isEncoded(JsonValue value) {
+        return value != null && value.isMap() && DEFLATE.equals(value.get(CODEC).asString())
+               && value.isDefined(DATA);
+    }
+
+    /**
+     * Decompress the value if it is encoded.
+     *
+     * @param value The value to decode.
+     * @return The decoded value, or the value itself if it is not encoded.
+     */
+    static JsonValue decode(JsonValue value) {
+        if (!isEncoded(value)) {
+            return value;
+        }
+        byte[] compressed = Base64.getDecoder().decode(value.get(DATA).asString());
+        try (InputStream in = new InflaterInputStream(new ByteArrayInputStream(compressed))) {
+            return json(MAPPER.readValue(in, Object.class));
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to decompress value: " + e.getMessage());
+        }
+    }
+
+    /**
+     * The state key holding the compressed value of a key.
+     *
+     * @param key The usual state key of the value.
+     * @return The state key of the compressed value.
+     */
+    static String compressedKey(String key) {
+        return key + COMPRESSED_KEY_SUFFIX;
+    }
+
+    /**
+     * Store a value produced by {@link #encode(JsonValue)} in the shared state. A plain value is stored under the
+     * key, and the compressed key is removed so that a value stored by an earlier node is never read instead. An
+     * envelope is stored under the {@link #compressedKey(String) compressed key}, and the summary under the key.
+     *
+     * @param nodeState The node state.
+     * @param key The usual state key of the value.
+     * @param value The value, encoded or not.
+     * @param summary The plain summary of the value, stored under the key when the value is encoded.
+     */
+    static void store(NodeState nodeState, String key, JsonValue value, JsonValue summary) {
+        if (isEncoded(value)) {
+            nodeState.putShared(key, summary);
+            nodeState.putShared(compressedKey(key), value);
+        } else {
+            nodeState.remove(compressedKey(key));
+            nodeState.putShared(key, value);
+        }
+    }
+
+    /**
+     * Read the whole value from the node state, decompressing it if it is stored compressed. The decoded value is
+     * kept in transient state under the usual key, so later reads of the key in the same journey step, including
+     * those of other nodes, see the whole value instead of its summary.
+     *
+     * @param nodeState The node state.
+     * @param key The usual state key of the value.
+     * @return The decoded value, or null if neither the key nor its compressed key is defined.
+     */
+    static JsonValue read(NodeState nodeState, String key) {
+        if (!nodeState.isDefined(compressedKey(key))) {
+            return nodeState.isDefined(key) ? decode(nodeState.get(key)) : null;
+        }
+        JsonValue decoded = decode(nodeState.get(compressedKey(key)));
+        nodeState.putTransient(key, decoded);
+        return decoded;
+    }
+}
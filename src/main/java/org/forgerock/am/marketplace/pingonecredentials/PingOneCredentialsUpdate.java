@@ -14,6 +14,8 @@ import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_USER_ID_KEY;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.SUCCESS_OUTCOME_ID;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.ERROR_OUTCOME_ID;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.forgerock.json.JsonValue.field;
 import static org.forgerock.json.JsonValue.json;
 import static org.forgerock.json.JsonValue.object;
 
@@ -33,15 +35,18 @@ import org.forgerock.openam.auth.node.api.TreeContext;
 import org.forgerock.openam.integration.pingone.api.PingOneWorker;
 import org.forgerock.openam.integration.pingone.api.PingOneWorkerService;
 import org.forgerock.openam.core.realms.Realm;
+import org.forgerock.openam.sm.annotations.adapters.TimeUnit;
 import org.forgerock.util.i18n.PreferredLocales;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.inject.Inject;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
 import java.util.ResourceBundle;
 
 @Node.Metadata(
@@ -50,6 +55,15 @@ import java.util.ResourceBundle;
     tags = {"marketplace", "trustnetwork", "pingone"})
 public class PingOneCredentialsUpdate implements Node {
 
+    /** The maximum number of credentials whose last update is remembered. */
+    static final int MAX_LAST_UPDATES = 10000;
+
+    /** Separates the credential ID from the update hash in the persisted identity attribute. */
+    private static final String HASH_SEPARATOR = ":";
+
+    private static final PingOneCredentialsCache<String, String> LAST_UPDATES =
+        new PingOneCredentialsCache<>(MAX_LAST_UPDATES);
+
     private final Config config;
     private final Realm realm;
     private final PingOneWorkerService pingOneWorkerService;
@@ -59,6 +73,7 @@ public class PingOneCredentialsUpdate implements Node {
 
     public static final String BUNDLE = PingOneCredentialsUpdate.class.getName();
     private final PingOneCredentialsService client;
+    private final PingOneCredentialsUpdateQueue updateQueue;
 
 
     /**
@@ -111,6 +126,53 @@ public class PingOneCredentialsUpdate implements Node {
         @Attribute(order = 500)
         Map<String, String> attributes();
 
+        /**
+         * Skip the update when the credential type and attributes are the same as in the last update of the
+         * credential.
+         *
+         * @return true if unchanged updates should be skipped, false otherwise.
+         */
+        @Attribute(order = 600)
+        default boolean skipUnchanged() {
+            return false;
+        }
+
+        /**
+         * The identity attribute in which the hash of the last update is kept, so that unchanged updates are also
+         * skipped on other servers and after a restart. The attribute is read from and written to the
+         * {@code objectAttributes} of the journey state, so it must be loaded from the identity by a preceding node and
+         * saved by a following node. Updates sent in the background are only confirmed once the journey has moved on,
+         * so they never write their hash, and clear the hash of the earlier updates instead.
+         *
+         * @return The identity attribute name, or empty to only remember updates on this server.
+         */
+        @Attribute(order = 700)
+        default String updateHashAttribute() {
+            return "";
+        }
+
+        /**
+         * Queue the update and send it in the background, merged with the other updates of the credential made
+         * within the update window.
+         *
+         * @return true if the update should be sent in the background, false otherwise.
+         */
+        @Attribute(order = 800)
+        default boolean asyncUpdate() {
+            return false;
+        }
+
+        /**
+         * How long a queued update waits for other updates of the credential before it is sent.
+         *
+         * @return The update window.
+         */
+        @Attribute(order = 900)
+        @TimeUnit(SECONDS)
+        default Duration asyncUpdateWindow() {
+            return Duration.ofSeconds(5);
+        }
+
         /**
          * Store the update response in the shared state.
          * @return true if the update response should be stored, false otherwise.
@@ -129,14 +191,17 @@ public class PingOneCredentialsUpdate implements Node {
      * @param realm                the realm.
      * @param pingOneWorkerService the {@link PingOneWorkerService} instance.
      * @param client               the {@link PingOneCredentialsService} instance.
+     * @param updateQueue          the {@link PingOneCredentialsUpdateQueue} instance.
      */
     @Inject
     PingOneCredentialsUpdate(@Assisted Config config, @Assisted Realm realm,
-                             PingOneWorkerService pingOneWorkerService, PingOneCredentialsService client) {
+                             PingOneWorkerService pingOneWorkerService, PingOneCredentialsService client,
+                             PingOneCredentialsUpdateQueue updateQueue) {
         this.config = config;
         this.realm = realm;
         this.pingOneWorkerService = pingOneWorkerService;
         this.client = client;
+        this.updateQueue = updateQueue;
     }
 
     @Override
@@ -164,26 +229,59 @@ public class PingOneCredentialsUpdate implements Node {
                 return Action.goTo(ERROR_OUTCOME_ID).build();
             }
 
-            // Get PingOne Access Token
             PingOneWorkerService.Worker worker = config.pingOneWorker();
-            String accessToken = pingOneWorkerService.getAccessTokenId(realm, worker);
+            JsonValue attributes = getAttributes(nodeState);
+
+            // Skip the update if the credential was last updated with the same content
+            String updateHash = updateHash(attributes);
+            String key = worker.environmentId() + "/" + credentialId;
+            if (config.skipUnchanged() && updateHash.equals(lastUpdateHash(nodeState, key, credentialId))) {
+                logger.debug("{} Credential {} is unchanged, skipping the update", LOGGER_PREFIX, credentialId);
+                return Action.goTo(SUCCESS_OUTCOME_ID).build();
+            }
+
+            // Get PingOne Access Token
+            String accessToken = PingOneCredentialsJourneyMemo.accessToken(
+                context, worker, () -> pingOneWorkerService.getAccessTokenId(realm, worker));
 
             if (StringUtils.isBlank(accessToken)) {
                 logger.error("Unable to get access token for PingOne Worker.");
                 return  Action.goTo(ERROR_OUTCOME_ID).build();
             }
 
+            // Continue the journey while the update is sent in the background, unless too many are waiting. Only this
+            // server learns the hash once PingOne confirms the update, as the journey state cannot be changed by then,
+            // and the persisted hash of the earlier updates would no longer match what PingOne holds
+            if (config.asyncUpdate()
+                && updateQueue.enqueue(accessToken, worker, pingOneUserId, config.credentialTypeId(), credentialId,
+                                       attributes, asyncUpdateWindow(), sent -> {
+                                           if (config.skipUnchanged()) {
+                                               LAST_UPDATES.put(key, updateHash(sent));
+                                           }
+                                       })) {
+                logger.debug("{} Update of credential {} queued", LOGGER_PREFIX, credentialId);
+                if (config.skipUnchanged()) {
+                    persistUpdateHash(nodeState, null);
+                }
+                return Action.goTo(SUCCESS_OUTCOME_ID).build();
+            }
+
             JsonValue response = client.credentialUpdateRequest(accessToken,
                                                                 worker,
                                                                 pingOneUserId,
                                                                 config.credentialTypeId(),
                                                                 credentialId,
-                                                                getAttributes(nodeState));
+                                                                attributes);
 
             if (config.storeResponse()) {
                 nodeState.putShared(PINGONE_CREDENTIAL_UPDATE_KEY, response);
             }
 
+            if (config.skipUnchanged()) {
+                LAST_UPDATES.put(key, updateHash);
+                persistUpdateHash(nodeState, credentialId + HASH_SEPARATOR + updateHash);
+            }
+
             return Action.goTo(SUCCESS_OUTCOME_ID).build();
         } catch (Exception ex) {
             String stackTrace = org.apache.commons.lang.exception.ExceptionUtils.getStackTrace(ex);
@@ -197,17 +295,55 @@ public class PingOneCredentialsUpdate implements Node {
         }
     }
 
-    private JsonValue getAttributes(NodeState sharedState) {
-        JsonValue attributes = json(object(1));
+    private String updateHash(JsonValue attributes) {
+        return PingOneCredentialsHash.of(json(object(
+            field("credentialType", config.credentialTypeId()),
+            field("data", attributes.getObject()))));
+    }
 
-        config.attributes().forEach(
-            (k, v) -> {
-                if (sharedState.isDefined(v)) {
-                    attributes.put(k, sharedState.get(v));
-                }
-            });
+    private Duration asyncUpdateWindow() {
+        Duration window = config.asyncUpdateWindow();
+        return window == null || window.isNegative() ? Duration.ZERO : window;
+    }
+
+    /**
+     * Find the hash of the last update of the credential, remembered on this server or persisted in the identity.
+     * The identity attribute is only known if a preceding node loaded it into the {@code objectAttributes}, and is
+     * not used for updates sent in the background, as it cannot record their outcome.
+     */
+    private String lastUpdateHash(NodeState nodeState, String key, String credentialId) {
+        Optional<String> lastUpdate = LAST_UPDATES.get(key);
+        if (lastUpdate.isPresent()) {
+            return lastUpdate.get();
+        }
+
+        String attribute = config.updateHashAttribute();
+        if (StringUtils.isBlank(attribute) || config.asyncUpdate() || !nodeState.isDefined(OBJECT_ATTRIBUTES)) {
+            return null;
+        }
+        String persisted = nodeState.get(OBJECT_ATTRIBUTES).get(attribute).asString();
+        String prefix = credentialId + HASH_SEPARATOR;
+        return persisted != null && persisted.startsWith(prefix) ? persisted.substring(prefix.length()) : null;
+    }
+
+    /**
+     * Keep the credential ID and hash of the update in the identity attribute, to be saved by a following identity
+     * node. A null value clears the attribute.
+     */
+    private void persistUpdateHash(NodeState nodeState, String persisted) {
+        String attribute = config.updateHashAttribute();
+        if (StringUtils.isBlank(attribute)) {
+            return;
+        }
+        JsonValue objectAttributes = nodeState.isDefined(OBJECT_ATTRIBUTES)
+                                     ? nodeState.get(OBJECT_ATTRIBUTES).copy()
+                                     : json(object());
+        objectAttributes.put(attribute, persisted);
+        nodeState.putShared(OBJECT_ATTRIBUTES, objectAttributes);
+    }
 
-        return attributes;
+    private JsonValue getAttributes(NodeState sharedState) {
+        return PingOneCredentialsAttributeMapping.map(config.attributes(), sharedState);
     }
 
     @Override
@@ -229,9 +365,14 @@ public class PingOneCredentialsUpdate implements Node {
 
     @Override
     public OutputState[] getOutputs() {
-        return new OutputState[]{
-            new OutputState(PINGONE_CREDENTIAL_UPDATE_KEY)
-        };
+        List<OutputState> outputs = new ArrayList<>();
+
+        outputs.add(new OutputState(PINGONE_CREDENTIAL_UPDATE_KEY));
+        if (config.skipUnchanged() && StringUtils.isNotBlank(config.updateHashAttribute())) {
+            outputs.add(new OutputState(OBJECT_ATTRIBUTES));
+        }
+
+        return outputs.toArray(new OutputState[]{});
     }
 
     public static class UpdateOutcomeProvider implements StaticOutcomeProvider {
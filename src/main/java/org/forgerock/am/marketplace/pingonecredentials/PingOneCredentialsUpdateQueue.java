@@ -0,0 +1,250 @@
+/*
+ * This code is to be used exclusively in connection with Ping Identity Corporation software or services.
+ * Ping Identity Corporation only offers such software or services to legal entities who have entered into
+ * a binding license agreement with Ping Identity Corporation.
+ *
+ * Copyright 2024 Ping Identity Corporation. All Rights Reserved
+ */
+
+package org.forgerock.am.marketplace.pingonecredentials;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+
+import org.forgerock.json.JsonValue;
+import org.forgerock.openam.integration.pingone.api.PingOneWorkerService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Queues credential updates and sends them in the background, so that a journey does not wait for PingOne.
+ * <p>
+ * Updates of the same credential made within the window of the first queued update are merged into a single update,
+ * the last value of each attribute winning. Updates are sent by a bounded number of threads, one at a time for each
+ * credential so that a later update is never overwritten by an earlier one. Updates which cannot be queued, because
+ * too many are already waiting or being sent, are rejected and must be sent by the caller.
+ * </p>
+ * <p>
+ * Failed updates are retried a few times, merged with the updates of the credential queued since, unless PingOne
+ * rejected them. Queued updates only live in memory, and are lost if the server stops before they are sent.
+ * </p>
+ */
+@Singleton
+public class PingOneCredentialsUpdateQueue {
+
+    /** The number of threads sending updates. */
+    static final int FLUSH_THREADS = 4;
+
+    /** The maximum number of credentials with an update waiting to be sent, or being sent. */
+    static final int MAX_PENDING = 10000;
+
+    /** The maximum number of times an update is sent. */
+    static final int MAX_ATTEMPTS = 5;
+
+    /** The delay before an update is sent again after its first failure, doubled after each failure. */
+    static final Duration RETRY_DELAY = Duration.ofSeconds(1);
+
+    private static final Logger logger = LoggerFactory.getLogger(PingOneCredentialsUpdateQueue.class);
+    private static final String LOGGER_PREFIX = "[PingOne Credentials Update Queue]"
+                                                + PingOneCredentialsPlugin.LOG_APPENDER;
+
+    private final PingOneCredentialsService client;
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService flusher;
+    private final Map<String, PendingUpdate> pending = new HashMap<>();
+    private final Set<String> sending = new HashSet<>();
+
+    /**
+     * The PingOne Credentials Update Queue constructor.
+     *
+     * @param client the {@link PingOneCredentialsService} instance.
+     */
+    @Inject
+    public PingOneCredentialsUpdateQueue(PingOneCredentialsService client) {
+        this.client = client;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("pingone-credentials-update-timer").build());
+        // Updates are rejected by enqueue before the flusher queue can fill up, so the timer thread never sends
+        this.flusher = new ThreadPoolExecutor(FLUSH_THREADS, FLUSH_THREADS, 60, TimeUnit.SECONDS,
+                                              new ArrayBlockingQueue<>(MAX_PENDING),
+                                              new ThreadFactoryBuilder().setDaemon(true)
+                                                                        .setNameFormat("pingone-credentials-update-%d")
+                                                                        .build(),
+                                              new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Queue an update of a credential, merging it with an update of the same credential already waiting.
+     *
+     * @param accessToken The access token used to send the update. The token of the last queued update is used.
+     * @param worker The worker {@link PingOneWorkerService}.
+     * @param pingOneUserId The PingOne user ID.
+     * @param credentialTypeId The credential type ID.
+     * @param credentialId The credential ID.
+     * @param attributes The attributes of the credential.
+     * @param window How long the update waits for other updates of the credential before it is sent.
+     * @param onSent Receives the attributes sent once the update succeeds. The callback of the last queued update is
+     *               used.
+     * @return true if the update was queued, false if too many updates are waiting or being sent.
+     */
+    synchronized boolean enqueue(String accessToken, PingOneWorkerService.Worker worker, String pingOneUserId,
+                                 String credentialTypeId, String credentialId, JsonValue attributes,
+                                 Duration window, Consumer<JsonValue> onSent) {
+        String key = worker.environmentId() + "/" + credentialId;
+        PendingUpdate update = pending.get(key);
+        if (update != null) {
+            attributes.keys().forEach(name -> update.attributes.put(name, attributes.get(name).getObject()));
+            update.accessToken = accessToken;
+            update.credentialTypeId = credentialTypeId;
+            update.onSent = onSent;
+            update.merged++;
+            return true;
+        }
+        if (pending.size() + sending.size() >= MAX_PENDING) {
+            logger.warn("{} Update of credential {} rejected, too many updates are waiting", LOGGER_PREFIX,
+                        credentialId);
+            return false;
+        }
+
+        pending.put(key, new PendingUpdate(accessToken, worker, pingOneUserId, credentialTypeId, credentialId,
+                                           attributes.copy(), onSent));
+        scheduler.schedule(() -> flush(key), window.toMillis(), TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    /**
+     * The number of credentials with an update waiting to be sent.
+     *
+     * @return The number of waiting updates.
+     */
+    synchronized int size() {
+        return pending.size();
+    }
+
+    private void flush(String key) {
+        PendingUpdate update;
+        synchronized (this) {
+            if (sending.contains(key)) {
+                // Sent once the update of the credential being sent completes
+                PendingUpdate next = pending.get(key);
+                if (next != null) {
+                    next.due = true;
+                }
+                return;
+            }
+            update = pending.remove(key);
+            if (update == null) {
+                return;
+            }
+            sending.add(key);
+        }
+        try {
+            flusher.execute(() -> send(key, update));
+        } catch (RejectedExecutionException e) {
+            logger.warn("{} Update of credential {} rejected, too many updates are being sent", LOGGER_PREFIX,
+                        update.credentialId);
+            sent(key);
+        }
+    }
+
+    private void send(String key, PendingUpdate update) {
+        try {
+            client.credentialUpdateRequest(update.accessToken, update.worker, update.pingOneUserId,
+                                           update.credentialTypeId, update.credentialId, update.attributes);
+            if (update.merged > 0) {
+                logger.debug("{} Merged {} updates of credential {}", LOGGER_PREFIX, update.merged + 1,
+                             update.credentialId);
+            }
+            update.onSent.accept(update.attributes);
+        } catch (PingOneCredentialsServiceException e) {
+            if (e.isRejected() || update.attempts >= MAX_ATTEMPTS) {
+                logger.error("{} Update of credential {} failed after {} attempts: {}", LOGGER_PREFIX,
+                             update.credentialId, update.attempts, e.getMessage());
+            } else {
+                logger.warn("{} Update of credential {} failed, retrying: {}", LOGGER_PREFIX, update.credentialId,
+                            e.getMessage());
+                retry(key, update);
+            }
+        } catch (Exception e) {
+            logger.error("{} Update of credential {} failed: {}", LOGGER_PREFIX, update.credentialId, e.getMessage());
+        } finally {
+            sent(key);
+        }
+    }
+
+    /**
+     * Queue a failed update again, under the updates of the credential queued while it was sent.
+     */
+    private synchronized void retry(String key, PendingUpdate update) {
+        PendingUpdate later = pending.get(key);
+        if (later != null) {
+            update.attributes.keys().forEach(name -> {
+                if (!later.attributes.isDefined(name)) {
+                    later.attributes.put(name, update.attributes.get(name).getObject());
+                }
+            });
+            later.merged += update.merged + 1;
+            later.attempts = Math.max(later.attempts, update.attempts);
+            return;
+        }
+        update.attempts++;
+        pending.put(key, update);
+        scheduler.schedule(() -> flush(key), RETRY_DELAY.toMillis() << (update.attempts - 2), TimeUnit.MILLISECONDS);
+    }
+
+    private void sent(String key) {
+        boolean due;
+        synchronized (this) {
+            sending.remove(key);
+            PendingUpdate next = pending.get(key);
+            due = next != null && next.due;
+        }
+        if (due) {
+            flush(key);
+        }
+    }
+
+    /**
+     * An update of a credential waiting to be sent.
+     */
+    private static final class PendingUpdate {
+        private final PingOneWorkerService.Worker worker;
+        private final String pingOneUserId;
+        private final String credentialId;
+        private final JsonValue attributes;
+        private String accessToken;
+        private String credentialTypeId;
+        private Consumer<JsonValue> onSent;
+        private int merged;
+        private int attempts = 1;
+        private boolean due;
+
+        private PendingUpdate(String accessToken, PingOneWorkerService.Worker worker, String pingOneUserId,
+                              String credentialTypeId, String credentialId, JsonValue attributes,
+                              Consumer<JsonValue> onSent) {
+            this.accessToken = accessToken;
+            this.worker = worker;
+            this.pingOneUserId = pingOneUserId;
+            this.credentialTypeId = credentialTypeId;
+            this.credentialId = credentialId;
+            this.attributes = attributes;
+            this.onSent = onSent;
+        }
+    }
+}
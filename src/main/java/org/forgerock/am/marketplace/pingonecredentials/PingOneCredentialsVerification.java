@@ -8,6 +8,7 @@
 
 package org.forgerock.am.marketplace.pingonecredentials;
 
+import static java.nio.charset.StandardCharsets.UTF_8;
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.EXPIRED;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.ERROR_OUTCOME_ID;
@@ -17,6 +18,10 @@ import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_VERIFICATION_TIMEOUT_KEY;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_VERIFICATION_DELIVERY_METHOD_KEY;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_VERIFICATION_SESSION_KEY;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_VERIFICATION_SESSION_HASH_KEY;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_VERIFICATION_TRUST_KEY;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_VERIFICATION_PUSH_HANDLE_KEY;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_VERIFICATION_PUSH_SESSION_KEY;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_CREDENTIAL_VERIFICATION_KEY;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.REQUESTED_CREDENTIALS;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.RESPONSE_APPLICATION_INSTANCE;
@@ -28,6 +33,9 @@ import static org.forgerock.am.marketplace.pingonecredentials.Constants.RESPONSE
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.SUCCESS_OUTCOME_ID;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.TIMEOUT_OUTCOME_ID;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.VERIFICATION_SUCCESSFUL;
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
 import static org.forgerock.openam.auth.node.api.Action.send;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.VerificationDeliveryMethod;
 
@@ -40,6 +48,7 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.ResourceBundle;
+import java.util.UUID;
 
 import javax.inject.Inject;
 import javax.security.auth.callback.Callback;
@@ -47,6 +56,7 @@ import javax.security.auth.callback.ConfirmationCallback;
 import javax.security.auth.callback.TextOutputCallback;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
 import com.sun.identity.authentication.callbacks.HiddenValueCallback;
 import com.sun.identity.authentication.callbacks.ScriptTextOutputCallback;
 import org.apache.commons.lang.StringUtils;
@@ -86,9 +96,15 @@ public class PingOneCredentialsVerification implements Node {
 	/** The id of the HiddenCallback containing the URI. */
 	public static final String HIDDEN_CALLBACK_ID = "pingOneCredentialVerificationUri";
 
+	/** The id of the HiddenCallback containing the server rendered QR code image. */
+	public static final String QR_CODE_IMAGE_CALLBACK_ID = "pingOneCredentialVerificationQrCode";
+
 	private final Logger logger = LoggerFactory.getLogger(PingOneCredentialsVerification.class);
 	private static final String LOGGER_PREFIX = "[PingOne Credentials Verification Node]" + PingOneCredentialsPlugin.LOG_APPENDER;
 
+	/** The verification response fields kept in pingOneCredentialVerification when the response is stored compressed. */
+	private static final List<String> VERIFICATION_SUMMARY_FIELDS = List.of("/id", "/status");
+
 	public static final String BUNDLE = PingOneCredentialsVerification.class.getName();
 
 	static final String DEFAULT_DELIVERY_METHOD_MESSAGE_KEY = "default.deliveryMethodMessage";
@@ -99,11 +115,21 @@ public class PingOneCredentialsVerification implements Node {
 	static final String QR_CALLBACK_STRING = "callback_0";
 	static final int DEFAULT_TIMEOUT = 120;
 
+
+	/** The maximum number of successful verifications remembered for the trust window. */
+	static final int MAX_TRUSTED_VERIFICATIONS = 10000;
+
+	/** Successful verifications by environment, application instance and requested credential. */
+	private static final PingOneCredentialsCache<String, TrustedVerification> TRUSTED_VERIFICATIONS =
+		new PingOneCredentialsCache<>(MAX_TRUSTED_VERIFICATIONS);
+
 	private final Config config;
 	private final Realm realm;
 	private final PingOneWorkerService pingOneWorkerService;
 	private final LocalizationHelper localizationHelper;
 	private final PingOneCredentialsService client;
+	private final PingOneCredentialsQrCodeRenderer qrCodeRenderer;
+	private final PingOneCredentialsAsyncService asyncService;
 
 	
 	/**
@@ -221,6 +247,34 @@ public class PingOneCredentialsVerification implements Node {
 			return true;
 		}
 
+		/**
+		 * The JSON pointers of the verification response fields to store in the shared state. All fields are
+		 * stored when empty.
+		 * @return The JSON pointers of the fields to store.
+		 */
+		@Attribute(order = 1310)
+		default List<String> verificationResponseFields() {
+			return Collections.emptyList();
+		}
+
+		/**
+		 * The maximum size in bytes of the verification response stored in the shared state.
+		 * @return The maximum size in bytes, or 0 for no limit.
+		 */
+		@Attribute(order = 1320)
+		default int maxStoredResponseSize() {
+			return 0;
+		}
+
+		/**
+		 * Toggle if large verification responses should be stored compressed in the shared state.
+		 * @return true if large verification responses should be compressed, false otherwise.
+		 */
+		@Attribute(order = 1330)
+		default boolean compressStoredResponse() {
+			return false;
+		}
+
 		/**
 		 * Toggle if a custom requested credentials payload should be used
 		 * @return true if the create verification response should be stored, false otherwise.
@@ -230,6 +284,45 @@ public class PingOneCredentialsVerification implements Node {
 			return false;
 		}
 
+		/**
+		 * Render the QR code on the server and deliver it as an image data URI instead of a generation script.
+		 * @return true if the QR code should be rendered on the server, false otherwise.
+		 */
+		@Attribute(order = 1500, requiredValue = true)
+		default boolean renderQrCodeImage() {
+			return false;
+		}
+
+		/**
+		 * Send a second copy of a verification status read when PingOne is slower than usual to respond.
+		 * @return true if slow status reads should be hedged, false otherwise.
+		 */
+		@Attribute(order = 1600)
+		default boolean hedgeReads() {
+			return false;
+		}
+
+		/**
+		 * Reuse the verification session started by this journey when the node is entered again with the same
+		 * configuration, for example after a browser refresh, instead of starting a new session.
+		 * @return true if a pending verification session should be reused, false otherwise.
+		 */
+		@Attribute(order = 1700)
+		default boolean reuseVerificationSession() {
+			return false;
+		}
+
+		/**
+		 * The time in seconds during which a successful verification of the same credential is trusted without
+		 * presenting it again later in the same journey.
+		 * @return The trust window, or zero to always present the credential.
+		 */
+		@Attribute(order = 1800)
+		@TimeUnit(SECONDS)
+		default Duration trustWindow() {
+			return Duration.ZERO;
+		}
+
 	}
 
 	/**
@@ -240,16 +333,22 @@ public class PingOneCredentialsVerification implements Node {
 	 * @param pingOneWorkerService the {@link PingOneWorkerService} instance.
 	 * @param client               the {@link PingOneCredentialsService} instance.
 	 * @param localizationHelper   the {@link LocalizationHelper} instance.
+	 * @param qrCodeRenderer       the {@link PingOneCredentialsQrCodeRenderer} instance.
+	 * @param asyncService         the {@link PingOneCredentialsAsyncService} instance.
 	 */
 	@Inject
 	PingOneCredentialsVerification(@Assisted Config config, @Assisted Realm realm,
 	                               PingOneWorkerService pingOneWorkerService, PingOneCredentialsService client,
-	                               LocalizationHelper localizationHelper) {
+	                               LocalizationHelper localizationHelper,
+	                               PingOneCredentialsQrCodeRenderer qrCodeRenderer,
+	                               PingOneCredentialsAsyncService asyncService) {
 		this.config = config;
 		this.realm = realm;
 		this.pingOneWorkerService = pingOneWorkerService;
 		this.client = client;
 		this.localizationHelper = localizationHelper;
+		this.qrCodeRenderer = qrCodeRenderer;
+		this.asyncService = asyncService;
 	}
 
 	@Override
@@ -261,7 +360,20 @@ public class PingOneCredentialsVerification implements Node {
 
 			// Get PingOne Access Token
 			PingOneWorkerService.Worker worker = config.pingOneWorker();
-			String accessToken = pingOneWorkerService.getAccessTokenId(realm, worker);
+
+			// A recent verification of the same credential presented in this journey is trusted without calling
+			// PingOne
+			if (!context.hasCallbacks() && isTrustWindowEnabled()) {
+				Optional<TrustedVerification> trusted = findTrustedVerification(nodeState, worker);
+				if (trusted.isPresent()) {
+					logger.debug("{} Credential verified within the trust window", LOGGER_PREFIX);
+					return completeVerification(context, nodeState, trusted.get().response.copy());
+				}
+			}
+
+			PingOneCredentialsJourneyMemo.usePrefetched(context, nodeState, asyncService);
+			String accessToken = PingOneCredentialsJourneyMemo.accessToken(
+				context, worker, () -> pingOneWorkerService.getAccessTokenId(realm, worker));
 
 			if (StringUtils.isBlank(accessToken)) {
 				logger.error("Unable to get access token for PingOne Worker.");
@@ -329,10 +441,36 @@ public class PingOneCredentialsVerification implements Node {
 		// Check transaction status and take appropriate action
 		JsonValue response = client.readVerificationSession(accessToken,
 		                                                    worker,
-		                                                    sessionId);
+		                                                    sessionId,
+		                                                    config.hedgeReads());
+
+		// The push session only matters while the QR code session is still waiting, or has expired before it
+		String qrStatus = response.get(RESPONSE_STATUS).asString();
+		boolean waitingForPush = false;
+		if (VerificationDeliveryMethod.PUSH_AND_QRCODE.equals(verificationDeliveryMethod)
+		    && (INITIAL.equals(qrStatus) || EXPIRED.equals(qrStatus))) {
+			claimPushSession(nodeState);
+			if (nodeState.isDefined(PINGONE_VERIFICATION_PUSH_SESSION_KEY)) {
+				JsonValue pushResponse = client.readVerificationSession(accessToken,
+				                                                        worker,
+				                                                        nodeState.get(PINGONE_VERIFICATION_PUSH_SESSION_KEY).asString(),
+				                                                        config.hedgeReads());
+				String pushStatus = pushResponse.get(RESPONSE_STATUS).asString();
+				if (VERIFICATION_SUCCESSFUL.equals(pushStatus)) {
+					response = pushResponse;
+				} else if (INITIAL.equals(pushStatus)) {
+					waitingForPush = true;
+				} else {
+					// Keep waiting for the QR code only
+					nodeState.remove(PINGONE_VERIFICATION_PUSH_SESSION_KEY);
+				}
+			} else {
+				waitingForPush = nodeState.isDefined(PINGONE_VERIFICATION_PUSH_HANDLE_KEY);
+			}
+		}
 
 		// Retrieve response values
-		String status = response.get(RESPONSE_STATUS).asString();
+		String status = EXPIRED.equals(qrStatus) && waitingForPush ? INITIAL : response.get(RESPONSE_STATUS).asString();
 		String qrUrl = response.get(RESPONSE_LINKS).get(RESPONSE_APPOPENURL).get(RESPONSE_HREF).asString();
 
 		switch (status) {
@@ -340,15 +478,11 @@ public class PingOneCredentialsVerification implements Node {
 				List<Callback> callbacks = getCallbacksForDeliveryMethod(context, verificationDeliveryMethod, qrUrl);
 				return waitTransactionCompletion(nodeState, callbacks).build();
 			case VERIFICATION_SUCCESSFUL:
-				String applicationInstanceId = response.get(RESPONSE_APPLICATION_INSTANCE).get(RESPONSE_ID).asString();
-
-				// Store application instance ID
-				nodeState.putShared(PINGONE_APPLICATION_INSTANCE_ID_KEY, applicationInstanceId);
-
-				if (config.storeVerificationResponse()) {
-					nodeState.putShared(PINGONE_CREDENTIAL_VERIFICATION_KEY, response);
+				if (isTrustWindowEnabled()) {
+					TRUSTED_VERIFICATIONS.put(trustedVerificationKey(worker, trustToken(nodeState)),
+					                          new TrustedVerification(response.copy(), System.currentTimeMillis()));
 				}
-				return buildAction(SUCCESS_OUTCOME_ID, context);
+				return completeVerification(context, nodeState, response);
 			case EXPIRED:
 				return buildAction(ERROR_OUTCOME_ID, context);
 			default:
@@ -357,6 +491,74 @@ public class PingOneCredentialsVerification implements Node {
 		}
 	}
 
+	private Action completeVerification(TreeContext context, NodeState nodeState, JsonValue response) {
+		String applicationInstanceId = response.get(RESPONSE_APPLICATION_INSTANCE).get(RESPONSE_ID).asString();
+
+		// Store application instance ID
+		nodeState.putShared(PINGONE_APPLICATION_INSTANCE_ID_KEY, applicationInstanceId);
+
+		if (config.storeVerificationResponse()) {
+			storeVerificationResponse(nodeState, response);
+		}
+		return buildAction(SUCCESS_OUTCOME_ID, context);
+	}
+
+	private boolean isTrustWindowEnabled() {
+		// A custom payload may request other credentials than the configured ones, so it is never trusted
+		Duration trustWindow = config.trustWindow();
+		return trustWindow != null && !trustWindow.isZero() && !trustWindow.isNegative()
+		       && !config.customCredentialsPayload();
+	}
+
+	/**
+	 * Find the verification trusted for this journey. Verifications are remembered under a random token which
+	 * only this node puts in the shared state of the journey which presented the credential, never under a value
+	 * that another node can look up, such as the application instance ID, so a verification is only trusted by
+	 * the journey which completed it.
+	 */
+	private Optional<TrustedVerification> findTrustedVerification(NodeState nodeState,
+	                                                              PingOneWorkerService.Worker worker) {
+		if (!nodeState.isDefined(PINGONE_VERIFICATION_TRUST_KEY)) {
+			return Optional.empty();
+		}
+		String key = trustedVerificationKey(worker, nodeState.get(PINGONE_VERIFICATION_TRUST_KEY).asString());
+		long trustedSince = System.currentTimeMillis() - config.trustWindow().toMillis();
+		return TRUSTED_VERIFICATIONS.get(key).filter(trusted -> trusted.verifiedAt >= trustedSince);
+	}
+
+	private static String trustToken(NodeState nodeState) {
+		if (nodeState.isDefined(PINGONE_VERIFICATION_TRUST_KEY)) {
+			return nodeState.get(PINGONE_VERIFICATION_TRUST_KEY).asString();
+		}
+		String trustToken = UUID.randomUUID().toString();
+		nodeState.putShared(PINGONE_VERIFICATION_TRUST_KEY, trustToken);
+		return trustToken;
+	}
+
+	private String trustedVerificationKey(PingOneWorkerService.Worker worker, String trustToken) {
+		List<String> attributeKeys = config.attributeKeys() == null
+		                             ? new ArrayList<>()
+		                             : new ArrayList<>(config.attributeKeys());
+		Collections.sort(attributeKeys);
+		return worker.environmentId() + "/" + trustToken + "/" + config.credentialType() + "/"
+		       + String.join(",", attributeKeys);
+	}
+
+	private void storeVerificationResponse(NodeState nodeState, JsonValue response) {
+		JsonValue projection = PingOneCredentialsJsonProjection.project(response, config.verificationResponseFields());
+		JsonValue stored = config.compressStoredResponse() ? PingOneCredentialsStateCodec.encode(projection)
+		                                                   : projection;
+
+		if (PingOneCredentialsJsonProjection.exceedsSize(stored, config.maxStoredResponseSize())) {
+			logger.warn("{} Verification response exceeds {} bytes and was not stored in sharedState.", LOGGER_PREFIX,
+			            config.maxStoredResponseSize());
+			return;
+		}
+		PingOneCredentialsStateCodec.store(nodeState, PINGONE_CREDENTIAL_VERIFICATION_KEY, stored,
+		                                   PingOneCredentialsJsonProjection.project(projection,
+		                                                                            VERIFICATION_SUMMARY_FIELDS));
+	}
+
 	private Action startVerificationTransaction(TreeContext context, String accessToken,
 	                                            PingOneWorkerService.Worker worker,
 	                                            VerificationDeliveryMethod deliveryMethod,
@@ -365,6 +567,19 @@ public class PingOneCredentialsVerification implements Node {
 
 		String qrUrl = ""; // Value will not be used if delivery is not QRCODE
 
+		String sessionHash = null;
+		if (config.reuseVerificationSession()) {
+			NodeState nodeState = context.getStateFor(this);
+			sessionHash = sessionHash(nodeState, deliveryMethod, credentialType, message, attributeKeys);
+
+			Optional<JsonValue> pendingSession = findPendingSession(nodeState, accessToken, worker, sessionHash);
+			if (pendingSession.isPresent()) {
+				// Keep the timeout of the session, so that a refresh does not extend it
+				logger.debug("{} Reusing pending verification session", LOGGER_PREFIX);
+				qrUrl = pendingSession.get().get(RESPONSE_LINKS).get(RESPONSE_APPOPENURL).get(RESPONSE_HREF).asString();
+				return send(getCallbacksForDeliveryMethod(context, deliveryMethod, qrUrl)).build();
+			}
+		}
 
 		if(VerificationDeliveryMethod.QRCODE.equals(deliveryMethod)) {
 			NodeState nodeState = context.getStateFor(this);
@@ -442,6 +657,36 @@ public class PingOneCredentialsVerification implements Node {
 			// Store session ID in shared state
 			nodeState.putShared(PINGONE_VERIFICATION_SESSION_KEY, sessionId);
 			nodeState.putShared(PINGONE_VERIFICATION_TIMEOUT_KEY, TRANSACTION_POLL_INTERVAL);
+		} else if (VerificationDeliveryMethod.PUSH_AND_QRCODE.equals(deliveryMethod)) {
+			NodeState nodeState = context.getStateFor(this);
+
+			JsonValue customCredentialsPayload = config.customCredentialsPayload()
+			                                     ? nodeState.get(REQUESTED_CREDENTIALS)
+			                                     : null;
+
+			// Start the push session in the background, it is claimed when the sessions are first polled
+			Optional<String> pushHandle = startPushSession(nodeState, accessToken, worker, message, credentialType,
+			                                               attributeKeys, customCredentialsPayload);
+
+			JsonValue response = client.createVerificationRequest(accessToken,
+			                                                      worker,
+			                                                      message,
+			                                                      credentialType,
+			                                                      config.digitalWalletApplicationId(),
+			                                                      attributeKeys,
+			                                                      customCredentialsPayload);
+
+			qrUrl = response.get(RESPONSE_LINKS).get(RESPONSE_APPOPENURL).get(RESPONSE_HREF).asString();
+
+			nodeState.putShared(PINGONE_VERIFICATION_SESSION_KEY, response.get(RESPONSE_ID).asString());
+			nodeState.putShared(PINGONE_VERIFICATION_TIMEOUT_KEY, TRANSACTION_POLL_INTERVAL);
+			nodeState.remove(PINGONE_VERIFICATION_PUSH_SESSION_KEY);
+			nodeState.remove(PINGONE_VERIFICATION_PUSH_HANDLE_KEY);
+			pushHandle.ifPresent(handle -> nodeState.putShared(PINGONE_VERIFICATION_PUSH_HANDLE_KEY, handle));
+		}
+
+		if (sessionHash != null) {
+			context.getStateFor(this).putShared(PINGONE_VERIFICATION_SESSION_HASH_KEY, sessionHash);
 		}
 
 		// Create callbacks and send
@@ -450,6 +695,87 @@ public class PingOneCredentialsVerification implements Node {
 		return send(callbacks).build();
 	}
 
+	private void claimPushSession(NodeState nodeState) throws InterruptedException {
+		if (!nodeState.isDefined(PINGONE_VERIFICATION_PUSH_HANDLE_KEY)) {
+			return;
+		}
+		String handle = nodeState.get(PINGONE_VERIFICATION_PUSH_HANDLE_KEY).asString();
+		if (!asyncService.isDone(handle)) {
+			// Still being created, claimed on a later poll
+			return;
+		}
+		nodeState.remove(PINGONE_VERIFICATION_PUSH_HANDLE_KEY);
+		Optional<JsonValue> pushResponse = asyncService.claim(handle, Duration.ZERO, session -> { });
+		if (pushResponse.isPresent()) {
+			nodeState.putShared(PINGONE_VERIFICATION_PUSH_SESSION_KEY, pushResponse.get().get(RESPONSE_ID).asString());
+		} else {
+			logger.warn("{} Push session not started, verifying by QR code only", LOGGER_PREFIX);
+		}
+	}
+
+	private Optional<String> startPushSession(NodeState nodeState, String accessToken,
+	                                          PingOneWorkerService.Worker worker, String message,
+	                                          String credentialType, List<String> attributeKeys,
+	                                          JsonValue customCredentialsPayload) {
+		String applicationInstanceId = nodeState.isDefined(PINGONE_APPLICATION_INSTANCE_ID_KEY)
+		                               ? nodeState.get(PINGONE_APPLICATION_INSTANCE_ID_KEY).asString()
+		                               : null;
+
+		if (StringUtils.isBlank(applicationInstanceId) || config.digitalWalletApplicationId().isEmpty()) {
+			logger.debug("{} No application instance or digital wallet application, verifying by QR code only",
+			             LOGGER_PREFIX);
+			return Optional.empty();
+		}
+
+		String digitalWalletApplicationId = config.digitalWalletApplicationId().get();
+		return asyncService.submit(() -> client.createVerificationRequestPush(accessToken,
+		                                                                      worker,
+		                                                                      message,
+		                                                                      credentialType,
+		                                                                      attributeKeys,
+		                                                                      applicationInstanceId,
+		                                                                      digitalWalletApplicationId,
+		                                                                      customCredentialsPayload));
+	}
+
+	private Optional<JsonValue> findPendingSession(NodeState nodeState, String accessToken,
+	                                               PingOneWorkerService.Worker worker, String sessionHash)
+		throws PingOneCredentialsServiceException {
+		if (!nodeState.isDefined(PINGONE_VERIFICATION_SESSION_KEY)
+		    || !nodeState.isDefined(PINGONE_VERIFICATION_TIMEOUT_KEY)
+		    || !sessionHash.equals(nodeState.get(PINGONE_VERIFICATION_SESSION_HASH_KEY).asString())) {
+			return Optional.empty();
+		}
+
+		// Only a session still waiting for a presentation can be reused
+		JsonValue response = client.readVerificationSession(accessToken, worker,
+		                                                    nodeState.get(PINGONE_VERIFICATION_SESSION_KEY).asString(),
+		                                                    config.hedgeReads());
+		return INITIAL.equals(response.get(RESPONSE_STATUS).asString()) ? Optional.of(response) : Optional.empty();
+	}
+
+	/**
+	 * Hash the inputs of a verification session, so that a session is only reused by a node configured to start the
+	 * same session.
+	 */
+	private String sessionHash(NodeState nodeState, VerificationDeliveryMethod deliveryMethod, String credentialType,
+	                           String message, List<String> attributeKeys) {
+		JsonValue inputs = json(object(
+			field("deliveryMethod", deliveryMethod.name()),
+			field("credentialType", credentialType),
+			field("message", message),
+			field("attributeKeys", attributeKeys),
+			field("digitalWalletApplicationId", config.digitalWalletApplicationId().orElse(null))));
+		if (!VerificationDeliveryMethod.QRCODE.equals(deliveryMethod)
+		    && nodeState.isDefined(PINGONE_APPLICATION_INSTANCE_ID_KEY)) {
+			inputs.put("applicationInstanceId", nodeState.get(PINGONE_APPLICATION_INSTANCE_ID_KEY).getObject());
+		}
+		if (config.customCredentialsPayload() && nodeState.isDefined(REQUESTED_CREDENTIALS)) {
+			inputs.put("requestedCredentials", nodeState.get(REQUESTED_CREDENTIALS).getObject());
+		}
+		return Hashing.sha256().hashString(inputs.toString(), UTF_8).toString();
+	}
+
 	private List<Callback> getCallbacksForDeliveryMethod(TreeContext context, VerificationDeliveryMethod deliveryMethod,
 	                                                     String url) {
 		String waitingMessage = getWaitingMessage(context);
@@ -459,11 +785,14 @@ public class PingOneCredentialsVerification implements Node {
 		                                              .withMessage(waitingMessage)
 		                                              .build();
 
-		if (VerificationDeliveryMethod.QRCODE.equals(deliveryMethod)) {
+		if (VerificationDeliveryMethod.QRCODE.equals(deliveryMethod)
+		    || VerificationDeliveryMethod.PUSH_AND_QRCODE.equals(deliveryMethod)) {
 			Callback scanTextOutputCallback = createLocalizedTextCallback(context, this.getClass(),
 			                                                              config.scanQRCodeMessage(), SCAN_QR_CODE_MSG_KEY);
 
-			Callback qrCodeCallback = new ScriptTextOutputCallback(GenerationUtils
+			Callback qrCodeCallback = config.renderQrCodeImage()
+			                          ? new HiddenValueCallback(QR_CODE_IMAGE_CALLBACK_ID, qrCodeRenderer.render(url))
+			                          : new ScriptTextOutputCallback(GenerationUtils
 				                                                       .getQRCodeGenerationJavascriptForAuthenticatorAppRegistration(QR_CALLBACK_STRING, url));
 
 			Callback hiddenCallback = new HiddenValueCallback(HIDDEN_CALLBACK_ID, url);
@@ -540,6 +869,9 @@ public class PingOneCredentialsVerification implements Node {
 		nodeState.remove(PINGONE_VERIFICATION_SESSION_KEY);
 		nodeState.remove(PINGONE_VERIFICATION_DELIVERY_METHOD_KEY);
 		nodeState.remove(PINGONE_VERIFICATION_TIMEOUT_KEY);
+		nodeState.remove(PINGONE_VERIFICATION_SESSION_HASH_KEY);
+		nodeState.remove(PINGONE_VERIFICATION_PUSH_SESSION_KEY);
+		nodeState.remove(PINGONE_VERIFICATION_PUSH_HANDLE_KEY);
 		return builder;
 	}
 
@@ -553,7 +885,11 @@ public class PingOneCredentialsVerification implements Node {
 			new InputState(config.digitalWalletApplicationId().orElse(""), false),
 			new InputState(PINGONE_APPLICATION_INSTANCE_ID_KEY, false),
 			new InputState(PINGONE_CREDENTIAL_VERIFICATION_KEY, false),
-			new InputState(REQUESTED_CREDENTIALS, false)
+			new InputState(REQUESTED_CREDENTIALS, false),
+			new InputState(PINGONE_VERIFICATION_SESSION_HASH_KEY, false),
+			new InputState(PINGONE_VERIFICATION_PUSH_SESSION_KEY, false),
+			new InputState(PINGONE_VERIFICATION_PUSH_HANDLE_KEY, false),
+			new InputState(PINGONE_VERIFICATION_TRUST_KEY, false)
 		};
 	}
 
@@ -562,10 +898,26 @@ public class PingOneCredentialsVerification implements Node {
 		return new OutputState[] {
 				new OutputState(PINGONE_VERIFICATION_SESSION_KEY),
 				new OutputState(PINGONE_VERIFICATION_DELIVERY_METHOD_KEY),
-				new OutputState(PINGONE_VERIFICATION_TIMEOUT_KEY)
+				new OutputState(PINGONE_VERIFICATION_TIMEOUT_KEY),
+				new OutputState(PINGONE_VERIFICATION_SESSION_HASH_KEY),
+				new OutputState(PINGONE_VERIFICATION_PUSH_SESSION_KEY),
+				new OutputState(PINGONE_VERIFICATION_PUSH_HANDLE_KEY),
+				new OutputState(PINGONE_CREDENTIAL_VERIFICATION_KEY),
+				new OutputState(PingOneCredentialsStateCodec.compressedKey(PINGONE_CREDENTIAL_VERIFICATION_KEY)),
+				new OutputState(PINGONE_VERIFICATION_TRUST_KEY)
 			};
 	}
 
+	private static final class TrustedVerification {
+		private final JsonValue response;
+		private final long verifiedAt;
+
+		private TrustedVerification(JsonValue response, long verifiedAt) {
+			this.response = response;
+			this.verifiedAt = verifiedAt;
+		}
+	}
+
 	public static class VerificationOutcomeProvider implements StaticOutcomeProvider {
 		@Override
 		public List<Outcome> getOutcomes(PreferredLocales locales) {
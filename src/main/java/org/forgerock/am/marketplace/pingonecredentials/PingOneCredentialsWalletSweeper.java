@@ -0,0 +1,290 @@
+/*
+ * This code is to be used exclusively in connection with Ping Identity Corporation software or services.
+ * Ping Identity Corporation only offers such software or services to legal entities who have entered into
+ * a binding license agreement with Ping Identity Corporation.
+ *
+ * Copyright 2024 Ping Identity Corporation. All Rights Reserved
+ */
+
+package org.forgerock.am.marketplace.pingonecredentials;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.ACTIVE;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.RESPONSE_CREATED_AT;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.RESPONSE_DIGITALWALLETS;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.RESPONSE_EMBEDDED;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.RESPONSE_HREF;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.RESPONSE_ID;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.RESPONSE_LINKS;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.RESPONSE_NEXT;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.RESPONSE_STATUS;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.RESPONSE_UPDATED_AT;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.RESPONSE_USERS;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.apache.commons.lang.StringUtils;
+import org.forgerock.json.JsonValue;
+import org.forgerock.openam.core.realms.Realm;
+import org.forgerock.openam.core.realms.RealmLookup;
+import org.forgerock.openam.core.realms.RealmLookupException;
+import org.forgerock.openam.integration.pingone.api.PingOneWorkerService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Background sweeper which deletes the stale digital wallets left behind by abandoned pairings, so that the wallet
+ * lists read at login stay small.
+ * <p>
+ * The sweeper walks the users of the environment one page at a time and deletes their wallets which are not
+ * {@code ACTIVE} and were last updated before the configured age. The link to the next page is kept in a cursor file,
+ * so a restarted sweeper resumes where it stopped, and the sweep starts again from the first page once all users
+ * were visited. Calls are made at low priority on the shared {@link PingOneCredentialsApiBudget}, and limited to a
+ * share of its rate.
+ * </p>
+ * <p>
+ * The sweeper is started with the plugin when the {@value #REALM_PROPERTY} and {@value #WORKER_PROPERTY} system
+ * properties name the PingOne worker of the environment to sweep, and stopped with the plugin.
+ * </p>
+ */
+final class PingOneCredentialsWalletSweeper {
+
+    /** The number of users read per page. */
+    static final int PAGE_SIZE = 100;
+
+    /** The system property naming the realm of the PingOne worker of the sweeper. */
+    static final String REALM_PROPERTY = "pingone.credentials.sweeper.realm";
+
+    /** The system property naming the PingOne worker of the sweeper. */
+    static final String WORKER_PROPERTY = "pingone.credentials.sweeper.worker";
+
+    /** The system property setting the age after which a wallet which is not active is deleted. */
+    static final String MAX_AGE_PROPERTY = "pingone.credentials.sweeper.maxAge";
+
+    /** The system property setting the delay between two pages. */
+    static final String INTERVAL_PROPERTY = "pingone.credentials.sweeper.interval";
+
+    /** The system property setting the share of the API budget rate the sweeper may use. */
+    static final String BUDGET_SHARE_PROPERTY = "pingone.credentials.sweeper.budgetShare";
+
+    /** The system property naming the file keeping the position of the sweep. */
+    static final String CURSOR_FILE_PROPERTY = "pingone.credentials.sweeper.cursorFile";
+
+    static final Duration DEFAULT_MAX_AGE = Duration.ofDays(7);
+    static final Duration DEFAULT_INTERVAL = Duration.ofSeconds(10);
+    static final double DEFAULT_BUDGET_SHARE = 0.1;
+    static final String DEFAULT_CURSOR_FILE = "pingone-credentials-sweeper.cursor";
+
+    private static final Logger logger = LoggerFactory.getLogger(PingOneCredentialsWalletSweeper.class);
+    private static final String LOGGER_PREFIX = "[PingOne Credentials Wallet Sweeper]"
+                                                + PingOneCredentialsPlugin.LOG_APPENDER;
+
+    private final PingOneCredentialsService client;
+    private final PingOneCredentialsApiBudget budget;
+    private final RateLimiter share;
+    private final Duration maxAge;
+    private final Path cursorFile;
+    private final Clock clock;
+
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Create a wallet sweeper.
+     *
+     * @param client The {@link PingOneCredentialsService} instance.
+     * @param budget The API budget shared with other background work.
+     * @param budgetShare The share of the API budget rate the sweeper may use, between 0 and 1.
+     * @param maxAge The age after which a wallet which is not active is deleted.
+     * @param cursorFile The file keeping the position of the sweep.
+     * @param clock The clock used to compute the age of wallets.
+     */
+    PingOneCredentialsWalletSweeper(PingOneCredentialsService client, PingOneCredentialsApiBudget budget,
+                                    double budgetShare, Duration maxAge, Path cursorFile, Clock clock) {
+        if (budgetShare <= 0 || budgetShare > 1) {
+            throw new IllegalArgumentException("Budget share must be between 0 and 1");
+        }
+        this.client = client;
+        this.budget = budget;
+        this.share = RateLimiter.create(budget.permitsPerSecond() * budgetShare);
+        this.maxAge = maxAge;
+        this.cursorFile = cursorFile;
+        this.clock = clock;
+    }
+
+    /**
+     * Start the sweeper configured by the properties, if any.
+     *
+     * @param properties The configuration properties, usually the system properties.
+     * @param client The {@link PingOneCredentialsService} instance.
+     * @param pingOneWorkerService The {@link PingOneWorkerService} instance.
+     * @param realmLookup The {@link RealmLookup} instance.
+     * @return The started sweeper, or empty if no sweeper is configured or its worker cannot be found.
+     */
+    static Optional<PingOneCredentialsWalletSweeper> startConfigured(Properties properties,
+                                                                     PingOneCredentialsService client,
+                                                                     PingOneWorkerService pingOneWorkerService,
+                                                                     RealmLookup realmLookup) {
+        String realmPath = properties.getProperty(REALM_PROPERTY);
+        String workerId = properties.getProperty(WORKER_PROPERTY);
+        if (StringUtils.isBlank(realmPath) || StringUtils.isBlank(workerId)) {
+            logger.debug("{} No PingOne worker configured, the sweeper is disabled", LOGGER_PREFIX);
+            return Optional.empty();
+        }
+        try {
+            Realm realm = realmLookup.lookup(realmPath);
+            Optional<PingOneWorkerService.Worker> worker = pingOneWorkerService.getWorker(realm, workerId);
+            if (worker.isEmpty()) {
+                logger.error("{} Unknown PingOne worker {}, the sweeper is disabled", LOGGER_PREFIX, workerId);
+                return Optional.empty();
+            }
+            Path cursorFile = Paths.get(properties.getProperty(
+                CURSOR_FILE_PROPERTY,
+                Paths.get(System.getProperty("user.home"), DEFAULT_CURSOR_FILE).toString()));
+            PingOneCredentialsWalletSweeper sweeper = new PingOneCredentialsWalletSweeper(
+                client, PingOneCredentialsApiBudget.BACKGROUND,
+                Double.parseDouble(properties.getProperty(BUDGET_SHARE_PROPERTY,
+                                                          String.valueOf(DEFAULT_BUDGET_SHARE))),
+                Duration.parse(properties.getProperty(MAX_AGE_PROPERTY, DEFAULT_MAX_AGE.toString())),
+                cursorFile, Clock.systemUTC());
+            sweeper.start(() -> {
+                try {
+                    return pingOneWorkerService.getAccessTokenId(realm, worker.get());
+                } catch (Exception e) {
+                    throw new IllegalStateException("Unable to get access token for PingOne Worker", e);
+                }
+            }, worker.get(), Duration.parse(properties.getProperty(INTERVAL_PROPERTY, DEFAULT_INTERVAL.toString())));
+            logger.info("{} Sweeping the wallets of the environment of PingOne worker {}", LOGGER_PREFIX, workerId);
+            return Optional.of(sweeper);
+        } catch (RealmLookupException | RuntimeException e) {
+            logger.error("{} Invalid configuration, the sweeper is disabled: {}", LOGGER_PREFIX, e.getMessage());
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Start sweeping a page of users at each interval.
+     *
+     * @param accessToken Supplies the access token of the PingOne worker, which may be renewed between sweeps.
+     * @param worker The worker {@link PingOneWorkerService}.
+     * @param interval The delay between two pages.
+     */
+    synchronized void start(Supplier<String> accessToken, PingOneWorkerService.Worker worker, Duration interval) {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("pingone-credentials-wallet-sweeper").build());
+        scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                sweep(accessToken, worker);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (Exception e) {
+                logger.warn("{} Sweep failed, it will be retried: {}", LOGGER_PREFIX, e.getMessage());
+            }
+        }, 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stop sweeping. A page being swept is interrupted, and is swept again once the sweeper is restarted.
+     */
+    synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Sweep the next page of users and advance the cursor.
+     *
+     * @param accessToken Supplies the access token of the PingOne worker.
+     * @param worker The worker {@link PingOneWorkerService}.
+     * @return The number of wallets deleted.
+     * @throws Exception If the page cannot be read, or the cursor cannot be saved.
+     */
+    int sweep(Supplier<String> accessToken, PingOneWorkerService.Worker worker) throws Exception {
+        String cursor = readCursor();
+        acquire();
+        JsonValue page = client.listUsersRequest(accessToken.get(), worker, cursor, PAGE_SIZE);
+
+        int deleted = 0;
+        for (JsonValue user : page.get(RESPONSE_EMBEDDED).get(RESPONSE_USERS)) {
+            deleted += sweepUser(accessToken, worker, user.get(RESPONSE_ID).asString());
+        }
+
+        String next = page.get(RESPONSE_LINKS).get(RESPONSE_NEXT).get(RESPONSE_HREF).asString();
+        if (next == null) {
+            logger.info("{} Sweep of all users completed", LOGGER_PREFIX);
+        }
+        writeCursor(next);
+        return deleted;
+    }
+
+    private int sweepUser(Supplier<String> accessToken, PingOneWorkerService.Worker worker, String userId)
+        throws Exception {
+        acquire();
+        JsonValue wallets = client.findWalletRequest(accessToken.get(), worker, userId)
+                                  .get(RESPONSE_EMBEDDED).get(RESPONSE_DIGITALWALLETS);
+
+        int deleted = 0;
+        Instant staleBefore = clock.instant().minus(maxAge);
+        for (JsonValue wallet : wallets) {
+            if (ACTIVE.equals(wallet.get(RESPONSE_STATUS).asString()) || !isStale(wallet, staleBefore)) {
+                continue;
+            }
+            acquire();
+            if (client.deleteWalletRequest(accessToken.get(), worker, userId, wallet.get(RESPONSE_ID).asString())) {
+                deleted++;
+            }
+        }
+        if (deleted > 0) {
+            logger.debug("{} Deleted {} stale wallets of user {}", LOGGER_PREFIX, deleted, userId);
+        }
+        return deleted;
+    }
+
+    private static boolean isStale(JsonValue wallet, Instant staleBefore) {
+        String lastUpdated = wallet.isDefined(RESPONSE_UPDATED_AT)
+                             ? wallet.get(RESPONSE_UPDATED_AT).asString()
+                             : wallet.get(RESPONSE_CREATED_AT).asString();
+        try {
+            return lastUpdated != null && Instant.parse(lastUpdated).isBefore(staleBefore);
+        } catch (DateTimeParseException e) {
+            return false;
+        }
+    }
+
+    private void acquire() throws InterruptedException {
+        share.acquire();
+        budget.acquire(PingOneCredentialsApiBudget.Priority.LOW);
+    }
+
+    private String readCursor() throws IOException {
+        if (!Files.exists(cursorFile)) {
+            return null;
+        }
+        String cursor = Files.readString(cursorFile, UTF_8).trim();
+        return cursor.isEmpty() ? null : cursor;
+    }
+
+    private void writeCursor(String cursor) throws IOException {
+        PingOneCredentialsCheckpoint.writeAtomically(cursorFile, (cursor == null ? "" : cursor).getBytes(UTF_8));
+    }
+}
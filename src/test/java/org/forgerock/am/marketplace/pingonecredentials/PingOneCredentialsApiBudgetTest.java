@@ -0,0 +1,50 @@
+/*
+ * Copyright 2024 ForgeRock AS. All Rights Reserved
+ *
+ * Use of this code requires a commercial software license with ForgeRock AS.
+ * or with one of its affiliates. All use shall be exclusively subject
+ * to such license between the licensee and ForgeRock AS.
+ */
+
+package org.forgerock.am.marketplace.pingonecredentials;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Properties;
+
+import org.junit.jupiter.api.Test;
+
+public class PingOneCredentialsApiBudgetTest {
+
+    @Test
+    public void testBackgroundRateDefaultsWhenNotSet() {
+        assertThat(PingOneCredentialsApiBudget.backgroundRate(new Properties()))
+            .isEqualTo(PingOneCredentialsApiBudget.DEFAULT_BACKGROUND_PERMITS_PER_SECOND);
+    }
+
+    @Test
+    public void testBackgroundRateReadFromProperty() {
+        // Given
+        Properties properties = new Properties();
+        properties.setProperty(PingOneCredentialsApiBudget.RATE_PROPERTY, "20");
+
+        // When
+        double rate = PingOneCredentialsApiBudget.backgroundRate(properties);
+
+        // Then
+        assertThat(rate).isEqualTo(20);
+    }
+
+    @Test
+    public void testBackgroundRateDefaultsWhenInvalid() {
+        // Given
+        Properties properties = new Properties();
+        properties.setProperty(PingOneCredentialsApiBudget.RATE_PROPERTY, "-5");
+
+        // When
+        double rate = PingOneCredentialsApiBudget.backgroundRate(properties);
+
+        // Then
+        assertThat(rate).isEqualTo(PingOneCredentialsApiBudget.DEFAULT_BACKGROUND_PERMITS_PER_SECOND);
+    }
+}
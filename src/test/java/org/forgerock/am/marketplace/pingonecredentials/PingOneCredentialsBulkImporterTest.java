@@ -0,0 +1,87 @@
+/*
+ * Copyright 2024 ForgeRock AS. All Rights Reserved
+ *
+ * Use of this code requires a commercial software license with ForgeRock AS.
+ * or with one of its affiliates. All use shall be exclusively subject
+ * to such license between the licensee and ForgeRock AS.
+ */
+
+package org.forgerock.am.marketplace.pingonecredentials;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class PingOneCredentialsBulkImporterTest {
+
+    private static final Map<String, String> ATTRIBUTES = Map.of("email", "mail", "name", "displayName");
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testReadsCsvRecords() throws Exception {
+        // Given
+        Path file = Files.writeString(directory.resolve("users.csv"),
+                                      "userId,mail,displayName\r\n"
+                                      + "user-1,one@example.com,\"One, \"\"First\"\"\"\r\n"
+                                      + "\r\n"
+                                      + "user-2,,\"Two\nLines\"\r\n");
+        PingOneCredentialsCheckpoint checkpoint = PingOneCredentialsCheckpoint.load(directory.resolve("checkpoint"));
+
+        // When
+        List<PingOneCredentialsBulkIssuer.Record> records = readAll(file, PingOneCredentialsBulkImporter.Format.CSV,
+                                                                    checkpoint);
+
+        // Then
+        assertThat(records).hasSize(2);
+        assertThat(records.get(0).position).isEqualTo(0);
+        assertThat(records.get(0).userId).isEqualTo("user-1");
+        assertThat(records.get(0).attributes.get("email").asString()).isEqualTo("one@example.com");
+        assertThat(records.get(0).attributes.get("name").asString()).isEqualTo("One, \"First\"");
+        assertThat(records.get(1).position).isEqualTo(1);
+        assertThat(records.get(1).attributes.isDefined("email")).isFalse();
+        assertThat(records.get(1).attributes.get("name").asString()).isEqualTo("Two\nLines");
+    }
+
+    @Test
+    public void testResumesNdjsonFromCheckpointOffset() throws Exception {
+        // Given
+        Path file = Files.writeString(directory.resolve("users.ndjson"),
+                                      "{\"userId\":\"user-1\",\"mail\":\"one@example.com\"}\n"
+                                      + "{\"userId\":\"user-2\",\"mail\":\"two@example.com\"}\n"
+                                      + "{\"userId\":\"user-3\",\"mail\":\"three@example.com\"}\n");
+        PingOneCredentialsCheckpoint checkpoint = PingOneCredentialsCheckpoint.load(directory.resolve("checkpoint"));
+        readAll(file, PingOneCredentialsBulkImporter.Format.NDJSON, checkpoint);
+        checkpoint.complete(0);
+        checkpoint.save();
+
+        // When
+        List<PingOneCredentialsBulkIssuer.Record> records = readAll(
+            file, PingOneCredentialsBulkImporter.Format.NDJSON,
+            PingOneCredentialsCheckpoint.load(directory.resolve("checkpoint")));
+
+        // Then
+        assertThat(records).extracting(record -> record.userId).containsExactly("user-2", "user-3");
+        assertThat(records).extracting(record -> record.position).containsExactly(1L, 2L);
+        assertThat(records.get(1).attributes.get("email").asString()).isEqualTo("three@example.com");
+    }
+
+    private List<PingOneCredentialsBulkIssuer.Record> readAll(Path file, PingOneCredentialsBulkImporter.Format format,
+                                                              PingOneCredentialsCheckpoint checkpoint)
+        throws Exception {
+        List<PingOneCredentialsBulkIssuer.Record> records = new ArrayList<>();
+        try (PingOneCredentialsBulkImporter importer = PingOneCredentialsBulkImporter.open(file, format, "userId",
+                                                                                           ATTRIBUTES, checkpoint)) {
+            importer.forEachRemaining(records::add);
+        }
+        return records;
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright 2024 ForgeRock AS. All Rights Reserved
+ *
+ * Use of this code requires a commercial software license with ForgeRock AS.
+ * or with one of its affiliates. All use shall be exclusively subject
+ * to such license between the licensee and ForgeRock AS.
+ */
+
+package org.forgerock.am.marketplace.pingonecredentials;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.json.JsonValue.array;
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import org.forgerock.http.protocol.Response;
+import org.forgerock.http.protocol.Status;
+import org.forgerock.json.JsonValue;
+import org.forgerock.openam.integration.pingone.api.PingOneWorkerService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class PingOneCredentialsBulkIssuerTest {
+
+    @Mock
+    PingOneCredentialsService client;
+
+    @Mock
+    PingOneWorkerService.Worker worker;
+
+    @TempDir
+    Path directory;
+
+    List<PingOneCredentialsBulkIssuer.Record> records;
+
+    PingOneCredentialsApiBudget budget = new PingOneCredentialsApiBudget(1000);
+
+    @BeforeEach
+    public void setup() throws Exception {
+        records = LongStream.range(0, 10)
+                            .mapToObj(i -> new PingOneCredentialsBulkIssuer.Record(
+                                i, "some-user-id-" + i, json(object(field("mail", "user" + i + "@example.com")))))
+                            .collect(Collectors.toList());
+
+        given(client.credentialIssueRequest(any(), any(), anyString(), eq("some-credential-type-id"), any()))
+            .willReturn(json(object(field("id", "some-credential-id"))));
+        given(client.listCredentials(any(), any(), anyString())).willAnswer(invocation -> credentials());
+    }
+
+    @Test
+    public void testIssuesAllRecords() throws Exception {
+        // Given
+        PingOneCredentialsCheckpoint checkpoint = PingOneCredentialsCheckpoint.load(directory.resolve("issue"));
+        PingOneCredentialsBulkIssuer issuer = new PingOneCredentialsBulkIssuer(client, 4, budget, checkpoint);
+        List<PingOneCredentialsBulkIssuer.Result> results = new ArrayList<>();
+
+        // When
+        PingOneCredentialsBulkRunner.Progress summary = issuer.issue(() -> "some-access-token", worker,
+                                                                    "some-credential-type-id",
+                                                                    records.iterator(), results::add,
+                                                                    progress -> { });
+
+        // Then
+        assertThat(summary.succeeded).isEqualTo(10);
+        assertThat(summary.failed).isZero();
+        assertThat(results).hasSize(10).allMatch(PingOneCredentialsBulkIssuer.Result::isSuccess);
+        assertThat(results.get(0).credentialId).isEqualTo("some-credential-id");
+        assertThat(PingOneCredentialsCheckpoint.load(directory.resolve("issue")).watermark()).isEqualTo(10);
+    }
+
+    @Test
+    public void testResumesFromCheckpoint() throws Exception {
+        // Given
+        PingOneCredentialsCheckpoint checkpoint = PingOneCredentialsCheckpoint.load(directory.resolve("issue"));
+        for (long i = 0; i < 6; i++) {
+            checkpoint.complete(i);
+        }
+        checkpoint.complete(8);
+        checkpoint.save();
+
+        PingOneCredentialsBulkIssuer issuer = new PingOneCredentialsBulkIssuer(
+            client, 2, budget, PingOneCredentialsCheckpoint.load(directory.resolve("issue")));
+        List<PingOneCredentialsBulkIssuer.Result> results = new ArrayList<>();
+
+        // When
+        PingOneCredentialsBulkRunner.Progress summary = issuer.issue(() -> "some-access-token", worker,
+                                                                    "some-credential-type-id",
+                                                                    records.iterator(), results::add,
+                                                                    progress -> { });
+
+        // Then
+        assertThat(summary.succeeded).isEqualTo(3);
+        assertThat(summary.skipped).isEqualTo(7);
+        assertThat(results).extracting(result -> result.record.userId)
+                           .containsExactlyInAnyOrder("some-user-id-6", "some-user-id-7", "some-user-id-9");
+        verify(client, times(3)).credentialIssueRequest(any(), any(), anyString(), any(), any());
+    }
+
+    @Test
+    public void testRetriesIssueThrottledByPingOne() throws Exception {
+        // Given
+        given(client.credentialIssueRequest(any(), any(), eq("some-user-id-0"), any(), any()))
+            .willThrow(new PingOneCredentialsServiceException("Too many requests",
+                                                              new Response(Status.valueOf(429))))
+            .willReturn(json(object(field("id", "some-credential-id"))));
+        PingOneCredentialsBulkIssuer issuer = new PingOneCredentialsBulkIssuer(
+            client, 1, budget, PingOneCredentialsCheckpoint.load(directory.resolve("issue")));
+
+        // When
+        PingOneCredentialsBulkRunner.Progress summary = issuer.issue(() -> "some-access-token", worker,
+                                                                    "some-credential-type-id",
+                                                                    records.subList(0, 1).iterator(),
+                                                                    result -> { }, progress -> { });
+
+        // Then
+        assertThat(summary.succeeded).isEqualTo(1);
+        verify(client, times(2)).credentialIssueRequest(any(), any(), eq("some-user-id-0"), any(), any());
+    }
+
+    @Test
+    public void testDoesNotRetryIssueRejectedByPingOne() throws Exception {
+        // Given
+        given(client.credentialIssueRequest(any(), any(), eq("some-user-id-0"), any(), any()))
+            .willThrow(new PingOneCredentialsServiceException("Bad request", new Response(Status.BAD_REQUEST)));
+        PingOneCredentialsBulkIssuer issuer = new PingOneCredentialsBulkIssuer(
+            client, 1, budget, PingOneCredentialsCheckpoint.load(directory.resolve("issue")));
+        List<PingOneCredentialsBulkIssuer.Result> results = new ArrayList<>();
+
+        // When
+        PingOneCredentialsBulkRunner.Progress summary = issuer.issue(() -> "some-access-token", worker,
+                                                                    "some-credential-type-id",
+                                                                    records.subList(0, 1).iterator(),
+                                                                    results::add, progress -> { });
+
+        // Then
+        assertThat(summary.failed).isEqualTo(1);
+        assertThat(results).singleElement().matches(result -> !result.isSuccess());
+        verify(client, times(1)).credentialIssueRequest(any(), any(), eq("some-user-id-0"), any(), any());
+    }
+
+    @Test
+    public void testDoesNotRetryIssueWithoutResponse() throws Exception {
+        // Given
+        Response timedOut = new Response(Status.GATEWAY_TIMEOUT);
+        timedOut.setCause(new SocketTimeoutException("Read timed out"));
+        given(client.credentialIssueRequest(any(), any(), eq("some-user-id-0"), any(), any()))
+            .willThrow(new PingOneCredentialsServiceException("Read timed out", timedOut));
+        PingOneCredentialsBulkIssuer issuer = new PingOneCredentialsBulkIssuer(
+            client, 1, budget, PingOneCredentialsCheckpoint.load(directory.resolve("issue")));
+
+        // When
+        PingOneCredentialsBulkRunner.Progress summary = issuer.issue(() -> "some-access-token", worker,
+                                                                    "some-credential-type-id",
+                                                                    records.subList(0, 1).iterator(),
+                                                                    result -> { }, progress -> { });
+
+        // Then
+        assertThat(summary.failed).isEqualTo(1);
+        verify(client, times(1)).credentialIssueRequest(any(), any(), eq("some-user-id-0"), any(), any());
+    }
+
+    @Test
+    public void testSavesReservationBeforeIssuingEachRecord() throws Exception {
+        // Given
+        Path checkpointFile = directory.resolve("issue");
+        PingOneCredentialsBulkIssuer issuer = new PingOneCredentialsBulkIssuer(
+            client, 1, budget, PingOneCredentialsCheckpoint.load(checkpointFile));
+        List<Boolean> reserved = new ArrayList<>();
+
+        // When
+        issuer.issue(() -> "some-access-token", worker, "some-credential-type-id", records.iterator(),
+                     result -> {
+                         try {
+                             reserved.add(PingOneCredentialsCheckpoint.load(checkpointFile)
+                                                                      .mayHaveCompleted(result.record.position));
+                         } catch (IOException e) {
+                             throw new UncheckedIOException(e);
+                         }
+                     },
+                     progress -> { });
+
+        // Then
+        assertThat(reserved).hasSize(10).containsOnly(true);
+        assertThat(PingOneCredentialsCheckpoint.load(checkpointFile).watermark()).isEqualTo(10);
+    }
+
+    @Test
+    public void testLooksUpRecordsWhichPreviousRunMayHaveIssued() throws Exception {
+        // Given
+        PingOneCredentialsCheckpoint checkpoint = PingOneCredentialsCheckpoint.load(directory.resolve("issue"));
+        checkpoint.dispatch(0);
+        for (long i = 0; i < 8; i++) {
+            checkpoint.complete(i);
+        }
+        checkpoint.save();
+        given(client.listCredentials(any(), any(), eq("some-user-id-8"))).willReturn(credentials(
+            object(field("id", "some-issued-credential-id"), field("status", "PENDING"),
+                   field("credentialType", object(field("id", "some-credential-type-id"))))));
+        given(client.listCredentials(any(), any(), eq("some-user-id-9"))).willReturn(credentials(
+            object(field("id", "some-revoked-credential-id"), field("status", "REVOKED"),
+                   field("credentialType", object(field("id", "some-credential-type-id"))))));
+        List<PingOneCredentialsBulkIssuer.Result> results = new ArrayList<>();
+
+        // When
+        PingOneCredentialsBulkRunner.Progress summary = new PingOneCredentialsBulkIssuer(
+            client, 1, budget, PingOneCredentialsCheckpoint.load(directory.resolve("issue")))
+            .issue(() -> "some-access-token", worker, "some-credential-type-id", records.iterator(), results::add,
+                   progress -> { });
+
+        // Then
+        assertThat(summary.succeeded).isEqualTo(2);
+        assertThat(results).extracting(result -> result.credentialId)
+                           .containsExactly("some-issued-credential-id", "some-credential-id");
+        verify(client, never()).credentialIssueRequest(any(), any(), eq("some-user-id-8"), any(), any());
+        verify(client, times(1)).credentialIssueRequest(any(), any(), eq("some-user-id-9"), any(), any());
+    }
+
+    @Test
+    public void testRetriesFailedRecordsOnNextRun() throws Exception {
+        // Given
+        given(client.credentialIssueRequest(any(), any(), eq("some-user-id-3"), any(), any()))
+            .willThrow(new PingOneCredentialsServiceException("Bad request", new Response(Status.BAD_REQUEST)))
+            .willReturn(json(object(field("id", "some-credential-id"))));
+        new PingOneCredentialsBulkIssuer(client, 2, budget,
+                                         PingOneCredentialsCheckpoint.load(directory.resolve("issue")))
+            .issue(() -> "some-access-token", worker, "some-credential-type-id", records.iterator(), result -> { },
+                   progress -> { });
+        List<PingOneCredentialsBulkIssuer.Result> results = new ArrayList<>();
+
+        // When
+        PingOneCredentialsBulkRunner.Progress summary = new PingOneCredentialsBulkIssuer(
+            client, 2, budget, PingOneCredentialsCheckpoint.load(directory.resolve("issue")))
+            .issue(() -> "some-access-token", worker, "some-credential-type-id", records.iterator(), results::add,
+                   progress -> { });
+
+        // Then
+        assertThat(summary.succeeded).isEqualTo(1);
+        assertThat(summary.skipped).isEqualTo(9);
+        assertThat(results).extracting(result -> result.record.userId).containsExactly("some-user-id-3");
+        assertThat(PingOneCredentialsCheckpoint.load(directory.resolve("issue")).watermark()).isEqualTo(10);
+    }
+
+    private PingOneCredentialsPageIterator credentials(Object... credentials) {
+        return new PingOneCredentialsPageIterator(pageUrl -> json(object(
+            field("_embedded", object(
+                field("credentials", array(credentials)))))), "credentials", new PingOneCredentialsAsyncService());
+    }
+}
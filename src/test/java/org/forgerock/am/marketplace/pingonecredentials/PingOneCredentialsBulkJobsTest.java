@@ -0,0 +1,177 @@
+/*
+ * Copyright 2024 ForgeRock AS. All Rights Reserved
+ *
+ * Use of this code requires a commercial software license with ForgeRock AS.
+ * or with one of its affiliates. All use shall be exclusively subject
+ * to such license between the licensee and ForgeRock AS.
+ */
+
+package org.forgerock.am.marketplace.pingonecredentials;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.RevokeResult;
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+
+import org.forgerock.json.JsonValue;
+import org.forgerock.openam.core.realms.Realm;
+import org.forgerock.openam.core.realms.RealmLookup;
+import org.forgerock.openam.integration.pingone.api.PingOneWorkerService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class PingOneCredentialsBulkJobsTest {
+
+    @Mock
+    PingOneCredentialsService client;
+
+    @Mock
+    PingOneWorkerService pingOneWorkerService;
+
+    @Mock
+    PingOneWorkerService.Worker worker;
+
+    @Mock
+    RealmLookup realmLookup;
+
+    @Mock
+    Realm realm;
+
+    @TempDir
+    Path directory;
+
+    PingOneCredentialsBulkJobs jobs;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        given(realmLookup.lookup("/alpha")).willReturn(realm);
+        given(pingOneWorkerService.getWorker(realm, "some-worker-id")).willReturn(Optional.of(worker));
+        given(pingOneWorkerService.getAccessTokenId(any(), any())).willReturn("some-access-token");
+        given(client.credentialIssueRequest(any(), any(), anyString(), eq("some-credential-type-id"), any()))
+            .willReturn(json(object(field("id", "some-credential-id"))));
+
+        Files.writeString(directory.resolve("users.csv"),
+                          "userId,mail\nsome-user-id-1,user1@example.com\nsome-user-id-2,user2@example.com\n");
+
+        jobs = new PingOneCredentialsBulkJobs(client, pingOneWorkerService, realmLookup);
+    }
+
+    @Test
+    public void testRunsIssueJobAndMarksItDone() throws Exception {
+        // Given
+        writeJob("issue-all", json(object(
+            field("operation", "issue"),
+            field("realm", "/alpha"),
+            field("worker", "some-worker-id"),
+            field("credentialTypeId", "some-credential-type-id"),
+            field("file", "users.csv"),
+            field("userIdColumn", "userId"),
+            field("attributes", object(field("mail", "mail"))))));
+
+        // When
+        int completed = jobs.runPending(directory);
+
+        // Then
+        assertThat(completed).isEqualTo(1);
+        assertThat(directory.resolve("issue-all.job.json")).doesNotExist();
+        assertThat(directory.resolve("issue-all.job.json.done")).exists();
+        verify(client).credentialIssueRequest(eq("some-access-token"), eq(worker), eq("some-user-id-1"),
+                                              eq("some-credential-type-id"),
+                                              any(JsonValue.class));
+        List<String> results = Files.readAllLines(directory.resolve("issue-all.results.ndjson"), UTF_8);
+        assertThat(results).hasSize(2).allMatch(result -> result.contains("some-credential-id"));
+        assertThat(Files.readString(directory.resolve("issue-all.progress.json"), UTF_8))
+            .contains("\"state\":\"COMPLETED\"").contains("\"succeeded\":2");
+    }
+
+    @Test
+    public void testRunsRevokeJob() throws Exception {
+        // Given
+        given(client.revokeCredentialRequest(any(), any(), anyString(), anyString())).willReturn(RevokeResult.REVOKED);
+        Files.writeString(directory.resolve("credentials.csv"),
+                          "userId,credentialId\nsome-user-id-1,some-credential-id-1\n");
+        writeJob("revoke-all", json(object(
+            field("operation", "revoke"),
+            field("realm", "/alpha"),
+            field("worker", "some-worker-id"),
+            field("file", "credentials.csv"),
+            field("userIdColumn", "userId"),
+            field("credentialIdColumn", "credentialId"))));
+
+        // When
+        int completed = jobs.runPending(directory);
+
+        // Then
+        assertThat(completed).isEqualTo(1);
+        assertThat(directory.resolve("revoke-all.job.json.done")).exists();
+        verify(client).revokeCredentialRequest("some-access-token", worker, "some-user-id-1", "some-credential-id-1");
+        assertThat(Files.readString(directory.resolve("revoke-all.results.ndjson"), UTF_8)).contains("REVOKED");
+    }
+
+    @Test
+    public void testDoesNotRunCompletedJobAgain() throws Exception {
+        // Given
+        writeJob("issue-all", json(object(
+            field("operation", "issue"),
+            field("realm", "/alpha"),
+            field("worker", "some-worker-id"),
+            field("credentialTypeId", "some-credential-type-id"),
+            field("file", "users.csv"),
+            field("userIdColumn", "userId"))));
+        jobs.runPending(directory);
+
+        // When
+        int completed = jobs.runPending(directory);
+
+        // Then
+        assertThat(completed).isZero();
+    }
+
+    @Test
+    public void testMarksJobOfUnknownWorkerFailed() throws Exception {
+        // Given
+        writeJob("issue-all", json(object(
+            field("operation", "issue"),
+            field("realm", "/alpha"),
+            field("worker", "some-other-worker-id"),
+            field("credentialTypeId", "some-credential-type-id"),
+            field("file", "users.csv"),
+            field("userIdColumn", "userId"))));
+
+        // When
+        int completed = jobs.runPending(directory);
+
+        // Then
+        assertThat(completed).isZero();
+        assertThat(directory.resolve("issue-all.job.json.failed")).exists();
+        verify(client, never()).credentialIssueRequest(any(), any(), any(), any(), any());
+    }
+
+    private void writeJob(String name, JsonValue job) throws Exception {
+        Files.writeString(directory.resolve(name + PingOneCredentialsBulkJobs.JOB_SUFFIX),
+                          new ObjectMapper().writeValueAsString(job.getObject()));
+    }
+}
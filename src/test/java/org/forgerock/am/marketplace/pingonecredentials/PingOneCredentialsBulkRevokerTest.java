@@ -0,0 +1,76 @@
+/*
+ * Copyright 2024 ForgeRock AS. All Rights Reserved
+ *
+ * Use of this code requires a commercial software license with ForgeRock AS.
+ * or with one of its affiliates. All use shall be exclusively subject
+ * to such license between the licensee and ForgeRock AS.
+ */
+
+package org.forgerock.am.marketplace.pingonecredentials;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.RevokeResult;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.forgerock.openam.integration.pingone.api.PingOneWorkerService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class PingOneCredentialsBulkRevokerTest {
+
+    @Mock
+    PingOneCredentialsService client;
+
+    @Mock
+    PingOneWorkerService.Worker worker;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testRevokesCredentialsAndTreatsNotFoundAsDone() throws Exception {
+        // Given
+        given(client.revokeCredentialRequest(any(), any(), anyString(), eq("some-credential-id-1")))
+            .willReturn(RevokeResult.REVOKED);
+        given(client.revokeCredentialRequest(any(), any(), anyString(), eq("some-credential-id-2")))
+            .willReturn(RevokeResult.NOT_FOUND);
+
+        List<PingOneCredentialsBulkRevoker.Record> records = List.of(
+            new PingOneCredentialsBulkRevoker.Record(0, "some-user-id", "some-credential-id-1"),
+            new PingOneCredentialsBulkRevoker.Record(1, "some-user-id", "some-credential-id-2"),
+            new PingOneCredentialsBulkRevoker.Record(2, "some-user-id", ""));
+
+        PingOneCredentialsBulkRevoker revoker = new PingOneCredentialsBulkRevoker(
+            client, 2, new PingOneCredentialsApiBudget(1000),
+            PingOneCredentialsCheckpoint.load(directory.resolve("revoke")));
+        List<PingOneCredentialsBulkRevoker.Result> results = new ArrayList<>();
+        List<PingOneCredentialsBulkRunner.Progress> progress = new ArrayList<>();
+
+        // When
+        PingOneCredentialsBulkRunner.Progress summary = revoker.revoke(() -> "some-access-token", worker,
+                                                                       records.iterator(), results::add,
+                                                                       progress::add);
+
+        // Then
+        assertThat(summary.succeeded).isEqualTo(2);
+        assertThat(summary.failed).isEqualTo(1);
+        assertThat(results).filteredOn(PingOneCredentialsBulkRevoker.Result::isSuccess)
+                           .extracting(result -> result.outcome)
+                           .containsExactlyInAnyOrder(RevokeResult.REVOKED, RevokeResult.NOT_FOUND);
+        assertThat(progress).last().isSameAs(summary);
+    }
+}
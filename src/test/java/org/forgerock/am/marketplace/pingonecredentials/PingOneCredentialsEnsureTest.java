@@ -0,0 +1,219 @@
+/*
+ * Copyright 2024 ForgeRock AS. All Rights Reserved
+ *
+ * Use of this code requires a commercial software license with ForgeRock AS.
+ * or with one of its affiliates. All use shall be exclusively subject
+ * to such license between the licensee and ForgeRock AS.
+ */
+
+package org.forgerock.am.marketplace.pingonecredentials;
+
+import static java.util.Collections.emptyList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.ERROR_OUTCOME_ID;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.ISSUED_OUTCOME_ID;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_CREDENTIAL_ID_KEY;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_USER_ID_KEY;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.UNCHANGED_OUTCOME_ID;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.UPDATED_OUTCOME_ID;
+import static org.forgerock.json.JsonValue.array;
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+import static org.forgerock.openam.auth.node.api.SharedStateConstants.REALM;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import javax.security.auth.callback.Callback;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.forgerock.json.JsonValue;
+import org.forgerock.openam.auth.node.api.Action;
+import org.forgerock.openam.auth.node.api.ExternalRequestContext;
+import org.forgerock.openam.auth.node.api.TreeContext;
+import org.forgerock.openam.core.realms.Realm;
+import org.forgerock.openam.integration.pingone.api.PingOneWorkerService;
+import org.forgerock.openam.test.extensions.LoggerExtension;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class PingOneCredentialsEnsureTest {
+
+    @RegisterExtension
+    public LoggerExtension loggerExtension = new LoggerExtension(PingOneCredentialsEnsure.class);
+
+    @Mock
+    PingOneCredentialsEnsure.Config config;
+
+    @Mock
+    PingOneWorkerService pingOneWorkerService;
+
+    @Mock
+    PingOneWorkerService.Worker worker;
+
+    @Mock
+    Realm realm;
+
+    @Mock
+    PingOneCredentialsService client;
+
+    PingOneCredentialsEnsure node;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        given(pingOneWorkerService.getWorker(any(), anyString())).willReturn(Optional.of(worker));
+        given(config.pingOneWorker()).willReturn(worker);
+        given(pingOneWorkerService.getAccessTokenId(any(), any())).willReturn("some-access-token");
+
+        given(config.pingOneUserIdAttribute()).willReturn(PINGONE_USER_ID_KEY);
+        given(config.credentialTypeId()).willReturn("some-credential-type-id");
+        given(config.attributes()).willReturn(Map.of("credentialsGivenName", "sharedStateGivenName",
+                                                     "credentialsFamilyName", "sharedStateFamilyName"));
+
+        node = new PingOneCredentialsEnsure(config, realm, pingOneWorkerService, client);
+    }
+
+    @Test
+    public void testPingOneUserIdNotFoundInSharedState() {
+        // Given
+        JsonValue sharedState = json(object(field(REALM, "/realm")));
+
+        // When
+        Action result = node.process(getContext(sharedState, json(object()), emptyList()));
+
+        // Then
+        assertThat(result.outcome).isEqualTo(ERROR_OUTCOME_ID);
+    }
+
+    @Test
+    public void testIssuesMissingCredential() throws Exception {
+        // Given
+        JsonValue sharedState = sharedState("some-user-id-issue");
+
+        given(client.listCredentials(any(), any(), anyString())).willReturn(credentials(
+            object(
+                field("id", "some-revoked-credential-id"),
+                field("status", "REVOKED"),
+                field("credentialType", object(field("id", "some-credential-type-id"))),
+                field("data", object(
+                    field("credentialsGivenName", "John"),
+                    field("credentialsFamilyName", "Doe"))))));
+        given(client.credentialIssueRequest(any(), any(), anyString(), anyString(), any()))
+            .willReturn(json(object(field("id", "some-credential-id"))));
+
+        TreeContext context = getContext(sharedState, json(object()), emptyList());
+
+        // When
+        Action result = node.process(context);
+
+        // Then
+        assertThat(result.outcome).isEqualTo(ISSUED_OUTCOME_ID);
+        assertThat(context.getStateFor(node).get(PINGONE_CREDENTIAL_ID_KEY).asString())
+            .isEqualTo("some-credential-id");
+        verify(client, never()).credentialUpdateRequest(any(), any(), anyString(), anyString(), anyString(), any());
+    }
+
+    @Test
+    public void testUpdatesChangedCredential() throws Exception {
+        // Given
+        JsonValue sharedState = sharedState("some-user-id-update");
+
+        given(client.listCredentials(any(), any(), anyString())).willReturn(credentials(
+            object(
+                field("id", "some-credential-id"),
+                field("status", "ACTIVE"),
+                field("credentialType", object(field("id", "some-credential-type-id"))),
+                field("data", object(
+                    field("credentialsGivenName", "Jane"),
+                    field("credentialsFamilyName", "Doe"))))));
+
+        // When
+        Action result = node.process(getContext(sharedState, json(object()), emptyList()));
+
+        // Then
+        assertThat(result.outcome).isEqualTo(UPDATED_OUTCOME_ID);
+        verify(client).credentialUpdateRequest(any(), any(), eq("some-user-id-update"), eq("some-credential-type-id"),
+                                               eq("some-credential-id"), any());
+        verify(client, never()).credentialIssueRequest(any(), any(), anyString(), anyString(), any());
+    }
+
+    @Test
+    public void testLeavesUnchangedCredential() throws Exception {
+        // Given
+        JsonValue sharedState = sharedState("some-user-id-unchanged");
+
+        given(client.listCredentials(any(), any(), anyString())).willReturn(credentials(
+            object(
+                field("id", "some-credential-id"),
+                field("status", "ACTIVE"),
+                field("credentialType", object(field("id", "some-credential-type-id"))),
+                field("data", object(
+                    field("credentialsFamilyName", "Doe"),
+                    field("credentialsGivenName", "John"),
+                    field("issuedBy", "some-issuer"))))));
+
+        // When
+        Action result = node.process(getContext(sharedState, json(object()), emptyList()));
+
+        // Then
+        assertThat(result.outcome).isEqualTo(UNCHANGED_OUTCOME_ID);
+        verify(client, never()).credentialIssueRequest(any(), any(), anyString(), anyString(), any());
+        verify(client, never()).credentialUpdateRequest(any(), any(), anyString(), anyString(), anyString(), any());
+    }
+
+    @Test
+    public void testSkipsReadWhileCredentialIsCached() throws Exception {
+        // Given
+        given(config.cacheDuration()).willReturn(Duration.ofMinutes(5));
+        given(client.listCredentials(any(), any(), anyString())).willReturn(credentials());
+        given(client.credentialIssueRequest(any(), any(), anyString(), anyString(), any()))
+            .willReturn(json(object(field("id", "some-credential-id"))));
+
+        node.process(getContext(sharedState("some-user-id-cached"), json(object()), emptyList()));
+
+        // When
+        Action result = node.process(getContext(sharedState("some-user-id-cached"), json(object()), emptyList()));
+
+        // Then
+        assertThat(result.outcome).isEqualTo(UNCHANGED_OUTCOME_ID);
+        verify(client, times(1)).listCredentials(any(), any(), anyString());
+        verify(client, times(1)).credentialIssueRequest(any(), any(), anyString(), anyString(), any());
+        verify(pingOneWorkerService, times(1)).getAccessTokenId(any(), any());
+    }
+
+    private JsonValue sharedState(String pingOneUserId) {
+        return json(object(
+            field(REALM, "/realm"),
+            field(PINGONE_USER_ID_KEY, pingOneUserId),
+            field("sharedStateGivenName", "John"),
+            field("sharedStateFamilyName", "Doe")));
+    }
+
+    private PingOneCredentialsPageIterator credentials(Object... credentials) {
+        return new PingOneCredentialsPageIterator(pageUrl -> json(object(
+            field("_embedded", object(
+                field("credentials", array(credentials)))))), "credentials", new PingOneCredentialsAsyncService());
+    }
+
+    private TreeContext getContext(JsonValue sharedState, JsonValue transientState,
+                                   List<? extends Callback> callbacks) {
+        return new TreeContext(sharedState, transientState, new ExternalRequestContext.Builder().build(), callbacks,
+                               Optional.empty());
+    }
+}
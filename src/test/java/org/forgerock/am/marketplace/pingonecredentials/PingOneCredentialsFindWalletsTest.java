@@ -13,6 +13,7 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.ERROR_OUTCOME_ID;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.NOT_FOUND_OUTCOME_ID;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.OBJECT_ATTRIBUTES;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_ACTIVE_WALLETS_DATA_KEY;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_APPLICATION_INSTANCE_ID_KEY;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_USER_ID_KEY;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_WALLET_ID_KEY;
@@ -22,8 +23,12 @@ import static org.forgerock.json.JsonValue.json;
 import static org.forgerock.json.JsonValue.object;
 import static org.forgerock.openam.auth.node.api.SharedStateConstants.REALM;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import javax.security.auth.callback.Callback;
@@ -34,6 +39,7 @@ import org.forgerock.json.JsonValue;
 import org.forgerock.openam.auth.node.api.Action;
 import org.forgerock.openam.auth.node.api.ExternalRequestContext;
 import org.forgerock.openam.auth.node.api.InputState;
+import org.forgerock.openam.auth.node.api.NodeState;
 import org.forgerock.openam.auth.node.api.OutcomeProvider;
 import org.forgerock.openam.auth.node.api.OutputState;
 import org.forgerock.openam.auth.node.api.TreeContext;
@@ -78,9 +84,11 @@ public class PingOneCredentialsFindWalletsTest {
     @BeforeEach
     public void setup() throws Exception {
         given(pingOneWorkerService.getWorker(any(), anyString())).willReturn(Optional.of(worker));
+        given(config.pingOneWorker()).willReturn(worker);
         given(pingOneWorkerService.getAccessTokenId(any(), any())).willReturn("some-access-token");
 
-        node = new PingOneCredentialsFindWallets(config, realm, pingOneWorkerService, client);
+        node = new PingOneCredentialsFindWallets(config, realm, pingOneWorkerService, client,
+                                                 new PingOneCredentialsAsyncService());
     }
 
     @Test
@@ -111,7 +119,7 @@ public class PingOneCredentialsFindWalletsTest {
 
         JsonValue response = json(object());
 
-        when(client.findWalletRequest(any(), any(), anyString())).thenReturn(response);
+        when(client.findWalletRequest(any(), any(), anyString(), anyBoolean())).thenReturn(response);
 
         // When
         Action result = node.process(getContext(sharedState, transientState, emptyList()));
@@ -131,7 +139,7 @@ public class PingOneCredentialsFindWalletsTest {
 
         JsonValue response = json(object());
 
-        when(client.findWalletRequest(any(), any(), anyString())).thenReturn(response);
+        when(client.findWalletRequest(any(), any(), anyString(), anyBoolean())).thenReturn(response);
 
         // When
         Action result = node.process(getContext(sharedState, json(object()), emptyList()));
@@ -162,7 +170,7 @@ public class PingOneCredentialsFindWalletsTest {
                             field("status", "INACTIVE"))
                                                  ))))));
 
-        when(client.findWalletRequest(any(), any(), anyString())).thenReturn(response);
+        when(client.findWalletRequest(any(), any(), anyString(), anyBoolean())).thenReturn(response);
 
         // When
         Action result = node.process(getContext(sharedState, json(object()), emptyList()));
@@ -171,6 +179,96 @@ public class PingOneCredentialsFindWalletsTest {
         assertThat(result.outcome).isEqualTo("success");
     }
 
+    @Test
+    public void testStoresProjectedActiveWallets() throws Exception {
+        // Given
+        JsonValue sharedState = json(object(
+            field(REALM, "/realm"),
+            field(PINGONE_USER_ID_KEY, "some-user-id")));
+
+        given(config.pingOneUserIdAttribute()).willReturn(PINGONE_USER_ID_KEY);
+        given(config.walletFields()).willReturn(List.of("/id", "/applicationInstance/id"));
+
+        JsonValue response = json(object(
+            field("_embedded", object(
+                field("digitalWallets", array(
+                    object(
+                        field("id", "some-wallet-id"),
+                        field("status", "ACTIVE"),
+                        field("createdAt", "2023-02-10T16:55:46.541Z"),
+                        field("applicationInstance", object(
+                            field("id", "some-application-instance-id"))),
+                        field("digitalWalletApplication", object(
+                            field("id", "some-digital-wallet-application-id"))))))))));
+
+        when(client.findWalletRequest(any(), any(), anyString(), anyBoolean())).thenReturn(response);
+
+        TreeContext context = getContext(sharedState, json(object()), emptyList());
+
+        // When
+        Action result = node.process(context);
+
+        // Then
+        assertThat(result.outcome).isEqualTo("success");
+
+        JsonValue storedWallet = context.getStateFor(node).get(PINGONE_ACTIVE_WALLETS_DATA_KEY).get(0);
+        assertThat(storedWallet.get("id").asString()).isEqualTo("some-wallet-id");
+        assertThat(storedWallet.get("applicationInstance").get("id").asString())
+            .isEqualTo("some-application-instance-id");
+        assertThat(storedWallet.isDefined("createdAt")).isFalse();
+        assertThat(storedWallet.isDefined("digitalWalletApplication")).isFalse();
+    }
+
+    @Test
+    public void testStoresCompressedActiveWallets() throws Exception {
+        // Given
+        JsonValue sharedState = json(object(
+            field(REALM, "/realm"),
+            field(PINGONE_USER_ID_KEY, "some-user-id")));
+
+        given(config.pingOneUserIdAttribute()).willReturn(PINGONE_USER_ID_KEY);
+        given(config.compressStoredWallets()).willReturn(true);
+
+        JsonValue wallets = json(array());
+        for (int i = 0; i < 20; i++) {
+            wallets.add(object(
+                field("id", "some-wallet-id-" + i),
+                field("status", "ACTIVE"),
+                field("createdAt", "2023-02-10T16:55:46.541Z"),
+                field("applicationInstance", object(
+                    field("id", "some-application-instance-id-" + i)))));
+        }
+        JsonValue response = json(object(
+            field("_embedded", object(
+                field("digitalWallets", wallets.getObject())))));
+
+        when(client.findWalletRequest(any(), any(), anyString(), anyBoolean())).thenReturn(response);
+
+        TreeContext context = getContext(sharedState, json(object()), emptyList());
+
+        // When
+        Action result = node.process(context);
+
+        // Then
+        assertThat(result.outcome).isEqualTo("successMulti");
+
+        NodeState nodeState = context.getStateFor(node);
+        // Nodes and scripts reading the usual key get the summary of each wallet
+        JsonValue summary = nodeState.get(PINGONE_ACTIVE_WALLETS_DATA_KEY);
+        assertThat(summary.size()).isEqualTo(20);
+        assertThat(summary.get(19).get("id").asString()).isEqualTo("some-wallet-id-19");
+        assertThat(summary.get(19).get("applicationInstance").get("id").asString())
+            .isEqualTo("some-application-instance-id-19");
+        assertThat(summary.get(19).isDefined("createdAt")).isFalse();
+        assertThat(PingOneCredentialsStateCodec.isEncoded(
+            nodeState.get(PingOneCredentialsStateCodec.compressedKey(PINGONE_ACTIVE_WALLETS_DATA_KEY)))).isTrue();
+
+        JsonValue storedWallets = PingOneCredentialsStateCodec.read(nodeState, PINGONE_ACTIVE_WALLETS_DATA_KEY);
+        assertThat(storedWallets.size()).isEqualTo(20);
+        assertThat(storedWallets.get(19).get("id").asString()).isEqualTo("some-wallet-id-19");
+        assertThat(nodeState.get(PINGONE_ACTIVE_WALLETS_DATA_KEY).get(19).isDefined("createdAt")).isTrue();
+    }
+
     @Test
     public void testReturnOutcomeFindWalletsMultipleNotFound() throws Exception {
         // Given
@@ -193,7 +291,7 @@ public class PingOneCredentialsFindWalletsTest {
                         field("status", "INACTIVE"))
                                              ))))));
 
-        when(client.findWalletRequest(any(), any(), anyString())).thenReturn(response);
+        when(client.findWalletRequest(any(), any(), anyString(), anyBoolean())).thenReturn(response);
 
         // When
         Action result = node.process(getContext(sharedState, json(object()), emptyList()));
@@ -224,7 +322,7 @@ public class PingOneCredentialsFindWalletsTest {
                         field("status", "ACTIVE"))
                                              ))))));
 
-        when(client.findWalletRequest(any(), any(), anyString())).thenReturn(response);
+        when(client.findWalletRequest(any(), any(), anyString(), anyBoolean())).thenReturn(response);
 
         // When
         Action result = node.process(getContext(sharedState, json(object()), emptyList()));
@@ -283,7 +381,7 @@ public class PingOneCredentialsFindWalletsTest {
                                            ));
         JsonValue transientState = json(object());
 
-        when(client.findWalletRequest(any(), any(), anyString())).thenReturn(null);
+        when(client.findWalletRequest(any(), any(), anyString(), anyBoolean())).thenReturn(null);
 
         // When
         Action result = node.process(getContext(sharedState, transientState, emptyList()));
@@ -330,4 +428,77 @@ public class PingOneCredentialsFindWalletsTest {
         return new TreeContext(sharedState, transientState, new ExternalRequestContext.Builder().build(), callbacks,
                                Optional.empty());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testReusesWalletsReadEarlierInJourney() throws Exception {
+        // Given
+        JsonValue sharedState = json(object(
+            field(REALM, "/realm"),
+            field(PINGONE_USER_ID_KEY, "some-user-id")));
+
+        given(config.pingOneUserIdAttribute()).willReturn(PINGONE_USER_ID_KEY);
+
+        JsonValue response = json(object(
+            field("_embedded", object(
+                field("digitalWallets", array(
+                    object(
+                        field("id", "some-wallet-id"),
+                        field("status", "ACTIVE"),
+                        field("applicationInstance", object(
+                            field("id", "some-application-instance-id"))))))))));
+
+        when(client.findWalletRequest(any(), any(), anyString(), anyBoolean())).thenReturn(response);
+
+        TreeContext context = getContext(sharedState, json(object()), emptyList());
+        node.process(context);
+
+        // When
+        Action result = node.process(context);
+
+        // Then
+        assertThat(result.outcome).isEqualTo("success");
+        verify(client, times(1)).findWalletRequest(any(), any(), anyString(), anyBoolean());
+        verify(pingOneWorkerService, times(1)).getAccessTokenId(any(), any());
+    }
+
+    @Test
+    public void testKeepsAccessTokenOutOfTransientState() throws Exception {
+        // Given
+        JsonValue sharedState = json(object(
+            field(REALM, "/realm"),
+            field(PINGONE_USER_ID_KEY, "some-user-id")));
+        JsonValue transientState = json(object());
+
+        given(config.pingOneUserIdAttribute()).willReturn(PINGONE_USER_ID_KEY);
+        when(client.findWalletRequest(any(), any(), anyString(), anyBoolean()))
+            .thenReturn(json(object(field("_embedded", object(field("digitalWallets", array()))))));
+
+        // When
+        node.process(getContext(sharedState, transientState, emptyList()));
+
+        // Then
+        assertThat(transientState.toString()).doesNotContain("some-access-token");
+    }
+
+    @Test
+    public void testDoesNotShareAccessTokenBetweenWorkersOfEnvironment() throws Exception {
+        // Given
+        PingOneWorkerService.Worker otherWorker = mock(PingOneWorkerService.Worker.class);
+        given(worker.environmentId()).willReturn("some-environment-id");
+        given(worker.id()).willReturn("some-worker-id");
+        given(otherWorker.environmentId()).willReturn("some-environment-id");
+        given(otherWorker.id()).willReturn("some-other-worker-id");
+        given(pingOneWorkerService.getAccessTokenId(realm, otherWorker)).willReturn("some-other-access-token");
+
+        TreeContext context = getContext(json(object()), json(object()), emptyList());
+        PingOneCredentialsJourneyMemo.accessToken(context, worker,
+                                                  () -> pingOneWorkerService.getAccessTokenId(realm, worker));
+
+        // When
+        String accessToken = PingOneCredentialsJourneyMemo.accessToken(
+            context, otherWorker, () -> pingOneWorkerService.getAccessTokenId(realm, otherWorker));
+
+        // Then
+        assertThat(accessToken).isEqualTo("some-other-access-token");
+    }
+}
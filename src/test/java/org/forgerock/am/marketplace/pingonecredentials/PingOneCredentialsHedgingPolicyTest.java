@@ -0,0 +1,80 @@
+/*
+ * Copyright 2024 ForgeRock AS. All Rights Reserved
+ *
+ * Use of this code requires a commercial software license with ForgeRock AS.
+ * or with one of its affiliates. All use shall be exclusively subject
+ * to such license between the licensee and ForgeRock AS.
+ */
+
+package org.forgerock.am.marketplace.pingonecredentials;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+public class PingOneCredentialsHedgingPolicyTest {
+
+    private final PingOneCredentialsHedgingPolicy policy = new PingOneCredentialsHedgingPolicy();
+
+    @Test
+    public void testDoesNotHedgeBeforeEnoughLatenciesAreRecorded() {
+        for (int i = 0; i < PingOneCredentialsHedgingPolicy.MIN_SAMPLES - 1; i++) {
+            policy.record("some-operation", 10);
+        }
+        assertThat(policy.hedgeDelay("some-operation")).isEmpty();
+
+        policy.record("some-operation", 10);
+        assertThat(policy.hedgeDelay("some-operation")).hasValue(10);
+        assertThat(policy.hedgeDelay("other-operation")).isEmpty();
+    }
+
+    @Test
+    public void testHedgesAfterTheP95Latency() {
+        for (int latency = 1; latency <= 100; latency++) {
+            policy.record("some-operation", latency);
+        }
+
+        assertThat(policy.hedgeDelay("some-operation")).hasValue(95);
+    }
+
+    @Test
+    public void testOnlyTracksTheMostRecentLatencies() {
+        for (int i = 0; i < PingOneCredentialsHedgingPolicy.SAMPLE_SIZE; i++) {
+            policy.record("some-operation", 1000);
+        }
+        for (int i = 0; i < PingOneCredentialsHedgingPolicy.SAMPLE_SIZE; i++) {
+            policy.record("some-operation", 10);
+        }
+
+        assertThat(policy.hedgeDelay("some-operation")).hasValue(10);
+    }
+
+    @Test
+    public void testLimitsHedgesToFivePercentOfReads() {
+        assertThat(policy.tryAcquireHedge()).isFalse();
+
+        int hedges = 0;
+        for (int i = 0; i < 1000; i++) {
+            policy.record("some-operation", 10);
+            if (policy.tryAcquireHedge()) {
+                hedges++;
+            }
+        }
+
+        assertThat(hedges).isEqualTo(50);
+    }
+
+    @Test
+    public void testCapsTheHedgeBurst() {
+        for (int i = 0; i < 1000; i++) {
+            policy.record("some-operation", 10);
+        }
+
+        int hedges = 0;
+        while (policy.tryAcquireHedge()) {
+            hedges++;
+        }
+
+        assertThat(hedges).isEqualTo((int) PingOneCredentialsHedgingPolicy.MAX_BUDGET);
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2024 ForgeRock AS. All Rights Reserved
+ *
+ * Use of this code requires a commercial software license with ForgeRock AS.
+ * or with one of its affiliates. All use shall be exclusively subject
+ * to such license between the licensee and ForgeRock AS.
+ */
+
+package org.forgerock.am.marketplace.pingonecredentials;
+
+import static java.util.Collections.emptyList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.ERROR_OUTCOME_ID;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.OBJECT_ATTRIBUTES;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_CREDENTIAL_IDS_KEY;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_USER_ID_KEY;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.SUCCESS_OUTCOME_ID;
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+import static org.forgerock.openam.auth.node.api.SharedStateConstants.REALM;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import javax.security.auth.callback.Callback;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.json.JsonValue;
+import org.forgerock.openam.auth.node.api.Action;
+import org.forgerock.openam.auth.node.api.ExternalRequestContext;
+import org.forgerock.openam.auth.node.api.InputState;
+import org.forgerock.openam.auth.node.api.OutcomeProvider;
+import org.forgerock.openam.auth.node.api.OutputState;
+import org.forgerock.openam.auth.node.api.TreeContext;
+import org.forgerock.openam.core.realms.Realm;
+import org.forgerock.openam.integration.pingone.api.PingOneWorkerService;
+import org.forgerock.openam.test.extensions.LoggerExtension;
+import org.forgerock.util.i18n.PreferredLocales;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class PingOneCredentialsIssueMultipleTest {
+
+    @RegisterExtension
+    public LoggerExtension loggerExtension = new LoggerExtension(PingOneCredentialsIssueMultiple.class);
+
+    @Mock
+    PingOneCredentialsIssueMultiple.Config config;
+
+    @Mock
+    PingOneWorkerService pingOneWorkerService;
+
+    @Mock
+    PingOneWorkerService.Worker worker;
+
+    @Mock
+    Realm realm;
+
+    @Mock
+    PingOneCredentialsService client;
+
+    PingOneCredentialsIssueMultiple node;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        given(config.pingOneWorker()).willReturn(worker);
+        given(pingOneWorkerService.getAccessTokenId(any(), any())).willReturn("some-access-token");
+
+        Map<String, String> attributes = new LinkedHashMap<>();
+        attributes.put("badge-type-id:givenName", "sharedStateGivenName");
+        attributes.put("access-type-id:building", "sharedStateBuilding");
+
+        given(config.pingOneUserIdAttribute()).willReturn(PINGONE_USER_ID_KEY);
+        given(config.credentialTypeIds()).willReturn(List.of("badge-type-id", "access-type-id"));
+        given(config.attributes()).willReturn(attributes);
+        given(config.issueTimeout()).willReturn(Duration.ofSeconds(10));
+
+        node = new PingOneCredentialsIssueMultiple(config, realm, pingOneWorkerService, client,
+                                                   new PingOneCredentialsAsyncService());
+    }
+
+    @Test
+    public void testPingOneUserIdNotFoundInSharedState() throws Exception {
+        // Given
+        JsonValue sharedState = json(field(REALM, "/realm"));
+
+        // When
+        Action result = node.process(getContext(sharedState, json(object()), emptyList()));
+
+        // Then
+        assertThat(result.outcome).isEqualTo(ERROR_OUTCOME_ID);
+    }
+
+    @Test
+    public void testIssuesCredentialsConcurrently() throws Exception {
+        // Given
+        // Each request only completes once both are in flight
+        CountDownLatch inFlight = new CountDownLatch(2);
+        when(client.credentialIssueRequest(any(), any(), anyString(), anyString(), any())).thenAnswer(invocation -> {
+            inFlight.countDown();
+            if (!inFlight.await(5, TimeUnit.SECONDS)) {
+                throw new PingOneCredentialsServiceException("Requests were not concurrent");
+            }
+            return json(object(field("id", invocation.getArgument(3, String.class) + "-credential-id")));
+        });
+
+        // When
+        TreeContext context = getContext(issueState(), json(object()), emptyList());
+        Action result = node.process(context);
+
+        // Then
+        assertThat(result.outcome).isEqualTo(SUCCESS_OUTCOME_ID);
+        JsonValue credentialIds = context.getStateFor(node).get(PINGONE_CREDENTIAL_IDS_KEY);
+        assertThat(credentialIds.get("badge-type-id").asString()).isEqualTo("badge-type-id-credential-id");
+        assertThat(credentialIds.get("access-type-id").asString()).isEqualTo("access-type-id-credential-id");
+        verify(client).credentialIssueRequest(any(), any(), eq("some-user-id"), eq("badge-type-id"), argThat(
+            attributes -> attributes.size() == 1 && "John".equals(attributes.get("givenName").asString())));
+        verify(client).credentialIssueRequest(any(), any(), eq("some-user-id"), eq("access-type-id"), argThat(
+            attributes -> attributes.size() == 1 && "HQ".equals(attributes.get("building").asString())));
+    }
+
+    @Test
+    public void testKeepsIssuedCredentialsWhenOneFails() throws Exception {
+        // Given
+        when(client.credentialIssueRequest(any(), any(), anyString(), eq("badge-type-id"), any()))
+            .thenReturn(json(object(field("id", "badge-credential-id"))));
+        when(client.credentialIssueRequest(any(), any(), anyString(), eq("access-type-id"), any()))
+            .thenThrow(new PingOneCredentialsServiceException("PingOne unavailable"));
+
+        // When
+        TreeContext context = getContext(issueState(), json(object()), emptyList());
+        Action result = node.process(context);
+
+        // Then
+        assertThat(result.outcome).isEqualTo(ERROR_OUTCOME_ID);
+        JsonValue credentialIds = context.getStateFor(node).get(PINGONE_CREDENTIAL_IDS_KEY);
+        assertThat(credentialIds.get("badge-type-id").asString()).isEqualTo("badge-credential-id");
+        assertThat(credentialIds.isDefined("access-type-id")).isFalse();
+    }
+
+    @Test
+    public void testIssuesDuplicateCredentialTypeOnce() throws Exception {
+        // Given
+        given(config.credentialTypeIds()).willReturn(List.of("badge-type-id", "badge-type-id", "access-type-id"));
+        when(client.credentialIssueRequest(any(), any(), anyString(), anyString(), any())).thenAnswer(
+            invocation -> json(object(field("id", invocation.getArgument(3, String.class) + "-credential-id"))));
+
+        // When
+        TreeContext context = getContext(issueState(), json(object()), emptyList());
+        Action result = node.process(context);
+
+        // Then
+        assertThat(result.outcome).isEqualTo(SUCCESS_OUTCOME_ID);
+        verify(client, times(1)).credentialIssueRequest(any(), any(), anyString(), eq("badge-type-id"), any());
+        JsonValue credentialIds = context.getStateFor(node).get(PINGONE_CREDENTIAL_IDS_KEY);
+        assertThat(credentialIds.get("badge-type-id").asString()).isEqualTo("badge-type-id-credential-id");
+        assertThat(credentialIds.get("access-type-id").asString()).isEqualTo("access-type-id-credential-id");
+    }
+
+    @Test
+    public void testRevokesCredentialIssuedAfterTimeout() throws Exception {
+        // Given
+        given(config.issueTimeout()).willReturn(Duration.ofMillis(200));
+        when(client.credentialIssueRequest(any(), any(), anyString(), eq("badge-type-id"), any()))
+            .thenReturn(json(object(field("id", "badge-credential-id"))));
+        when(client.credentialIssueRequest(any(), any(), anyString(), eq("access-type-id"), any()))
+            .thenAnswer(invocation -> {
+                Thread.sleep(500);
+                return json(object(field("id", "access-credential-id")));
+            });
+
+        // When
+        TreeContext context = getContext(issueState(), json(object()), emptyList());
+        Action result = node.process(context);
+
+        // Then
+        assertThat(result.outcome).isEqualTo(ERROR_OUTCOME_ID);
+        assertThat(context.getStateFor(node).get(PINGONE_CREDENTIAL_IDS_KEY).isDefined("access-type-id")).isFalse();
+        verify(client, timeout(5000)).revokeCredentialRequest("some-access-token", worker, "some-user-id",
+                                                              "access-credential-id");
+        verify(client, never()).revokeCredentialRequest(any(), any(), anyString(), eq("badge-credential-id"));
+    }
+
+    @Test
+    public void testGetInputs() {
+        InputState[] inputs = node.getInputs();
+
+        assertThat(inputs[0].name).isEqualTo(PINGONE_USER_ID_KEY);
+        assertThat(inputs[1].name).isEqualTo(OBJECT_ATTRIBUTES);
+        assertThat(inputs[2].name).isEqualTo("sharedStateGivenName");
+        assertThat(inputs[3].name).isEqualTo("sharedStateBuilding");
+    }
+
+    @Test
+    public void testGetOutputs() {
+        OutputState[] outputs = node.getOutputs();
+        assertThat(outputs[0].name).isEqualTo(PINGONE_CREDENTIAL_IDS_KEY);
+    }
+
+    @Test
+    public void testGetOutcomes() {
+        PingOneCredentialsIssueMultiple.IssueMultipleOutcomeProvider outcomeProvider =
+            new PingOneCredentialsIssueMultiple.IssueMultipleOutcomeProvider();
+
+        PreferredLocales locales = new PreferredLocales();
+        List<OutcomeProvider.Outcome> outcomes = outcomeProvider.getOutcomes(locales);
+
+        assertThat(outcomes.get(0).id).isEqualTo("success");
+        assertThat(outcomes.get(0).displayName).isEqualTo("Success");
+
+        assertThat(outcomes.get(1).id).isEqualTo("error");
+        assertThat(outcomes.get(1).displayName).isEqualTo("Error");
+    }
+
+    private JsonValue issueState() {
+        return json(object(
+            field(REALM, "/realm"),
+            field(PINGONE_USER_ID_KEY, "some-user-id"),
+            field("sharedStateGivenName", "John"),
+            field("sharedStateBuilding", "HQ")));
+    }
+
+    private TreeContext getContext(JsonValue sharedState, JsonValue transientState,
+                                   List<? extends Callback> callbacks) {
+        return new TreeContext(sharedState, transientState, new ExternalRequestContext.Builder().build(), callbacks,
+                               Optional.empty());
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2024 ForgeRock AS. All Rights Reserved
+ *
+ * Use of this code requires a commercial software license with ForgeRock AS.
+ * or with one of its affiliates. All use shall be exclusively subject
+ * to such license between the licensee and ForgeRock AS.
+ */
+
+package org.forgerock.am.marketplace.pingonecredentials;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.json.JsonValue.array;
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.net.SocketTimeoutException;
+import java.nio.file.Path;
+import java.util.Optional;
+
+import org.forgerock.http.protocol.Response;
+import org.forgerock.http.protocol.Status;
+import org.forgerock.openam.core.realms.Realm;
+import org.forgerock.openam.integration.pingone.api.PingOneWorkerService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class PingOneCredentialsIssueOutboxTest {
+
+    @Mock
+    PingOneCredentialsService client;
+
+    @Mock
+    PingOneWorkerService.Worker worker;
+
+    @Mock
+    Realm realm;
+
+    @TempDir
+    Path outboxDirectory;
+
+    PingOneCredentialsIssueOutbox issueOutbox;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        given(worker.environmentId()).willReturn("some-environment-id");
+        given(worker.id()).willReturn("some-worker-id");
+        given(realm.asPath()).willReturn("/alpha");
+        given(client.credentialIssueRequest(any(), any(), anyString(), anyString(), any()))
+            .willThrow(timedOut())
+            .willReturn(json(object(field("id", "some-new-credential-id"))));
+        issueOutbox = new PingOneCredentialsIssueOutbox(client);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        issueOutbox.stop();
+    }
+
+    @Test
+    public void testDoesNotIssueAgainCredentialIssuedBeforeTimeout() throws Exception {
+        // Given
+        given(client.listCredentials(any(), any(), anyString())).willAnswer(invocation -> credentials(
+            object(field("id", "some-revoked-credential-id"), field("status", "REVOKED"),
+                   field("credentialType", object(field("id", "some-credential-type-id")))),
+            object(field("id", "some-issued-credential-id"), field("status", "ACTIVE"),
+                   field("credentialType", object(field("id", "some-credential-type-id"))))));
+
+        // When
+        enqueue();
+
+        // Then
+        verify(client, timeout(5000)).listCredentials(any(), any(), eq("some-user-id"));
+        verify(client, after(500).times(1)).credentialIssueRequest(any(), any(), anyString(), anyString(), any());
+        assertThat(takeDelivered()).contains("some-issued-credential-id");
+    }
+
+    @Test
+    public void testIssuesAgainAfterTimeoutWhenNotIssued() throws Exception {
+        // Given
+        given(client.listCredentials(any(), any(), anyString())).willAnswer(invocation -> credentials());
+
+        // When
+        enqueue();
+
+        // Then
+        verify(client, timeout(5000).times(2)).credentialIssueRequest(any(), any(), eq("some-user-id"),
+                                                                      eq("some-credential-type-id"), any());
+        verify(client, after(500).times(1)).listCredentials(any(), any(), eq("some-user-id"));
+        assertThat(takeDelivered()).contains("some-new-credential-id");
+    }
+
+    private void enqueue() throws Exception {
+        assertThat(issueOutbox.enqueue(outboxDirectory, realm, worker, () -> "some-access-token", "some-user-id",
+                                       "some-credential-type-id", json(object()))).isTrue();
+    }
+
+    private Optional<String> takeDelivered() throws Exception {
+        return issueOutbox.takeDelivered(outboxDirectory, worker, () -> "some-access-token", "some-user-id",
+                                         "some-credential-type-id");
+    }
+
+    private PingOneCredentialsPageIterator credentials(Object... credentials) {
+        return new PingOneCredentialsPageIterator(pageUrl -> json(object(
+            field("_embedded", object(
+                field("credentials", array(credentials)))))), "credentials", new PingOneCredentialsAsyncService());
+    }
+
+    private static PingOneCredentialsServiceException timedOut() {
+        Response timedOut = new Response(Status.GATEWAY_TIMEOUT);
+        timedOut.setCause(new SocketTimeoutException("Read timed out"));
+        return new PingOneCredentialsServiceException("Read timed out", timedOut);
+    }
+}
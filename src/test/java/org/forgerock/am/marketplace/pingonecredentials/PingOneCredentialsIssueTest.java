@@ -23,14 +23,20 @@ import static org.forgerock.openam.auth.node.api.SharedStateConstants.REALM;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import javax.security.auth.callback.Callback;
+import java.nio.file.Path;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 
+import org.forgerock.http.protocol.Response;
+import org.forgerock.http.protocol.Status;
 import org.forgerock.json.JsonValue;
 import org.forgerock.openam.auth.node.api.Action;
 import org.forgerock.openam.auth.node.api.ExternalRequestContext;
@@ -47,6 +53,7 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.mockito.junit.jupiter.MockitoSettings;
@@ -74,14 +81,21 @@ public class PingOneCredentialsIssueTest {
     @Mock
     PingOneCredentialsService client;
 
+    PingOneCredentialsIssueOutbox issueOutbox;
+
     PingOneCredentialsIssue node;
 
+    @TempDir
+    Path outboxDirectory;
+
     @BeforeEach
     public void setup() throws Exception {
         given(pingOneWorkerService.getWorker(any(), anyString())).willReturn(Optional.of(worker));
+        given(config.pingOneWorker()).willReturn(worker);
         given(pingOneWorkerService.getAccessTokenId(any(), any())).willReturn("some-access-token");
 
-        node = new PingOneCredentialsIssue(config, realm, pingOneWorkerService, client);
+        issueOutbox = new PingOneCredentialsIssueOutbox(client);
+        node = new PingOneCredentialsIssue(config, realm, pingOneWorkerService, client, issueOutbox);
     }
 
     @Test
@@ -125,6 +139,111 @@ public class PingOneCredentialsIssueTest {
         assertThat(result.outcome).isEqualTo(SUCCESS_OUTCOME_ID);
     }
 
+    @Test
+    public void testIssuesInBackgroundAndWritesBackCredentialId() throws Exception {
+        // Given
+        given(config.pingOneUserIdAttribute()).willReturn(PINGONE_USER_ID_KEY);
+        given(config.credentialTypeId()).willReturn("some-credential-type-id");
+        given(config.attributes()).willReturn(Map.of("credentialsGivenName", "sharedStateGivenName"));
+        given(config.asyncIssue()).willReturn(true);
+        given(config.outboxDirectory()).willReturn(outboxDirectory.toString());
+        given(config.credentialIdAttribute()).willReturn("pingOneCredentialIds");
+
+        when(client.credentialIssueRequest(any(), any(), anyString(), any(), any()))
+            .thenReturn(json(object(field("id", "some-credential-id"))));
+
+        // When
+        Action result = node.process(getContext(asyncIssueState(), json(object()), emptyList()));
+
+        // Then
+        assertThat(result.outcome).isEqualTo(SUCCESS_OUTCOME_ID);
+        verify(client, timeout(5000)).credentialIssueRequest(any(), any(), anyString(), any(), any());
+        // Wait for the background drain to record the issued credential
+        issueOutbox.drain();
+
+        // And the credential ID is written back on the next journey
+        TreeContext next = getContext(asyncIssueState(), json(object()), emptyList());
+        node.process(next);
+        assertThat(next.getStateFor(node).get(PINGONE_CREDENTIAL_ID_KEY).asString()).isEqualTo("some-credential-id");
+        assertThat(next.getStateFor(node).get(OBJECT_ATTRIBUTES).get("pingOneCredentialIds").asString())
+            .isEqualTo("some-credential-id");
+        // Without issuing another credential
+        issueOutbox.drain();
+        verify(client, times(1)).credentialIssueRequest(any(), any(), anyString(), any(), any());
+    }
+
+    @Test
+    public void testDoesNotQueueIssueAlreadyWaiting() throws Exception {
+        // Given
+        given(config.pingOneUserIdAttribute()).willReturn(PINGONE_USER_ID_KEY);
+        given(config.credentialTypeId()).willReturn("some-credential-type-id");
+        given(config.asyncIssue()).willReturn(true);
+        given(config.outboxDirectory()).willReturn(outboxDirectory.toString());
+
+        when(client.credentialIssueRequest(any(), any(), anyString(), any(), any()))
+            .thenThrow(new PingOneCredentialsServiceException("Service unavailable",
+                                                              new Response(Status.SERVICE_UNAVAILABLE)));
+        node.process(getContext(asyncIssueState(), json(object()), emptyList()));
+
+        // When
+        Action result = node.process(getContext(asyncIssueState(), json(object()), emptyList()));
+
+        // Then
+        assertThat(result.outcome).isEqualTo(SUCCESS_OUTCOME_ID);
+        assertThat(issueOutbox.outbox(outboxDirectory).size()).isEqualTo(1);
+    }
+
+    @Test
+    public void testDropsIssueRejectedByPingOne() throws Exception {
+        // Given
+        given(config.pingOneUserIdAttribute()).willReturn(PINGONE_USER_ID_KEY);
+        given(config.credentialTypeId()).willReturn("some-credential-type-id");
+        given(config.asyncIssue()).willReturn(true);
+        given(config.outboxDirectory()).willReturn(outboxDirectory.toString());
+
+        when(client.credentialIssueRequest(any(), any(), anyString(), any(), any()))
+            .thenThrow(new PingOneCredentialsServiceException("Bad request", new Response(Status.BAD_REQUEST)));
+
+        // When
+        node.process(getContext(asyncIssueState(), json(object()), emptyList()));
+
+        // Then
+        verify(client, timeout(5000)).credentialIssueRequest(any(), any(), anyString(), any(), any());
+        issueOutbox.drain();
+        assertThat(issueOutbox.outbox(outboxDirectory).size()).isZero();
+        verify(client, times(1)).credentialIssueRequest(any(), any(), anyString(), any(), any());
+    }
+
+    @Test
+    public void testIssuesImmediatelyWithoutOutboxDirectory() throws Exception {
+        // Given
+        given(config.pingOneUserIdAttribute()).willReturn(PINGONE_USER_ID_KEY);
+        given(config.credentialTypeId()).willReturn("some-credential-type-id");
+        given(config.attributes()).willReturn(Map.of("credentialsGivenName", "sharedStateGivenName"));
+        given(config.asyncIssue()).willReturn(true);
+        given(config.outboxDirectory()).willReturn("");
+
+        when(client.credentialIssueRequest(any(), any(), anyString(), any(), any()))
+            .thenReturn(json(object(field("id", "some-credential-id"))));
+
+        TreeContext context = getContext(asyncIssueState(), json(object()), emptyList());
+
+        // When
+        Action result = node.process(context);
+
+        // Then
+        assertThat(result.outcome).isEqualTo(SUCCESS_OUTCOME_ID);
+        assertThat(context.getStateFor(node).get(PINGONE_CREDENTIAL_ID_KEY).asString())
+            .isEqualTo("some-credential-id");
+    }
+
+    private JsonValue asyncIssueState() {
+        return json(object(
+            field(REALM, "/realm"),
+            field(PINGONE_USER_ID_KEY, "some-user-id"),
+            field("sharedStateGivenName", "John")));
+    }
+
     @Test
     public void testExceptionThrowDuringProcessing() throws Exception {
         // Given
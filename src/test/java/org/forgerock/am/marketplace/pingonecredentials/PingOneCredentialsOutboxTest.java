@@ -0,0 +1,66 @@
+/*
+ * Copyright 2024 ForgeRock AS. All Rights Reserved
+ *
+ * Use of this code requires a commercial software license with ForgeRock AS.
+ * or with one of its affiliates. All use shall be exclusively subject
+ * to such license between the licensee and ForgeRock AS.
+ */
+
+package org.forgerock.am.marketplace.pingonecredentials;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+
+import java.nio.file.Path;
+import java.util.Map;
+
+import org.forgerock.json.JsonValue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class PingOneCredentialsOutboxTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testPendingRequestsSurviveReopening() throws Exception {
+        // Given
+        Path file = directory.resolve("outbox");
+        PingOneCredentialsOutbox outbox = PingOneCredentialsOutbox.open(file, 64 * 1024);
+        String delivered = outbox.append(json(object(field("userId", "some-delivered-user-id"))));
+        outbox.append(json(object(field("userId", "some-pending-user-id"))));
+        outbox.acknowledge(delivered);
+        outbox.close();
+
+        // When
+        PingOneCredentialsOutbox reopened = PingOneCredentialsOutbox.open(file, 64 * 1024);
+
+        // Then
+        Map<String, JsonValue> pending = reopened.pending();
+        assertThat(pending).hasSize(1);
+        assertThat(pending.values().iterator().next().get("userId").asString()).isEqualTo("some-pending-user-id");
+        reopened.close();
+    }
+
+    @Test
+    public void testCompactsWhenFull() throws Exception {
+        // Given
+        Path file = directory.resolve("outbox");
+        PingOneCredentialsOutbox outbox = PingOneCredentialsOutbox.open(file, 1024);
+
+        // When
+        for (int i = 0; i < 100; i++) {
+            outbox.acknowledge(outbox.append(json(object(field("userId", "some-user-id-" + i)))));
+        }
+        outbox.append(json(object(field("userId", "some-pending-user-id"))));
+        outbox.close();
+
+        // Then
+        PingOneCredentialsOutbox reopened = PingOneCredentialsOutbox.open(file, 1024);
+        assertThat(reopened.size()).isEqualTo(1);
+        reopened.close();
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2024 ForgeRock AS. All Rights Reserved
+ *
+ * Use of this code requires a commercial software license with ForgeRock AS.
+ * or with one of its affiliates. All use shall be exclusively subject
+ * to such license between the licensee and ForgeRock AS.
+ */
+
+package org.forgerock.am.marketplace.pingonecredentials;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.forgerock.json.JsonValue.array;
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.forgerock.json.JsonValue;
+import org.junit.jupiter.api.Test;
+
+public class PingOneCredentialsPageIteratorTest {
+
+    private final PingOneCredentialsAsyncService asyncService = new PingOneCredentialsAsyncService();
+
+    private final List<String> reads = new CopyOnWriteArrayList<>();
+
+    private final Map<String, JsonValue> pages = Map.of(
+        "first", page("page2", "some-credential1", "some-credential2"),
+        "page2", page("page3", "some-credential3"),
+        "page3", page(null, "some-credential4"));
+
+    @Test
+    public void testIteratesOverAllPagesInOrder() {
+        List<String> ids = new ArrayList<>();
+        try (PingOneCredentialsPageIterator credentials = iterator()) {
+            credentials.forEachRemaining(credential -> ids.add(credential.get("id").asString()));
+        }
+
+        assertThat(ids).containsExactly("some-credential1", "some-credential2", "some-credential3",
+                                        "some-credential4");
+        assertThat(reads).containsExactly("first", "page2", "page3");
+    }
+
+    @Test
+    public void testReadsNoPageUntilAnItemIsRequested() {
+        try (PingOneCredentialsPageIterator ignored = iterator()) {
+            assertThat(reads).isEmpty();
+        }
+    }
+
+    @Test
+    public void testStopsReadingPagesWhenClosedEarly() {
+        try (PingOneCredentialsPageIterator credentials = iterator()) {
+            assertThat(credentials.next().get("id").asString()).isEqualTo("some-credential1");
+        }
+
+        // The second page may have been prefetched, but no page after it is read
+        assertThat(reads).doesNotContain("page3");
+    }
+
+    @Test
+    public void testPageReadFailureEndsIteration() {
+        PingOneCredentialsPageIterator credentials = new PingOneCredentialsPageIterator(pageUrl -> {
+            if (pageUrl == null) {
+                return page("page2", "some-credential1");
+            }
+            throw new PingOneCredentialsServiceException("Failed PingOne Credentials");
+        }, "credentials", asyncService);
+
+        assertThat(credentials.next().get("id").asString()).isEqualTo("some-credential1");
+        assertThatThrownBy(credentials::hasNext)
+            .isInstanceOf(IllegalStateException.class)
+            .hasCauseInstanceOf(PingOneCredentialsServiceException.class);
+    }
+
+    private PingOneCredentialsPageIterator iterator() {
+        return new PingOneCredentialsPageIterator(pageUrl -> {
+            String name = pageUrl == null ? "first" : pageUrl;
+            reads.add(name);
+            return pages.get(name);
+        }, "credentials", asyncService);
+    }
+
+    private static JsonValue page(String next, Object... ids) {
+        List<Object> credentials = new ArrayList<>();
+        for (Object id : ids) {
+            credentials.add(object(field("id", id)));
+        }
+        JsonValue page = json(object(field("_embedded", object(field("credentials", array(credentials.toArray()))))));
+        if (next != null) {
+            page.put("_links", object(field("next", object(field("href", next)))));
+        }
+        return page;
+    }
+}
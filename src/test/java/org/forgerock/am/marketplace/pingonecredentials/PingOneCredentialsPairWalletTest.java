@@ -17,18 +17,27 @@ import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_PAIRING_DELIVERY_METHOD_KEY;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_PAIRING_TIMEOUT_KEY;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_PAIRING_WALLET_ID_KEY;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_SPECULATIVE_PAIRING_KEY;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_USER_ID_KEY;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.TIMEOUT_OUTCOME_ID;
+import static org.forgerock.json.JsonValue.array;
 import static org.forgerock.json.JsonValue.field;
 import static org.forgerock.json.JsonValue.json;
 import static org.forgerock.json.JsonValue.object;
 import static org.forgerock.openam.auth.node.api.SharedStateConstants.REALM;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import com.sun.identity.authentication.callbacks.HiddenValueCallback;
+
 import javax.security.auth.callback.Callback;
 import javax.security.auth.callback.ConfirmationCallback;
 import javax.security.auth.callback.TextOutputCallback;
@@ -41,6 +50,7 @@ import org.forgerock.json.JsonValue;
 import org.forgerock.openam.auth.node.api.Action;
 import org.forgerock.openam.auth.node.api.ExternalRequestContext;
 import org.forgerock.openam.auth.node.api.InputState;
+import org.forgerock.openam.auth.node.api.NodeState;
 import org.forgerock.openam.auth.node.api.OutcomeProvider;
 import org.forgerock.openam.auth.node.api.OutputState;
 import org.forgerock.openam.auth.node.api.TreeContext;
@@ -92,9 +102,12 @@ public class PingOneCredentialsPairWalletTest {
     @BeforeEach
     public void setup() throws Exception {
         given(pingOneWorkerService.getWorker(any(), anyString())).willReturn(Optional.of(worker));
+        given(config.pingOneWorker()).willReturn(worker);
         given(pingOneWorkerService.getAccessTokenId(any(), any())).willReturn("some-access-token");
 
-        node = new PingOneCredentialsPairWallet(config, realm, pingOneWorkerService, client, localizationHelper);
+        node = new PingOneCredentialsPairWallet(config, realm, pingOneWorkerService, client, localizationHelper,
+                                                new PingOneCredentialsQrCodeRenderer(),
+                                                new PingOneCredentialsAsyncService());
     }
 
     @Test
@@ -169,6 +182,47 @@ public class PingOneCredentialsPairWalletTest {
         assertThat(result.callbacks.size()).isEqualTo(numberOfExpectedCallbacks);
     }
 
+    @ParameterizedTest
+    @CsvSource({"0,1,0", "1,2,1"})
+    public void testSpeculativePairing(int choice, int expectedCreated, int expectedDeleted) throws Exception {
+        // Given
+        given(config.pingOneUserIdAttribute()).willReturn(PINGONE_USER_ID_KEY);
+        given(config.digitalWalletApplicationId()).willReturn("some-wallet-application-id");
+        given(config.allowDeliveryMethodSelection()).willReturn(true);
+        given(config.qrCodeDelivery()).willReturn(true);
+        given(config.speculativePairing()).willReturn(true);
+        given(localizationHelper.getLocalizedMessage(any(), any(), any(), anyString()))
+            .willReturn("Some localized text");
+
+        JsonValue sharedState = json(object(
+            field(REALM, "/realm"),
+            field(PINGONE_USER_ID_KEY, "some-user-id")));
+
+        JsonValue response = json(object(
+            field("id", "some-wallet-id"),
+            field("status", "PAIRING_REQUIRED"),
+            field("_links", object(
+                field("appOpen", object(
+                    field("href", "https://credentials.customer.com?u=some-pairing-url")))))));
+
+        when(client.createDigitalWalletRequest(any(), any(), anyString(), anyString(), any())).thenReturn(response);
+
+        node.process(getContext(sharedState, json(object()), emptyList()));
+
+        ConfirmationCallback confirmationCallback = new ConfirmationCallback(
+            ConfirmationCallback.INFORMATION, new String[]{"QR Code", "EMAIL", "SMS"}, 0);
+        confirmationCallback.setSelectedIndex(choice);
+
+        // When
+        node.process(getContext(sharedState, json(object()), List.of(confirmationCallback)));
+
+        // Then
+        verify(client, times(expectedCreated)).createDigitalWalletRequest(any(), any(), anyString(), anyString(),
+                                                                          any());
+        verify(client, timeout(1000).times(expectedDeleted)).deleteWalletRequest(any(), any(), eq("some-user-id"),
+                                                                                 eq("some-wallet-id"));
+    }
+
     @Test
     public void testReturnCallbacksBasedOnQRCodeDeliveryMethod()
         throws Exception {
@@ -208,6 +262,226 @@ public class PingOneCredentialsPairWalletTest {
         assertThat(result.callbacks.size()).isEqualTo(4);
     }
 
+    @Test
+    public void testDoesNotCreateWalletDuringSelectionWithoutQrCodeDelivery() throws Exception {
+        // Given
+        given(config.pingOneUserIdAttribute()).willReturn(PINGONE_USER_ID_KEY);
+        given(config.allowDeliveryMethodSelection()).willReturn(true);
+        given(config.qrCodeDelivery()).willReturn(false);
+        given(config.speculativePairing()).willReturn(true);
+        given(localizationHelper.getLocalizedMessage(any(), any(), any(), anyString()))
+            .willReturn("Some localized text");
+
+        JsonValue sharedState = json(object(
+            field(REALM, "/realm"),
+            field(PINGONE_USER_ID_KEY, "some-user-id")));
+
+        TreeContext context = getContext(sharedState, json(object()), emptyList());
+
+        // When
+        node.process(context);
+
+        // Then
+        assertThat(context.getStateFor(node).isDefined(PINGONE_SPECULATIVE_PAIRING_KEY)).isFalse();
+        verify(client, never()).createDigitalWalletRequest(any(), any(), anyString(), anyString(), any());
+    }
+
+    @Test
+    public void testDeletesWalletCreatedDuringSelectionWhenNeverClaimed() throws Exception {
+        // Given
+        node = new PingOneCredentialsPairWallet(config, realm, pingOneWorkerService, client, localizationHelper,
+                                                new PingOneCredentialsQrCodeRenderer(),
+                                                new PingOneCredentialsAsyncService(Duration.ofMillis(100)));
+        given(config.pingOneUserIdAttribute()).willReturn(PINGONE_USER_ID_KEY);
+        given(config.digitalWalletApplicationId()).willReturn("some-wallet-application-id");
+        given(config.allowDeliveryMethodSelection()).willReturn(true);
+        given(config.qrCodeDelivery()).willReturn(true);
+        given(config.speculativePairing()).willReturn(true);
+        given(localizationHelper.getLocalizedMessage(any(), any(), any(), anyString()))
+            .willReturn("Some localized text");
+        when(client.createDigitalWalletRequest(any(), any(), anyString(), anyString(), any()))
+            .thenReturn(json(object(field("id", "some-wallet-id"), field("status", "PAIRING_REQUIRED"))));
+
+        JsonValue sharedState = json(object(
+            field(REALM, "/realm"),
+            field(PINGONE_USER_ID_KEY, "some-user-id")));
+
+        // When
+        node.process(getContext(sharedState, json(object()), emptyList()));
+
+        // Then
+        verify(client, timeout(5000)).deleteWalletRequest(any(), any(), eq("some-user-id"), eq("some-wallet-id"));
+    }
+
+    @Test
+    public void testReusesPendingPairing() throws Exception {
+        // Given
+        given(config.pingOneUserIdAttribute()).willReturn(PINGONE_USER_ID_KEY);
+        given(config.digitalWalletApplicationId()).willReturn("some-wallet-application-id");
+        given(config.qrCodeDelivery()).willReturn(true);
+        given(config.allowDeliveryMethodSelection()).willReturn(false);
+        given(config.reusePendingPairing()).willReturn(true);
+        given(localizationHelper.getLocalizedMessage(any(), any(), any(), anyString()))
+            .willReturn("Some localized text");
+
+        JsonValue sharedState = json(object(
+            field(REALM, "/realm"),
+            field(PINGONE_USER_ID_KEY, "some-pending-user-id")));
+
+        JsonValue wallets = json(object(
+            field("_embedded", object(
+                field("digitalWallets", array(
+                    object(
+                        field("id", "some-active-wallet-id"),
+                        field("status", "ACTIVE"),
+                        field("digitalWalletApplication", object(field("id", "some-wallet-application-id")))),
+                    object(
+                        field("id", "some-pending-wallet-id"),
+                        field("status", "PAIRING_REQUIRED"),
+                        field("digitalWalletApplication", object(field("id", "some-wallet-application-id"))),
+                        field("_links", object(
+                            field("appOpen", object(
+                                field("href", "https://credentials.customer.com?u=some-pairing-url"))))))))))));
+
+        when(client.findWalletRequest(any(), any(), eq("some-pending-user-id"))).thenReturn(wallets);
+
+        TreeContext context = getContext(sharedState, json(object()), emptyList());
+
+        // When
+        Action result = node.process(context);
+
+        // Then
+        assertThat(result.callbacks.size()).isEqualTo(4);
+        NodeState nodeState = context.getStateFor(node);
+        assertThat(nodeState.get(PINGONE_PAIRING_WALLET_ID_KEY).asString()).isEqualTo("some-pending-wallet-id");
+        assertThat(nodeState.get(PINGONE_APPOPEN_URL_KEY).asString())
+            .isEqualTo("https://credentials.customer.com?u=some-pairing-url");
+        verify(client, never()).createDigitalWalletRequest(any(), any(), anyString(), anyString(), any());
+    }
+
+    @Test
+    public void testDoesNotCreateWalletDuringSelectionWhenPendingPairingIsKnown() throws Exception {
+        // Given
+        given(config.pingOneUserIdAttribute()).willReturn(PINGONE_USER_ID_KEY);
+        given(config.digitalWalletApplicationId()).willReturn("some-wallet-application-id");
+        given(config.allowDeliveryMethodSelection()).willReturn(true);
+        given(config.qrCodeDelivery()).willReturn(true);
+        given(config.speculativePairing()).willReturn(true);
+        given(config.reusePendingPairing()).willReturn(true);
+        given(localizationHelper.getLocalizedMessage(any(), any(), any(), anyString()))
+            .willReturn("Some localized text");
+
+        JsonValue sharedState = json(object(
+            field(REALM, "/realm"),
+            field(PINGONE_USER_ID_KEY, "some-known-pending-user-id")));
+        JsonValue transientState = json(object());
+
+        JsonValue wallets = json(object(
+            field("_embedded", object(
+                field("digitalWallets", array(
+                    object(
+                        field("id", "some-pending-wallet-id"),
+                        field("status", "PAIRING_REQUIRED"),
+                        field("digitalWalletApplication", object(field("id", "some-wallet-application-id"))),
+                        field("_links", object(
+                            field("appOpen", object(
+                                field("href", "https://credentials.customer.com?u=some-pairing-url"))))))))))));
+        TreeContext context = getContext(sharedState, transientState, emptyList());
+        PingOneCredentialsJourneyMemo.wallets(context.getStateFor(node), "some-known-pending-user-id",
+                                              () -> wallets);
+
+        // When
+        node.process(context);
+
+        ConfirmationCallback confirmationCallback = new ConfirmationCallback(
+            ConfirmationCallback.INFORMATION, new String[]{"QR Code", "EMAIL", "SMS"}, 0);
+        confirmationCallback.setSelectedIndex(0);
+        TreeContext choiceContext = getContext(sharedState, transientState, List.of(confirmationCallback));
+        node.process(choiceContext);
+
+        // Then
+        assertThat(context.getStateFor(node).isDefined(PINGONE_SPECULATIVE_PAIRING_KEY)).isFalse();
+        assertThat(choiceContext.getStateFor(node).get(PINGONE_PAIRING_WALLET_ID_KEY).asString())
+            .isEqualTo("some-pending-wallet-id");
+        verify(client, never()).createDigitalWalletRequest(any(), any(), anyString(), anyString(), any());
+        verify(client, never()).findWalletRequest(any(), any(), anyString());
+    }
+
+    @Test
+    public void testDoesNotReusePendingPairingForEmailDelivery() throws Exception {
+        // Given
+        given(config.pingOneUserIdAttribute()).willReturn(PINGONE_USER_ID_KEY);
+        given(config.digitalWalletApplicationId()).willReturn("some-wallet-application-id");
+        given(config.qrCodeDelivery()).willReturn(false);
+        given(config.emailDelivery()).willReturn(true);
+        given(config.allowDeliveryMethodSelection()).willReturn(false);
+        given(config.reusePendingPairing()).willReturn(true);
+        given(localizationHelper.getLocalizedMessage(any(), any(), any(), anyString()))
+            .willReturn("Some localized text");
+
+        JsonValue sharedState = json(object(
+            field(REALM, "/realm"),
+            field(PINGONE_USER_ID_KEY, "some-pending-user-id")));
+
+        JsonValue response = json(object(
+            field("id", "some-new-wallet-id"),
+            field("status", "PAIRING_REQUIRED"),
+            field("_links", object(
+                field("appOpen", object(
+                    field("href", "https://credentials.customer.com?u=some-new-pairing-url")))))));
+
+        when(client.createDigitalWalletRequest(any(), any(), anyString(), anyString(), any())).thenReturn(response);
+
+        TreeContext context = getContext(sharedState, json(object()), emptyList());
+
+        // When
+        node.process(context);
+
+        // Then
+        assertThat(context.getStateFor(node).get(PINGONE_PAIRING_WALLET_ID_KEY).asString())
+            .isEqualTo("some-new-wallet-id");
+        verify(client).createDigitalWalletRequest(any(), any(), eq("some-pending-user-id"),
+                                                  eq("some-wallet-application-id"), eq(List.of("EMAIL")));
+        verify(client, never()).findWalletRequest(any(), any(), anyString());
+    }
+
+    @Test
+    public void testReturnRenderedQRCodeImage() throws Exception {
+        // Given
+        given(config.pingOneUserIdAttribute()).willReturn(PINGONE_USER_ID_KEY);
+        given(config.digitalWalletApplicationId()).willReturn("some-wallet-application-id");
+        given(config.qrCodeDelivery()).willReturn(true);
+        given(config.allowDeliveryMethodSelection()).willReturn(false);
+        given(config.renderQrCodeImage()).willReturn(true);
+        given(localizationHelper.getLocalizedMessage(any(), any(), any(), anyString()))
+            .willReturn("Some localized text");
+
+        JsonValue sharedState = json(object(
+            field(REALM, "/realm"),
+            field(PINGONE_USER_ID_KEY, "some-user-id")));
+
+        JsonValue response = json(object(
+            field("id", "some-wallet-id"),
+            field("status", "PAIRING_REQUIRED"),
+            field("_links", object(
+                field("appOpen", object(
+                    field("href", "https://credentials.customer.com?u=https%3A%2F%2Fapi.pingone.com" +
+                                  "%2Fv1%2Fdistributedid%2Frequests%2F4766467d-2dd8-4cba-a9b7-10ba09b97354")))))));
+
+        when(client.createDigitalWalletRequest(any(), any(), anyString(), anyString(), any())).thenReturn(response);
+
+        // When
+        Action result = node.process(getContext(sharedState, json(object()), emptyList()));
+
+        // Then
+        assertThat(result.callbacks.size()).isEqualTo(4);
+        assertThat(result.callbacks.get(1)).isInstanceOf(HiddenValueCallback.class);
+
+        HiddenValueCallback imageCallback = (HiddenValueCallback) result.callbacks.get(1);
+        assertThat(imageCallback.getId()).isEqualTo(PingOneCredentialsPairWallet.QR_CODE_IMAGE_CALLBACK_ID);
+        assertThat(imageCallback.getValue()).startsWith("data:image/svg+xml;base64,");
+    }
+
     @Test
     public void testVerifyTransactionInitiatedButNodeTimesOut() throws Exception {
         // Given
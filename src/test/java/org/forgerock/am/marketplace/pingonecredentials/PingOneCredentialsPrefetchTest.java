@@ -0,0 +1,142 @@
+/*
+ * Copyright 2024 ForgeRock AS. All Rights Reserved
+ *
+ * Use of this code requires a commercial software license with ForgeRock AS.
+ * or with one of its affiliates. All use shall be exclusively subject
+ * to such license between the licensee and ForgeRock AS.
+ */
+
+package org.forgerock.am.marketplace.pingonecredentials;
+
+import static java.util.Collections.emptyList;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_PREFETCH_KEY;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_USER_ID_KEY;
+import static org.forgerock.json.JsonValue.array;
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+import static org.forgerock.openam.auth.node.api.SharedStateConstants.REALM;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import javax.security.auth.callback.Callback;
+import java.util.List;
+import java.util.Optional;
+
+import org.forgerock.json.JsonValue;
+import org.forgerock.openam.auth.node.api.Action;
+import org.forgerock.openam.auth.node.api.ExternalRequestContext;
+import org.forgerock.openam.auth.node.api.TreeContext;
+import org.forgerock.openam.core.realms.Realm;
+import org.forgerock.openam.integration.pingone.api.PingOneWorkerService;
+import org.forgerock.openam.test.extensions.LoggerExtension;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class PingOneCredentialsPrefetchTest {
+
+    @RegisterExtension
+    public LoggerExtension loggerExtension = new LoggerExtension(PingOneCredentialsPrefetch.class);
+
+    @Mock
+    PingOneCredentialsPrefetch.Config config;
+
+    @Mock
+    PingOneCredentialsFindWallets.Config findWalletsConfig;
+
+    @Mock
+    PingOneWorkerService pingOneWorkerService;
+
+    @Mock
+    PingOneWorkerService.Worker worker;
+
+    @Mock
+    Realm realm;
+
+    @Mock
+    PingOneCredentialsService client;
+
+    PingOneCredentialsAsyncService asyncService;
+
+    PingOneCredentialsPrefetch node;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        given(pingOneWorkerService.getWorker(any(), anyString())).willReturn(Optional.of(worker));
+        given(pingOneWorkerService.getAccessTokenId(any(), any())).willReturn("some-access-token");
+        given(config.pingOneWorker()).willReturn(worker);
+        given(config.pingOneUserIdAttribute()).willReturn(PINGONE_USER_ID_KEY);
+        given(config.prefetchWallets()).willReturn(true);
+
+        asyncService = new PingOneCredentialsAsyncService();
+        node = new PingOneCredentialsPrefetch(config, realm, pingOneWorkerService, client, asyncService);
+    }
+
+    @Test
+    public void testStartsPrefetchAndContinues() throws Exception {
+        // Given
+        JsonValue sharedState = json(object(field(REALM, "/realm")));
+        TreeContext context = getContext(sharedState, json(object()), emptyList());
+
+        // When
+        Action result = node.process(context);
+
+        // Then
+        assertThat(result.outcome).isEqualTo("outcome");
+        assertThat(context.getStateFor(node).isDefined(PINGONE_PREFETCH_KEY)).isTrue();
+    }
+
+    @Test
+    public void testFindWalletsUsesPrefetchedReads() throws Exception {
+        // Given
+        JsonValue sharedState = json(object(
+            field(REALM, "/realm"),
+            field(PINGONE_USER_ID_KEY, "some-user-id")));
+
+        given(client.findWalletRequest(any(), any(), anyString())).willReturn(json(object(
+            field("_embedded", object(
+                field("digitalWallets", array(
+                    object(
+                        field("id", "some-wallet-id"),
+                        field("status", "ACTIVE")))))))));
+
+        given(findWalletsConfig.pingOneWorker()).willReturn(worker);
+        given(findWalletsConfig.pingOneUserIdAttribute()).willReturn(PINGONE_USER_ID_KEY);
+
+        PingOneCredentialsFindWallets findWallets = new PingOneCredentialsFindWallets(
+            findWalletsConfig, realm, pingOneWorkerService, client, asyncService);
+
+        TreeContext context = getContext(sharedState, json(object()), emptyList());
+        node.process(context);
+
+        // When
+        Action result = findWallets.process(context);
+
+        // Then
+        assertThat(result.outcome).isEqualTo("success");
+        verify(client, times(1)).findWalletRequest(any(), any(), anyString());
+        verify(client, never()).findWalletRequest(any(), any(), anyString(), anyBoolean());
+        verify(pingOneWorkerService, times(1)).getAccessTokenId(any(), any());
+        assertThat(context.getStateFor(node).isDefined(PINGONE_PREFETCH_KEY)).isFalse();
+    }
+
+    private TreeContext getContext(JsonValue sharedState, JsonValue transientState,
+                                   List<? extends Callback> callbacks) {
+        return new TreeContext(sharedState, transientState, new ExternalRequestContext.Builder().build(), callbacks,
+                               Optional.empty());
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2024 ForgeRock AS. All Rights Reserved
+ *
+ * Use of this code requires a commercial software license with ForgeRock AS.
+ * or with one of its affiliates. All use shall be exclusively subject
+ * to such license between the licensee and ForgeRock AS.
+ */
+
+package org.forgerock.am.marketplace.pingonecredentials;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import org.junit.jupiter.api.Test;
+
+public class PingOneCredentialsQrCodeTest {
+
+    /** "https://example.com" as a version 2-M code with mask 2, checked against an independent decoder. */
+    private static final String[] EXAMPLE_COM = {
+        "#######....###..#.#######",
+        "#.....#...#..####.#.....#",
+        "#.###.#.##.#..#...#.###.#",
+        "#.###.#.#....###..#.###.#",
+        "#.###.#.###..#..#.#.###.#",
+        "#.....#.#..#..##..#.....#",
+        "#######.#.#.#.#.#.#######",
+        "........#.....#.#........",
+        "#.#####.....#.....#####..",
+        ".#..##..#.##.#...#.#...#.",
+        "#####.#.##...####..#.#.##",
+        "##.###..#.##.#.##.##....#",
+        ".###..#....##.##.##.#.###",
+        "#####...#.#.....#..#.#.#.",
+        "#.....##..###..#..####.##",
+        "#..#...#...#..#######...#",
+        "#.#..##.####....#####.#..",
+        "........##..#####...##...",
+        "#######......##.#.#.#.###",
+        "#.....#.##..##..#...##.#.",
+        "#.###.#.###.#.#######.#.#",
+        "#.###.#.#......#.##.#####",
+        "#.###.#.#####..#.....##.#",
+        "#.....#....#..#.##.###..#",
+        "#######.##.#.....########"};
+
+    @Test
+    public void testEncodesKnownVector() {
+        PingOneCredentialsQrCode qrCode = PingOneCredentialsQrCode.encode("https://example.com");
+
+        assertThat(qrCode.version()).isEqualTo(2);
+        assertThat(qrCode.size()).isEqualTo(EXAMPLE_COM.length);
+        for (int y = 0; y < qrCode.size(); y++) {
+            StringBuilder row = new StringBuilder();
+            for (int x = 0; x < qrCode.size(); x++) {
+                row.append(qrCode.isDark(x, y) ? '#' : '.');
+            }
+            assertThat(row.toString()).as("row %d", y).isEqualTo(EXAMPLE_COM[y]);
+        }
+    }
+
+    @Test
+    public void testSelectsSmallestVersionThatFits() {
+        // Version 1-M holds 14 bytes, version 2-M 26 bytes
+        assertThat(PingOneCredentialsQrCode.encode("a".repeat(14)).version()).isEqualTo(1);
+        assertThat(PingOneCredentialsQrCode.encode("a".repeat(15)).version()).isEqualTo(2);
+        assertThat(PingOneCredentialsQrCode.encode("a".repeat(26)).version()).isEqualTo(2);
+        assertThat(PingOneCredentialsQrCode.encode("a".repeat(27)).version()).isEqualTo(3);
+        // From version 10 the byte count takes 16 bits: version 9-M holds 180 bytes, version 10-M 213 bytes
+        assertThat(PingOneCredentialsQrCode.encode("a".repeat(180)).version()).isEqualTo(9);
+        assertThat(PingOneCredentialsQrCode.encode("a".repeat(181)).version()).isEqualTo(10);
+        assertThat(PingOneCredentialsQrCode.encode("a".repeat(2331)).version()).isEqualTo(40);
+        assertThat(PingOneCredentialsQrCode.encode("a".repeat(15)).size()).isEqualTo(25);
+    }
+
+    @Test
+    public void testRejectsTextTooLongForVersion40() {
+        assertThatThrownBy(() -> PingOneCredentialsQrCode.encode("a".repeat(2332)))
+            .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void testDrawsValidFormatBitsForMediumErrorCorrection() {
+        for (String text : new String[] {"a", "https://example.com", "a".repeat(200)}) {
+            PingOneCredentialsQrCode qrCode = PingOneCredentialsQrCode.encode(text);
+            int size = qrCode.size();
+
+            // First copy around the top left finder, second copy split between the other two finders
+            int first = 0;
+            int second = 0;
+            for (int i = 0; i < 15; i++) {
+                boolean firstBit;
+                if (i <= 5) {
+                    firstBit = qrCode.isDark(8, i);
+                } else if (i <= 7) {
+                    firstBit = qrCode.isDark(8, i + 1);
+                } else if (i == 8) {
+                    firstBit = qrCode.isDark(7, 8);
+                } else {
+                    firstBit = qrCode.isDark(14 - i, 8);
+                }
+                boolean secondBit = i < 8 ? qrCode.isDark(size - 1 - i, 8) : qrCode.isDark(8, size - 15 + i);
+                first |= (firstBit ? 1 : 0) << i;
+                second |= (secondBit ? 1 : 0) << i;
+            }
+
+            assertThat(second).isEqualTo(first);
+            int format = first ^ 0x5412;
+            assertThat(format).isEqualTo(bchFormat(format >>> 10));
+            // Medium error correction is encoded as 00 in the two high data bits
+            assertThat(format >>> 13).isEqualTo(0);
+            assertThat(qrCode.isDark(8, size - 8)).isTrue();
+        }
+    }
+
+    @Test
+    public void testComputesReedSolomonErrorCorrection() {
+        // The 1-M "01234567" example of ISO/IEC 18004
+        byte[] data = bytes(0x10, 0x20, 0x0C, 0x56, 0x61, 0x80, 0xEC, 0x11, 0xEC, 0x11, 0xEC, 0x11, 0xEC, 0x11,
+                            0xEC, 0x11);
+
+        byte[] ecc = PingOneCredentialsQrCode.reedSolomonComputeRemainder(
+            data, PingOneCredentialsQrCode.reedSolomonComputeDivisor(10));
+
+        assertThat(ecc).containsExactly(bytes(0xA5, 0x24, 0xD4, 0xC1, 0xED, 0x36, 0xC7, 0x87, 0x2C, 0x55));
+    }
+
+    private static int bchFormat(int data) {
+        int remainder = data << 10;
+        for (int i = 14; i >= 10; i--) {
+            if ((remainder >>> i & 1) != 0) {
+                remainder ^= 0x537 << (i - 10);
+            }
+        }
+        return data << 10 | remainder;
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] result = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            result[i] = (byte) values[i];
+        }
+        return result;
+    }
+}
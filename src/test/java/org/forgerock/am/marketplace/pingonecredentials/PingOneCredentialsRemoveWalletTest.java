@@ -14,16 +14,21 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.ERROR_OUTCOME_ID;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.NOT_FOUND_OUTCOME_ID;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.OBJECT_ATTRIBUTES;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_REMOVED_WALLETS_COUNT_KEY;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_USER_ID_KEY;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_WALLET_ID_KEY;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.SUCCESS_OUTCOME_ID;
+import static org.forgerock.json.JsonValue.array;
 import static org.forgerock.json.JsonValue.field;
 import static org.forgerock.json.JsonValue.json;
 import static org.forgerock.json.JsonValue.object;
 import static org.forgerock.openam.auth.node.api.SharedStateConstants.REALM;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import javax.security.auth.callback.Callback;
@@ -77,9 +82,11 @@ public class PingOneCredentialsRemoveWalletTest {
     @BeforeEach
     public void setup() throws Exception {
         given(pingOneWorkerService.getWorker(any(), anyString())).willReturn(Optional.of(worker));
+        given(config.pingOneWorker()).willReturn(worker);
         given(pingOneWorkerService.getAccessTokenId(any(), any())).willReturn("some-access-token");
 
-        node = new PingOneCredentialsRemoveWallet(config, realm, pingOneWorkerService, client);
+        node = new PingOneCredentialsRemoveWallet(config, realm, pingOneWorkerService, client,
+                                                  new PingOneCredentialsAsyncService());
     }
 
     @Test
@@ -151,6 +158,89 @@ public class PingOneCredentialsRemoveWalletTest {
         assertThat(result.outcome).isEqualTo(NOT_FOUND_OUTCOME_ID);
     }
 
+    @Test
+    public void testRemovesAllMatchingWallets() throws Exception {
+        // Given
+        JsonValue sharedState = json(object(
+            field(REALM, "/realm"),
+            field(PINGONE_USER_ID_KEY, "some-user-id")));
+
+        given(config.pingOneUserIdAttribute()).willReturn(PINGONE_USER_ID_KEY);
+        given(config.removeAllWallets()).willReturn(true);
+        given(config.walletStatuses()).willReturn(List.of("ACTIVE", "PAIRING_REQUIRED"));
+        given(config.digitalWalletApplicationId()).willReturn("some-wallet-application-id");
+        given(config.parallelism()).willReturn(2);
+
+        when(client.findWalletRequest(any(), any(), anyString())).thenReturn(wallets(
+            wallet("wallet-1", "ACTIVE", "some-wallet-application-id"),
+            wallet("wallet-2", "PAIRING_REQUIRED", "some-wallet-application-id"),
+            wallet("wallet-3", "EXPIRED", "some-wallet-application-id"),
+            wallet("wallet-4", "ACTIVE", "other-wallet-application-id")));
+        when(client.deleteWalletRequest(any(), any(), anyString(), anyString())).thenReturn(true);
+
+        TreeContext context = getContext(sharedState, json(object()), emptyList());
+
+        // When
+        Action result = node.process(context);
+
+        // Then
+        assertThat(result.outcome).isEqualTo(SUCCESS_OUTCOME_ID);
+        assertThat(context.getStateFor(node).get(PINGONE_REMOVED_WALLETS_COUNT_KEY).asInteger()).isEqualTo(2);
+        verify(client).deleteWalletRequest(any(), any(), eq("some-user-id"), eq("wallet-1"));
+        verify(client).deleteWalletRequest(any(), any(), eq("some-user-id"), eq("wallet-2"));
+        verify(client, never()).deleteWalletRequest(any(), any(), anyString(), eq("wallet-3"));
+        verify(client, never()).deleteWalletRequest(any(), any(), anyString(), eq("wallet-4"));
+    }
+
+    @Test
+    public void testRemoveAllWalletsReportsFailures() throws Exception {
+        // Given
+        JsonValue sharedState = json(object(
+            field(REALM, "/realm"),
+            field(PINGONE_USER_ID_KEY, "some-user-id")));
+
+        given(config.pingOneUserIdAttribute()).willReturn(PINGONE_USER_ID_KEY);
+        given(config.removeAllWallets()).willReturn(true);
+
+        when(client.findWalletRequest(any(), any(), anyString())).thenReturn(wallets(
+            wallet("wallet-1", "ACTIVE", "some-wallet-application-id"),
+            wallet("wallet-2", "ACTIVE", "some-wallet-application-id")));
+        when(client.deleteWalletRequest(any(), any(), anyString(), eq("wallet-1"))).thenReturn(true);
+        when(client.deleteWalletRequest(any(), any(), anyString(), eq("wallet-2")))
+            .thenThrow(new PingOneCredentialsServiceException("PingOne unavailable"));
+
+        TreeContext context = getContext(sharedState, json(object()), emptyList());
+
+        // When
+        Action result = node.process(context);
+
+        // Then
+        assertThat(result.outcome).isEqualTo(ERROR_OUTCOME_ID);
+        assertThat(context.getStateFor(node).get(PINGONE_REMOVED_WALLETS_COUNT_KEY).asInteger()).isEqualTo(1);
+    }
+
+    @Test
+    public void testRemoveAllWalletsWithoutMatchingWallet() throws Exception {
+        // Given
+        JsonValue sharedState = json(object(
+            field(REALM, "/realm"),
+            field(PINGONE_USER_ID_KEY, "some-user-id")));
+
+        given(config.pingOneUserIdAttribute()).willReturn(PINGONE_USER_ID_KEY);
+        given(config.removeAllWallets()).willReturn(true);
+        given(config.walletStatuses()).willReturn(List.of("ACTIVE"));
+
+        when(client.findWalletRequest(any(), any(), anyString())).thenReturn(wallets(
+            wallet("wallet-1", "EXPIRED", "some-wallet-application-id")));
+
+        // When
+        Action result = node.process(getContext(sharedState, json(object()), emptyList()));
+
+        // Then
+        assertThat(result.outcome).isEqualTo(NOT_FOUND_OUTCOME_ID);
+        verify(client, never()).deleteWalletRequest(any(), any(), anyString(), anyString());
+    }
+
     @Test
     public void testGetInputs() {
         given(config.pingOneUserIdAttribute()).willReturn(PINGONE_USER_ID_KEY);
@@ -236,6 +326,17 @@ public class PingOneCredentialsRemoveWalletTest {
         assertThat(result.outcome).isEqualTo(ERROR_OUTCOME_ID);
     }
 
+    private JsonValue wallets(Object... wallets) {
+        return json(object(field("_embedded", object(field("digitalWallets", array(wallets))))));
+    }
+
+    private Object wallet(String id, String status, String applicationId) {
+        return object(
+            field("id", id),
+            field("status", status),
+            field("digitalWalletApplication", object(field("id", applicationId))));
+    }
+
     private TreeContext getContext(JsonValue sharedState, JsonValue transientState,
                                    List<? extends Callback> callbacks) {
         return new TreeContext(sharedState, transientState, new ExternalRequestContext.Builder().build(), callbacks,
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2024 ForgeRock AS. All Rights Reserved
+ *
+ * Use of this code requires a commercial software license with ForgeRock AS.
+ * or with one of its affiliates. All use shall be exclusively subject
+ * to such license between the licensee and ForgeRock AS.
+ */
+
+package org.forgerock.am.marketplace.pingonecredentials;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.jupiter.api.Test;
+
+public class PingOneCredentialsRequestCoalescerTest {
+
+    private final PingOneCredentialsRequestCoalescer<String> coalescer =
+        new PingOneCredentialsRequestCoalescer<>(value -> value);
+
+    @Test
+    public void testFollowersReceiveTheErrorOfTheCall() throws Exception {
+        // Given
+        CountDownLatch called = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger calls = new AtomicInteger();
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            // When
+            Future<String> first = executor.submit(() -> coalescer.execute("some-key", () -> {
+                calls.incrementAndGet();
+                called.countDown();
+                release.await();
+                throw new AssertionError("some-error");
+            }));
+            called.await();
+            AtomicReference<Thread> follower = new AtomicReference<>();
+            Future<String> second = executor.submit(() -> {
+                follower.set(Thread.currentThread());
+                return coalescer.execute("some-key", () -> {
+                    calls.incrementAndGet();
+                    return "some-value";
+                });
+            });
+            while (follower.get() == null || follower.get().getState() != Thread.State.WAITING) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+
+            // Then
+            assertThatThrownBy(() -> first.get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(AssertionError.class);
+            assertThatThrownBy(() -> second.get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(AssertionError.class);
+            assertThat(calls.get()).isEqualTo(1);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testDoesNotCacheCompletedCalls() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+
+        coalescer.execute("some-key", () -> "some-value-" + calls.incrementAndGet());
+        String second = coalescer.execute("some-key", () -> "some-value-" + calls.incrementAndGet());
+
+        assertThat(second).isEqualTo("some-value-2");
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2024 ForgeRock AS. All Rights Reserved
+ *
+ * Use of this code requires a commercial software license with ForgeRock AS.
+ * or with one of its affiliates. All use shall be exclusively subject
+ * to such license between the licensee and ForgeRock AS.
+ */
+
+package org.forgerock.am.marketplace.pingonecredentials;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.RevokeResult;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.forgerock.http.protocol.Response;
+import org.forgerock.http.protocol.Status;
+import org.forgerock.openam.core.realms.Realm;
+import org.forgerock.openam.core.realms.RealmLookup;
+import org.forgerock.openam.integration.pingone.api.PingOneWorkerService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class PingOneCredentialsRevokeOutboxTest {
+
+    @Mock
+    PingOneCredentialsService client;
+
+    @Mock
+    PingOneWorkerService pingOneWorkerService;
+
+    @Mock
+    PingOneWorkerService.Worker worker;
+
+    @Mock
+    RealmLookup realmLookup;
+
+    @Mock
+    Realm realm;
+
+    @TempDir
+    Path outboxDirectory;
+
+    @TempDir
+    Path registryDirectory;
+
+    Properties properties;
+
+    PingOneCredentialsRevokeOutbox revokeOutbox;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        given(worker.environmentId()).willReturn("some-environment-id");
+        given(worker.id()).willReturn("some-worker-id");
+        given(realm.asPath()).willReturn("/alpha");
+        given(realmLookup.lookup("/alpha")).willReturn(realm);
+        given(pingOneWorkerService.getWorker(realm, "some-worker-id")).willReturn(Optional.of(worker));
+        given(pingOneWorkerService.getAccessTokenId(realm, worker)).willReturn("some-access-token");
+
+        properties = new Properties();
+        properties.setProperty(PingOneCredentialsOutboxSender.REGISTRY_DIRECTORY_PROPERTY,
+                               registryDirectory.toString());
+        revokeOutbox = new PingOneCredentialsRevokeOutbox(client);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        revokeOutbox.stop();
+    }
+
+    @Test
+    public void testDoesNotQueueRevocationAlreadyWaiting() throws Exception {
+        // Given
+        given(client.revokeCredentialRequest(any(), any(), anyString(), anyString()))
+            .willThrow(unavailable());
+        enqueue("some-credential-id");
+
+        // When
+        boolean queued = revokeOutbox.enqueue(outboxDirectory, realm, worker, () -> "some-access-token",
+                                              "some-user-id", "some-credential-id");
+
+        // Then
+        assertThat(queued).isFalse();
+        assertThat(revokeOutbox.outbox(outboxDirectory).size()).isEqualTo(1);
+    }
+
+    @Test
+    public void testBacksOffFailedRevocation() throws Exception {
+        // Given
+        given(client.revokeCredentialRequest(any(), any(), anyString(), anyString()))
+            .willThrow(unavailable());
+
+        // When
+        enqueue("some-credential-id");
+
+        // Then
+        verify(client, timeout(5000).times(2)).revokeCredentialRequest(any(), any(), anyString(), anyString());
+        // The second retry waits twice as long as the first one
+        verify(client, after(1000).times(2)).revokeCredentialRequest(any(), any(), anyString(), anyString());
+        assertThat(revokeOutbox.outbox(outboxDirectory).size()).isEqualTo(1);
+    }
+
+    @Test
+    public void testRetriesWaitingRevocationsOnceEnvironmentRecovers() throws Exception {
+        // Given
+        AtomicBoolean recovered = new AtomicBoolean();
+        given(client.revokeCredentialRequest(any(), any(), anyString(), anyString())).willAnswer(invocation -> {
+            if (!recovered.get()) {
+                throw unavailable();
+            }
+            return RevokeResult.REVOKED;
+        });
+        enqueue("some-credential-id-1");
+        verify(client, timeout(10000).times(3)).revokeCredentialRequest(any(), any(), anyString(),
+                                                                        eq("some-credential-id-1"));
+
+        // When
+        recovered.set(true);
+        enqueue("some-credential-id-2");
+
+        // Then
+        verify(client, timeout(1500).times(4)).revokeCredentialRequest(any(), any(), anyString(),
+                                                                       eq("some-credential-id-1"));
+        verify(client, timeout(1500)).revokeCredentialRequest(any(), any(), anyString(), eq("some-credential-id-2"));
+    }
+
+    @Test
+    public void testSendsRevocationsLeftBeforeRestartOnceStarted() throws Exception {
+        // Given
+        given(client.revokeCredentialRequest(any(), any(), anyString(), anyString()))
+            .willThrow(unavailable());
+        revokeOutbox.start(properties, pingOneWorkerService, realmLookup);
+        enqueue("some-credential-id");
+        revokeOutbox.stop();
+        given(client.revokeCredentialRequest(any(), any(), anyString(), anyString()))
+            .willReturn(RevokeResult.REVOKED);
+        revokeOutbox = new PingOneCredentialsRevokeOutbox(client);
+
+        // When
+        revokeOutbox.start(properties, pingOneWorkerService, realmLookup);
+
+        // Then
+        verify(client, timeout(5000)).revokeCredentialRequest("some-access-token", worker, "some-user-id",
+                                                              "some-credential-id");
+        verify(client, after(500).times(1)).revokeCredentialRequest(eq("some-access-token"), any(), anyString(),
+                                                                    anyString());
+    }
+
+    private void enqueue(String credentialId) throws Exception {
+        assertThat(revokeOutbox.enqueue(outboxDirectory, realm, worker, () -> "wrong-access-token", "some-user-id",
+                                        credentialId)).isTrue();
+    }
+
+    private static PingOneCredentialsServiceException unavailable() {
+        return new PingOneCredentialsServiceException("Service unavailable", new Response(Status.SERVICE_UNAVAILABLE));
+    }
+}
@@ -12,20 +12,29 @@ package org.forgerock.am.marketplace.pingonecredentials;
 import static java.util.Collections.emptyList;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.ERROR_OUTCOME_ID;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.NOT_FOUND_OUTCOME_ID;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.OBJECT_ATTRIBUTES;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_CREDENTIAL_ID_KEY;
+import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_REVOKED_CREDENTIALS_KEY;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.PINGONE_USER_ID_KEY;
 import static org.forgerock.am.marketplace.pingonecredentials.Constants.SUCCESS_OUTCOME_ID;
+import static org.forgerock.json.JsonValue.array;
 import static org.forgerock.json.JsonValue.field;
 import static org.forgerock.json.JsonValue.json;
 import static org.forgerock.json.JsonValue.object;
 import static org.forgerock.openam.auth.node.api.SharedStateConstants.REALM;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import javax.security.auth.callback.Callback;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Optional;
 
@@ -44,6 +53,7 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.api.extension.RegisterExtension;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.mockito.junit.jupiter.MockitoSettings;
@@ -71,14 +81,22 @@ public class PingOneCredentialsRevokeTest {
     @Mock
     PingOneCredentialsService client;
 
+    PingOneCredentialsRevokeOutbox revokeOutbox;
+
     PingOneCredentialsRevoke node;
 
+    @TempDir
+    Path outboxDirectory;
+
     @BeforeEach
     public void setup() throws Exception {
         given(pingOneWorkerService.getWorker(any(), anyString())).willReturn(Optional.of(worker));
+        given(config.pingOneWorker()).willReturn(worker);
         given(pingOneWorkerService.getAccessTokenId(any(), any())).willReturn("some-access-token");
 
-        node = new PingOneCredentialsRevoke(config, realm, pingOneWorkerService, client);
+        revokeOutbox = new PingOneCredentialsRevokeOutbox(client);
+        node = new PingOneCredentialsRevoke(config, realm, pingOneWorkerService, client, revokeOutbox,
+                                            new PingOneCredentialsAsyncService());
     }
 
     @Test
@@ -114,6 +132,130 @@ public class PingOneCredentialsRevokeTest {
         assertThat(result.outcome).isEqualTo(SUCCESS_OUTCOME_ID);
     }
 
+    @Test
+    public void testRevokesInBackgroundUntilPingOneIsAvailable() throws Exception {
+        // Given
+        JsonValue sharedState = json(object(
+            field(REALM, "/realm"),
+            field(PINGONE_USER_ID_KEY, "some-user-id"),
+            field(PINGONE_CREDENTIAL_ID_KEY, "some-credential-id")));
+
+        given(config.pingOneUserIdAttribute()).willReturn(PINGONE_USER_ID_KEY);
+        given(config.credentialId()).willReturn(PINGONE_CREDENTIAL_ID_KEY);
+        given(config.durableRevocation()).willReturn(true);
+        given(config.outboxDirectory()).willReturn(outboxDirectory.toString());
+
+        when(client.revokeCredentialRequest(any(), any(), anyString(), anyString()))
+            .thenThrow(new PingOneCredentialsServiceException("PingOne unavailable"))
+            .thenReturn(Constants.RevokeResult.REVOKED);
+
+        // When
+        Action first = node.process(getContext(sharedState, json(object()), emptyList()));
+        Action second = node.process(getContext(sharedState, json(object()), emptyList()));
+
+        // Then
+        assertThat(first.outcome).isEqualTo(SUCCESS_OUTCOME_ID);
+        assertThat(second.outcome).isEqualTo(SUCCESS_OUTCOME_ID);
+        // The failed revocation is retried, and the duplicate one is not queued
+        verify(client, timeout(5000).times(2))
+            .revokeCredentialRequest(any(), any(), eq("some-user-id"), eq("some-credential-id"));
+        revokeOutbox.drain();
+        verify(client, times(2)).revokeCredentialRequest(any(), any(), anyString(), anyString());
+    }
+
+    @Test
+    public void testRevokesImmediatelyWithoutOutboxDirectory() throws Exception {
+        // Given
+        JsonValue sharedState = json(object(
+            field(REALM, "/realm"),
+            field(PINGONE_USER_ID_KEY, "some-user-id"),
+            field(PINGONE_CREDENTIAL_ID_KEY, "some-credential-id")));
+
+        given(config.pingOneUserIdAttribute()).willReturn(PINGONE_USER_ID_KEY);
+        given(config.credentialId()).willReturn(PINGONE_CREDENTIAL_ID_KEY);
+        given(config.durableRevocation()).willReturn(true);
+        given(config.outboxDirectory()).willReturn("");
+
+        when(client.revokeCredentialRequest(any(), any(), anyString(), anyString()))
+            .thenReturn(Constants.RevokeResult.NOT_FOUND);
+
+        // When
+        Action result = node.process(getContext(sharedState, json(object()), emptyList()));
+
+        // Then
+        assertThat(result.outcome).isEqualTo(NOT_FOUND_OUTCOME_ID);
+        verify(client).revokeCredentialRequest(any(), any(), eq("some-user-id"), eq("some-credential-id"));
+    }
+
+    @Test
+    public void testRevokesAllMatchingCredentials() throws Exception {
+        // Given
+        JsonValue sharedState = json(object(
+            field(REALM, "/realm"),
+            field(PINGONE_USER_ID_KEY, "some-user-id")));
+
+        given(config.pingOneUserIdAttribute()).willReturn(PINGONE_USER_ID_KEY);
+        given(config.revokeAll()).willReturn(true);
+        given(config.credentialTypeIds()).willReturn(List.of("badge-type-id"));
+        given(config.parallelism()).willReturn(2);
+
+        when(client.listCredentials(any(), any(), anyString())).thenReturn(credentials(
+            credential("credential-1", "badge-type-id", "ISSUED"),
+            credential("credential-2", "badge-type-id", "PENDING"),
+            credential("credential-3", "badge-type-id", "REVOKED"),
+            credential("credential-4", "badge-type-id", "ISSUED"),
+            credential("credential-5", "access-type-id", "ISSUED")));
+        when(client.revokeCredentialRequest(any(), any(), anyString(), anyString()))
+            .thenReturn(Constants.RevokeResult.REVOKED);
+        when(client.revokeCredentialRequest(any(), any(), anyString(), eq("credential-2")))
+            .thenReturn(Constants.RevokeResult.NOT_FOUND);
+        when(client.revokeCredentialRequest(any(), any(), anyString(), eq("credential-4")))
+            .thenThrow(new PingOneCredentialsServiceException("PingOne unavailable"));
+
+        TreeContext context = getContext(sharedState, json(object()), emptyList());
+
+        // When
+        Action result = node.process(context);
+
+        // Then
+        assertThat(result.outcome).isEqualTo(ERROR_OUTCOME_ID);
+        JsonValue summary = context.getStateFor(node).get(PINGONE_REVOKED_CREDENTIALS_KEY);
+        assertThat(summary.get("revoked").asList(String.class)).containsExactly("credential-1");
+        assertThat(summary.get("notFound").asList(String.class)).containsExactly("credential-2");
+        assertThat(summary.get("failed").asList(String.class)).containsExactly("credential-4");
+        verify(client, never()).revokeCredentialRequest(any(), any(), anyString(), eq("credential-3"));
+        verify(client, never()).revokeCredentialRequest(any(), any(), anyString(), eq("credential-5"));
+    }
+
+    @Test
+    public void testRevokeAllFiltersByStatus() throws Exception {
+        // Given
+        JsonValue sharedState = json(object(
+            field(REALM, "/realm"),
+            field(PINGONE_USER_ID_KEY, "some-user-id")));
+
+        given(config.pingOneUserIdAttribute()).willReturn(PINGONE_USER_ID_KEY);
+        given(config.revokeAll()).willReturn(true);
+        given(config.credentialStatuses()).willReturn(List.of("ISSUED"));
+
+        when(client.listCredentials(any(), any(), anyString())).thenReturn(credentials(
+            credential("credential-1", "badge-type-id", "ISSUED"),
+            credential("credential-2", "access-type-id", "PENDING")));
+        when(client.revokeCredentialRequest(any(), any(), anyString(), anyString()))
+            .thenReturn(Constants.RevokeResult.REVOKED);
+
+        TreeContext context = getContext(sharedState, json(object()), emptyList());
+
+        // When
+        Action result = node.process(context);
+
+        // Then
+        assertThat(result.outcome).isEqualTo(SUCCESS_OUTCOME_ID);
+        assertThat(context.getStateFor(node).get(PINGONE_REVOKED_CREDENTIALS_KEY).get("revoked").asList(String.class))
+            .containsExactly("credential-1");
+        verify(client, never()).revokeCredentialRequest(any(), any(), anyString(), eq("credential-2"));
+    }
+
     @Test
     public void testGetInputs() {
         given(config.pingOneUserIdAttribute()).willReturn(PINGONE_USER_ID_KEY);
@@ -200,6 +342,19 @@ public class PingOneCredentialsRevokeTest {
         assertThat(result.outcome).isEqualTo(ERROR_OUTCOME_ID);
     }
 
+    private PingOneCredentialsPageIterator credentials(Object... credentials) {
+        return new PingOneCredentialsPageIterator(pageUrl -> json(object(
+            field("_embedded", object(
+                field("credentials", array(credentials)))))), "credentials", new PingOneCredentialsAsyncService());
+    }
+
+    private Object credential(String id, String credentialTypeId, String status) {
+        return object(
+            field("id", id),
+            field("status", status),
+            field("credentialType", object(field("id", credentialTypeId))));
+    }
+
     private TreeContext getContext(JsonValue sharedState, JsonValue transientState,
                                    List<? extends Callback> callbacks) {
         return new TreeContext(sharedState, transientState, new ExternalRequestContext.Builder().build(), callbacks,
@@ -17,6 +17,8 @@ import org.forgerock.openam.integration.pingone.api.PingOneWorkerService;
 import org.forgerock.openam.test.extensions.LoggerExtension;
 import org.forgerock.util.promise.NeverThrowsException;
 import org.forgerock.util.promise.Promise;
+import org.forgerock.util.promise.PromiseImpl;
+import org.forgerock.util.promise.Promises;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -31,14 +33,25 @@ import org.mockito.quality.Strictness;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.forgerock.json.JsonValue.array;
 import static org.forgerock.json.JsonValue.field;
 import static org.forgerock.json.JsonValue.json;
 import static org.forgerock.json.JsonValue.object;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
 
 @ExtendWith(MockitoExtension.class)
 @MockitoSettings(strictness = Strictness.LENIENT)
@@ -67,7 +80,7 @@ public class PingOneCredentialsServiceTest {
         given(worker.environmentId()).willReturn("some-environment-id");
         given(worker.apiUrl()).willReturn("https://api.pingone.com/v1");
 
-        service = new PingOneCredentialsService(handler);
+        service = new PingOneCredentialsService(handler, new PingOneCredentialsAsyncService());
     }
 
     @Test
@@ -240,6 +253,90 @@ public class PingOneCredentialsServiceTest {
             .isEqualTo("edc25883-a7f8-44e3-83eb-3c15a7b58de4");
     }
 
+    @Test
+    public void testFindCredentialsRequest() throws Exception {
+        // Given
+        String pingOneUserId = "some-pingone-userid";
+
+        JsonValue expected = json(object(
+            field("_embedded", object(
+                field("credentials", array(
+                    object(
+                        field("id", "some-credential"),
+                        field("status", "ACTIVE"),
+                        field("credentialType", object(
+                            field("id", "some-credential-type"))),
+                        field("data", object(
+                            field("firstName", "some-first-name"))))))))));
+
+        ArgumentCaptor<Request> captor = ArgumentCaptor.forClass(Request.class);
+        Response response = new Response(Status.OK);
+        response.setEntity(expected);
+
+        given(promise.getOrThrow()).willReturn(response);
+        given(handler.handle(any(), captor.capture())).willReturn(promise);
+
+        // When
+        JsonValue result = service.findCredentialsRequest(accessToken, worker, pingOneUserId);
+
+        // Then
+        Request request = captor.getAllValues().get(0);
+        assertThat(request.getUri().toString()).isEqualTo("https://api.pingone.com/v1/environments/" +
+                                                          "some-environment-id/users/some-pingone-userid/credentials");
+        assertThat(request.getMethod()).isEqualTo("GET");
+        assertThat(request.getHeaders().getFirst("Authorization")).isEqualTo("Bearer some-access-token");
+        assertThat(result.get("_embedded").get("credentials").get(0).get("id").asString()).isEqualTo("some-credential");
+    }
+
+    @Test
+    public void testFindCredentialsRequestFollowsNextPages() throws Exception {
+        // Given
+        String credentialsUrl = "https://api.pingone.com/v1/environments/some-environment-id/users/" +
+                                "some-pingone-userid/credentials";
+        Response firstPage = new Response(Status.OK);
+        firstPage.setEntity(json(object(
+            field("_links", object(
+                field("next", object(field("href", credentialsUrl + "?cursor=some-cursor"))))),
+            field("_embedded", object(
+                field("credentials", array(object(field("id", "some-credential1")))))))));
+        Response secondPage = new Response(Status.OK);
+        secondPage.setEntity(json(object(
+            field("_embedded", object(
+                field("credentials", array(object(field("id", "some-credential2")))))))));
+
+        ArgumentCaptor<Request> captor = ArgumentCaptor.forClass(Request.class);
+        given(promise.getOrThrow()).willReturn(firstPage, secondPage);
+        given(handler.handle(any(), captor.capture())).willReturn(promise);
+
+        // When
+        JsonValue result = service.findCredentialsRequest(accessToken, worker, "some-pingone-userid");
+
+        // Then
+        assertThat(captor.getAllValues().get(1).getUri().toString()).isEqualTo(credentialsUrl + "?cursor=some-cursor");
+        assertThat(result.get("_embedded").get("credentials").size()).isEqualTo(2);
+        assertThat(result.get("_embedded").get("credentials").get(1).get("id").asString())
+            .isEqualTo("some-credential2");
+        assertThat(result.get("_links").isDefined("next")).isFalse();
+    }
+
+    @Test
+    public void testListWalletsRejectsForeignPageUrl() {
+        Response firstPage = new Response(Status.OK);
+        firstPage.setEntity(json(object(
+            field("_links", object(
+                field("next", object(field("href", "https://example.com/digitalWallets?cursor=some-cursor"))))),
+            field("_embedded", object(
+                field("digitalWallets", array(object(field("id", "some-wallet-id1")))))))));
+        given(promise.getOrThrow()).willReturn(firstPage);
+        given(handler.handle(any(), any())).willReturn(promise);
+
+        try (PingOneCredentialsPageIterator wallets = service.listWallets(accessToken, worker, "some-pingone-userid")) {
+            assertThat(wallets.next().get("id").asString()).isEqualTo("some-wallet-id1");
+            assertThatThrownBy(wallets::hasNext).isInstanceOf(IllegalStateException.class);
+        }
+        verify(handler, times(1)).handle(any(), any());
+    }
+
     @Test
     public void testCreateDigitalWalletRequest() throws Exception {
         // Given
@@ -500,6 +597,191 @@ public class PingOneCredentialsServiceTest {
             .isEqualTo("example@email.com");
     }
 
+    @Test
+    public void testReadVerificationSessionCoalescesConcurrentCalls() throws Exception {
+        // Given
+        String sessionId = "some-session-id";
+
+        Response response = new Response(Status.OK);
+        response.setEntity(json(object(
+            field("id", "some-session-id"),
+            field("status", "INITIAL"))));
+
+        CountDownLatch called = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        given(promise.getOrThrow()).willAnswer(invocation -> {
+            called.countDown();
+            release.await();
+            return response;
+        });
+        given(handler.handle(any(), any())).willReturn(promise);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            // When
+            Future<JsonValue> first = executor.submit(
+                () -> service.readVerificationSession(accessToken, worker, sessionId));
+            called.await();
+
+            AtomicReference<Thread> follower = new AtomicReference<>();
+            Future<JsonValue> second = executor.submit(() -> {
+                follower.set(Thread.currentThread());
+                return service.readVerificationSession(accessToken, worker, sessionId);
+            });
+            while (follower.get() == null || follower.get().getState() != Thread.State.WAITING) {
+                Thread.sleep(1);
+            }
+            release.countDown();
+
+            // Then
+            assertThat(first.get().get("status").asString()).isEqualTo("INITIAL");
+            assertThat(second.get().get("status").asString()).isEqualTo("INITIAL");
+            assertThat(second.get()).isNotSameAs(first.get());
+            verify(handler, times(1)).handle(any(), any());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testReadVerificationSessionDoesNotCoalesceCallsOfOtherAccessTokens() throws Exception {
+        // Given
+        Response response = new Response(Status.OK);
+        response.setEntity(json(object(
+            field("id", "some-session-id"),
+            field("status", "INITIAL"))));
+
+        CountDownLatch release = new CountDownLatch(1);
+        given(promise.getOrThrow()).willAnswer(invocation -> {
+            release.await();
+            return response;
+        });
+        given(handler.handle(any(), any())).willReturn(promise);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            // When
+            Future<JsonValue> first = executor.submit(
+                () -> service.readVerificationSession(accessToken, worker, "some-session-id"));
+            Future<JsonValue> second = executor.submit(
+                () -> service.readVerificationSession("other-access-token", worker, "some-session-id"));
+            verify(handler, timeout(5000).times(2)).handle(any(), any());
+            release.countDown();
+
+            // Then
+            assertThat(first.get().get("status").asString()).isEqualTo("INITIAL");
+            assertThat(second.get().get("status").asString()).isEqualTo("INITIAL");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testHedgedReadReturnsFirstResponseAndClosesTheOther() throws Exception {
+        // Given
+        warmUpHedging();
+        PromiseImpl<Response, NeverThrowsException> primary = PromiseImpl.create();
+        given(handler.handle(any(), any()))
+            .willReturn(primary)
+            .willReturn(Promises.newResultPromise(sessionResponse("VERIFICATION_SUCCESSFUL")));
+
+        // When
+        JsonValue result = service.readVerificationSession(accessToken, worker, "some-session-id", true);
+
+        // Then
+        assertThat(result.get("status").asString()).isEqualTo("VERIFICATION_SUCCESSFUL");
+        Response late = mock(Response.class);
+        primary.handleResult(late);
+        verify(late).close();
+    }
+
+    @Test
+    public void testHedgedReadSucceedsWhenOnlyOneCopyFails() throws Exception {
+        // Given
+        warmUpHedging();
+        PromiseImpl<Response, NeverThrowsException> primary = PromiseImpl.create();
+        given(handler.handle(any(), any()))
+            .willReturn(primary)
+            .willAnswer(invocation -> {
+                // The primary copy responds after the hedged copy failed
+                new Thread(() -> primary.handleResult(sessionResponse("VERIFICATION_SUCCESSFUL"))).start();
+                return Promises.newRuntimeExceptionPromise(new IllegalStateException("some-failure"));
+            });
+
+        // When
+        JsonValue result = service.readVerificationSession(accessToken, worker, "some-session-id", true);
+
+        // Then
+        assertThat(result.get("status").asString()).isEqualTo("VERIFICATION_SUCCESSFUL");
+    }
+
+    @Test
+    public void testHedgedReadFailsWhenBothCopiesFail() throws Exception {
+        // Given
+        warmUpHedging();
+        PromiseImpl<Response, NeverThrowsException> primary = PromiseImpl.create();
+        given(handler.handle(any(), any()))
+            .willReturn(primary)
+            .willAnswer(invocation -> {
+                new Thread(() -> primary.handleRuntimeException(new IllegalStateException("some-failure"))).start();
+                return Promises.newRuntimeExceptionPromise(new IllegalStateException("some-failure"));
+            });
+
+        // When / Then
+        assertThatThrownBy(() -> service.readVerificationSession(accessToken, worker, "some-session-id", true))
+            .isInstanceOf(PingOneCredentialsServiceException.class);
+    }
+
+    /**
+     * Record enough fast reads for the next slow read to be hedged.
+     */
+    private void warmUpHedging() throws Exception {
+        given(handler.handle(any(), any()))
+            .willAnswer(invocation -> Promises.newResultPromise(sessionResponse("INITIAL")));
+        for (int i = 0; i < PingOneCredentialsHedgingPolicy.MIN_SAMPLES; i++) {
+            service.readVerificationSession(accessToken, worker, "some-session-id", true);
+        }
+    }
+
+    private static Response sessionResponse(String status) {
+        Response response = new Response(Status.OK);
+        response.setEntity(json(object(
+            field("id", "some-session-id"),
+            field("status", status))));
+        return response;
+    }
+
+    @Test
+    public void testListUsersRequest() throws Exception {
+        // Given
+        ArgumentCaptor<Request> captor = ArgumentCaptor.forClass(Request.class);
+        Response response = new Response(Status.OK);
+        response.setEntity(json(object(
+            field("_embedded", object(
+                field("users", array(object(field("id", "some-pingone-userid")))))))));
+
+        given(promise.getOrThrow()).willReturn(response);
+        given(handler.handle(any(), captor.capture())).willReturn(promise);
+
+        // When
+        JsonValue result = service.listUsersRequest(accessToken, worker, null, 100);
+
+        // Then
+        Request request = captor.getAllValues().get(0);
+        assertThat(request.getUri().toString()).isEqualTo("https://api.pingone.com/v1/environments/" +
+                                                          "some-environment-id/users?limit=100");
+        assertThat(request.getMethod()).isEqualTo("GET");
+        assertThat(result.get("_embedded").get("users").get(0).get("id").asString()).isEqualTo("some-pingone-userid");
+    }
+
+    @Test
+    public void testListUsersRequestRejectsForeignPageUrl() {
+        assertThatThrownBy(() -> service.listUsersRequest(accessToken, worker,
+                                                          "https://example.com/users?cursor=some-cursor", 100))
+            .isInstanceOf(PingOneCredentialsServiceException.class);
+        verifyNoInteractions(handler);
+    }
+
     @Test
     public void testDeleteWalletRequest() throws Exception {
         // Given
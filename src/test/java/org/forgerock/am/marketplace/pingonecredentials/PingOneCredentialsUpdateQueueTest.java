@@ -0,0 +1,153 @@
+/*
+ * Copyright 2024 ForgeRock AS. All Rights Reserved
+ *
+ * Use of this code requires a commercial software license with ForgeRock AS.
+ * or with one of its affiliates. All use shall be exclusively subject
+ * to such license between the licensee and ForgeRock AS.
+ */
+
+package org.forgerock.am.marketplace.pingonecredentials;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.after;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.http.protocol.Response;
+import org.forgerock.http.protocol.Status;
+import org.forgerock.json.JsonValue;
+import org.forgerock.openam.integration.pingone.api.PingOneWorkerService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class PingOneCredentialsUpdateQueueTest {
+
+    @Mock
+    PingOneCredentialsService client;
+
+    @Mock
+    PingOneWorkerService.Worker worker;
+
+    PingOneCredentialsUpdateQueue queue;
+
+    List<JsonValue> sent;
+
+    @BeforeEach
+    public void setup() {
+        given(worker.environmentId()).willReturn("some-environment-id");
+        queue = new PingOneCredentialsUpdateQueue(client);
+        sent = new CopyOnWriteArrayList<>();
+    }
+
+    @Test
+    public void testMergesUpdatesOfCredentialAndFlushesThemOnce() throws Exception {
+        // Given
+        given(client.credentialUpdateRequest(any(), any(), anyString(), anyString(), anyString(), any()))
+            .willReturn(json(object(field("id", "some-credential-id"))));
+
+        // When
+        enqueue(json(object(field("name", "John"), field("lastVerified", "2024-07-01T10:00:00Z"))),
+                Duration.ofMillis(200));
+        enqueue(json(object(field("lastVerified", "2024-07-01T10:00:01Z"))), Duration.ofMillis(200));
+
+        // Then
+        ArgumentCaptor<JsonValue> captor = ArgumentCaptor.forClass(JsonValue.class);
+        verify(client, timeout(5000).times(1)).credentialUpdateRequest(eq("some-access-token"), eq(worker),
+                                                                       eq("some-user-id"),
+                                                                       eq("some-credential-type-id"),
+                                                                       eq("some-credential-id"), captor.capture());
+        assertThat(captor.getValue().get("name").asString()).isEqualTo("John");
+        assertThat(captor.getValue().get("lastVerified").asString()).isEqualTo("2024-07-01T10:00:01Z");
+        verify(client, after(500).times(1)).credentialUpdateRequest(any(), any(), anyString(), anyString(),
+                                                                    anyString(), any());
+        assertThat(sent).hasSize(1);
+        assertThat(queue.size()).isZero();
+    }
+
+    @Test
+    public void testDoesNotSendUpdateWhileEarlierUpdateOfCredentialIsSent() throws Exception {
+        // Given
+        CountDownLatch firstStarted = new CountDownLatch(1);
+        CountDownLatch releaseFirst = new CountDownLatch(1);
+        given(client.credentialUpdateRequest(any(), any(), anyString(), anyString(), anyString(), any()))
+            .willAnswer(invocation -> {
+                firstStarted.countDown();
+                releaseFirst.await(5, TimeUnit.SECONDS);
+                return json(object(field("id", "some-credential-id")));
+            });
+        enqueue(json(object(field("name", "John"))), Duration.ZERO);
+        assertThat(firstStarted.await(5, TimeUnit.SECONDS)).isTrue();
+
+        // When
+        enqueue(json(object(field("name", "Jane"))), Duration.ZERO);
+
+        // Then
+        verify(client, after(300).times(1)).credentialUpdateRequest(any(), any(), anyString(), anyString(),
+                                                                    anyString(), any());
+        releaseFirst.countDown();
+        verify(client, timeout(5000).times(2)).credentialUpdateRequest(any(), any(), anyString(), anyString(),
+                                                                       anyString(), any());
+    }
+
+    @Test
+    public void testRetriesFailedUpdate() throws Exception {
+        // Given
+        given(client.credentialUpdateRequest(any(), any(), anyString(), anyString(), anyString(), any()))
+            .willThrow(new PingOneCredentialsServiceException("Service unavailable",
+                                                              new Response(Status.SERVICE_UNAVAILABLE)))
+            .willReturn(json(object(field("id", "some-credential-id"))));
+
+        // When
+        enqueue(json(object(field("name", "John"))), Duration.ZERO);
+
+        // Then
+        verify(client, timeout(5000).times(2)).credentialUpdateRequest(any(), any(), anyString(), anyString(),
+                                                                       anyString(), any());
+        verify(client, after(200).times(2)).credentialUpdateRequest(any(), any(), anyString(), anyString(),
+                                                                    anyString(), any());
+        assertThat(sent).hasSize(1);
+    }
+
+    @Test
+    public void testDoesNotRetryUpdateRejectedByPingOne() throws Exception {
+        // Given
+        given(client.credentialUpdateRequest(any(), any(), anyString(), anyString(), anyString(), any()))
+            .willThrow(new PingOneCredentialsServiceException("Bad request", new Response(Status.BAD_REQUEST)));
+
+        // When
+        enqueue(json(object(field("name", "John"))), Duration.ZERO);
+
+        // Then
+        verify(client, after(1500).times(1)).credentialUpdateRequest(any(), any(), anyString(), anyString(),
+                                                                     anyString(), any());
+        assertThat(sent).isEmpty();
+        assertThat(queue.size()).isZero();
+    }
+
+    private void enqueue(JsonValue attributes, Duration window) {
+        assertThat(queue.enqueue("some-access-token", worker, "some-user-id", "some-credential-type-id",
+                                 "some-credential-id", attributes, window, sent::add)).isTrue();
+    }
+}
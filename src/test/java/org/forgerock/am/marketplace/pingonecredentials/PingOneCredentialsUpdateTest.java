@@ -24,13 +24,19 @@ import static org.forgerock.json.JsonValue.object;
 import static org.forgerock.openam.auth.node.api.SharedStateConstants.REALM;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import javax.security.auth.callback.Callback;
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -52,6 +58,7 @@ import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.api.extension.RegisterExtension;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.mockito.junit.jupiter.MockitoSettings;
@@ -84,9 +91,11 @@ public class PingOneCredentialsUpdateTest {
     @BeforeEach
     public void setup() throws Exception {
         given(pingOneWorkerService.getWorker(any(), anyString())).willReturn(Optional.of(worker));
+        given(config.pingOneWorker()).willReturn(worker);
         given(pingOneWorkerService.getAccessTokenId(any(), any())).willReturn("some-access-token");
 
-        node = new PingOneCredentialsUpdate(config, realm, pingOneWorkerService, client);
+        node = new PingOneCredentialsUpdate(config, realm, pingOneWorkerService, client,
+                                            new PingOneCredentialsUpdateQueue(client));
     }
 
     @Test
@@ -132,6 +141,156 @@ public class PingOneCredentialsUpdateTest {
         assertThat(result.outcome).isEqualTo(SUCCESS_OUTCOME_ID);
     }
 
+    @Test
+    public void testSkipsUnchangedUpdate() throws Exception {
+        // Given
+        JsonValue sharedState = json(object(
+            field(REALM, "/realm"),
+            field(PINGONE_USER_ID_KEY, "some-user-id"),
+            field(PINGONE_CREDENTIAL_ID_KEY, "some-unchanged-credential-id"),
+            field("sharedStateGivenName", "John")));
+
+        given(config.pingOneUserIdAttribute()).willReturn(PINGONE_USER_ID_KEY);
+        given(config.credentialTypeId()).willReturn("some-credential-type-id");
+        given(config.credentialId()).willReturn(PINGONE_CREDENTIAL_ID_KEY);
+        given(config.attributes()).willReturn(Map.of("credentialsGivenName", "sharedStateGivenName"));
+        given(config.skipUnchanged()).willReturn(true);
+
+        when(client.credentialUpdateRequest(any(), any(), anyString(), anyString(), anyString(), any()))
+            .thenReturn(json(object(field("id", "some-unchanged-credential-id"))));
+
+        node.process(getContext(sharedState.copy(), json(object()), emptyList()));
+
+        // When
+        Action result = node.process(getContext(sharedState.copy(), json(object()), emptyList()));
+
+        // Then
+        assertThat(result.outcome).isEqualTo(SUCCESS_OUTCOME_ID);
+        verify(client, times(1)).credentialUpdateRequest(any(), any(), anyString(), anyString(), anyString(), any());
+        verify(pingOneWorkerService, times(1)).getAccessTokenId(any(), any());
+    }
+
+    @Test
+    public void testPersistsUpdateHashInIdentityAttribute() throws Exception {
+        // Given
+        JsonValue sharedState = json(object(
+            field(REALM, "/realm"),
+            field(PINGONE_USER_ID_KEY, "some-user-id"),
+            field(PINGONE_CREDENTIAL_ID_KEY, "some-persisted-credential-id"),
+            field("sharedStateGivenName", "John")));
+
+        given(config.pingOneUserIdAttribute()).willReturn(PINGONE_USER_ID_KEY);
+        given(config.credentialTypeId()).willReturn("some-credential-type-id");
+        given(config.credentialId()).willReturn(PINGONE_CREDENTIAL_ID_KEY);
+        given(config.attributes()).willReturn(Map.of("credentialsGivenName", "sharedStateGivenName"));
+        given(config.skipUnchanged()).willReturn(true);
+        given(config.updateHashAttribute()).willReturn("credentialUpdateHash");
+
+        when(client.credentialUpdateRequest(any(), any(), anyString(), anyString(), anyString(), any()))
+            .thenReturn(json(object(field("id", "some-persisted-credential-id"))));
+
+        TreeContext context = getContext(sharedState, json(object()), emptyList());
+
+        // When
+        Action result = node.process(context);
+
+        // Then
+        assertThat(result.outcome).isEqualTo(SUCCESS_OUTCOME_ID);
+        assertThat(context.getStateFor(node).get(OBJECT_ATTRIBUTES).get("credentialUpdateHash").asString())
+            .startsWith("some-persisted-credential-id:");
+    }
+
+    @Test
+    public void testMergesQueuedUpdates() throws Exception {
+        // Given
+        given(config.pingOneUserIdAttribute()).willReturn(PINGONE_USER_ID_KEY);
+        given(config.credentialTypeId()).willReturn("some-credential-type-id");
+        given(config.credentialId()).willReturn(PINGONE_CREDENTIAL_ID_KEY);
+        given(config.attributes()).willReturn(Map.of("credentialsLastVerified", "sharedStateLastVerified"));
+        given(config.asyncUpdate()).willReturn(true);
+        given(config.asyncUpdateWindow()).willReturn(Duration.ofMillis(500));
+
+        // When
+        Action first = node.process(getContext(queuedUpdateState("2024-07-01T10:00:00Z"), json(object()),
+                                               emptyList()));
+        Action second = node.process(getContext(queuedUpdateState("2024-07-01T10:00:01Z"), json(object()),
+                                                emptyList()));
+
+        // Then
+        assertThat(first.outcome).isEqualTo(SUCCESS_OUTCOME_ID);
+        assertThat(second.outcome).isEqualTo(SUCCESS_OUTCOME_ID);
+        verify(client, never()).credentialUpdateRequest(any(), any(), anyString(), anyString(), anyString(), any());
+
+        ArgumentCaptor<JsonValue> captor = ArgumentCaptor.forClass(JsonValue.class);
+        verify(client, timeout(5000).times(1)).credentialUpdateRequest(any(), any(), eq("some-user-id"),
+                                                                       eq("some-credential-type-id"),
+                                                                       eq("some-queued-credential-id"),
+                                                                       captor.capture());
+        assertThat(captor.getValue().get("credentialsLastVerified").asString()).isEqualTo("2024-07-01T10:00:01Z");
+    }
+
+    @Test
+    public void testClearsUpdateHashOfQueuedUpdate() throws Exception {
+        // Given
+        given(config.pingOneUserIdAttribute()).willReturn(PINGONE_USER_ID_KEY);
+        given(config.credentialTypeId()).willReturn("some-credential-type-id");
+        given(config.credentialId()).willReturn(PINGONE_CREDENTIAL_ID_KEY);
+        given(config.attributes()).willReturn(Map.of("credentialsLastVerified", "sharedStateLastVerified"));
+        given(config.skipUnchanged()).willReturn(true);
+        given(config.updateHashAttribute()).willReturn("credentialUpdateHash");
+        given(config.asyncUpdate()).willReturn(true);
+        given(config.asyncUpdateWindow()).willReturn(Duration.ofMillis(500));
+
+        JsonValue sharedState = queuedUpdateState("2024-07-01T10:00:00Z");
+        sharedState.put(OBJECT_ATTRIBUTES, object(
+            field("credentialUpdateHash", "some-queued-credential-id:some-hash")));
+        TreeContext context = getContext(sharedState, json(object()), emptyList());
+
+        // When
+        Action result = node.process(context);
+
+        // Then
+        assertThat(result.outcome).isEqualTo(SUCCESS_OUTCOME_ID);
+        assertThat(context.getStateFor(node).get(OBJECT_ATTRIBUTES).get("credentialUpdateHash").isNull()).isTrue();
+    }
+
+    @Test
+    public void testDoesNotSkipQueuedUpdateOnPersistedHash() throws Exception {
+        // Given
+        given(config.pingOneUserIdAttribute()).willReturn(PINGONE_USER_ID_KEY);
+        given(config.credentialTypeId()).willReturn("some-credential-type-id");
+        given(config.credentialId()).willReturn(PINGONE_CREDENTIAL_ID_KEY);
+        given(config.attributes()).willReturn(Map.of("credentialsLastVerified", "sharedStateLastVerified"));
+        given(config.skipUnchanged()).willReturn(true);
+        given(config.updateHashAttribute()).willReturn("credentialUpdateHash");
+        given(config.asyncUpdate()).willReturn(true);
+        given(config.asyncUpdateWindow()).willReturn(Duration.ofMillis(500));
+
+        // The hash of the same update, persisted by an earlier update which may not have reached PingOne
+        String updateHash = PingOneCredentialsHash.of(json(object(
+            field("credentialType", "some-credential-type-id"),
+            field("data", object(field("credentialsLastVerified", "2024-07-01T10:00:00Z"))))));
+        JsonValue sharedState = queuedUpdateState("2024-07-01T10:00:00Z");
+        sharedState.put(PINGONE_CREDENTIAL_ID_KEY, "some-unconfirmed-credential-id");
+        sharedState.put(OBJECT_ATTRIBUTES, object(
+            field("credentialUpdateHash", "some-unconfirmed-credential-id:" + updateHash)));
+
+        // When
+        node.process(getContext(sharedState, json(object()), emptyList()));
+
+        // Then
+        verify(client, timeout(5000)).credentialUpdateRequest(any(), any(), anyString(), anyString(),
+                                                              eq("some-unconfirmed-credential-id"), any());
+    }
+
+    private JsonValue queuedUpdateState(String lastVerified) {
+        return json(object(
+            field(REALM, "/realm"),
+            field(PINGONE_USER_ID_KEY, "some-user-id"),
+            field(PINGONE_CREDENTIAL_ID_KEY, "some-queued-credential-id"),
+            field("sharedStateLastVerified", lastVerified)));
+    }
+
     @Test
     public void testGetInputs() {
         Map<String, String> attributes = new HashMap<String, String>();
@@ -17,9 +17,14 @@ import static org.forgerock.json.JsonValue.json;
 import static org.forgerock.json.JsonValue.object;
 import static org.forgerock.openam.auth.node.api.SharedStateConstants.REALM;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import javax.security.auth.callback.Callback;
@@ -34,6 +39,7 @@ import org.forgerock.json.JsonValue;
 import org.forgerock.openam.auth.node.api.Action;
 import org.forgerock.openam.auth.node.api.ExternalRequestContext;
 import org.forgerock.openam.auth.node.api.InputState;
+import org.forgerock.openam.auth.node.api.NodeState;
 import org.forgerock.openam.auth.node.api.OutcomeProvider;
 import org.forgerock.openam.auth.node.api.OutputState;
 import org.forgerock.openam.auth.node.api.TreeContext;
@@ -79,15 +85,20 @@ public class PingOneCredentialsVerificationTest {
 
     PingOneCredentialsVerification node;
 
+    PingOneCredentialsAsyncService asyncService;
+
     @Mock
     LocalizationHelper localizationHelper;
 
     @BeforeEach
     public void setup() throws Exception {
         given(pingOneWorkerService.getWorker(any(), anyString())).willReturn(Optional.of(worker));
+        given(config.pingOneWorker()).willReturn(worker);
         given(pingOneWorkerService.getAccessTokenId(any(), any())).willReturn("some-access-token");
 
-        node = new PingOneCredentialsVerification(config, realm, pingOneWorkerService, client, localizationHelper);
+        asyncService = new PingOneCredentialsAsyncService();
+        node = new PingOneCredentialsVerification(config, realm, pingOneWorkerService, client, localizationHelper,
+                                                  new PingOneCredentialsQrCodeRenderer(), asyncService);
     }
 
     @Test
@@ -163,6 +174,41 @@ public class PingOneCredentialsVerificationTest {
         assertThat(result.callbacks.size()).isEqualTo(numberOfExpectedCallbacks);
     }
 
+    @Test
+    public void testReusesPendingVerificationSession() throws Exception {
+        // Given
+        given(config.credentialType()).willReturn("some-credential-type");
+        given(config.deliveryMethod()).willReturn(VerificationDeliveryMethod.QRCODE);
+        given(config.allowDeliveryMethodSelection()).willReturn(false);
+        given(config.reuseVerificationSession()).willReturn(true);
+        given(config.timeout()).willReturn(Duration.ofSeconds(120));
+        given(localizationHelper.getLocalizedMessage(any(), any(), any(), anyString()))
+            .willReturn("Some localized text");
+
+        JsonValue response = json(object(
+            field("id", "some-session-id"),
+            field("status", "INITIAL"),
+            field("_links", object(
+                field("appOpenUrl", object(
+                    field("href", "https://shocard.pingone.com/appopen?u=some-session-url")))))));
+
+        when(client.createVerificationRequest(any(), any(), anyString(), anyString(), any(), any(), any()))
+            .thenReturn(response);
+        when(client.readVerificationSession(any(), any(), anyString(), anyBoolean())).thenReturn(response);
+
+        TreeContext context = getContext(json(object(field(REALM, "/realm"))), json(object()), emptyList());
+        node.process(context);
+
+        // When
+        Action result = node.process(context);
+
+        // Then
+        assertThat(result.callbacks.size()).isEqualTo(4);
+        verify(client, times(1)).createVerificationRequest(any(), any(), anyString(), anyString(), any(), any(),
+                                                            any());
+        verify(client).readVerificationSession(any(), any(), eq("some-session-id"), anyBoolean());
+    }
+
     @Test
     public void testVerifyTransactionInitiatedButNodeTimesOut() throws Exception {
         // Given
@@ -184,7 +230,7 @@ public class PingOneCredentialsVerificationTest {
                     field("href", "https://shocard.pingone.com/appopen?u=https%3A%2F%2Fapi.pingone.com" +
                                   "%2Fv1%2Fdistributedid%2Frequests%2Fe4974bd1-0094-4586-8e43-28c4409d4bd7")))))));
 
-        when(client.readVerificationSession(any(), any(), anyString())).thenReturn(response);
+        when(client.readVerificationSession(any(), any(), anyString(), anyBoolean())).thenReturn(response);
 
         // When
         Action result = node.process(getContext(sharedState, json(object()), singletonList(mock(PollingWaitCallback.class))));
@@ -216,7 +262,7 @@ public class PingOneCredentialsVerificationTest {
         given(localizationHelper.getLocalizedMessage(any(), any(), any(), anyString()))
             .willReturn("Some localized text");
 
-        when(client.readVerificationSession(any(), any(), anyString())).thenReturn(response);
+        when(client.readVerificationSession(any(), any(), anyString(), anyBoolean())).thenReturn(response);
 
         // When
         Action result = node.process(getContext(sharedState, json(object()), singletonList(mock(PollingWaitCallback.class))));
@@ -225,6 +271,250 @@ public class PingOneCredentialsVerificationTest {
         assertThat(result.outcome).isEqualTo(expectedOutcome);
     }
 
+    @Test
+    public void testStartsPushAndQRCodeSessions() throws Exception {
+        // Given
+        given(config.credentialType()).willReturn("some-credential-type");
+        given(config.deliveryMethod()).willReturn(VerificationDeliveryMethod.PUSH_AND_QRCODE);
+        given(config.digitalWalletApplicationId()).willReturn(Optional.of("some-digital-wallet-app-id"));
+        given(config.allowDeliveryMethodSelection()).willReturn(false);
+        given(localizationHelper.getLocalizedMessage(any(), any(), any(), anyString()))
+            .willReturn("Some localized text");
+
+        JsonValue sharedState = json(object(
+            field(REALM, "/realm"),
+            field(PINGONE_APPLICATION_INSTANCE_ID_KEY, "some-application-instance-id")));
+
+        when(client.createVerificationRequest(any(), any(), anyString(), anyString(), any(), any(), any()))
+            .thenReturn(json(object(
+                field("id", "some-qr-session-id"),
+                field("_links", object(
+                    field("appOpenUrl", object(
+                        field("href", "https://shocard.pingone.com/appopen?u=some-session-url"))))))));
+        when(client.createVerificationRequestPush(any(), any(), anyString(), anyString(), any(),
+                                                  anyString(), anyString(), any()))
+            .thenReturn(json(object(field("id", "some-push-session-id"))));
+
+        TreeContext context = getContext(sharedState, json(object()), emptyList());
+
+        // When
+        Action result = node.process(context);
+
+        // Then
+        assertThat(result.callbacks.size()).isEqualTo(4);
+        NodeState nodeState = context.getStateFor(node);
+        assertThat(nodeState.get(PINGONE_VERIFICATION_SESSION_KEY).asString()).isEqualTo("some-qr-session-id");
+        assertThat(nodeState.isDefined(PINGONE_VERIFICATION_PUSH_HANDLE_KEY)).isTrue();
+        assertThat(nodeState.isDefined(PINGONE_VERIFICATION_PUSH_SESSION_KEY)).isFalse();
+    }
+
+    @Test
+    public void testClaimsPushSessionOnFirstPoll() throws Exception {
+        // Given
+        String handle = asyncService.submit(() -> json(object(field("id", "some-push-session-id")))).orElseThrow();
+        while (!asyncService.isDone(handle)) {
+            Thread.sleep(10);
+        }
+        JsonValue sharedState = json(object(
+            field(REALM, "/realm"),
+            field(PINGONE_VERIFICATION_SESSION_KEY, "some-qr-session-id"),
+            field(PINGONE_VERIFICATION_PUSH_HANDLE_KEY, handle),
+            field(PINGONE_VERIFICATION_TIMEOUT_KEY, 5000)));
+
+        given(config.timeout()).willReturn(Duration.ofSeconds(120));
+        given(config.deliveryMethod()).willReturn(VerificationDeliveryMethod.PUSH_AND_QRCODE);
+        given(config.allowDeliveryMethodSelection()).willReturn(false);
+        given(localizationHelper.getLocalizedMessage(any(), any(), any(), anyString()))
+            .willReturn("Some localized text");
+
+        when(client.readVerificationSession(any(), any(), eq("some-qr-session-id"), anyBoolean()))
+            .thenReturn(json(object(
+                field("id", "some-qr-session-id"),
+                field("status", "INITIAL"),
+                field("_links", object(
+                    field("appOpenUrl", object(
+                        field("href", "https://shocard.pingone.com/appopen?u=some-session-url"))))))));
+        when(client.readVerificationSession(any(), any(), eq("some-push-session-id"), anyBoolean()))
+            .thenReturn(json(object(field("id", "some-push-session-id"), field("status", "INITIAL"))));
+
+        TreeContext context = getContext(sharedState, json(object()), singletonList(mock(PollingWaitCallback.class)));
+
+        // When
+        node.process(context);
+
+        // Then
+        NodeState nodeState = context.getStateFor(node);
+        assertThat(nodeState.isDefined(PINGONE_VERIFICATION_PUSH_HANDLE_KEY)).isFalse();
+        assertThat(nodeState.get(PINGONE_VERIFICATION_PUSH_SESSION_KEY).asString()).isEqualTo("some-push-session-id");
+        verify(client).readVerificationSession(any(), any(), eq("some-push-session-id"), anyBoolean());
+    }
+
+    @Test
+    public void testKeepsWaitingForPushSessionWhenQRCodeSessionExpired() throws Exception {
+        // Given
+        JsonValue sharedState = json(object(
+            field(REALM, "/realm"),
+            field(PINGONE_VERIFICATION_SESSION_KEY, "some-qr-session-id"),
+            field(PINGONE_VERIFICATION_PUSH_SESSION_KEY, "some-push-session-id"),
+            field(PINGONE_VERIFICATION_TIMEOUT_KEY, 5000)));
+
+        given(config.timeout()).willReturn(Duration.ofSeconds(120));
+        given(config.deliveryMethod()).willReturn(VerificationDeliveryMethod.PUSH_AND_QRCODE);
+        given(config.allowDeliveryMethodSelection()).willReturn(false);
+        given(localizationHelper.getLocalizedMessage(any(), any(), any(), anyString()))
+            .willReturn("Some localized text");
+
+        when(client.readVerificationSession(any(), any(), eq("some-qr-session-id"), anyBoolean()))
+            .thenReturn(json(object(
+                field("id", "some-qr-session-id"),
+                field("status", "EXPIRED"),
+                field("_links", object(
+                    field("appOpenUrl", object(
+                        field("href", "https://shocard.pingone.com/appopen?u=some-session-url"))))))));
+        when(client.readVerificationSession(any(), any(), eq("some-push-session-id"), anyBoolean()))
+            .thenReturn(json(object(field("id", "some-push-session-id"), field("status", "INITIAL"))));
+
+        // When
+        Action result = node.process(getContext(sharedState, json(object()),
+                                                singletonList(mock(PollingWaitCallback.class))));
+
+        // Then
+        assertThat(result.outcome).isNull();
+        assertThat(result.callbacks).isNotEmpty();
+    }
+
+    @Test
+    public void testPushSessionCompletesPushAndQRCodeVerification() throws Exception {
+        // Given
+        JsonValue sharedState = json(object(
+            field(REALM, "/realm"),
+            field(PINGONE_VERIFICATION_SESSION_KEY, "some-qr-session-id"),
+            field(PINGONE_VERIFICATION_PUSH_SESSION_KEY, "some-push-session-id"),
+            field(PINGONE_VERIFICATION_TIMEOUT_KEY, 5000)));
+
+        given(config.timeout()).willReturn(Duration.ofSeconds(120));
+        given(config.deliveryMethod()).willReturn(VerificationDeliveryMethod.PUSH_AND_QRCODE);
+        given(config.allowDeliveryMethodSelection()).willReturn(false);
+
+        when(client.readVerificationSession(any(), any(), eq("some-qr-session-id"), anyBoolean()))
+            .thenReturn(json(object(field("id", "some-qr-session-id"), field("status", "INITIAL"))));
+        when(client.readVerificationSession(any(), any(), eq("some-push-session-id"), anyBoolean()))
+            .thenReturn(json(object(
+                field("id", "some-push-session-id"),
+                field("status", "VERIFICATION_SUCCESSFUL"),
+                field("applicationInstance", object(field("id", "some-application-instance-id"))))));
+
+        // When
+        Action result = node.process(getContext(sharedState, json(object()),
+                                                singletonList(mock(PollingWaitCallback.class))));
+
+        // Then
+        assertThat(result.outcome).isEqualTo(SUCCESS_OUTCOME_ID);
+    }
+
+    @Test
+    public void testStoresProjectedVerificationResponse() throws Exception {
+        // Given
+        JsonValue sharedState = json(object(
+            field(REALM, "/realm"),
+            field(PINGONE_VERIFICATION_SESSION_KEY, "some-session-id"),
+            field(PINGONE_VERIFICATION_TIMEOUT_KEY, 5000)));
+
+        given(config.timeout()).willReturn(Duration.ofSeconds(120));
+        given(config.deliveryMethod()).willReturn(VerificationDeliveryMethod.QRCODE);
+        given(config.allowDeliveryMethodSelection()).willReturn(false);
+        given(config.storeVerificationResponse()).willReturn(true);
+        given(config.verificationResponseFields()).willReturn(List.of("/status", "/data/name", "/missing"));
+
+        when(client.readVerificationSession(any(), any(), anyString(), anyBoolean())).thenReturn(json(object(
+            field("id", "some-session-id"),
+            field("status", "VERIFICATION_SUCCESSFUL"),
+            field("applicationInstance", object(field("id", "some-application-instance-id"))),
+            field("data", object(
+                field("name", "John"),
+                field("email", "john@example.com"))))));
+        TreeContext context = getContext(sharedState, json(object()),
+                                         singletonList(mock(PollingWaitCallback.class)));
+
+        // When
+        Action result = node.process(context);
+
+        // Then
+        assertThat(result.outcome).isEqualTo(SUCCESS_OUTCOME_ID);
+        JsonValue stored = context.getStateFor(node).get(PINGONE_CREDENTIAL_VERIFICATION_KEY);
+        assertThat(stored.get("status").asString()).isEqualTo("VERIFICATION_SUCCESSFUL");
+        assertThat(stored.get("data").get("name").asString()).isEqualTo("John");
+        assertThat(stored.get("data").isDefined("email")).isFalse();
+        assertThat(stored.isDefined("id")).isFalse();
+        assertThat(stored.isDefined("missing")).isFalse();
+    }
+
+    @Test
+    public void testTrustsVerificationWithinTrustWindow() throws Exception {
+        // Given
+        givenTrustWindow();
+        JsonValue sharedState = json(object(
+            field(REALM, "/realm"),
+            field(PINGONE_VERIFICATION_SESSION_KEY, "some-session-id"),
+            field(PINGONE_VERIFICATION_TIMEOUT_KEY, 5000)));
+        node.process(getContext(sharedState, json(object()), singletonList(mock(PollingWaitCallback.class))));
+
+        // When
+        Action result = node.process(getContext(sharedState, json(object()), emptyList()));
+
+        // Then
+        assertThat(result.outcome).isEqualTo(SUCCESS_OUTCOME_ID);
+        verify(client, never()).createVerificationRequest(any(), any(), anyString(), anyString(), any(), any(),
+                                                          any());
+        verify(pingOneWorkerService, times(1)).getAccessTokenId(any(), any());
+    }
+
+    @Test
+    public void testDoesNotTrustVerificationOfAnotherJourney() throws Exception {
+        // Given
+        givenTrustWindow();
+        node.process(getContext(json(object(
+            field(REALM, "/realm"),
+            field(PINGONE_VERIFICATION_SESSION_KEY, "some-session-id"),
+            field(PINGONE_VERIFICATION_TIMEOUT_KEY, 5000))), json(object()),
+                                singletonList(mock(PollingWaitCallback.class))));
+
+        // The application instance ID is also found by the Find Wallets node from the username alone
+        JsonValue sharedState = json(object(
+            field(REALM, "/realm"),
+            field(PINGONE_APPLICATION_INSTANCE_ID_KEY, "some-trusted-application-instance-id")));
+        when(client.createVerificationRequest(any(), any(), anyString(), anyString(), any(), any(), any()))
+            .thenReturn(json(object(
+                field("id", "some-new-session-id"),
+                field("status", "INITIAL"),
+                field("_links", object(
+                    field("appOpenUrl", object(field("href", "https://credentials.customer.com?u=some-url"))))))));
+
+        given(localizationHelper.getLocalizedMessage(any(), any(), any(), anyString()))
+            .willReturn("Some localized text");
+
+        // When
+        Action result = node.process(getContext(sharedState, json(object()), emptyList()));
+
+        // Then
+        assertThat(result.callbacks).hasSize(4);
+        verify(client).createVerificationRequest(any(), any(), anyString(), anyString(), any(), any(), any());
+    }
+
+    private void givenTrustWindow() throws Exception {
+        given(config.timeout()).willReturn(Duration.ofSeconds(120));
+        given(config.credentialType()).willReturn("some-credential-type");
+        given(config.attributeKeys()).willReturn(List.of("name", "email"));
+        given(config.deliveryMethod()).willReturn(VerificationDeliveryMethod.QRCODE);
+        given(config.allowDeliveryMethodSelection()).willReturn(false);
+        given(config.trustWindow()).willReturn(Duration.ofMinutes(5));
+
+        when(client.readVerificationSession(any(), any(), anyString(), anyBoolean())).thenReturn(json(object(
+            field("id", "some-session-id"),
+            field("status", "VERIFICATION_SUCCESSFUL"),
+            field("applicationInstance", object(field("id", "some-trusted-application-instance-id"))))));
+    }
+
     @Test
     public void testGetInputs() {
         given(config.digitalWalletApplicationId()).willReturn(Optional.of("some-digital-wallet-app-id"));
@@ -254,6 +544,9 @@ public class PingOneCredentialsVerificationTest {
 
         assertThat(inputs[7].name).isEqualTo(REQUESTED_CREDENTIALS);
         assertThat(inputs[7].required).isEqualTo(false);
+
+        assertThat(inputs[8].name).isEqualTo(PINGONE_VERIFICATION_SESSION_HASH_KEY);
+        assertThat(inputs[8].required).isEqualTo(false);
     }
 
     @Test
@@ -263,6 +556,8 @@ public class PingOneCredentialsVerificationTest {
         assertThat(outputs[0].name).isEqualTo(PINGONE_VERIFICATION_SESSION_KEY);
         assertThat(outputs[1].name).isEqualTo(PINGONE_VERIFICATION_DELIVERY_METHOD_KEY);
         assertThat(outputs[2].name).isEqualTo(PINGONE_VERIFICATION_TIMEOUT_KEY);
+        assertThat(outputs[3].name).isEqualTo(PINGONE_VERIFICATION_SESSION_HASH_KEY);
+        assertThat(outputs[4].name).isEqualTo(PINGONE_VERIFICATION_PUSH_SESSION_KEY);
     }
 
     @Test
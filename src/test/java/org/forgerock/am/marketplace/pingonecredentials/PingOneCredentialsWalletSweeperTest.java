@@ -0,0 +1,150 @@
+/*
+ * Copyright 2024 ForgeRock AS. All Rights Reserved
+ *
+ * Use of this code requires a commercial software license with ForgeRock AS.
+ * or with one of its affiliates. All use shall be exclusively subject
+ * to such license between the licensee and ForgeRock AS.
+ */
+
+package org.forgerock.am.marketplace.pingonecredentials;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.json.JsonValue.array;
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.BDDMockito.given;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.Optional;
+import java.util.Properties;
+
+import org.forgerock.openam.core.realms.Realm;
+import org.forgerock.openam.core.realms.RealmLookup;
+import org.forgerock.openam.integration.pingone.api.PingOneWorkerService;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+public class PingOneCredentialsWalletSweeperTest {
+
+    @Mock
+    PingOneCredentialsService client;
+
+    @Mock
+    PingOneWorkerService.Worker worker;
+
+    @Mock
+    PingOneWorkerService pingOneWorkerService;
+
+    @Mock
+    RealmLookup realmLookup;
+
+    @Mock
+    Realm realm;
+
+    @TempDir
+    Path directory;
+
+    @Test
+    public void testDeletesStaleWalletsAndAdvancesCursor() throws Exception {
+        // Given
+        String next = "https://api.pingone.com/v1/environments/some-environment-id/users?cursor=some-cursor";
+        given(client.listUsersRequest(any(), any(), isNull(), anyInt())).willReturn(json(object(
+            field("_links", object(
+                field("next", object(field("href", next))))),
+            field("_embedded", object(
+                field("users", array(object(field("id", "some-user-id")))))))));
+
+        given(client.findWalletRequest(any(), any(), eq("some-user-id"))).willReturn(json(object(
+            field("_embedded", object(
+                field("digitalWallets", array(
+                    object(
+                        field("id", "some-active-wallet-id"),
+                        field("status", "ACTIVE"),
+                        field("updatedAt", "2024-01-01T00:00:00Z")),
+                    object(
+                        field("id", "some-stale-wallet-id"),
+                        field("status", "PAIRING_REQUIRED"),
+                        field("updatedAt", "2024-01-01T00:00:00Z")),
+                    object(
+                        field("id", "some-recent-wallet-id"),
+                        field("status", "PAIRING_REQUIRED"),
+                        field("updatedAt", "2024-06-30T00:00:00Z")))))))));
+
+        given(client.deleteWalletRequest(any(), any(), anyString(), anyString())).willReturn(true);
+
+        Path cursorFile = directory.resolve("cursor");
+        PingOneCredentialsWalletSweeper sweeper = new PingOneCredentialsWalletSweeper(
+            client, new PingOneCredentialsApiBudget(1000), 0.5, Duration.ofDays(7), cursorFile,
+            Clock.fixed(Instant.parse("2024-07-01T00:00:00Z"), ZoneOffset.UTC));
+
+        // When
+        int deleted = sweeper.sweep(() -> "some-access-token", worker);
+
+        // Then
+        assertThat(deleted).isEqualTo(1);
+        verify(client).deleteWalletRequest(any(), any(), eq("some-user-id"), eq("some-stale-wallet-id"));
+        verify(client, never()).deleteWalletRequest(any(), any(), anyString(), eq("some-active-wallet-id"));
+        verify(client, never()).deleteWalletRequest(any(), any(), anyString(), eq("some-recent-wallet-id"));
+        assertThat(Files.readString(cursorFile)).isEqualTo(next);
+    }
+
+    @Test
+    public void testDoesNotStartWithoutConfiguredWorker() {
+        // When
+        Optional<PingOneCredentialsWalletSweeper> sweeper = PingOneCredentialsWalletSweeper.startConfigured(
+            new Properties(), client, pingOneWorkerService, realmLookup);
+
+        // Then
+        assertThat(sweeper).isEmpty();
+    }
+
+    @Test
+    public void testStartsConfiguredSweeper() throws Exception {
+        // Given
+        given(realmLookup.lookup("/alpha")).willReturn(realm);
+        given(pingOneWorkerService.getWorker(realm, "some-worker-id")).willReturn(Optional.of(worker));
+        given(pingOneWorkerService.getAccessTokenId(realm, worker)).willReturn("some-access-token");
+        given(client.listUsersRequest(any(), any(), any(), anyInt())).willReturn(json(object(
+            field("_embedded", object(field("users", array()))))));
+
+        Properties properties = new Properties();
+        properties.setProperty(PingOneCredentialsWalletSweeper.REALM_PROPERTY, "/alpha");
+        properties.setProperty(PingOneCredentialsWalletSweeper.WORKER_PROPERTY, "some-worker-id");
+        properties.setProperty(PingOneCredentialsWalletSweeper.CURSOR_FILE_PROPERTY,
+                               directory.resolve("cursor").toString());
+
+        // When
+        Optional<PingOneCredentialsWalletSweeper> sweeper = PingOneCredentialsWalletSweeper.startConfigured(
+            properties, client, pingOneWorkerService, realmLookup);
+
+        // Then
+        try {
+            assertThat(sweeper).isPresent();
+            verify(client, timeout(5000)).listUsersRequest(eq("some-access-token"), eq(worker), isNull(),
+                                                           eq(PingOneCredentialsWalletSweeper.PAGE_SIZE));
+        } finally {
+            sweeper.ifPresent(PingOneCredentialsWalletSweeper::stop);
+        }
+    }
+}